@@ -0,0 +1,356 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.client.cache.HeaderConstants;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * Given a particular HttpRequest, flush any cache entries of
+ * a {@link HttpAsyncCacheStorage} that this request would invalidate.
+ * Failures to look up or remove individual entries are logged and
+ * do not fail the operation as a whole.
+ */
+@Contract(threading = ThreadingBehavior.IMMUTABLE_CONDITIONAL)
+class AsyncCacheInvalidator {
+
+    private final HttpAsyncCacheStorage storage;
+    private final CacheKeyGenerator cacheKeyGenerator;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    AsyncCacheInvalidator(
+            final CacheKeyGenerator uriExtractor,
+            final HttpAsyncCacheStorage storage) {
+        this.cacheKeyGenerator = uriExtractor;
+        this.storage = storage;
+    }
+
+    /**
+     * Remove cache entries from the cache that are no longer fresh or
+     * have been invalidated in some way.
+     */
+    void flushInvalidatedCacheEntries(
+            final HttpHost host, final HttpRequest req, final FutureCallback<Void> callback) {
+        final String method = req.getRequestLine().getMethod();
+        if (HeaderConstants.HEAD_METHOD.equals(method)) {
+            // neither the request nor the cached entry can require invalidation
+            callback.completed(null);
+            return;
+        }
+        final String theUri = cacheKeyGenerator.getURI(host, req);
+        storage.getEntry(theUri, new FutureCallback<HttpCacheEntry>() {
+
+            @Override
+            public void completed(final HttpCacheEntry parent) {
+                flushInvalidatedCacheEntries(req, theUri, parent, callback);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                log.warn("could not retrieve entry from storage", ex);
+                flushInvalidatedCacheEntries(req, theUri, null, callback);
+            }
+
+            @Override
+            public void cancelled() {
+                flushInvalidatedCacheEntries(req, theUri, null, callback);
+            }
+
+        });
+    }
+
+    private void flushInvalidatedCacheEntries(
+            final HttpRequest req,
+            final String theUri,
+            final HttpCacheEntry parent,
+            final FutureCallback<Void> callback) {
+        final List<String> keys = new ArrayList<String>();
+        if (requestShouldNotBeCached(req) || shouldInvalidateHeadCacheEntry(req, parent)) {
+            log.debug("Invalidating parent cache entry: " + parent);
+            if (parent != null) {
+                keys.addAll(parent.getVariantMap().values());
+                keys.add(theUri);
+            }
+            if (requestShouldNotBeCached(req)) {
+                keys.add(PartialCacheEntryUpdater.getPartialCacheKey(theUri));
+            }
+            final URL reqURL = getAbsoluteURL(theUri);
+            if (reqURL == null) {
+                log.error("Couldn't transform request into valid URL");
+            } else {
+                final Header clHdr = req.getFirstHeader("Content-Location");
+                if (clHdr != null) {
+                    final String contentLocation = clHdr.getValue();
+                    URL clURL = getAbsoluteURL(contentLocation);
+                    if (clURL == null) {
+                        clURL = getRelativeURL(reqURL, contentLocation);
+                    }
+                    addKeyIfSameHost(reqURL, clURL, keys);
+                }
+                final Header lHdr = req.getFirstHeader("Location");
+                if (lHdr != null) {
+                    addKeyIfSameHost(reqURL, getAbsoluteURL(lHdr.getValue()), keys);
+                }
+            }
+        }
+        flushEntries(keys, callback);
+    }
+
+    private boolean shouldInvalidateHeadCacheEntry(final HttpRequest req, final HttpCacheEntry parentCacheEntry) {
+        return requestIsGet(req) && isAHeadCacheEntry(parentCacheEntry);
+    }
+
+    private boolean requestIsGet(final HttpRequest req) {
+        return req.getRequestLine().getMethod().equals((HeaderConstants.GET_METHOD));
+    }
+
+    private boolean isAHeadCacheEntry(final HttpCacheEntry parentCacheEntry) {
+        return parentCacheEntry != null && parentCacheEntry.getRequestMethod().equals(HeaderConstants.HEAD_METHOD);
+    }
+
+    private void flushEntries(final List<String> keys, final FutureCallback<Void> callback) {
+        if (keys.isEmpty()) {
+            callback.completed(null);
+            return;
+        }
+        final AtomicInteger outstanding = new AtomicInteger(keys.size());
+        final FutureCallback<Void> removeCallback = new FutureCallback<Void>() {
+
+            private void done() {
+                if (outstanding.decrementAndGet() == 0) {
+                    callback.completed(null);
+                }
+            }
+
+            @Override
+            public void completed(final Void result) {
+                done();
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                log.warn("unable to flush cache entry", ex);
+                done();
+            }
+
+            @Override
+            public void cancelled() {
+                done();
+            }
+
+        };
+        for (final String key: keys) {
+            storage.removeEntry(key, removeCallback);
+        }
+    }
+
+    private void addKeyIfSameHost(final URL requestURL, final URL targetURL, final List<String> keys) {
+        if (targetURL == null) {
+            return;
+        }
+        final URL canonicalTarget = getAbsoluteURL(cacheKeyGenerator.canonicalizeUri(targetURL.toString()));
+        if (canonicalTarget == null) {
+            return;
+        }
+        if (canonicalTarget.getAuthority().equalsIgnoreCase(requestURL.getAuthority())) {
+            keys.add(canonicalTarget.toString());
+        }
+    }
+
+    private URL getAbsoluteURL(final String uri) {
+        URL absURL = null;
+        try {
+            absURL = new URL(uri);
+        } catch (final MalformedURLException mue) {
+            // nop
+        }
+        return absURL;
+    }
+
+    private URL getRelativeURL(final URL reqURL, final String relUri) {
+        URL relURL = null;
+        try {
+            relURL = new URL(reqURL,relUri);
+        } catch (final MalformedURLException e) {
+            // nop
+        }
+        return relURL;
+    }
+
+    private boolean requestShouldNotBeCached(final HttpRequest req) {
+        final String method = req.getRequestLine().getMethod();
+        return !(HeaderConstants.GET_METHOD.equals(method) || HeaderConstants.HEAD_METHOD.equals(method));
+    }
+
+    /**
+     * Flushes entries that were invalidated by the given response
+     * received for the given host/request pair.
+     */
+    void flushInvalidatedCacheEntries(
+            final HttpHost host,
+            final HttpRequest request,
+            final HttpResponse response,
+            final FutureCallback<Void> callback) {
+        final int status = response.getStatusLine().getStatusCode();
+        if (status < 200 || status > 299) {
+            callback.completed(null);
+            return;
+        }
+        final URL reqURL = getAbsoluteURL(cacheKeyGenerator.getURI(host, request));
+        if (reqURL == null) {
+            callback.completed(null);
+            return;
+        }
+        final List<URL> locations = new ArrayList<URL>(2);
+        final URL contentLocation = getLocationURL(reqURL, response, "Content-Location");
+        if (contentLocation != null) {
+            locations.add(contentLocation);
+        }
+        final URL location = getLocationURL(reqURL, response, "Location");
+        if (location != null) {
+            locations.add(location);
+        }
+        flushLocationCacheEntries(reqURL, response, locations.iterator(), callback);
+    }
+
+    private void flushLocationCacheEntries(
+            final URL reqURL,
+            final HttpResponse response,
+            final Iterator<URL> locations,
+            final FutureCallback<Void> callback) {
+        if (!locations.hasNext()) {
+            callback.completed(null);
+            return;
+        }
+        final URL location = locations.next();
+        final String cacheKey = cacheKeyGenerator.canonicalizeUri(location.toString());
+        storage.getEntry(cacheKey, new FutureCallback<HttpCacheEntry>() {
+
+            @Override
+            public void completed(final HttpCacheEntry entry) {
+                final List<String> keys = new ArrayList<String>(1);
+                // do not invalidate if response is strictly older than entry
+                // or if the etags match
+                if (entry != null
+                        && !responseDateOlderThanEntryDate(response, entry)
+                        && responseAndEntryEtagsDiffer(response, entry)) {
+                    addKeyIfSameHost(reqURL, location, keys);
+                }
+                flushEntries(keys, new FutureCallback<Void>() {
+
+                    @Override
+                    public void completed(final Void result) {
+                        flushLocationCacheEntries(reqURL, response, locations, callback);
+                    }
+
+                    @Override
+                    public void failed(final Exception ex) {
+                        flushLocationCacheEntries(reqURL, response, locations, callback);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        flushLocationCacheEntries(reqURL, response, locations, callback);
+                    }
+
+                });
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                log.warn("could not retrieve entry from storage", ex);
+                flushLocationCacheEntries(reqURL, response, locations, callback);
+            }
+
+            @Override
+            public void cancelled() {
+                flushLocationCacheEntries(reqURL, response, locations, callback);
+            }
+
+        });
+    }
+
+    private URL getLocationURL(final URL reqURL, final HttpResponse response, final String headerName) {
+        final Header header = response.getFirstHeader(headerName);
+        if (header == null) {
+            return null;
+        }
+        final String location = header.getValue();
+        final URL canonURL = getAbsoluteURL(location);
+        if (canonURL != null) {
+            return canonURL;
+        }
+        return getRelativeURL(reqURL, location);
+    }
+
+    private boolean responseAndEntryEtagsDiffer(final HttpResponse response,
+            final HttpCacheEntry entry) {
+        final Header entryEtag = entry.getFirstHeader(HeaderConstants.ETAG);
+        final Header responseEtag = response.getFirstHeader(HeaderConstants.ETAG);
+        if (entryEtag == null || responseEtag == null) {
+            return false;
+        }
+        return (!entryEtag.getValue().equals(responseEtag.getValue()));
+    }
+
+    private boolean responseDateOlderThanEntryDate(final HttpResponse response,
+            final HttpCacheEntry entry) {
+        final Header entryDateHeader = entry.getFirstHeader(HTTP.DATE_HEADER);
+        final Header responseDateHeader = response.getFirstHeader(HTTP.DATE_HEADER);
+        if (entryDateHeader == null || responseDateHeader == null) {
+            /* be conservative; should probably flush */
+            return false;
+        }
+        final Date entryDate = DateUtils.parseDate(entryDateHeader.getValue());
+        final Date responseDate = DateUtils.parseDate(responseDateHeader.getValue());
+        if (entryDate == null || responseDate == null) {
+            return false;
+        }
+        return responseDate.before(entryDate);
+    }
+
+}
@@ -26,13 +26,13 @@
  */
 package org.apache.http.impl.client.cache;
 
-import java.util.concurrent.ExecutionException;
-
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.ProtocolException;
+import org.apache.http.client.cache.HeaderConstants;
 import org.apache.http.client.cache.HttpCacheContext;
 import org.apache.http.client.cache.HttpCacheEntry;
 import org.apache.http.client.methods.HttpRequestWrapper;
@@ -52,10 +52,12 @@ class AsynchronousAsyncValidationRequest implements Runnable {
     private final HttpCacheEntry cacheEntry;
     private final String identifier;
 
+    private volatile int retries;
+
     private final Log log = LogFactory.getLog(getClass());
 
     /**
-     * Used internally by {@link AsynchronousValidator} to schedule a
+     * Used internally by {@link AsynchronousAsyncValidator} to schedule a
      * revalidation.
      */
     AsynchronousAsyncValidationRequest(final AsynchronousAsyncValidator parent,
@@ -72,39 +74,82 @@ class AsynchronousAsyncValidationRequest implements Runnable {
 
     @Override
     public void run() {
-        try {
-            final FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>() {
+        if (!this.parent.acquire(this)) {
+            return;
+        }
+        final FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>() {
 
-                @Override
-                public void cancelled() {
-                }
+            @Override
+            public void cancelled() {
+                parent.jobFailed(AsynchronousAsyncValidationRequest.this, false);
+            }
 
-                @Override
-                public void completed(final HttpResponse httpResponse) {
+            @Override
+            public void completed(final HttpResponse httpResponse) {
+                final int statusCode = httpResponse.getStatusLine().getStatusCode();
+                if (isNotServerError(statusCode) && isNotStale(httpResponse)) {
+                    parent.jobSuccessful(AsynchronousAsyncValidationRequest.this);
+                } else {
+                    log.debug("Asynchronous revalidation failed with status " + statusCode);
+                    parent.jobFailed(AsynchronousAsyncValidationRequest.this, true);
                 }
+            }
 
-                @Override
-                public void failed(final Exception e) {
-                    log.debug("Asynchronous revalidation failed", e);
-                }
-            };
-            final BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(callback);
+            @Override
+            public void failed(final Exception e) {
+                log.debug("Asynchronous revalidation failed", e);
+                parent.jobFailed(AsynchronousAsyncValidationRequest.this, true);
+            }
+        };
+        final BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(callback);
+        try {
             this.cachingAsyncClient.revalidateCacheEntry(future, this.target, this.request,
                     this.clientContext, this.cacheEntry);
-            future.get();
         } catch (final ProtocolException pe) {
             this.log.error("ProtocolException thrown during asynchronous revalidation", pe);
-        } catch (final ExecutionException e) {
-            this.log.error("Exception thrown during asynchronous revalidation", e.getCause());
-        } catch (final InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
-            this.parent.markComplete(this.identifier);
+            this.parent.jobFailed(this, false);
+        } catch (final RuntimeException re) {
+            this.log.error("RuntimeException thrown during asynchronous revalidation: " + re);
+            future.failed(re);
+        }
+    }
+
+    /**
+     * Return whether the status code indicates a server error or not.
+     */
+    static boolean isNotServerError(final int statusCode) {
+        return statusCode < 500;
+    }
+
+    /**
+     * Try to detect if the returned response is generated from a stale cache entry.
+     */
+    static boolean isNotStale(final HttpResponse httpResponse) {
+        final Header[] warnings = httpResponse.getHeaders(HeaderConstants.WARNING);
+        for (final Header warning : warnings) {
+            // 110 = Response is stale, 111 = Revalidation failed
+            final String warningValue = warning.getValue();
+            if (warningValue.startsWith("110") || warningValue.startsWith("111")) {
+                return false;
+            }
         }
+        return true;
+    }
+
+    HttpHost getTarget() {
+        return this.target;
     }
 
     String getIdentifier() {
         return this.identifier;
     }
 
+    int getRetries() {
+        return this.retries;
+    }
+
+    void incrementRetries() {
+        this.retries++;
+    }
+
 }
@@ -27,13 +27,15 @@
 package org.apache.http.impl.client.cache;
 
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,94 +43,248 @@ import org.apache.http.HttpHost;
 import org.apache.http.client.cache.HttpCacheContext;
 import org.apache.http.client.cache.HttpCacheEntry;
 import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.util.Args;
 
 /**
  * Class used for asynchronous revalidations to be used when the "stale-
- * while-revalidate" directive is present
+ * while-revalidate" directive is present.
+ * <p>
+ * Revalidation requests are executed by the non-blocking backend of
+ * the caching client directly and complete on its I/O dispatch threads.
+ * The number of revalidations in progress per origin server is bounded,
+ * as is the total number of pending revalidations. Revalidations beyond
+ * either limit are dropped. Failed revalidations are retried with
+ * an exponential back-off delay.
  */
 class AsynchronousAsyncValidator {
+
+    static final int DEFAULT_MAX_RETRIES = 3;
+
     private final CachingHttpAsyncClient cachingAsyncClient;
-    private final ExecutorService executor;
+    private final int maxPerOrigin;
+    private final int maxQueued;
+    private final int maxRetries;
+    private final long initialDelayMillis;
+    private final long backOffRate;
+    private final long maxDelayMillis;
     private final Set<String> queued;
+    private final ConcurrentMap<HttpHost, AtomicInteger> inFlight;
     private final CacheKeyGenerator cacheKeyGenerator;
+    private final FailureCache failureCache;
+    private final AtomicLong completed;
+    private final AtomicLong dropped;
+
+    private ScheduledExecutorService scheduler;
 
     private final Log log = LogFactory.getLog(getClass());
 
     /**
      * Create AsynchronousValidator which will make revalidation requests using
-     * the supplied {@link CachingHttpAsyncClient}, and a {@link ThreadPoolExecutor}
-     * generated according to the thread pool settings provided in the given
-     * {@link CacheConfig}.
+     * the supplied {@link CachingHttpAsyncClient}.
      *
      * @param cachingClient
      *            used to execute asynchronous requests
      * @param config
-     *            specifies thread pool settings. See
-     *            {@link CacheConfig#getAsynchronousWorkersMax()},
-     *            {@link CacheConfig#getAsynchronousWorkersCore()},
-     *            {@link CacheConfig#getAsynchronousWorkerIdleLifetimeSecs()},
-     *            and {@link CacheConfig#getRevalidationQueueSize()}.
+     *            specifies revalidation limits. See
+     *            {@link CacheConfig#getAsynchronousWorkersMax()} for the maximum
+     *            number of revalidations in progress per origin server and
+     *            {@link CacheConfig#getRevalidationQueueSize()} for the maximum
+     *            number of pending revalidations.
      */
     public AsynchronousAsyncValidator(final CachingHttpAsyncClient cachingClient, final CacheConfig config) {
-        this(cachingClient, new ThreadPoolExecutor(config.getAsynchronousWorkersCore(),
-                config.getAsynchronousWorkersMax(), config.getAsynchronousWorkerIdleLifetimeSecs(),
-                TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
-                        config.getRevalidationQueueSize())));
+        this(cachingClient,
+                config.getAsynchronousWorkersMax(),
+                config.getRevalidationQueueSize(),
+                DEFAULT_MAX_RETRIES,
+                ExponentialBackOffSchedulingStrategy.DEFAULT_INITIAL_EXPIRY_IN_MILLIS,
+                ExponentialBackOffSchedulingStrategy.DEFAULT_BACK_OFF_RATE,
+                ExponentialBackOffSchedulingStrategy.DEFAULT_MAX_EXPIRY_IN_MILLIS);
     }
 
-    /**
-     * Create AsynchronousValidator which will make revalidation requests using
-     * the supplied {@link CachingHttpAsyncClient} and {@link ExecutorService}.
-     *
-     * @param cachingClient
-     *            used to execute asynchronous requests
-     * @param executor
-     *            used to manage a thread pool of revalidation workers
-     */
-    AsynchronousAsyncValidator(final CachingHttpAsyncClient cachingClient, final ExecutorService executor) {
-        this.cachingAsyncClient = cachingClient;
-        this.executor = executor;
-        this.queued = new HashSet<String>();
+    AsynchronousAsyncValidator(
+            final CachingHttpAsyncClient cachingClient,
+            final int maxPerOrigin,
+            final int maxQueued,
+            final int maxRetries,
+            final long initialDelayMillis,
+            final long backOffRate,
+            final long maxDelayMillis) {
+        this.cachingAsyncClient = Args.notNull(cachingClient, "Caching client");
+        this.maxPerOrigin = Args.positive(maxPerOrigin, "Max revalidations per origin");
+        this.maxQueued = Args.positive(maxQueued, "Max queued revalidations");
+        this.maxRetries = Args.notNegative(maxRetries, "Max retries");
+        this.initialDelayMillis = Args.notNegative(initialDelayMillis, "Initial delay");
+        this.backOffRate = Args.notNegative(backOffRate, "Back off rate");
+        this.maxDelayMillis = Args.notNegative(maxDelayMillis, "Max delay");
+        this.queued = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.inFlight = new ConcurrentHashMap<HttpHost, AtomicInteger>();
         this.cacheKeyGenerator = new CacheKeyGenerator();
+        this.failureCache = new DefaultFailureCache();
+        this.completed = new AtomicLong();
+        this.dropped = new AtomicLong();
     }
 
     /**
      * Schedules an asynchronous revalidation
      */
-    public synchronized void revalidateCacheEntry(final HttpHost target, final HttpRequestWrapper request,
+    public void revalidateCacheEntry(final HttpHost target, final HttpRequestWrapper request,
             final HttpCacheContext clientContext, final HttpCacheEntry entry) {
         // getVariantURI will fall back on getURI if no variants exist
         final String uri = this.cacheKeyGenerator.getVariantURI(target, request, entry);
 
-        if (!this.queued.contains(uri)) {
-            final AsynchronousAsyncValidationRequest asyncRevalidationRequest = new AsynchronousAsyncValidationRequest(
-                    this, this.cachingAsyncClient, target, request, clientContext, entry, uri);
+        if (this.queued.contains(uri)) {
+            return;
+        }
+        if (this.queued.size() >= this.maxQueued) {
+            this.dropped.incrementAndGet();
+            this.log.debug("Revalidation for [" + uri + "] not scheduled: too many pending revalidations");
+            return;
+        }
+        if (!this.queued.add(uri)) {
+            return;
+        }
+        final AsynchronousAsyncValidationRequest asyncRevalidationRequest = new AsynchronousAsyncValidationRequest(
+                this, this.cachingAsyncClient, target, request, clientContext, entry, uri);
+        final long delay = calculateDelayInMillis(this.failureCache.getErrorCount(uri));
+        if (delay > 0) {
+            getScheduler().schedule(asyncRevalidationRequest, delay, TimeUnit.MILLISECONDS);
+        } else {
+            asyncRevalidationRequest.run();
+        }
+    }
 
-            try {
-                this.executor.execute(asyncRevalidationRequest);
-                this.queued.add(uri);
-            } catch (final RejectedExecutionException ree) {
-                this.log.debug("Revalidation for [" + uri + "] not scheduled: " + ree);
+    /**
+     * Claims a revalidation slot for the origin server of the given request.
+     * Meant to be called by {@link AsynchronousAsyncValidationRequest#run()}
+     * before executing the revalidation. If no slot is available
+     * the revalidation is dropped.
+     *
+     * @return {@code true} if the revalidation may proceed.
+     */
+    boolean acquire(final AsynchronousAsyncValidationRequest revalidationRequest) {
+        final HttpHost target = revalidationRequest.getTarget();
+        AtomicInteger count = this.inFlight.get(target);
+        if (count == null) {
+            final AtomicInteger newCount = new AtomicInteger();
+            count = this.inFlight.putIfAbsent(target, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        for (;;) {
+            final int current = count.get();
+            if (current >= this.maxPerOrigin) {
+                this.dropped.incrementAndGet();
+                this.log.debug("Revalidation for [" + revalidationRequest.getIdentifier()
+                        + "] not executed: too many revalidations in progress for " + target);
+                markComplete(revalidationRequest.getIdentifier());
+                return false;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return true;
             }
         }
     }
 
+    private void release(final AsynchronousAsyncValidationRequest revalidationRequest) {
+        final AtomicInteger count = this.inFlight.get(revalidationRequest.getTarget());
+        if (count != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    /**
+     * The revalidation was successful, thus the number of consecutive
+     * failed attempts is reset to zero. Meant to be called by
+     * {@link AsynchronousAsyncValidationRequest} once the revalidation
+     * has completed.
+     */
+    void jobSuccessful(final AsynchronousAsyncValidationRequest revalidationRequest) {
+        release(revalidationRequest);
+        this.failureCache.resetErrorCount(revalidationRequest.getIdentifier());
+        this.completed.incrementAndGet();
+        markComplete(revalidationRequest.getIdentifier());
+    }
+
+    /**
+     * The revalidation failed, thus the number of consecutive failed attempts
+     * is increased and the revalidation gets retried after a delay unless
+     * it has been retried too often already. Meant to be called by
+     * {@link AsynchronousAsyncValidationRequest} once the revalidation
+     * has failed.
+     *
+     * @param retry whether or not the failure may be transient.
+     */
+    void jobFailed(final AsynchronousAsyncValidationRequest revalidationRequest, final boolean retry) {
+        release(revalidationRequest);
+        final String identifier = revalidationRequest.getIdentifier();
+        this.failureCache.increaseErrorCount(identifier);
+        if (retry && revalidationRequest.getRetries() < this.maxRetries) {
+            revalidationRequest.incrementRetries();
+            final long delay = calculateDelayInMillis(this.failureCache.getErrorCount(identifier));
+            this.log.debug("Retrying revalidation for [" + identifier + "] in " + delay + " ms");
+            getScheduler().schedule(revalidationRequest, delay, TimeUnit.MILLISECONDS);
+        } else {
+            this.dropped.incrementAndGet();
+            this.log.debug("Revalidation for [" + identifier + "] abandoned");
+            markComplete(identifier);
+        }
+    }
+
     /**
      * Removes an identifier from the internal list of revalidation jobs in
-     * progress. This is meant to be called by
-     * {@link AsynchronousValidationRequest#run()} once the revalidation is
-     * complete, using the identifier passed in during constructions.
+     * progress.
      */
-    synchronized void markComplete(final String identifier) {
+    void markComplete(final String identifier) {
         this.queued.remove(identifier);
     }
 
+    long calculateDelayInMillis(final int consecutiveFailedAttempts) {
+        if (consecutiveFailedAttempts > 0) {
+            final long delay = (long) (this.initialDelayMillis
+                    * Math.pow(this.backOffRate, consecutiveFailedAttempts - 1));
+            return Math.min(delay, this.maxDelayMillis);
+        }
+        return 0;
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (this.scheduler == null) {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "httpclient-cache-revalidation");
+                    t.setDaemon(true);
+                    return t;
+                }
+
+            });
+            executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            this.scheduler = executor;
+        }
+        return this.scheduler;
+    }
+
     Set<String> getScheduledIdentifiers() {
         return Collections.unmodifiableSet(this.queued);
     }
 
-    ExecutorService getExecutor() {
-        return this.executor;
+    /**
+     * Returns the number of revalidations that have completed successfully.
+     */
+    long getCompleted() {
+        return this.completed.get();
+    }
+
+    /**
+     * Returns the number of revalidations that have been dropped, either
+     * because too many revalidations were pending or in progress or
+     * because they failed too often.
+     */
+    long getDropped() {
+        return this.dropped.get();
     }
 
 }
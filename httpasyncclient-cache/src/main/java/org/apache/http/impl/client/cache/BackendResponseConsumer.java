@@ -0,0 +1,150 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.Args;
+
+/**
+ * Response consumer used for requests executed on behalf of the caching
+ * client. Response content is read straight into a {@link ResourceWriter},
+ * so that it can be stored in the cache without first being buffered
+ * and then copied into a cache resource. Content of responses too large
+ * to be cached is still collected for the caller.
+ * <p>
+ * The response is complete only once all of its content has been received.
+ * Content is deliberately not streamed through to callers expecting
+ * an {@link HttpResponse}, see {@link CachingHttpAsyncClient};
+ * {@link CachingResponseConsumer} streams content to a caller's consumer.
+ */
+class BackendResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+    private final long maxObjectSize;
+
+    private volatile HttpResponse response;
+    private volatile ResourceWriter content;
+
+    BackendResponseConsumer(final long maxObjectSize) {
+        super();
+        this.maxObjectSize = maxObjectSize;
+    }
+
+    @Override
+    protected void onResponseReceived(final HttpResponse response) {
+        this.response = response;
+    }
+
+    @Override
+    protected void onEntityEnclosed(final HttpEntity entity, final ContentType contentType) {
+        final ResourceWriter writer = new ResourceWriter(this.maxObjectSize, entity.getContentLength(), true);
+        this.response.setEntity(new ResourceWriterEntity(entity, writer));
+        this.content = writer;
+    }
+
+    @Override
+    protected void onContentReceived(final ContentDecoder decoder, final IOControl ioControl) throws IOException {
+        this.content.consume(decoder);
+    }
+
+    /**
+     * Returns the content of the response or {@code null} if the response
+     * does not enclose an entity.
+     */
+    ResourceWriter getContent() {
+        return this.content;
+    }
+
+    @Override
+    protected HttpResponse buildResult(final HttpContext context) {
+        return this.response;
+    }
+
+    @Override
+    protected void releaseResources() {
+    }
+
+    static class ResourceWriterEntity extends AbstractHttpEntity {
+
+        private final ResourceWriter writer;
+
+        ResourceWriterEntity(final HttpEntity entity, final ResourceWriter writer) {
+            super();
+            this.writer = writer;
+            setChunked(entity.isChunked());
+            setContentType(entity.getContentType());
+            setContentEncoding(entity.getContentEncoding());
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return this.writer.length();
+        }
+
+        @Override
+        public InputStream getContent() {
+            return this.writer.getInputStream();
+        }
+
+        @Override
+        public void writeTo(final OutputStream outStream) throws IOException {
+            Args.notNull(outStream, "Output stream");
+            final InputStream inStream = getContent();
+            try {
+                final byte[] tmp = new byte[4096];
+                int l;
+                while ((l = inStream.read(tmp)) != -1) {
+                    outStream.write(tmp, 0, l);
+                }
+            } finally {
+                inStream.close();
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+
+    }
+
+}
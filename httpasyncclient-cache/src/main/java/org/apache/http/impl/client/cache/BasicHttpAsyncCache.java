@@ -0,0 +1,658 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.HeaderConstants;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.client.cache.ResourceFactory;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * {@link HttpAsyncCache} backed by a {@link HttpAsyncCacheStorage}. Cache
+ * semantics are the same as those of {@link BasicHttpCache}; storage
+ * operations are composed by means of callbacks, so that no thread is
+ * held up waiting for the storage to respond.
+ * <p>
+ * Response content is read into resources created by the given
+ * {@link ResourceFactory} on the thread completing the response. Content of
+ * responses received by the async client is already held in memory, so
+ * a heap based factory does not block.
+ */
+class BasicHttpAsyncCache implements HttpAsyncCache {
+
+    private static final Set<String> safeRequestMethods = new HashSet<String>(
+            Arrays.asList(HeaderConstants.HEAD_METHOD,
+                    HeaderConstants.GET_METHOD, HeaderConstants.OPTIONS_METHOD,
+                    HeaderConstants.TRACE_METHOD));
+
+    private final CacheKeyGenerator uriExtractor;
+    private final ResourceFactory resourceFactory;
+    private final long maxObjectSizeBytes;
+    private final CacheEntryUpdater cacheEntryUpdater;
+    private final PartialCacheEntryUpdater partialEntryUpdater;
+    private final CachedHttpResponseGenerator responseGenerator;
+    private final AsyncCacheInvalidator cacheInvalidator;
+    private final HttpAsyncCacheStorage storage;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    BasicHttpAsyncCache(
+            final ResourceFactory resourceFactory,
+            final HttpAsyncCacheStorage storage,
+            final CacheConfig config,
+            final CacheKeyGenerator uriExtractor) {
+        this.resourceFactory = resourceFactory;
+        this.uriExtractor = uriExtractor;
+        this.cacheEntryUpdater = new CacheEntryUpdater(resourceFactory);
+        this.maxObjectSizeBytes = config.getMaxObjectSize();
+        this.partialEntryUpdater = new PartialCacheEntryUpdater(resourceFactory, this.maxObjectSizeBytes);
+        this.responseGenerator = new CachedHttpResponseGenerator();
+        this.storage = storage;
+        this.cacheInvalidator = new AsyncCacheInvalidator(uriExtractor, storage);
+    }
+
+    BasicHttpAsyncCache(
+            final ResourceFactory resourceFactory,
+            final HttpAsyncCacheStorage storage,
+            final CacheConfig config) {
+        this(resourceFactory, storage, config, new CacheKeyGenerator());
+    }
+
+    @Override
+    public void flushCacheEntriesFor(
+            final HttpHost host, final HttpRequest request, final FutureCallback<Void> callback) {
+        if (!safeRequestMethods.contains(request.getRequestLine().getMethod())) {
+            final String uri = uriExtractor.getURI(host, request);
+            storage.removeEntry(uri, new FutureCallback<Void>() {
+
+                @Override
+                public void completed(final Void result) {
+                    storage.removeEntry(PartialCacheEntryUpdater.getPartialCacheKey(uri), callback);
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    callback.failed(ex);
+                }
+
+                @Override
+                public void cancelled() {
+                    callback.cancelled();
+                }
+
+            });
+        } else {
+            callback.completed(null);
+        }
+    }
+
+    @Override
+    public void flushInvalidatedCacheEntriesFor(
+            final HttpHost host, final HttpRequest request, final FutureCallback<Void> callback) {
+        cacheInvalidator.flushInvalidatedCacheEntries(host, request, callback);
+    }
+
+    @Override
+    public void flushInvalidatedCacheEntriesFor(
+            final HttpHost host, final HttpRequest request, final HttpResponse response,
+            final FutureCallback<Void> callback) {
+        if (!safeRequestMethods.contains(request.getRequestLine().getMethod())) {
+            cacheInvalidator.flushInvalidatedCacheEntries(host, request, response, callback);
+        } else {
+            callback.completed(null);
+        }
+    }
+
+    void storeInCache(
+            final HttpHost target, final HttpRequest request, final HttpCacheEntry entry,
+            final FutureCallback<Void> callback) {
+        if (entry.hasVariants()) {
+            storeVariantEntry(target, request, entry, callback);
+        } else {
+            storage.putEntry(uriExtractor.getURI(target, request), entry, callback);
+        }
+    }
+
+    void storeVariantEntry(
+            final HttpHost target,
+            final HttpRequest req,
+            final HttpCacheEntry entry,
+            final FutureCallback<Void> callback) {
+        final String parentURI = uriExtractor.getURI(target, req);
+        final String variantURI = uriExtractor.getVariantURI(target, req, entry);
+        storage.putEntry(variantURI, entry, new FutureCallback<Void>() {
+
+            @Override
+            public void completed(final Void result) {
+                updateParentEntry(parentURI, req, entry,
+                        uriExtractor.getVariantKey(req, entry), variantURI, callback);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                callback.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                callback.cancelled();
+            }
+
+        });
+    }
+
+    private void updateParentEntry(
+            final String parentCacheKey,
+            final HttpRequest req,
+            final HttpCacheEntry entry,
+            final String variantKey,
+            final String variantCacheKey,
+            final FutureCallback<Void> callback) {
+        final HttpCacheUpdateCallback updateCallback = new HttpCacheUpdateCallback() {
+
+            @Override
+            public HttpCacheEntry update(final HttpCacheEntry existing) throws IOException {
+                return doGetUpdatedParentEntry(
+                        req.getRequestLine().getUri(), existing, entry,
+                        variantKey, variantCacheKey);
+            }
+
+        };
+        storage.updateEntry(parentCacheKey, updateCallback, new FutureCallback<Void>() {
+
+            @Override
+            public void completed(final Void result) {
+                callback.completed(null);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                log.warn("Could not update key [" + parentCacheKey + "]", ex);
+                callback.completed(null);
+            }
+
+            @Override
+            public void cancelled() {
+                callback.cancelled();
+            }
+
+        });
+    }
+
+    @Override
+    public void reuseVariantEntryFor(
+            final HttpHost target, final HttpRequest req, final Variant variant,
+            final FutureCallback<Void> callback) {
+        final String parentCacheKey = uriExtractor.getURI(target, req);
+        final HttpCacheEntry entry = variant.getEntry();
+        final String variantKey = uriExtractor.getVariantKey(req, entry);
+        updateParentEntry(parentCacheKey, req, entry, variantKey, variant.getCacheKey(), callback);
+    }
+
+    boolean isIncompleteResponse(final HttpResponse resp, final Resource resource) {
+        final int status = resp.getStatusLine().getStatusCode();
+        if (status != HttpStatus.SC_OK
+            && status != HttpStatus.SC_PARTIAL_CONTENT) {
+            return false;
+        }
+        final Header hdr = resp.getFirstHeader(HTTP.CONTENT_LEN);
+        if (hdr == null) {
+            return false;
+        }
+        final int contentLength;
+        try {
+            contentLength = Integer.parseInt(hdr.getValue());
+        } catch (final NumberFormatException nfe) {
+            return false;
+        }
+        if (resource == null) {
+            return false;
+        }
+        return (resource.length() < contentLength);
+    }
+
+    CloseableHttpResponse generateIncompleteResponseError(
+            final HttpResponse response, final Resource resource) {
+        final Integer contentLength = Integer.valueOf(response.getFirstHeader(HTTP.CONTENT_LEN).getValue());
+        final HttpResponse error =
+            new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_BAD_GATEWAY, "Bad Gateway");
+        error.setHeader("Content-Type","text/plain;charset=UTF-8");
+        final String msg = String.format("Received incomplete response " +
+                "with Content-Length %d but actual body length %d",
+                contentLength, resource.length());
+        final byte[] msgBytes = msg.getBytes();
+        error.setHeader("Content-Length", Integer.toString(msgBytes.length));
+        error.setEntity(new ByteArrayEntity(msgBytes));
+        return Proxies.enhanceResponse(error);
+    }
+
+    HttpCacheEntry doGetUpdatedParentEntry(
+            final String requestId,
+            final HttpCacheEntry existing,
+            final HttpCacheEntry entry,
+            final String variantKey,
+            final String variantCacheKey) throws IOException {
+        HttpCacheEntry src = existing;
+        if (src == null) {
+            src = entry;
+        }
+
+        Resource resource = null;
+        if (src.getResource() != null) {
+            resource = resourceFactory.copy(requestId, src.getResource());
+        }
+        final Map<String,String> variantMap = new HashMap<String,String>(src.getVariantMap());
+        variantMap.put(variantKey, variantCacheKey);
+        return new HttpCacheEntry(
+                src.getRequestDate(),
+                src.getResponseDate(),
+                src.getStatusLine(),
+                src.getAllHeaders(),
+                resource,
+                variantMap,
+                src.getRequestMethod());
+    }
+
+    @Override
+    public void updateCacheEntry(
+            final HttpHost target, final HttpRequest request, final HttpCacheEntry stale,
+            final HttpResponse originResponse, final Date requestSent, final Date responseReceived,
+            final FutureCallback<HttpCacheEntry> callback) {
+        final HttpCacheEntry updatedEntry;
+        try {
+            updatedEntry = cacheEntryUpdater.updateCacheEntry(
+                    request.getRequestLine().getUri(),
+                    stale,
+                    requestSent,
+                    responseReceived,
+                    originResponse);
+        } catch (final IOException ex) {
+            callback.failed(ex);
+            return;
+        }
+        storeInCache(target, request, updatedEntry, new ResultCallback<HttpCacheEntry>(updatedEntry, callback));
+    }
+
+    @Override
+    public void updateVariantCacheEntry(
+            final HttpHost target, final HttpRequest request, final HttpCacheEntry stale,
+            final HttpResponse originResponse, final Date requestSent, final Date responseReceived,
+            final String cacheKey, final FutureCallback<HttpCacheEntry> callback) {
+        final HttpCacheEntry updatedEntry;
+        try {
+            updatedEntry = cacheEntryUpdater.updateCacheEntry(
+                    request.getRequestLine().getUri(),
+                    stale,
+                    requestSent,
+                    responseReceived,
+                    originResponse);
+        } catch (final IOException ex) {
+            callback.failed(ex);
+            return;
+        }
+        storage.putEntry(cacheKey, updatedEntry, new ResultCallback<HttpCacheEntry>(updatedEntry, callback));
+    }
+
+    @Override
+    public void cacheAndReturnResponse(
+            final HttpHost host,
+            final HttpRequest request,
+            final CloseableHttpResponse originResponse,
+            final Date requestSent,
+            final Date responseReceived,
+            final FutureCallback<CloseableHttpResponse> callback) {
+        final SizeLimitedResponseReader responseReader = new SizeLimitedResponseReader(
+                resourceFactory, maxObjectSizeBytes, request, originResponse);
+        final HttpCacheEntry entry;
+        try {
+            try {
+                responseReader.readResponse();
+                if (responseReader.isLimitReached()) {
+                    callback.completed(responseReader.getReconstructedResponse());
+                    return;
+                }
+            } catch (final IOException ex) {
+                originResponse.close();
+                throw ex;
+            }
+            final Resource resource = responseReader.getResource();
+            originResponse.close();
+            if (isIncompleteResponse(originResponse, resource)) {
+                callback.completed(generateIncompleteResponseError(originResponse, resource));
+                return;
+            }
+            entry = new HttpCacheEntry(
+                    requestSent,
+                    responseReceived,
+                    originResponse.getStatusLine(),
+                    originResponse.getAllHeaders(),
+                    resource,
+                    request.getRequestLine().getMethod());
+        } catch (final IOException ex) {
+            callback.failed(ex);
+            return;
+        }
+        storeAndReturnResponse(host, request, entry, callback);
+    }
+
+    @Override
+    public void cacheAndReturnResponse(
+            final HttpHost host,
+            final HttpRequest request,
+            final CloseableHttpResponse originResponse,
+            final ResourceWriter content,
+            final Date requestSent,
+            final Date responseReceived,
+            final FutureCallback<CloseableHttpResponse> callback) {
+        final HttpCacheEntry entry;
+        try {
+            final Resource resource = content.toResource(resourceFactory, request.getRequestLine().getUri());
+            if (isIncompleteResponse(originResponse, resource)) {
+                callback.completed(generateIncompleteResponseError(originResponse, resource));
+                return;
+            }
+            entry = new HttpCacheEntry(
+                    requestSent,
+                    responseReceived,
+                    originResponse.getStatusLine(),
+                    originResponse.getAllHeaders(),
+                    resource,
+                    request.getRequestLine().getMethod());
+        } catch (final IOException ex) {
+            callback.failed(ex);
+            return;
+        }
+        storeAndReturnResponse(host, request, entry, callback);
+    }
+
+    private void storeAndReturnResponse(
+            final HttpHost host,
+            final HttpRequest request,
+            final HttpCacheEntry entry,
+            final FutureCallback<CloseableHttpResponse> callback) {
+        storeInCache(host, request, entry, new FutureCallback<Void>() {
+
+            @Override
+            public void completed(final Void result) {
+                callback.completed(responseGenerator.generateResponse(
+                        HttpRequestWrapper.wrap(request, host), entry));
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                callback.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                callback.cancelled();
+            }
+
+        });
+    }
+
+    @Override
+    public void getPartialCacheEntry(
+            final HttpHost host, final HttpRequest request, final FutureCallback<HttpCacheEntry> callback) {
+        storage.getEntry(PartialCacheEntryUpdater.getPartialCacheKey(uriExtractor.getURI(host, request)), callback);
+    }
+
+    @Override
+    public void cachePartialResponse(
+            final HttpHost host,
+            final HttpRequest request,
+            final HttpResponse originResponse,
+            final ResourceWriter content,
+            final Date requestSent,
+            final Date responseReceived,
+            final FutureCallback<HttpCacheEntry> callback) {
+        final String uri = uriExtractor.getURI(host, request);
+        final String partialKey = PartialCacheEntryUpdater.getPartialCacheKey(uri);
+        if (!partialEntryUpdater.isCacheable(originResponse, content)) {
+            // the most recent partial response supersedes ranges it cannot be combined with
+            storage.removeEntry(partialKey, new ResultCallback<HttpCacheEntry>(null, callback));
+            return;
+        }
+        final String requestId = request.getRequestLine().getUri();
+        final AtomicReference<HttpCacheEntry> updated = new AtomicReference<HttpCacheEntry>();
+        final HttpCacheUpdateCallback updateCallback = new HttpCacheUpdateCallback() {
+
+            @Override
+            public HttpCacheEntry update(final HttpCacheEntry existing) throws IOException {
+                final HttpCacheEntry entry = partialEntryUpdater.updatePartialCacheEntry(
+                        requestId, existing, originResponse, content, requestSent, responseReceived);
+                updated.set(entry);
+                return entry;
+            }
+
+        };
+        storage.updateEntry(partialKey, updateCallback, new FutureCallback<Void>() {
+
+            @Override
+            public void completed(final Void result) {
+                final HttpCacheEntry entry = updated.get();
+                if (entry != null && PartialCacheEntryUpdater.isComplete(entry)) {
+                    storeCompleteEntry(uri, partialKey, PartialCacheEntryUpdater.toCompleteEntry(entry), callback);
+                } else {
+                    callback.completed(entry);
+                }
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                log.warn("Could not update key [" + partialKey + "]", ex);
+                callback.completed(updated.get());
+            }
+
+            @Override
+            public void cancelled() {
+                callback.cancelled();
+            }
+
+        });
+    }
+
+    /**
+     * Replaces a partial entry that has come to hold all ranges of
+     * the representation with a regular entry.
+     */
+    private void storeCompleteEntry(
+            final String uri,
+            final String partialKey,
+            final HttpCacheEntry entry,
+            final FutureCallback<HttpCacheEntry> callback) {
+        storage.putEntry(uri, entry, new FutureCallback<Void>() {
+
+            @Override
+            public void completed(final Void result) {
+                storage.removeEntry(partialKey, new ResultCallback<HttpCacheEntry>(entry, callback));
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                log.warn("Could not update key [" + uri + "]", ex);
+                callback.completed(entry);
+            }
+
+            @Override
+            public void cancelled() {
+                callback.cancelled();
+            }
+
+        });
+    }
+
+    @Override
+    public void getCacheEntry(
+            final HttpHost host, final HttpRequest request, final FutureCallback<HttpCacheEntry> callback) {
+        storage.getEntry(uriExtractor.getURI(host, request), new FutureCallback<HttpCacheEntry>() {
+
+            @Override
+            public void completed(final HttpCacheEntry root) {
+                if (root == null || !root.hasVariants()) {
+                    callback.completed(root);
+                    return;
+                }
+                final String variantCacheKey = root.getVariantMap().get(uriExtractor.getVariantKey(request, root));
+                if (variantCacheKey == null) {
+                    callback.completed(null);
+                    return;
+                }
+                storage.getEntry(variantCacheKey, callback);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                callback.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                callback.cancelled();
+            }
+
+        });
+    }
+
+    @Override
+    public void getVariantCacheEntriesWithEtags(
+            final HttpHost host, final HttpRequest request, final FutureCallback<Map<String, Variant>> callback) {
+        storage.getEntry(uriExtractor.getURI(host, request), new FutureCallback<HttpCacheEntry>() {
+
+            @Override
+            public void completed(final HttpCacheEntry root) {
+                final Map<String, Variant> variants = new HashMap<String, Variant>();
+                if (root == null || !root.hasVariants()) {
+                    callback.completed(variants);
+                    return;
+                }
+                addVariantsWithEtag(root.getVariantMap().entrySet().iterator(), variants, callback);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                callback.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                callback.cancelled();
+            }
+
+        });
+    }
+
+    private void addVariantsWithEtag(
+            final Iterator<Map.Entry<String, String>> iterator,
+            final Map<String, Variant> variants,
+            final FutureCallback<Map<String, Variant>> callback) {
+        if (!iterator.hasNext()) {
+            callback.completed(variants);
+            return;
+        }
+        final Map.Entry<String, String> variant = iterator.next();
+        final String variantKey = variant.getKey();
+        final String variantCacheKey = variant.getValue();
+        storage.getEntry(variantCacheKey, new FutureCallback<HttpCacheEntry>() {
+
+            @Override
+            public void completed(final HttpCacheEntry entry) {
+                if (entry != null) {
+                    final Header etagHeader = entry.getFirstHeader(HeaderConstants.ETAG);
+                    if (etagHeader != null) {
+                        variants.put(etagHeader.getValue(), new Variant(variantKey, variantCacheKey, entry));
+                    }
+                }
+                addVariantsWithEtag(iterator, variants, callback);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                callback.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                callback.cancelled();
+            }
+
+        });
+    }
+
+    static class ResultCallback<T> implements FutureCallback<Void> {
+
+        private final T result;
+        private final FutureCallback<T> callback;
+
+        ResultCallback(final T result, final FutureCallback<T> callback) {
+            this.result = result;
+            this.callback = callback;
+        }
+
+        @Override
+        public void completed(final Void v) {
+            this.callback.completed(this.result);
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            this.callback.failed(ex);
+        }
+
+        @Override
+        public void cancelled() {
+            this.callback.cancelled();
+        }
+
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Range of bytes of a representation, as specified by the {@code Range}
+ * and {@code Content-Range} headers. Only single ranges of bytes are
+ * supported.
+ * <p>
+ * Ranges parsed from a {@code Range} header may be open ended or refer to
+ * a suffix of the representation; they need to be resolved against the
+ * length of the representation before use. Resolved ranges are given by
+ * the positions of their first and last byte, both inclusive.
+ */
+class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes";
+
+    private final long first;
+    private final long last;
+
+    /**
+     * @param first position of the first byte or {@code -1} for a suffix range.
+     * @param last position of the last byte, {@code -1} for an open ended range,
+     *   or the suffix length for a suffix range.
+     */
+    ByteRange(final long first, final long last) {
+        super();
+        this.first = first;
+        this.last = last;
+    }
+
+    long getFirst() {
+        return this.first;
+    }
+
+    long getLast() {
+        return this.last;
+    }
+
+    long length() {
+        return this.last - this.first + 1;
+    }
+
+    boolean contains(final ByteRange range) {
+        return this.first <= range.first && range.last <= this.last;
+    }
+
+    /**
+     * Resolves the range against the given representation length.
+     *
+     * @return the resolved range or {@code null} if not satisfiable.
+     */
+    ByteRange resolve(final long length) {
+        if (this.first < 0) {
+            if (this.last == 0 || length == 0) {
+                return null;
+            }
+            return new ByteRange(Math.max(0, length - this.last), length - 1);
+        }
+        if (this.first >= length) {
+            return null;
+        }
+        return new ByteRange(this.first, this.last < 0 ? length - 1 : Math.min(this.last, length - 1));
+    }
+
+    private static long parsePosition(final String s) {
+        if (s.isEmpty() || s.length() > 18) {
+            return -1;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return -1;
+            }
+        }
+        return Long.parseLong(s);
+    }
+
+    /**
+     * Parses the value of a {@code Range} header.
+     *
+     * @return the range or {@code null} if the header does not specify
+     *   a single range of bytes.
+     */
+    static ByteRange parseRange(final String value) {
+        final int eq = value.indexOf('=');
+        if (eq < 0 || !BYTES_UNIT.equalsIgnoreCase(value.substring(0, eq).trim())) {
+            return null;
+        }
+        final String spec = value.substring(eq + 1).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        final String firstPos = spec.substring(0, dash).trim();
+        final String lastPos = spec.substring(dash + 1).trim();
+        if (firstPos.isEmpty()) {
+            final long suffixLength = parsePosition(lastPos);
+            return suffixLength >= 0 ? new ByteRange(-1, suffixLength) : null;
+        }
+        final long first = parsePosition(firstPos);
+        if (first < 0) {
+            return null;
+        }
+        if (lastPos.isEmpty()) {
+            return new ByteRange(first, -1);
+        }
+        final long last = parsePosition(lastPos);
+        return last >= first ? new ByteRange(first, last) : null;
+    }
+
+    /**
+     * Parses the value of a {@code Content-Range} header.
+     *
+     * @return the content range or {@code null} if the header does not specify
+     *   a range of bytes of a representation of known length.
+     */
+    static ContentRange parseContentRange(final String value) {
+        final String s = value.trim();
+        if (!s.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+        final String spec = s.substring(BYTES_UNIT.length()).trim();
+        final int dash = spec.indexOf('-');
+        final int slash = spec.indexOf('/');
+        if (dash < 0 || slash < dash) {
+            return null;
+        }
+        final long first = parsePosition(spec.substring(0, dash).trim());
+        final long last = parsePosition(spec.substring(dash + 1, slash).trim());
+        final long length = parsePosition(spec.substring(slash + 1).trim());
+        if (first < 0 || last < first || length <= last) {
+            return null;
+        }
+        return new ContentRange(new ByteRange(first, last), length);
+    }
+
+    /**
+     * Formats the value of a {@code Content-Range} header.
+     */
+    static String formatContentRange(final ByteRange range, final long length) {
+        return BYTES_UNIT + " " + range.first + "-" + range.last + "/" + length;
+    }
+
+    /**
+     * Parses a comma separated list of resolved ranges.
+     *
+     * @return the ranges or {@code null} if malformed.
+     */
+    static List<ByteRange> parseList(final String value) {
+        final List<ByteRange> ranges = new ArrayList<ByteRange>();
+        if (value.isEmpty()) {
+            return ranges;
+        }
+        for (final String spec: value.split(",")) {
+            final int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            final long first = parsePosition(spec.substring(0, dash));
+            final long last = parsePosition(spec.substring(dash + 1));
+            if (first < 0 || last < first) {
+                return null;
+            }
+            ranges.add(new ByteRange(first, last));
+        }
+        return ranges;
+    }
+
+    /**
+     * Formats a list of resolved ranges as a comma separated list.
+     */
+    static String formatList(final List<ByteRange> ranges) {
+        final StringBuilder buf = new StringBuilder();
+        for (final ByteRange range: ranges) {
+            if (buf.length() > 0) {
+                buf.append(',');
+            }
+            buf.append(range.first).append('-').append(range.last);
+        }
+        return buf.toString();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof ByteRange) {
+            final ByteRange that = (ByteRange) obj;
+            return this.first == that.first && this.last == that.last;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (this.first * 31 + this.last);
+    }
+
+    @Override
+    public String toString() {
+        return this.first + "-" + this.last;
+    }
+
+    /**
+     * Range of bytes enclosed by a partial response along with the complete
+     * length of the representation.
+     */
+    static class ContentRange {
+
+        final ByteRange range;
+        final long length;
+
+        ContentRange(final ByteRange range, final long length) {
+            super();
+            this.range = range;
+            this.length = length;
+        }
+
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Replays a response generated from the cache into
+ * a {@link HttpAsyncResponseConsumer} the same way a response received
+ * from the network gets consumed: content is handed to the consumer
+ * one chunk per content event through a {@link ContentDecoder}. The end
+ * of content is signalled together with the last chunk.
+ * <p>
+ * If given an {@link Executor} every chunk is replayed as a task of its own,
+ * so that a large response neither holds up the thread that started the
+ * replay nor monopolizes a thread of the executor. Otherwise, or once
+ * the executor has been shut down, content is replayed on the calling thread.
+ * <p>
+ * The consumer may suspend input, in which case replay resumes once
+ * input is requested again. Replay stops before the next chunk once
+ * the future has been cancelled or the consumer is done, for instance
+ * because it has been cancelled itself.
+ */
+class CachedResponseReplay<T> implements ContentDecoder, IOControl, Runnable {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final HttpResponse response;
+    private final HttpAsyncResponseConsumer<T> consumer;
+    private final HttpContext context;
+    private final BasicFuture<T> future;
+    private final Executor executor;
+
+    private InputStream instream;
+    private byte[] buffer;
+    private int pos;
+    private int limit;
+    private int chunkRemaining;
+    private volatile boolean endOfStream;
+    private boolean suspended;
+    private boolean running;
+    private boolean done;
+
+    CachedResponseReplay(
+            final HttpResponse response,
+            final HttpAsyncResponseConsumer<T> consumer,
+            final HttpContext context,
+            final BasicFuture<T> future,
+            final Executor executor) {
+        super();
+        this.response = response;
+        this.consumer = consumer;
+        this.context = context;
+        this.future = future;
+        this.executor = executor;
+    }
+
+    CachedResponseReplay(
+            final HttpResponse response,
+            final HttpAsyncResponseConsumer<T> consumer,
+            final HttpContext context,
+            final BasicFuture<T> future) {
+        this(response, consumer, context, future, null);
+    }
+
+    void start() {
+        try {
+            // consumers may replace the response entity
+            final HttpEntity entity = this.response.getEntity();
+            if (entity != null) {
+                this.instream = entity.getContent();
+            }
+            if (this.instream != null) {
+                this.buffer = new byte[CHUNK_SIZE];
+                fill();
+            } else {
+                this.endOfStream = true;
+            }
+            this.consumer.responseReceived(this.response);
+        } catch (final Exception ex) {
+            fail(ex);
+            return;
+        }
+        if (isCompleted()) {
+            complete();
+        } else {
+            dispatch();
+        }
+    }
+
+    /**
+     * Submits the replay of the next chunk to the executor.
+     *
+     * @return {@code false} if there is no executor or it has been shut down.
+     */
+    private boolean submit() {
+        if (this.executor == null) {
+            return false;
+        }
+        try {
+            this.executor.execute(this);
+            return true;
+        } catch (final RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    private void dispatch() {
+        if (!submit()) {
+            replay();
+        }
+    }
+
+    @Override
+    public void run() {
+        replay();
+    }
+
+    private void replay() {
+        for (;;) {
+            final boolean aborted;
+            synchronized (this) {
+                if (this.done || this.suspended || this.running) {
+                    return;
+                }
+                aborted = this.future.isDone() || this.consumer.isDone();
+                if (aborted) {
+                    this.done = true;
+                } else {
+                    this.running = true;
+                    this.chunkRemaining = CHUNK_SIZE;
+                }
+            }
+            if (aborted) {
+                abort();
+                return;
+            }
+            try {
+                this.consumer.consumeContent(this, this);
+            } catch (final Exception ex) {
+                fail(ex);
+                return;
+            } finally {
+                synchronized (this) {
+                    this.running = false;
+                }
+            }
+            if (isCompleted()) {
+                complete();
+                return;
+            }
+            // yield to other tasks before replaying the next chunk
+            if (submit()) {
+                return;
+            }
+        }
+    }
+
+    private void complete() {
+        synchronized (this) {
+            if (this.done) {
+                return;
+            }
+            this.done = true;
+        }
+        closeStream();
+        this.consumer.responseCompleted(this.context);
+        final T result = this.consumer.getResult();
+        final Exception ex = this.consumer.getException();
+        try {
+            this.consumer.close();
+        } catch (final IOException ignore) {
+        }
+        if (ex == null) {
+            this.future.completed(result);
+        } else {
+            this.future.failed(ex);
+        }
+    }
+
+    private void fail(final Exception ex) {
+        synchronized (this) {
+            if (this.done) {
+                return;
+            }
+            this.done = true;
+        }
+        closeStream();
+        try {
+            this.consumer.failed(ex);
+        } finally {
+            try {
+                this.consumer.close();
+            } catch (final IOException ignore) {
+            }
+            this.future.failed(ex);
+        }
+    }
+
+    private void abort() {
+        closeStream();
+        try {
+            this.consumer.cancel();
+        } finally {
+            try {
+                this.consumer.close();
+            } catch (final IOException ignore) {
+            }
+            this.future.cancel();
+        }
+    }
+
+    private void closeStream() {
+        if (this.instream != null) {
+            try {
+                this.instream.close();
+            } catch (final IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Reads the next block of content into the buffer.
+     *
+     * @return {@code false} if the end of content has been reached.
+     */
+    private boolean fill() throws IOException {
+        final int n = this.instream.read(this.buffer, 0, this.buffer.length);
+        if (n == -1) {
+            this.pos = 0;
+            this.limit = 0;
+            this.endOfStream = true;
+            return false;
+        }
+        this.pos = 0;
+        this.limit = n;
+        return true;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        if (isCompleted()) {
+            return -1;
+        }
+        int total = 0;
+        while (dst.hasRemaining() && this.chunkRemaining > 0) {
+            if (this.pos == this.limit && !fill()) {
+                break;
+            }
+            final int len = Math.min(Math.min(dst.remaining(), this.limit - this.pos), this.chunkRemaining);
+            dst.put(this.buffer, this.pos, len);
+            this.pos += len;
+            this.chunkRemaining -= len;
+            total += len;
+        }
+        if (this.pos == this.limit && !this.endOfStream) {
+            // look ahead in order to signal the end of content with the last chunk
+            fill();
+        }
+        return total == 0 && isCompleted() ? -1 : total;
+    }
+
+    @Override
+    public boolean isCompleted() {
+        return this.endOfStream && this.pos == this.limit;
+    }
+
+    @Override
+    public void requestInput() {
+        synchronized (this) {
+            if (!this.suspended) {
+                return;
+            }
+            this.suspended = false;
+        }
+        dispatch();
+    }
+
+    @Override
+    public synchronized void suspendInput() {
+        this.suspended = true;
+    }
+
+    @Override
+    public void requestOutput() {
+    }
+
+    @Override
+    public void suspendOutput() {
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        fail(new IOException("Response replay shut down"));
+    }
+
+    @Override
+    public String toString() {
+        return "[cached response replay]";
+    }
+
+}
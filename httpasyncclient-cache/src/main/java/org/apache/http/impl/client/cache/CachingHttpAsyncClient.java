@@ -26,12 +26,14 @@
  */
 package org.apache.http.impl.client.cache;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -39,6 +41,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpMessage;
 import org.apache.http.HttpRequest;
@@ -56,6 +60,7 @@ import org.apache.http.client.cache.HeaderConstants;
 import org.apache.http.client.cache.HttpCacheContext;
 import org.apache.http.client.cache.HttpCacheEntry;
 import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.Resource;
 import org.apache.http.client.cache.ResourceFactory;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpRequestWrapper;
@@ -68,6 +73,7 @@ import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
 import org.apache.http.nio.reactor.IOReactorException;
@@ -78,10 +84,27 @@ import org.apache.http.util.Args;
 import org.apache.http.util.EntityUtils;
 import org.apache.http.util.VersionInfo;
 
+/**
+ * {@link HttpAsyncClient} decorator that answers requests from an HTTP/1.1
+ * compliant response cache where possible and stores backend responses
+ * in it.
+ * <p>
+ * Responses returned as {@link HttpResponse} are complete when delivered,
+ * as with the backend client itself: backend content is collected while it is
+ * received and the response is handed to the caller once the content is
+ * complete. It is not streamed through to the caller, since callers may read
+ * the entity on the I/O dispatch thread that would have to supply the content.
+ * In order to receive content as it arrives, execute requests with
+ * an {@link HttpAsyncResponseConsumer}. The content is then copied into
+ * the cache on the side and stored only if the complete response is within
+ * the maximum object size.
+ */
 @Contract(threading = ThreadingBehavior.SAFE) // So long as the responseCache implementation is threadsafe
-public class CachingHttpAsyncClient implements HttpAsyncClient {
+public class CachingHttpAsyncClient implements HttpAsyncClient, Closeable {
+
+    private final static boolean SUPPORTS_RANGE_AND_CONTENT_RANGE_HEADERS = true;
 
-    private final static boolean SUPPORTS_RANGE_AND_CONTENT_RANGE_HEADERS = false;
+    private final static long DEFAULT_COLLAPSE_TIMEOUT = 5000;
 
     private final AtomicLong cacheHits = new AtomicLong();
     private final AtomicLong cacheMisses = new AtomicLong();
@@ -90,10 +113,11 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
     private final Map<ProtocolVersion, String> viaHeaders = new HashMap<ProtocolVersion, String>(4);
 
     private final HttpAsyncClient backend;
-    private final HttpCache responseCache;
+    private final HttpAsyncCache responseCache;
     private final CacheValidityPolicy validityPolicy;
     private final ResponseCachingPolicy responseCachingPolicy;
     private final CachedHttpResponseGenerator responseGenerator;
+    private final PartialContentGenerator partialContentGenerator;
     private final CacheableRequestPolicy cacheableRequestPolicy;
     private final CachedResponseSuitabilityChecker suitabilityChecker;
 
@@ -107,12 +131,44 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
 
     private final AsynchronousAsyncValidator asynchAsyncRevalidator;
 
+    private final CacheKeyGenerator uriExtractor;
+    private final RequestCollapser requestCollapser;
+    private final RefreshAheadPrefetcher refreshAheadPrefetcher;
+
+    private final Executor replayExecutor;
+
     private final Log log = LogFactory.getLog(getClass());
 
     CachingHttpAsyncClient(
             final HttpAsyncClient client,
             final HttpCache cache,
             final CacheConfig config) {
+        this(client, new SynchronousHttpAsyncCache(Args.notNull(cache, "HttpCache")), config);
+    }
+
+    CachingHttpAsyncClient(
+            final HttpAsyncClient client,
+            final HttpAsyncCache cache,
+            final CacheConfig config) {
+        this(client, cache, config, new RequestCollapser(DEFAULT_COLLAPSE_TIMEOUT), null);
+    }
+
+    CachingHttpAsyncClient(
+            final HttpAsyncClient client,
+            final HttpAsyncCache cache,
+            final CacheConfig config,
+            final RequestCollapser requestCollapser,
+            final RefreshAheadConfig refreshAheadConfig) {
+        this(client, cache, config, requestCollapser, refreshAheadConfig, null);
+    }
+
+    CachingHttpAsyncClient(
+            final HttpAsyncClient client,
+            final HttpAsyncCache cache,
+            final CacheConfig config,
+            final RequestCollapser requestCollapser,
+            final RefreshAheadConfig refreshAheadConfig,
+            final Executor replayExecutor) {
         super();
         Args.notNull(client, "HttpClient");
         Args.notNull(cache, "HttpCache");
@@ -124,6 +180,7 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         this.validityPolicy = new CacheValidityPolicy();
         this.responseCachingPolicy = new ResponseCachingPolicy(this.maxObjectSizeBytes, this.sharedCache, false, config.is303CachingEnabled());
         this.responseGenerator = new CachedHttpResponseGenerator(this.validityPolicy);
+        this.partialContentGenerator = new PartialContentGenerator();
         this.cacheableRequestPolicy = new CacheableRequestPolicy();
         this.suitabilityChecker = new CachedResponseSuitabilityChecker(this.validityPolicy, config);
         this.conditionalRequestBuilder = new ConditionalRequestBuilder();
@@ -132,6 +189,11 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         this.requestCompliance = new RequestProtocolCompliance(config.isWeakETagOnPutDeleteAllowed());
 
         this.asynchAsyncRevalidator = makeAsynchronousValidator(config);
+        this.uriExtractor = new CacheKeyGenerator();
+        this.requestCollapser = requestCollapser;
+        this.refreshAheadPrefetcher = refreshAheadConfig != null
+                ? new RefreshAheadPrefetcher(this, this.validityPolicy, refreshAheadConfig) : null;
+        this.replayExecutor = replayExecutor;
     }
 
     public CachingHttpAsyncClient() throws IOReactorException {
@@ -177,6 +239,137 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
                 config);
     }
 
+    /**
+     * Creates a caching client that refreshes frequently requested cache
+     * entries in the background before they go stale.
+     *
+     * @since 4.1.5
+     */
+    public CachingHttpAsyncClient(
+            final HttpAsyncClient client,
+            final CacheConfig config,
+            final RefreshAheadConfig refreshAheadConfig) {
+        this(client,
+                new SynchronousHttpAsyncCache(new BasicHttpCache(config)),
+                config,
+                new RequestCollapser(DEFAULT_COLLAPSE_TIMEOUT),
+                Args.notNull(refreshAheadConfig, "Refresh-ahead config"));
+    }
+
+    /**
+     * Creates a caching client with a non-blocking cache storage.
+     * <p>
+     * Resources holding cached content are created by the given factory
+     * on I/O dispatch threads and therefore should not block.
+     *
+     * @since 4.1.5
+     */
+    public CachingHttpAsyncClient(
+            final HttpAsyncClient client,
+            final ResourceFactory resourceFactory,
+            final HttpAsyncCacheStorage storage,
+            final CacheConfig config) {
+        this(client,
+                new BasicHttpAsyncCache(resourceFactory, storage, config),
+                config);
+    }
+
+    /**
+     * Creates a caching client with a non-blocking cache storage
+     * keeping cached content on the heap.
+     *
+     * @since 4.1.5
+     */
+    public CachingHttpAsyncClient(
+            final HttpAsyncClient client,
+            final HttpAsyncCacheStorage storage,
+            final CacheConfig config) {
+        this(client,
+                new BasicHttpAsyncCache(new HeapResourceFactory(), storage, config),
+                config);
+    }
+
+    /**
+     * Creates a caching client with a custom cache storage that refreshes
+     * frequently requested cache entries in the background before they go stale.
+     *
+     * @since 4.1.5
+     */
+    public CachingHttpAsyncClient(
+            final HttpAsyncClient client,
+            final ResourceFactory resourceFactory,
+            final HttpCacheStorage storage,
+            final CacheConfig config,
+            final RefreshAheadConfig refreshAheadConfig) {
+        this(client,
+                new SynchronousHttpAsyncCache(new BasicHttpCache(resourceFactory, storage, config)),
+                config,
+                new RequestCollapser(DEFAULT_COLLAPSE_TIMEOUT),
+                Args.notNull(refreshAheadConfig, "Refresh-ahead config"));
+    }
+
+    /**
+     * Creates a caching client with a non-blocking cache storage that refreshes
+     * frequently requested cache entries in the background before they go stale.
+     * <p>
+     * Resources holding cached content are created by the given factory
+     * on I/O dispatch threads and therefore should not block.
+     *
+     * @since 4.1.5
+     */
+    public CachingHttpAsyncClient(
+            final HttpAsyncClient client,
+            final ResourceFactory resourceFactory,
+            final HttpAsyncCacheStorage storage,
+            final CacheConfig config,
+            final RefreshAheadConfig refreshAheadConfig) {
+        this(client,
+                new BasicHttpAsyncCache(resourceFactory, storage, config),
+                config,
+                new RequestCollapser(DEFAULT_COLLAPSE_TIMEOUT),
+                Args.notNull(refreshAheadConfig, "Refresh-ahead config"));
+    }
+
+    /**
+     * Creates a caching client with a non-blocking cache storage keeping
+     * cached content on the heap that refreshes frequently requested cache
+     * entries in the background before they go stale.
+     *
+     * @since 4.1.5
+     */
+    public CachingHttpAsyncClient(
+            final HttpAsyncClient client,
+            final HttpAsyncCacheStorage storage,
+            final CacheConfig config,
+            final RefreshAheadConfig refreshAheadConfig) {
+        this(client, new HeapResourceFactory(), storage, config, refreshAheadConfig);
+    }
+
+    /**
+     * Creates a caching client with a non-blocking cache storage that
+     * replays the content of responses served from the cache on the given
+     * executor, one chunk per task. Without an executor, content is
+     * replayed on the thread the cache entry was retrieved on.
+     * <p>
+     * Resources holding cached content are created by the given factory
+     * on I/O dispatch threads and therefore should not block.
+     *
+     * @since 4.1.5
+     */
+    public CachingHttpAsyncClient(
+            final HttpAsyncClient client,
+            final ResourceFactory resourceFactory,
+            final HttpAsyncCacheStorage storage,
+            final CacheConfig config,
+            final Executor replayExecutor) {
+        this(client,
+                new BasicHttpAsyncCache(resourceFactory, storage, config),
+                config,
+                new RequestCollapser(DEFAULT_COLLAPSE_TIMEOUT),
+                null,
+                replayExecutor);
+    }
+
     CachingHttpAsyncClient(
             final HttpAsyncClient backend,
             final CacheValidityPolicy validityPolicy,
@@ -194,14 +387,19 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         this.backend = backend;
         this.validityPolicy = validityPolicy;
         this.responseCachingPolicy = responseCachingPolicy;
-        this.responseCache = responseCache;
+        this.responseCache = new SynchronousHttpAsyncCache(responseCache);
         this.responseGenerator = responseGenerator;
+        this.partialContentGenerator = new PartialContentGenerator();
         this.cacheableRequestPolicy = cacheableRequestPolicy;
         this.suitabilityChecker = suitabilityChecker;
         this.conditionalRequestBuilder = conditionalRequestBuilder;
         this.responseCompliance = responseCompliance;
         this.requestCompliance = requestCompliance;
         this.asynchAsyncRevalidator = makeAsynchronousValidator(config);
+        this.uriExtractor = new CacheKeyGenerator();
+        this.requestCollapser = new RequestCollapser(DEFAULT_COLLAPSE_TIMEOUT);
+        this.refreshAheadPrefetcher = null;
+        this.replayExecutor = null;
     }
 
     private AsynchronousAsyncValidator makeAsynchronousValidator(
@@ -239,6 +437,76 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         return this.cacheUpdates.get();
     }
 
+    /**
+     * Reports the number of times that a request was not sent to the origin
+     * server but made to wait for the response to a request for the same
+     * resource already in flight. Relative to the number of cache misses
+     * this gives the rate at which requests get collapsed.
+     * @return the number of collapsed requests
+     *
+     * @since 4.1.5
+     */
+    public long getCollapsedRequests() {
+        return this.requestCollapser.getCollapsed();
+    }
+
+    /**
+     * Reports the number of times that a stale cache entry was successfully
+     * revalidated in the background while being served to the client.
+     * @return the number of completed asynchronous revalidations
+     *
+     * @since 4.1.5
+     */
+    public long getAsynchronousRevalidations() {
+        return this.asynchAsyncRevalidator != null ? this.asynchAsyncRevalidator.getCompleted() : 0;
+    }
+
+    /**
+     * Reports the number of times that a background revalidation of a stale
+     * cache entry was not performed, either because too many revalidations
+     * were pending already or because it failed repeatedly.
+     * @return the number of dropped asynchronous revalidations
+     *
+     * @since 4.1.5
+     */
+    public long getDroppedRevalidations() {
+        return this.asynchAsyncRevalidator != null ? this.asynchAsyncRevalidator.getDropped() : 0;
+    }
+
+    /**
+     * Reports the number of times that a frequently requested cache entry
+     * was refreshed in the background before it went stale.
+     * @return the number of refresh-ahead prefetches
+     *
+     * @since 4.1.5
+     */
+    public long getPrefetches() {
+        return this.refreshAheadPrefetcher != null ? this.refreshAheadPrefetcher.getPrefetches() : 0;
+    }
+
+    /**
+     * Reports the number of times that a cache entry refreshed in the
+     * background was not requested again before it went stale.
+     * @return the number of wasted refresh-ahead prefetches
+     *
+     * @since 4.1.5
+     */
+    public long getWastedPrefetches() {
+        return this.refreshAheadPrefetcher != null ? this.refreshAheadPrefetcher.getWasted() : 0;
+    }
+
+    /**
+     * Releases resources held by the caching client itself, such as the
+     * thread timing out collapsed requests. The backend client and the
+     * executor cached content is replayed on are not closed.
+     *
+     * @since 4.1.5
+     */
+    @Override
+    public void close() throws IOException {
+        this.requestCollapser.shutdown();
+    }
+
     @Override
     public Future<HttpResponse> execute(
             final HttpHost target,
@@ -261,8 +529,265 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
             final HttpAsyncResponseConsumer<T> responseConsumer,
             final HttpContext context,
             final FutureCallback<T> callback) {
-        this.log.warn("CachingHttpAsyncClient does not support caching for streaming HTTP exchanges");
-        return this.backend.execute(requestProducer, responseConsumer, context, callback);
+        final HttpHost target = requestProducer.getTarget();
+        final HttpRequest originalRequest;
+        try {
+            originalRequest = requestProducer.generateRequest();
+        } catch (final IOException ex) {
+            return this.backend.execute(requestProducer, responseConsumer, context, callback);
+        } catch (final HttpException ex) {
+            return this.backend.execute(requestProducer, responseConsumer, context, callback);
+        }
+        final BasicFuture<T> future = new BasicFuture<T>(callback);
+        final HttpRequestWrapper request = HttpRequestWrapper.wrap(originalRequest, target);
+        final HttpCacheContext clientContext = context != null ? HttpCacheContext.adapt(context) : HttpCacheContext.create();
+        // default response context
+        setResponseStatus(clientContext, CacheResponseStatus.CACHE_MISS);
+
+        final String via = generateViaHeader(request);
+
+        if (clientRequestsOurOptions(request)) {
+            setResponseStatus(clientContext, CacheResponseStatus.CACHE_MODULE_RESPONSE);
+            replayCachedResponse(future, target, request, requestProducer, responseConsumer, clientContext,
+                    new OptionsHttp11Response());
+            return future;
+        }
+
+        final HttpResponse fatalErrorResponse = getFatallyNoncompliantResponse(
+                request, clientContext);
+        if (fatalErrorResponse != null) {
+            replayCachedResponse(future, target, request, requestProducer, responseConsumer, clientContext,
+                    fatalErrorResponse);
+            return future;
+        }
+
+        try {
+            this.requestCompliance.makeRequestCompliant(request);
+        } catch (final ClientProtocolException ex) {
+            closeProducer(requestProducer);
+            future.failed(ex);
+            return future;
+        }
+        request.addHeader(HeaderConstants.VIA, via);
+
+        // send the request as modified above rather than as generated by the caller
+        final HttpAsyncRequestProducer producer = new WrappedRequestProducer(requestProducer, request);
+
+        this.responseCache.flushInvalidatedCacheEntriesFor(target, request, new CacheCallback<Void>(future) {
+
+            @Override
+            void proceed(final Void result) {
+                if (originalRequest instanceof HttpEntityEnclosingRequest
+                        || !CachingHttpAsyncClient.this.cacheableRequestPolicy.isServableFromCache(request)) {
+                    log.debug("Request is not servable from cache");
+                    CachingHttpAsyncClient.this.backend.execute(
+                            producer, responseConsumer, clientContext, new ChainedFutureCallback<T>(future));
+                    return;
+                }
+                lookupCacheEntry(future, target, request, producer, responseConsumer, clientContext);
+            }
+
+            @Override
+            void recover(final Exception ex) {
+                log.warn("Unable to flush invalidated entries from cache", ex);
+                proceed(null);
+            }
+
+        });
+        return future;
+    }
+
+    private <T> void lookupCacheEntry(
+            final BasicFuture<T> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final HttpCacheContext clientContext) {
+        this.responseCache.getCacheEntry(target, request, new CacheCallback<HttpCacheEntry>(future) {
+
+            @Override
+            void proceed(final HttpCacheEntry entry) {
+                final ByteRange range = PartialContentGenerator.getRequestedRange(request);
+                if (entry == null && range != null) {
+                    lookupPartialCacheEntry(future, target, request, requestProducer, responseConsumer, clientContext);
+                    return;
+                }
+                if (entry == null) {
+                    recordCacheMiss(target, request);
+                } else {
+                    recordCacheHit(target, request);
+                }
+                final Date now = getCurrentDate();
+                final boolean usable = entry != null && CachingHttpAsyncClient.this.suitabilityChecker.canCachedResponseBeUsed(
+                        target, range != null ? withoutIfRange(request) : request, entry, now);
+                if (entry != null && CachingHttpAsyncClient.this.refreshAheadPrefetcher != null) {
+                    CachingHttpAsyncClient.this.refreshAheadPrefetcher.cacheHit(target, request, entry, now, usable);
+                }
+                if (usable) {
+                    log.debug("Cache hit");
+                    HttpResponse out = generateCachedResponse(request, clientContext, entry, now);
+                    if (range != null) {
+                        out = generateRangeResponse(request, entry, out, range);
+                    }
+                    replayCachedResponse(future, target, request, requestProducer, responseConsumer, clientContext,
+                            out);
+                } else if (!mayCallBackend(request)) {
+                    replayCachedResponse(future, target, request, requestProducer, responseConsumer, clientContext,
+                            generateGatewayTimeout(clientContext));
+                } else {
+                    // stale entries get replaced rather than revalidated, as
+                    // the request producer cannot be made to send a conditional request
+                    callBackend(future, target, request, requestProducer, responseConsumer, clientContext);
+                }
+            }
+
+            @Override
+            void recover(final Exception ex) {
+                log.warn("Unable to retrieve entries from cache", ex);
+                proceed(null);
+            }
+
+        });
+    }
+
+    private <T> void lookupPartialCacheEntry(
+            final BasicFuture<T> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final HttpCacheContext clientContext) {
+        this.responseCache.getPartialCacheEntry(target, request, new CacheCallback<HttpCacheEntry>(future) {
+
+            @Override
+            void proceed(final HttpCacheEntry entry) {
+                final Date now = getCurrentDate();
+                final HttpResponse out = entry != null && isPartialCacheEntryUsable(target, request, entry, now)
+                        ? generatePartialCacheHit(request, clientContext, entry, now)
+                        : null;
+                if (out != null) {
+                    recordCacheHit(target, request);
+                    replayCachedResponse(future, target, request, requestProducer, responseConsumer, clientContext,
+                            out);
+                } else {
+                    recordCacheMiss(target, request);
+                    callBackend(future, target, request, requestProducer, responseConsumer, clientContext);
+                }
+            }
+
+            @Override
+            void recover(final Exception ex) {
+                log.warn("Unable to retrieve entries from cache", ex);
+                proceed(null);
+            }
+
+        });
+    }
+
+    private <T> void replayCachedResponse(
+            final BasicFuture<T> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final HttpCacheContext clientContext,
+            final HttpResponse response) {
+        closeProducer(requestProducer);
+        clientContext.setAttribute(HttpClientContext.HTTP_ROUTE, new HttpRoute(target));
+        clientContext.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, target);
+        clientContext.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
+        clientContext.setAttribute(HttpCoreContext.HTTP_RESPONSE, response);
+        final CachedResponseReplay<T> replay = new CachedResponseReplay<T>(
+                response, responseConsumer, clientContext, future, this.replayExecutor);
+        replay.start();
+    }
+
+    private void closeProducer(final HttpAsyncRequestProducer requestProducer) {
+        try {
+            requestProducer.close();
+        } catch (final IOException ex) {
+            this.log.debug("I/O error closing request producer", ex);
+        }
+    }
+
+    private <T> void callBackend(
+            final BasicFuture<T> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final HttpCacheContext clientContext) {
+        final Date requestDate = getCurrentDate();
+        this.log.trace("Calling the backend");
+
+        final CachingResponseConsumer<T> cachingConsumer = new CachingResponseConsumer<T>(
+                responseConsumer, this.maxObjectSizeBytes) {
+
+            private volatile Date responseDate;
+
+            @Override
+            public void responseReceived(final HttpResponse response) throws IOException, HttpException {
+                this.responseDate = getCurrentDate();
+                response.addHeader(HeaderConstants.VIA, generateViaHeader(response));
+                super.responseReceived(response);
+            }
+
+            @Override
+            boolean isCacheable(final HttpResponse response) {
+                return CachingHttpAsyncClient.this.responseCachingPolicy.isResponseCacheable(request, response)
+                        || isPartialResponseCacheable(request, response);
+            }
+
+            @Override
+            void cacheResponse(final HttpResponse response, final ResourceWriter content) {
+                storeStreamedResponse(target, request, requestDate, this.responseDate, response, content);
+            }
+
+        };
+        this.backend.execute(requestProducer, cachingConsumer, clientContext, new ChainedFutureCallback<T>(future));
+    }
+
+    private void storeStreamedResponse(
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final Date requestDate,
+            final Date responseDate,
+            final HttpResponse response,
+            final ResourceWriter content) {
+        final BasicHttpResponse copy = new BasicHttpResponse(response.getStatusLine());
+        copy.setHeaders(response.getAllHeaders());
+        if (response.getEntity() != null) {
+            copy.setEntity(new BackendResponseConsumer.ResourceWriterEntity(response.getEntity(), content));
+        }
+        final CloseableHttpResponse backendResponse = Proxies.enhanceResponse(copy);
+        try {
+            this.responseCompliance.ensureProtocolCompliance(request, backendResponse);
+        } catch (final IOException ex) {
+            this.log.debug("Response not compliant; not caching", ex);
+            return;
+        }
+        final BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(new FutureCallback<HttpResponse>() {
+
+            @Override
+            public void completed(final HttpResponse result) {
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                log.warn("Unable to store response in cache", ex);
+            }
+
+            @Override
+            public void cancelled() {
+            }
+
+        });
+        if (backendResponse.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT) {
+            storePartialResponse(future, target, request, requestDate, responseDate, backendResponse, content);
+        } else {
+            storeBackendResponse(future, target, request, requestDate, responseDate, backendResponse, content);
+        }
     }
 
     @Override
@@ -317,26 +842,55 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         }
         request.addHeader(HeaderConstants.VIA,via);
 
-        flushEntriesInvalidatedByRequest(target, request);
+        this.responseCache.flushInvalidatedCacheEntriesFor(target, request, new CacheCallback<Void>(future) {
+
+            @Override
+            void proceed(final Void result) throws IOException {
+                lookupCacheEntry(future, target, request, clientContext);
+            }
+
+            @Override
+            void recover(final Exception ex) throws IOException {
+                log.warn("Unable to flush invalidated entries from cache", ex);
+                proceed(null);
+            }
+
+        });
+        return future;
+    }
 
+    private void lookupCacheEntry(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheContext clientContext) {
         if (!this.cacheableRequestPolicy.isServableFromCache(request)) {
             log.debug("Request is not servable from cache");
             callBackend(future, target, request, clientContext);
-            return future;
+            return;
         }
 
-        final HttpCacheEntry entry = satisfyFromCache(target, request);
-        if (entry == null) {
-            log.debug("Cache miss");
-            handleCacheMiss(future, target, request, clientContext);
-        } else {
-            try {
-                handleCacheHit(future, target, request, clientContext, entry);
-            } catch (final IOException e) {
-                future.failed(e);
+        this.responseCache.getCacheEntry(target, request, new CacheCallback<HttpCacheEntry>(future) {
+
+            @Override
+            void proceed(final HttpCacheEntry entry) throws IOException {
+                if (entry == null && PartialContentGenerator.getRequestedRange(request) != null) {
+                    lookupPartialCacheEntry(future, target, request, clientContext);
+                } else if (entry == null) {
+                    log.debug("Cache miss");
+                    handleCacheMiss(future, target, request, clientContext);
+                } else {
+                    handleCacheHit(future, target, request, clientContext, entry);
+                }
             }
-        }
-        return future;
+
+            @Override
+            void recover(final Exception ex) throws IOException {
+                log.warn("Unable to retrieve entries from cache", ex);
+                proceed(null);
+            }
+
+        });
     }
 
     private void handleCacheHit(
@@ -348,9 +902,16 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         recordCacheHit(target, request);
         final HttpResponse out;
         final Date now = getCurrentDate();
-        if (this.suitabilityChecker.canCachedResponseBeUsed(target, request, entry, now)) {
+        final ByteRange range = PartialContentGenerator.getRequestedRange(request);
+        final boolean usable = this.suitabilityChecker.canCachedResponseBeUsed(
+                target, range != null ? withoutIfRange(request) : request, entry, now);
+        if (this.refreshAheadPrefetcher != null) {
+            this.refreshAheadPrefetcher.cacheHit(target, request, entry, now, usable);
+        }
+        if (usable) {
             log.debug("Cache hit");
-            out = generateCachedResponse(request, clientContext, entry, now);
+            final HttpResponse cachedResponse = generateCachedResponse(request, clientContext, entry, now);
+            out = range != null ? generateRangeResponse(request, entry, cachedResponse, range) : cachedResponse;
         } else if (!mayCallBackend(request)) {
             log.debug("Cache entry not suitable but only-if-cached requested");
             out = generateGatewayTimeout(clientContext);
@@ -362,9 +923,21 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
             return;
         } else {
             log.debug("Cache entry not usable; calling backend");
-            callBackend(future, target, request, clientContext);
+            final BasicFuture<HttpResponse> flightFuture = collapse(future, target, request, clientContext);
+            if (flightFuture != null) {
+                callBackend(flightFuture, target, request, clientContext);
+            }
             return;
         }
+        completeCacheHit(future, target, request, clientContext, out);
+    }
+
+    private void completeCacheHit(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheContext clientContext,
+            final HttpResponse out) {
         clientContext.setAttribute(HttpClientContext.HTTP_ROUTE, new HttpRoute(target));
         clientContext.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, target);
         clientContext.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
@@ -373,6 +946,131 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         future.completed(out);
     }
 
+    /**
+     * Collapses the given request into a request for the same resource
+     * already in flight, if there is one.
+     *
+     * @return {@code null} if the request has been collapsed, or the future
+     *   the response received from the backend is to be passed on to otherwise.
+     */
+    private BasicFuture<HttpResponse> collapse(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheContext clientContext) {
+        final String key = this.uriExtractor.getURI(target, request);
+        final RequestCollapser.Flight flight = this.requestCollapser.join(key, new RequestCollapser.Callback() {
+
+            @Override
+            public void released() {
+                log.debug("Request in flight completed; looking up cache entry again");
+                handleCollapsedRequest(future, target, request, clientContext);
+            }
+
+            @Override
+            public void timedOut() {
+                log.debug("Request in flight timed out; calling backend");
+                callBackend(future, target, request, clientContext);
+            }
+
+        });
+        if (flight == null) {
+            log.debug("Request collapsed into request in flight");
+            return null;
+        }
+        return new BasicFuture<HttpResponse>(new FutureCallback<HttpResponse>() {
+
+            @Override
+            public void completed(final HttpResponse result) {
+                future.completed(result);
+                flight.land();
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                future.failed(ex);
+                flight.land();
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel();
+                flight.land();
+            }
+
+        });
+    }
+
+    private void handleCollapsedRequest(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheContext clientContext) {
+        this.responseCache.getCacheEntry(target, request, new CacheCallback<HttpCacheEntry>(future) {
+
+            @Override
+            void proceed(final HttpCacheEntry entry) {
+                final ByteRange range = PartialContentGenerator.getRequestedRange(request);
+                if (entry == null && range != null) {
+                    handleCollapsedRangeRequest(future, target, request, clientContext);
+                    return;
+                }
+                final Date now = getCurrentDate();
+                if (entry != null && suitabilityChecker.canCachedResponseBeUsed(
+                        target, range != null ? withoutIfRange(request) : request, entry, now)) {
+                    HttpResponse out = generateCachedResponse(request, clientContext, entry, now);
+                    if (range != null) {
+                        out = generateRangeResponse(request, entry, out, range);
+                    }
+                    completeCacheHit(future, target, request, clientContext, out);
+                } else {
+                    callBackend(future, target, request, clientContext);
+                }
+            }
+
+            @Override
+            void recover(final Exception ex) {
+                log.warn("Unable to retrieve entries from cache", ex);
+                proceed(null);
+            }
+
+        });
+    }
+
+    /**
+     * Answers a collapsed range request from a partial cache entry holding
+     * the requested range, if there is one. The request is sent to the backend
+     * otherwise.
+     */
+    private void handleCollapsedRangeRequest(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheContext clientContext) {
+        this.responseCache.getPartialCacheEntry(target, request, new CacheCallback<HttpCacheEntry>(future) {
+
+            @Override
+            void proceed(final HttpCacheEntry entry) {
+                final Date now = getCurrentDate();
+                final HttpResponse out = entry != null && isPartialCacheEntryUsable(target, request, entry, now)
+                        ? generatePartialCacheHit(request, clientContext, entry, now)
+                        : null;
+                if (out != null) {
+                    completeCacheHit(future, target, request, clientContext, out);
+                } else {
+                    callBackend(future, target, request, clientContext);
+                }
+            }
+
+            @Override
+            void recover(final Exception ex) {
+                log.warn("Unable to retrieve entries from cache", ex);
+                proceed(null);
+            }
+
+        });
+    }
+
     private void revalidateCacheEntry(
             final BasicFuture<HttpResponse> future,
             final HttpHost target,
@@ -395,7 +1093,11 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
                 return;
             }
 
-            final ChainedFutureCallback<HttpResponse> chainedFutureCallback = new ChainedFutureCallback<HttpResponse>(future) {
+            final BasicFuture<HttpResponse> flightFuture = collapse(future, target, request, clientContext);
+            if (flightFuture == null) {
+                return;
+            }
+            final ChainedFutureCallback<HttpResponse> chainedFutureCallback = new ChainedFutureCallback<HttpResponse>(flightFuture) {
 
                 @Override
                 public void failed(final Exception ex) {
@@ -427,25 +1129,28 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
             return;
         }
 
-        final Map<String, Variant> variants = getExistingCacheVariants(target, request);
-        if (variants != null && variants.size() > 0) {
-            negotiateResponseFromVariants(future, target, request, clientContext, variants);
-            return;
-        }
+        this.responseCache.getVariantCacheEntriesWithEtags(target, request, new CacheCallback<Map<String, Variant>>(future) {
 
-        callBackend(future, target, request, clientContext);
-    }
+            @Override
+            void proceed(final Map<String, Variant> variants) {
+                if (variants != null && variants.size() > 0) {
+                    negotiateResponseFromVariants(future, target, request, clientContext, variants);
+                    return;
+                }
 
-    private HttpCacheEntry satisfyFromCache(
-            final HttpHost target,
-            final HttpRequest request) {
-        HttpCacheEntry entry = null;
-        try {
-            entry = this.responseCache.getCacheEntry(target, request);
-        } catch (final IOException ioe) {
-            this.log.warn("Unable to retrieve entries from cache", ioe);
-        }
-        return entry;
+                final BasicFuture<HttpResponse> flightFuture = collapse(future, target, request, clientContext);
+                if (flightFuture != null) {
+                    callBackend(flightFuture, target, request, clientContext);
+                }
+            }
+
+            @Override
+            void recover(final Exception ex) {
+                log.warn("Unable to retrieve variant entries from cache", ex);
+                proceed(null);
+            }
+
+        });
     }
 
     private HttpResponse getFatallyNoncompliantResponse(
@@ -461,18 +1166,6 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         return fatalErrorResponse;
     }
 
-    private Map<String, Variant> getExistingCacheVariants(
-            final HttpHost target,
-            final HttpRequest request) {
-        Map<String,Variant> variants = null;
-        try {
-            variants = this.responseCache.getVariantCacheEntriesWithEtags(target, request);
-        } catch (final IOException ioe) {
-            this.log.warn("Unable to retrieve variant entries from cache", ioe);
-        }
-        return variants;
-    }
-
     private void recordCacheMiss(final HttpHost target, final HttpRequest request) {
         this.cacheMisses.getAndIncrement();
         if (this.log.isDebugEnabled()) {
@@ -494,15 +1187,6 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         setResponseStatus(clientContext, CacheResponseStatus.VALIDATED);
     }
 
-    private void flushEntriesInvalidatedByRequest(final HttpHost target,
-            final HttpRequest request) {
-        try {
-            this.responseCache.flushInvalidatedCacheEntriesFor(target, request);
-        } catch (final IOException ioe) {
-            this.log.warn("Unable to flush invalidated entries from cache", ioe);
-        }
-    }
-
     private HttpResponse generateCachedResponse(
             final HttpRequestWrapper request,
             final HttpCacheContext clientContext,
@@ -672,24 +1356,335 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         final Date requestDate = getCurrentDate();
         this.log.trace("Calling the backend");
 
+        // content gets read straight into a cache resource writer
+        final BackendResponseConsumer responseConsumer = new BackendResponseConsumer(this.maxObjectSizeBytes);
         final ChainedFutureCallback<HttpResponse> chainedFutureCallback = new ChainedFutureCallback<HttpResponse>(future) {
 
             @Override
             public void completed(final HttpResponse httpResponse) {
                 httpResponse.addHeader(HeaderConstants.VIA, generateViaHeader(httpResponse));
-                try {
-                    final CloseableHttpResponse backendResponse = handleBackendResponse(
-                            target, request, requestDate, getCurrentDate(),
-                            Proxies.enhanceResponse(httpResponse));
-                    super.completed(backendResponse);
-                } catch (final IOException e) {
-                    super.failed(e);
+                handleBackendResponse(future,
+                        target, request, requestDate, getCurrentDate(),
+                        Proxies.enhanceResponse(httpResponse), responseConsumer.getContent());
+            }
+
+        };
+        this.backend.execute(
+                HttpAsyncMethods.create(target, request), responseConsumer, clientContext, chainedFutureCallback);
+    }
+
+    /**
+     * Returns a copy of the given range request without its {@code If-Range}
+     * header, which is evaluated separately, for the suitability of cache
+     * entries to be checked.
+     */
+    private static HttpRequestWrapper withoutIfRange(final HttpRequestWrapper request) {
+        if (!request.containsHeader(HeaderConstants.IF_RANGE)) {
+            return request;
+        }
+        final HttpRequestWrapper copy = HttpRequestWrapper.wrap(request.getOriginal());
+        copy.setHeaders(request.getAllHeaders());
+        copy.removeHeaders(HeaderConstants.IF_RANGE);
+        return copy;
+    }
+
+    /**
+     * Turns a response generated from a complete cache entry into a response
+     * to the given range request. The complete response is returned as is
+     * if the {@code If-Range} precondition does not hold.
+     */
+    private HttpResponse generateRangeResponse(
+            final HttpRequest request,
+            final HttpCacheEntry entry,
+            final HttpResponse response,
+            final ByteRange range) {
+        final Resource resource = entry.getResource();
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK
+                || resource == null
+                || !PartialContentGenerator.ifRangeMatches(request, entry)) {
+            return response;
+        }
+        final long length = resource.length();
+        final ByteRange resolved = range.resolve(length);
+        if (resolved == null) {
+            return this.partialContentGenerator.generateNotSatisfiableResponse(response, length);
+        }
+        return this.partialContentGenerator.generatePartialResponse(
+                response, resource, resolved.getFirst(), resolved, length);
+    }
+
+    /**
+     * Returns {@code true} if the given partial cache entry can be used
+     * to answer the given range request.
+     */
+    private boolean isPartialCacheEntryUsable(
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheEntry entry,
+            final Date now) {
+        return PartialCacheEntryUpdater.getCachedRanges(entry) != null
+                && PartialCacheEntryUpdater.getCompleteLength(entry) >= 0
+                && entry.getResource() != null
+                && PartialContentGenerator.ifRangeMatches(request, entry)
+                && this.suitabilityChecker.canCachedResponseBeUsed(target, withoutIfRange(request), entry, now);
+    }
+
+    /**
+     * Generates a response to the given range request from a usable partial
+     * cache entry.
+     *
+     * @return the response or {@code null} if the entry does not hold
+     *   the requested range.
+     */
+    private HttpResponse generatePartialCacheHit(
+            final HttpRequestWrapper request,
+            final HttpCacheContext clientContext,
+            final HttpCacheEntry entry,
+            final Date now) {
+        final List<ByteRange> cached = PartialCacheEntryUpdater.getCachedRanges(entry);
+        final long length = PartialCacheEntryUpdater.getCompleteLength(entry);
+        final ByteRange resolved = PartialContentGenerator.getRequestedRange(request).resolve(length);
+        if (resolved == null) {
+            return this.partialContentGenerator.generateNotSatisfiableResponse(
+                    generateCachedResponse(request, clientContext, entry, now), length);
+        }
+        long offset = 0;
+        for (final ByteRange r: cached) {
+            if (r.contains(resolved)) {
+                return this.partialContentGenerator.generatePartialResponse(
+                        generateCachedResponse(request, clientContext, entry, now),
+                        entry.getResource(), offset + resolved.getFirst() - r.getFirst(), resolved, length);
+            }
+            offset += r.length();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the smallest range covering all bytes of the requested range
+     * not held by the given partial cache entry.
+     */
+    private static ByteRange getMissingRange(final HttpCacheEntry entry, final ByteRange range) {
+        final List<ByteRange> cached = PartialCacheEntryUpdater.getCachedRanges(entry);
+        long first = range.getFirst();
+        long last = range.getLast();
+        for (final ByteRange r: cached) {
+            if (r.getFirst() <= first && first <= r.getLast()) {
+                first = r.getLast() + 1;
+            }
+        }
+        for (int i = cached.size() - 1; i >= 0; i--) {
+            final ByteRange r = cached.get(i);
+            if (r.getFirst() <= last && last <= r.getLast()) {
+                last = r.getFirst() - 1;
+            }
+        }
+        return new ByteRange(first, last);
+    }
+
+    private void lookupPartialCacheEntry(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheContext clientContext) {
+        this.responseCache.getPartialCacheEntry(target, request, new CacheCallback<HttpCacheEntry>(future) {
+
+            @Override
+            void proceed(final HttpCacheEntry entry) {
+                if (entry == null) {
+                    log.debug("Cache miss");
+                    handleCacheMiss(future, target, request, clientContext);
+                } else {
+                    handlePartialCacheHit(future, target, request, clientContext, entry);
                 }
+            }
 
+            @Override
+            void recover(final Exception ex) {
+                log.warn("Unable to retrieve entries from cache", ex);
+                proceed(null);
             }
 
-        };
-        this.backend.execute(target, request, clientContext, chainedFutureCallback);
+        });
+    }
+
+    /**
+     * Answers a range request given a partial cache entry. Ranges held by
+     * the entry are served from the cache; otherwise the bytes missing from
+     * the entry are requested from the backend, merged into the entry and
+     * the response is generated from the merged entry.
+     */
+    private void handlePartialCacheHit(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheContext clientContext,
+            final HttpCacheEntry entry) {
+        final Date now = getCurrentDate();
+        final String validator = PartialCacheEntryUpdater.getStrongValidator(entry);
+        if (validator == null || !isPartialCacheEntryUsable(target, request, entry, now)) {
+            log.debug("Partial cache entry not usable");
+            handleCacheMiss(future, target, request, clientContext);
+            return;
+        }
+        final HttpResponse out = generatePartialCacheHit(request, clientContext, entry, now);
+        if (out != null) {
+            log.debug("Partial cache hit");
+            recordCacheHit(target, request);
+            completeCacheHit(future, target, request, clientContext, out);
+            return;
+        }
+        final ByteRange resolved = PartialContentGenerator.getRequestedRange(request).resolve(
+                PartialCacheEntryUpdater.getCompleteLength(entry));
+        recordCacheMiss(target, request);
+        if (!mayCallBackend(request)) {
+            future.completed(new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_GATEWAY_TIMEOUT, "Gateway Timeout"));
+            return;
+        }
+        final ByteRange missing = getMissingRange(entry, resolved);
+        final HttpRequestWrapper fillRequest = HttpRequestWrapper.wrap(request.getOriginal());
+        fillRequest.setHeaders(request.getAllHeaders());
+        fillRequest.setHeader(HeaderConstants.RANGE, "bytes=" + missing.getFirst() + "-" + missing.getLast());
+        fillRequest.setHeader(HeaderConstants.IF_RANGE, validator);
+        final Date requestDate = getCurrentDate();
+        this.log.trace("Calling the backend for missing range " + missing);
+
+        final BackendResponseConsumer responseConsumer = new BackendResponseConsumer(this.maxObjectSizeBytes);
+        this.backend.execute(HttpAsyncMethods.create(target, fillRequest), responseConsumer, clientContext,
+                new ChainedFutureCallback<HttpResponse>(future) {
+
+            @Override
+            public void completed(final HttpResponse httpResponse) {
+                httpResponse.addHeader(HeaderConstants.VIA, generateViaHeader(httpResponse));
+                final CloseableHttpResponse backendResponse = Proxies.enhanceResponse(httpResponse);
+                if (backendResponse.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT) {
+                    completePartialFill(future, target, request, clientContext, fillRequest, resolved,
+                            requestDate, getCurrentDate(), backendResponse, responseConsumer.getContent());
+                } else {
+                    handleBackendResponse(future, target, request, requestDate, getCurrentDate(),
+                            backendResponse, responseConsumer.getContent());
+                }
+            }
+
+        });
+    }
+
+    private void completePartialFill(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheContext clientContext,
+            final HttpRequestWrapper fillRequest,
+            final ByteRange range,
+            final Date requestDate,
+            final Date responseDate,
+            final CloseableHttpResponse backendResponse,
+            final ResourceWriter content) {
+        try {
+            this.responseCompliance.ensureProtocolCompliance(fillRequest, backendResponse);
+        } catch (final IOException ex) {
+            future.failed(ex);
+            return;
+        }
+        final boolean cacheable = content != null && isPartialResponseCacheable(fillRequest, backendResponse);
+        this.responseCache.cachePartialResponse(target, fillRequest, backendResponse, cacheable ? content : null,
+                requestDate, responseDate, new CacheCallback<HttpCacheEntry>(future) {
+
+            @Override
+            void proceed(final HttpCacheEntry entry) {
+                final HttpResponse out;
+                if (!cacheable || entry == null) {
+                    out = null;
+                } else if (PartialCacheEntryUpdater.getCachedRanges(entry) != null) {
+                    out = generatePartialCacheHit(request, clientContext, entry, responseDate);
+                } else {
+                    out = generateRangeResponse(request, entry,
+                            generateCachedResponse(request, clientContext, entry, responseDate),
+                            PartialContentGenerator.getRequestedRange(request));
+                }
+                if (out != null) {
+                    setResponseStatus(clientContext, CacheResponseStatus.VALIDATED);
+                    completeCacheHit(future, target, request, clientContext, out);
+                } else if (answersRange(backendResponse, range)) {
+                    future.completed(backendResponse);
+                } else {
+                    log.debug("Requested range not cached; requesting the complete range");
+                    callBackend(future, target, request, clientContext);
+                }
+            }
+
+            @Override
+            void recover(final Exception ex) {
+                log.warn("Unable to store partial response in cache", ex);
+                if (answersRange(backendResponse, range)) {
+                    future.completed(backendResponse);
+                } else {
+                    callBackend(future, target, request, clientContext);
+                }
+            }
+
+        });
+    }
+
+    /**
+     * Returns {@code true} if the given partial response holds exactly
+     * the given range.
+     */
+    private static boolean answersRange(final HttpResponse response, final ByteRange range) {
+        final Header contentRange = response.getFirstHeader(HeaderConstants.CONTENT_RANGE);
+        final ByteRange.ContentRange cr = contentRange != null
+                ? ByteRange.parseContentRange(contentRange.getValue()) : null;
+        return cr != null && cr.range.equals(range);
+    }
+
+    /**
+     * Returns {@code true} if the given partial response to a range request
+     * can be combined with other partial responses in the cache. Partial
+     * responses must carry a strong validator and would need to be cacheable
+     * as complete responses.
+     */
+    boolean isPartialResponseCacheable(final HttpRequest request, final HttpResponse response) {
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT
+                || PartialContentGenerator.getRequestedRange(request) == null
+                || response.containsHeader(HeaderConstants.VARY)
+                || PartialCacheEntryUpdater.getStrongValidator(response) == null) {
+            return false;
+        }
+        final Header contentRange = response.getFirstHeader(HeaderConstants.CONTENT_RANGE);
+        if (contentRange == null || ByteRange.parseContentRange(contentRange.getValue()) == null) {
+            return false;
+        }
+        final HttpResponse complete = new BasicHttpResponse(
+                response.getProtocolVersion(), HttpStatus.SC_OK, "OK");
+        complete.setHeaders(response.getAllHeaders());
+        complete.removeHeaders(HeaderConstants.CONTENT_RANGE);
+        complete.removeHeaders(HTTP.CONTENT_LEN);
+        return this.responseCachingPolicy.isResponseCacheable(request, complete);
+    }
+
+    private void storePartialResponse(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final Date requestDate,
+            final Date responseDate,
+            final CloseableHttpResponse backendResponse,
+            final ResourceWriter content) {
+        this.responseCache.cachePartialResponse(target, request, backendResponse, content,
+                requestDate, responseDate, new CacheCallback<HttpCacheEntry>(future) {
+
+            @Override
+            void proceed(final HttpCacheEntry entry) {
+                future.completed(backendResponse);
+            }
+
+            @Override
+            void recover(final Exception ex) {
+                log.warn("Unable to store partial response in cache", ex);
+                future.completed(backendResponse);
+            }
+
+        });
     }
 
     private boolean revalidationResponseIsTooOld(
@@ -726,15 +1721,10 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
                 httpResponse.addHeader(HeaderConstants.VIA, generateViaHeader(httpResponse));
 
                 if (httpResponse.getStatusLine().getStatusCode() != HttpStatus.SC_NOT_MODIFIED) {
-                    try {
-                        future.completed(handleBackendResponse(
-                                target, request, requestDate, responseDate,
-                                Proxies.enhanceResponse(httpResponse)));
-                        return;
-                    } catch (final IOException e) {
-                        future.failed(e);
-                        return;
-                    }
+                    handleBackendResponse(future,
+                            target, request, requestDate, responseDate,
+                            Proxies.enhanceResponse(httpResponse));
+                    return;
                 }
 
                 final Header resultEtagHeader = httpResponse.getFirstHeader(HeaderConstants.ETAG);
@@ -761,19 +1751,23 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
 
                 recordCacheUpdate(clientContext);
 
-                final HttpCacheEntry responseEntry = getUpdatedVariantEntry(target,
-                        conditionalRequest, requestDate, responseDate, httpResponse,
-                        matchingVariant, matchedEntry);
+                CachingHttpAsyncClient.this.responseCache.updateVariantCacheEntry(target, conditionalRequest,
+                        matchedEntry, httpResponse, requestDate, responseDate, matchingVariant.getCacheKey(),
+                        new CacheCallback<HttpCacheEntry>(future) {
 
-                final HttpResponse resp = CachingHttpAsyncClient.this.responseGenerator.generateResponse(request, responseEntry);
-                tryToUpdateVariantMap(target, request, matchingVariant);
+                    @Override
+                    void proceed(final HttpCacheEntry responseEntry) {
+                        final HttpResponse resp = CachingHttpAsyncClient.this.responseGenerator.generateResponse(request, responseEntry);
+                        tryToUpdateVariantMap(future, target, request, matchingVariant, responseEntry, resp);
+                    }
 
-                if (shouldSendNotModifiedResponse(request, responseEntry)) {
-                    future.completed(CachingHttpAsyncClient.this.responseGenerator.generateNotModifiedResponse(responseEntry));
-                    return;
-                }
+                    @Override
+                    void recover(final Exception ex) {
+                        CachingHttpAsyncClient.this.log.warn("Could not update cache entry", ex);
+                        proceed(matchedEntry);
+                    }
 
-                future.completed(resp);
+                });
             }
 
         };
@@ -792,33 +1786,32 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         callBackend(future, target, unconditional, clientContext);
     }
 
-    private HttpCacheEntry getUpdatedVariantEntry(
-            final HttpHost target,
-            final HttpRequest conditionalRequest,
-            final Date requestDate,
-            final Date responseDate,
-            final HttpResponse backendResponse,
-            final Variant matchingVariant,
-            final HttpCacheEntry matchedEntry) {
-        HttpCacheEntry responseEntry = matchedEntry;
-        try {
-            responseEntry = this.responseCache.updateVariantCacheEntry(target, conditionalRequest,
-                    matchedEntry, backendResponse, requestDate, responseDate, matchingVariant.getCacheKey());
-        } catch (final IOException ioe) {
-            this.log.warn("Could not update cache entry", ioe);
-        }
-        return responseEntry;
-    }
-
     private void tryToUpdateVariantMap(
+            final BasicFuture<HttpResponse> future,
             final HttpHost target,
             final HttpRequest request,
-            final Variant matchingVariant) {
-        try {
-            this.responseCache.reuseVariantEntryFor(target, request, matchingVariant);
-        } catch (final IOException ioe) {
-            this.log.warn("Could not update cache entry to reuse variant", ioe);
-        }
+            final Variant matchingVariant,
+            final HttpCacheEntry responseEntry,
+            final HttpResponse resp) {
+        this.responseCache.reuseVariantEntryFor(target, request, matchingVariant, new CacheCallback<Void>(future) {
+
+            @Override
+            void proceed(final Void result) {
+                if (shouldSendNotModifiedResponse(request, responseEntry)) {
+                    future.completed(CachingHttpAsyncClient.this.responseGenerator.generateNotModifiedResponse(responseEntry));
+                    return;
+                }
+
+                future.completed(resp);
+            }
+
+            @Override
+            void recover(final Exception ex) {
+                log.warn("Could not update cache entry to reuse variant", ex);
+                proceed(null);
+            }
+
+        });
     }
 
     private boolean shouldSendNotModifiedResponse(
@@ -894,20 +1887,20 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         }
 
         if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
-            final HttpCacheEntry updatedEntry;
-            try {
-                updatedEntry = CachingHttpAsyncClient.this.responseCache.updateCacheEntry(target, request, cacheEntry,
-                        httpResponse, requestDate, responseDate);
-            } catch (final IOException e) {
-                future.failed(e);
-                return;
-            }
-            if (CachingHttpAsyncClient.this.suitabilityChecker.isConditional(request)
-                    && CachingHttpAsyncClient.this.suitabilityChecker.allConditionalsMatch(request, updatedEntry, new Date())) {
-                future.completed(CachingHttpAsyncClient.this.responseGenerator.generateNotModifiedResponse(updatedEntry));
-                return;
-            }
-            future.completed(CachingHttpAsyncClient.this.responseGenerator.generateResponse(request, updatedEntry));
+            this.responseCache.updateCacheEntry(target, request, cacheEntry,
+                    httpResponse, requestDate, responseDate, new CacheCallback<HttpCacheEntry>(future) {
+
+                @Override
+                void proceed(final HttpCacheEntry updatedEntry) {
+                    if (CachingHttpAsyncClient.this.suitabilityChecker.isConditional(request)
+                            && CachingHttpAsyncClient.this.suitabilityChecker.allConditionalsMatch(request, updatedEntry, new Date())) {
+                        future.completed(CachingHttpAsyncClient.this.responseGenerator.generateNotModifiedResponse(updatedEntry));
+                        return;
+                    }
+                    future.completed(CachingHttpAsyncClient.this.responseGenerator.generateResponse(request, updatedEntry));
+                }
+
+            });
             return;
         }
 
@@ -920,14 +1913,9 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
             return;
         }
 
-        try {
-            final CloseableHttpResponse backendResponse = handleBackendResponse(
-                    target, conditionalRequest, requestDate, responseDate,
-                    Proxies.enhanceResponse(httpResponse));
-            future.completed(backendResponse);
-        } catch (final IOException e) {
-            future.failed(e);
-        }
+        handleBackendResponse(future,
+                target, conditionalRequest, requestDate, responseDate,
+                Proxies.enhanceResponse(httpResponse));
     }
 
     private boolean staleIfErrorAppliesTo(final int statusCode) {
@@ -937,32 +1925,125 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
                 || statusCode == HttpStatus.SC_GATEWAY_TIMEOUT;
     }
 
-    CloseableHttpResponse handleBackendResponse(
+    void handleBackendResponse(
+            final BasicFuture<HttpResponse> future,
             final HttpHost target,
             final HttpRequestWrapper request,
             final Date requestDate,
             final Date responseDate,
-            final CloseableHttpResponse backendResponse) throws IOException {
+            final CloseableHttpResponse backendResponse) {
+        handleBackendResponse(future, target, request, requestDate, responseDate, backendResponse, null);
+    }
+
+    /**
+     * @param content content of the backend response collected while it was
+     *   received, if any. Responses with content too large to be cached
+     *   are not cached.
+     */
+    private void handleBackendResponse(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final Date requestDate,
+            final Date responseDate,
+            final CloseableHttpResponse backendResponse,
+            final ResourceWriter content) {
 
         this.log.debug("Handling Backend response");
-        this.responseCompliance.ensureProtocolCompliance(request, backendResponse);
+        try {
+            this.responseCompliance.ensureProtocolCompliance(request, backendResponse);
+        } catch (final IOException ex) {
+            future.failed(ex);
+            return;
+        }
 
-        final boolean cacheable = this.responseCachingPolicy.isResponseCacheable(request, backendResponse);
-        this.responseCache.flushInvalidatedCacheEntriesFor(target, request, backendResponse);
-        if (cacheable &&
-            !alreadyHaveNewerCacheEntry(target, request, backendResponse)) {
-            storeRequestIfModifiedSinceFor304Response(request, backendResponse);
-            return this.responseCache.cacheAndReturnResponse(target, request, backendResponse, requestDate,
-                    responseDate);
+        if (content != null && isPartialResponseCacheable(request, backendResponse)) {
+            storePartialResponse(future, target, request, requestDate, responseDate, backendResponse, content);
+            return;
         }
-        if (!cacheable) {
-            try {
-                this.responseCache.flushCacheEntriesFor(target, request);
-            } catch (final IOException ioe) {
-                this.log.warn("Unable to flush invalid cache entries", ioe);
+        final boolean cacheable = (content == null || !content.isOverflown())
+                && this.responseCachingPolicy.isResponseCacheable(request, backendResponse);
+        this.responseCache.flushInvalidatedCacheEntriesFor(target, request, backendResponse, new CacheCallback<Void>(future) {
+
+            @Override
+            void proceed(final Void result) {
+                if (cacheable) {
+                    storeBackendResponse(future, target, request, requestDate, responseDate, backendResponse, content);
+                } else {
+                    flushCacheEntriesFor(future, target, request, backendResponse);
+                }
             }
-        }
-        return backendResponse;
+
+            @Override
+            void recover(final Exception ex) {
+                log.warn("Unable to flush invalidated entries from cache", ex);
+                proceed(null);
+            }
+
+        });
+    }
+
+    private void storeBackendResponse(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final Date requestDate,
+            final Date responseDate,
+            final CloseableHttpResponse backendResponse,
+            final ResourceWriter content) {
+        this.responseCache.getCacheEntry(target, request, new CacheCallback<HttpCacheEntry>(future) {
+
+            @Override
+            void proceed(final HttpCacheEntry existing) {
+                if (alreadyHaveNewerCacheEntry(existing, backendResponse)) {
+                    future.completed(backendResponse);
+                    return;
+                }
+                storeRequestIfModifiedSinceFor304Response(request, backendResponse);
+                final CacheCallback<CloseableHttpResponse> callback = new CacheCallback<CloseableHttpResponse>(future) {
+
+                    @Override
+                    void proceed(final CloseableHttpResponse response) {
+                        future.completed(response);
+                    }
+
+                };
+                if (content != null && backendResponse.getEntity() != null) {
+                    CachingHttpAsyncClient.this.responseCache.cacheAndReturnResponse(target, request,
+                            backendResponse, content, requestDate, responseDate, callback);
+                } else {
+                    CachingHttpAsyncClient.this.responseCache.cacheAndReturnResponse(target, request,
+                            backendResponse, requestDate, responseDate, callback);
+                }
+            }
+
+            @Override
+            void recover(final Exception ex) {
+                proceed(null);
+            }
+
+        });
+    }
+
+    private void flushCacheEntriesFor(
+            final BasicFuture<HttpResponse> future,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final CloseableHttpResponse backendResponse) {
+        this.responseCache.flushCacheEntriesFor(target, request, new CacheCallback<Void>(future) {
+
+            @Override
+            void proceed(final Void result) {
+                future.completed(backendResponse);
+            }
+
+            @Override
+            void recover(final Exception ex) {
+                log.warn("Unable to flush invalid cache entries", ex);
+                proceed(null);
+            }
+
+        });
     }
 
     /**
@@ -985,15 +2066,8 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
     }
 
     private boolean alreadyHaveNewerCacheEntry(
-            final HttpHost target,
-            final HttpRequest request,
+            final HttpCacheEntry existing,
             final HttpResponse backendResponse) {
-        HttpCacheEntry existing = null;
-        try {
-            existing = this.responseCache.getCacheEntry(target, request);
-        } catch (final IOException ioe) {
-            // nop
-        }
         if (existing == null) {
             return false;
         }
@@ -1010,4 +2084,52 @@ public class CachingHttpAsyncClient implements HttpAsyncClient {
         return responseDate != null && responseDate.before(entryDate);
     }
 
+    /**
+     * Continues request execution once a cache operation has completed.
+     * Unless {@link #recover(Exception)} is overridden a failed cache
+     * operation fails the request.
+     */
+    private abstract static class CacheCallback<T> implements FutureCallback<T> {
+
+        private final BasicFuture<?> future;
+
+        CacheCallback(final BasicFuture<?> future) {
+            this.future = future;
+        }
+
+        abstract void proceed(T result) throws IOException;
+
+        void recover(final Exception ex) throws IOException {
+            this.future.failed(ex);
+        }
+
+        @Override
+        public void completed(final T result) {
+            try {
+                proceed(result);
+            } catch (final IOException ex) {
+                this.future.failed(ex);
+            } catch (final RuntimeException ex) {
+                this.future.failed(ex);
+            }
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            try {
+                recover(ex);
+            } catch (final IOException ex2) {
+                this.future.failed(ex2);
+            } catch (final RuntimeException ex2) {
+                this.future.failed(ex2);
+            }
+        }
+
+        @Override
+        public void cancelled() {
+            this.future.cancel();
+        }
+
+    }
+
 }
@@ -0,0 +1,180 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * {@link HttpAsyncResponseConsumer} decorator that copies response content
+ * into a {@link ResourceWriter} as it passes through to the decorated consumer, so that
+ * the response can be stored in the cache once complete. Copying is given
+ * up as soon as the content exceeds the maximum size of cacheable objects.
+ * <p>
+ * The decorated consumer is given a content decoder that does not support
+ * direct transfer to files, so all content passes through the writer.
+ */
+abstract class CachingResponseConsumer<T> implements HttpAsyncResponseConsumer<T> {
+
+    private final HttpAsyncResponseConsumer<T> consumer;
+    private final long maxObjectSize;
+
+    private volatile HttpResponse response;
+    private volatile ResourceWriter content;
+
+    CachingResponseConsumer(final HttpAsyncResponseConsumer<T> consumer, final long maxObjectSize) {
+        super();
+        this.consumer = consumer;
+        this.maxObjectSize = maxObjectSize;
+    }
+
+    /**
+     * Decides whether or not the response is to be cached, given its head.
+     */
+    abstract boolean isCacheable(HttpResponse response);
+
+    /**
+     * Stores the complete response in the cache.
+     *
+     * @param response response head.
+     * @param content response content.
+     */
+    abstract void cacheResponse(HttpResponse response, ResourceWriter content);
+
+    @Override
+    public void responseReceived(final HttpResponse response) throws IOException, HttpException {
+        this.response = response;
+        if (isCacheable(response)) {
+            final long len = response.getEntity() != null ? response.getEntity().getContentLength() : 0;
+            this.content = new ResourceWriter(this.maxObjectSize, len, false);
+        }
+        this.consumer.responseReceived(response);
+    }
+
+    @Override
+    public void consumeContent(final ContentDecoder decoder, final IOControl ioControl) throws IOException {
+        if (this.content == null) {
+            this.consumer.consumeContent(decoder, ioControl);
+        } else {
+            this.consumer.consumeContent(new CopyingContentDecoder(decoder), ioControl);
+        }
+    }
+
+    private void copy(final ByteBuffer src) {
+        final ResourceWriter local = this.content;
+        if (local == null) {
+            return;
+        }
+        local.write(src);
+        if (local.isOverflown()) {
+            this.content = null;
+        }
+    }
+
+    @Override
+    public void responseCompleted(final HttpContext context) {
+        this.consumer.responseCompleted(context);
+        final ResourceWriter local = this.content;
+        this.content = null;
+        if (local != null && this.consumer.getException() == null) {
+            cacheResponse(this.response, local);
+        }
+    }
+
+    @Override
+    public void failed(final Exception ex) {
+        this.content = null;
+        this.consumer.failed(ex);
+    }
+
+    @Override
+    public Exception getException() {
+        return this.consumer.getException();
+    }
+
+    @Override
+    public T getResult() {
+        return this.consumer.getResult();
+    }
+
+    @Override
+    public boolean isDone() {
+        return this.consumer.isDone();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.consumer.close();
+    }
+
+    @Override
+    public boolean cancel() {
+        this.content = null;
+        return this.consumer.cancel();
+    }
+
+    class CopyingContentDecoder implements ContentDecoder {
+
+        private final ContentDecoder decoder;
+
+        CopyingContentDecoder(final ContentDecoder decoder) {
+            super();
+            this.decoder = decoder;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            final int bytesRead = this.decoder.read(dst);
+            if (bytesRead > 0) {
+                final ByteBuffer src = dst.duplicate();
+                src.limit(dst.position());
+                src.position(dst.position() - bytesRead);
+                copy(src);
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return this.decoder.isCompleted();
+        }
+
+        @Override
+        public String toString() {
+            return this.decoder.toString();
+        }
+
+    }
+
+}
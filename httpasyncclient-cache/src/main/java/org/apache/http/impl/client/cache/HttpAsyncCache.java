@@ -0,0 +1,130 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * Non-blocking counterpart of {@link HttpCache}. Outcome of operations
+ * is reported to the given callback, which may be invoked by the calling
+ * thread before the method returns.
+ */
+interface HttpAsyncCache {
+
+    /**
+     * Clear all matching {@link HttpCacheEntry}s.
+     */
+    void flushCacheEntriesFor(HttpHost host, HttpRequest request, FutureCallback<Void> callback);
+
+    /**
+     * Clear invalidated matching {@link HttpCacheEntry}s.
+     */
+    void flushInvalidatedCacheEntriesFor(HttpHost host, HttpRequest request, FutureCallback<Void> callback);
+
+    /**
+     * Clear any entries that may be invalidated by the given response to
+     * a particular request.
+     */
+    void flushInvalidatedCacheEntriesFor(
+            HttpHost host, HttpRequest request, HttpResponse response, FutureCallback<Void> callback);
+
+    /**
+     * Retrieve matching {@link HttpCacheEntry} from the cache if it exists.
+     */
+    void getCacheEntry(HttpHost host, HttpRequest request, FutureCallback<HttpCacheEntry> callback);
+
+    /**
+     * Retrieve all variants from the cache mapped by their ETags.
+     */
+    void getVariantCacheEntriesWithEtags(
+            HttpHost host, HttpRequest request, FutureCallback<Map<String, Variant>> callback);
+
+    /**
+     * Store a {@link HttpResponse} in the cache if possible, and return it.
+     */
+    void cacheAndReturnResponse(
+            HttpHost host, HttpRequest request, CloseableHttpResponse originResponse,
+            Date requestSent, Date responseReceived, FutureCallback<CloseableHttpResponse> callback);
+
+    /**
+     * Store a {@link HttpResponse} whose content has already been collected
+     * by the given {@link ResourceWriter} in the cache, and return it.
+     * The response entity must be backed by the same content.
+     */
+    void cacheAndReturnResponse(
+            HttpHost host, HttpRequest request, CloseableHttpResponse originResponse, ResourceWriter content,
+            Date requestSent, Date responseReceived, FutureCallback<CloseableHttpResponse> callback);
+
+    /**
+     * Retrieve the partial {@link HttpCacheEntry} holding ranges of the
+     * representation cached from partial responses, if it exists.
+     */
+    void getPartialCacheEntry(HttpHost host, HttpRequest request, FutureCallback<HttpCacheEntry> callback);
+
+    /**
+     * Combine a partial (206) {@link HttpResponse} whose content has been
+     * collected by the given {@link ResourceWriter} with the ranges already
+     * cached for the representation. The callback is completed with the
+     * resulting entry, which is a regular entry once all ranges of the
+     * representation have been cached, or with {@code null} if the response
+     * cannot be cached, in which case ranges cached so far are discarded.
+     */
+    void cachePartialResponse(
+            HttpHost host, HttpRequest request, HttpResponse originResponse, ResourceWriter content,
+            Date requestSent, Date responseReceived, FutureCallback<HttpCacheEntry> callback);
+
+    /**
+     * Update a {@link HttpCacheEntry} using a 304 {@link HttpResponse}.
+     */
+    void updateCacheEntry(
+            HttpHost target, HttpRequest request, HttpCacheEntry stale, HttpResponse originResponse,
+            Date requestSent, Date responseReceived, FutureCallback<HttpCacheEntry> callback);
+
+    /**
+     * Update a specific {@link HttpCacheEntry} representing a cached variant
+     * using a 304 {@link HttpResponse}.
+     */
+    void updateVariantCacheEntry(
+            HttpHost target, HttpRequest request, HttpCacheEntry stale, HttpResponse originResponse,
+            Date requestSent, Date responseReceived, String cacheKey, FutureCallback<HttpCacheEntry> callback);
+
+    /**
+     * Specifies cache should reuse the given cached variant to satisfy
+     * requests whose varying headers match those of the given client request.
+     */
+    void reuseVariantEntryFor(
+            HttpHost target, HttpRequest request, Variant variant, FutureCallback<Void> callback);
+
+}
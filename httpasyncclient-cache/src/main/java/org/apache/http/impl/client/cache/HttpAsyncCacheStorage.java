@@ -0,0 +1,97 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.util.concurrent.Future;
+
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * Non-blocking counterpart of {@link org.apache.http.client.cache.HttpCacheStorage}.
+ * <p>
+ * Operations return immediately and report their outcome through the returned
+ * {@link Future} and the given callback, which may be {@code null}. Callbacks
+ * may be invoked by any thread including the calling one, typically an I/O
+ * dispatch thread of the client, and must not block. Implementations backed by
+ * a disk or a remote store are expected to perform I/O without tying up
+ * the calling thread.
+ * <p>
+ * Synchronous storage implementations can be used by means of
+ * {@link HttpAsyncCacheStorageAdaptor}.
+ *
+ * @since 4.1.5
+ */
+public interface HttpAsyncCacheStorage {
+
+    /**
+     * Retrieves the cache entry stored under the given key.
+     *
+     * @param key cache key.
+     * @param callback future callback.
+     * @return future completed with the cache entry or {@code null}
+     *   if there is none.
+     */
+    Future<HttpCacheEntry> getEntry(String key, FutureCallback<HttpCacheEntry> callback);
+
+    /**
+     * Stores a cache entry under the given key.
+     *
+     * @param key cache key.
+     * @param entry cache entry.
+     * @param callback future callback.
+     * @return future completed once the entry has been stored.
+     */
+    Future<Void> putEntry(String key, HttpCacheEntry entry, FutureCallback<Void> callback);
+
+    /**
+     * Removes the cache entry stored under the given key, if any.
+     *
+     * @param key cache key.
+     * @param callback future callback.
+     * @return future completed once the entry has been removed.
+     */
+    Future<Void> removeEntry(String key, FutureCallback<Void> callback);
+
+    /**
+     * Atomically replaces the cache entry stored under the given key with
+     * the entry computed by the update callback from the existing one.
+     * The update callback can be invoked more than once if the entry is
+     * changed concurrently. If the entry cannot be updated the future fails
+     * with an {@link org.apache.http.client.cache.HttpCacheUpdateException}.
+     *
+     * @param key cache key.
+     * @param updateCallback computes the new entry from the existing one,
+     *   which is {@code null} if there is none.
+     * @param callback future callback.
+     * @return future completed once the entry has been updated.
+     */
+    Future<Void> updateEntry(
+            String key, HttpCacheUpdateCallback updateCallback, FutureCallback<Void> callback);
+
+}
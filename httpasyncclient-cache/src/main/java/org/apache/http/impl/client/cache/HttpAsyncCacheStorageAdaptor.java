@@ -0,0 +1,197 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.util.Args;
+
+/**
+ * {@link HttpAsyncCacheStorage} that runs operations of a synchronous
+ * {@link HttpCacheStorage} on an {@link Executor}, so that a storage doing
+ * blocking I/O does not hold up I/O dispatch threads.
+ * <p>
+ * The executor should be bounded. Operations it rejects fail with
+ * {@link RejectedExecutionException}, which the caching client treats
+ * like any other storage failure.
+ *
+ * @since 4.1.5
+ */
+@Contract(threading = ThreadingBehavior.SAFE_CONDITIONAL)
+public class HttpAsyncCacheStorageAdaptor implements HttpAsyncCacheStorage, Closeable {
+
+    private final HttpCacheStorage storage;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+
+    /**
+     * Creates an adaptor running storage operations on the given executor.
+     *
+     * @param storage synchronous cache storage.
+     * @param executor executor to run storage operations on.
+     */
+    public HttpAsyncCacheStorageAdaptor(final HttpCacheStorage storage, final Executor executor) {
+        super();
+        Args.notNull(storage, "Cache storage");
+        Args.notNull(executor, "Executor");
+        this.storage = storage;
+        this.executor = executor;
+        this.ownExecutor = null;
+    }
+
+    /**
+     * Creates an adaptor running storage operations on a thread pool of its own.
+     * The pool gets shut down by {@link #close()}.
+     *
+     * @param storage synchronous cache storage.
+     * @param maxThreads maximum number of threads.
+     * @param maxQueueSize maximum number of operations waiting for a thread.
+     */
+    public HttpAsyncCacheStorageAdaptor(
+            final HttpCacheStorage storage, final int maxThreads, final int maxQueueSize) {
+        super();
+        Args.notNull(storage, "Cache storage");
+        Args.positive(maxThreads, "Max threads");
+        Args.positive(maxQueueSize, "Max queue size");
+        final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(maxThreads, maxThreads,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(maxQueueSize));
+        threadPool.allowCoreThreadTimeOut(true);
+        this.storage = storage;
+        this.executor = threadPool;
+        this.ownExecutor = threadPool;
+    }
+
+    private <T> Future<T> submit(final BasicFuture<T> future, final Operation<T> operation) {
+        try {
+            this.executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    final T result;
+                    try {
+                        result = operation.execute();
+                    } catch (final Exception ex) {
+                        future.failed(ex);
+                        return;
+                    }
+                    future.completed(result);
+                }
+
+            });
+        } catch (final RejectedExecutionException ex) {
+            future.failed(ex);
+        }
+        return future;
+    }
+
+    @Override
+    public Future<HttpCacheEntry> getEntry(final String key, final FutureCallback<HttpCacheEntry> callback) {
+        return submit(new BasicFuture<HttpCacheEntry>(callback), new Operation<HttpCacheEntry>() {
+
+            @Override
+            public HttpCacheEntry execute() throws Exception {
+                return storage.getEntry(key);
+            }
+
+        });
+    }
+
+    @Override
+    public Future<Void> putEntry(
+            final String key, final HttpCacheEntry entry, final FutureCallback<Void> callback) {
+        return submit(new BasicFuture<Void>(callback), new Operation<Void>() {
+
+            @Override
+            public Void execute() throws Exception {
+                storage.putEntry(key, entry);
+                return null;
+            }
+
+        });
+    }
+
+    @Override
+    public Future<Void> removeEntry(final String key, final FutureCallback<Void> callback) {
+        return submit(new BasicFuture<Void>(callback), new Operation<Void>() {
+
+            @Override
+            public Void execute() throws Exception {
+                storage.removeEntry(key);
+                return null;
+            }
+
+        });
+    }
+
+    @Override
+    public Future<Void> updateEntry(
+            final String key,
+            final HttpCacheUpdateCallback updateCallback,
+            final FutureCallback<Void> callback) {
+        return submit(new BasicFuture<Void>(callback), new Operation<Void>() {
+
+            @Override
+            public Void execute() throws Exception {
+                storage.updateEntry(key, updateCallback);
+                return null;
+            }
+
+        });
+    }
+
+    /**
+     * Shuts down the thread pool of the adaptor, if it has one of its own.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.ownExecutor != null) {
+            this.ownExecutor.shutdown();
+        }
+    }
+
+    interface Operation<T> {
+
+        T execute() throws Exception;
+
+    }
+
+}
@@ -0,0 +1,801 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.util.Args;
+import org.apache.http.util.Asserts;
+
+/**
+ * {@link HttpCacheStorage} implementation that persists cache entries
+ * in a directory, so that the cache survives restarts of the application.
+ * <p>
+ * Cache entries are appended to a log of fixed size segment files that are
+ * memory-mapped in full. Response bodies are served straight from the mapped
+ * segments without being copied onto the heap. A compact index file, also
+ * memory-mapped, records the location of every entry. On startup the storage
+ * rebuilds its state from the index alone without reading any segment.
+ * <p>
+ * Records in the index and in segments carry checksums. Index records left
+ * incomplete by a crash are discarded when the index is replayed. Entries
+ * whose record in a segment fails its checksum are dropped on first access.
+ * Dirty pages of the mapped files are forced to disk periodically and when
+ * the storage is closed; entries stored shortly before a crash of
+ * the operating system may get lost.
+ * <p>
+ * The total size of cache entry records is bounded. The least recently used
+ * entries are evicted in order to make room for new ones. A background task
+ * periodically compacts segments mostly holding records of entries that have
+ * been replaced, removed or evicted, by moving their remaining records to
+ * the segment currently written to, and rewrites the index once it mostly
+ * consists of superseded records.
+ * <p>
+ * A directory must be used by one storage instance at a time only. The storage
+ * must be closed once no longer needed.
+ *
+ * @since 4.1.5
+ */
+@Contract(threading = ThreadingBehavior.SAFE)
+public class MappedHttpCacheStorage implements HttpCacheStorage, Closeable {
+
+    /** Default segment size. */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    static final long COMPACTION_INTERVAL = 60000;
+
+    private static final int RECORD_MAGIC = 0x48434531;
+    private static final int INDEX_INITIAL_SIZE = 256 * 1024;
+    private static final int MIN_INDEX_RECORDS = 1024;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String INDEX_PREFIX = "index-";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final File directory;
+    private final long maxSize;
+    private final int segmentSize;
+    private final LinkedHashMap<String, Location> locations;
+    private final TreeMap<Integer, MappedSegment> segments;
+    private final List<File> obsolete;
+    private final ScheduledExecutorService scheduler;
+
+    private MappedIndex index;
+    private int indexGeneration;
+    private MappedSegment active;
+    private long size;
+    private long compactions;
+    private boolean closed;
+
+    /**
+     * Creates a storage, recovering the cache entries persisted in the given
+     * directory, if any.
+     *
+     * @param directory cache directory. Gets created if it does not exist.
+     * @param maxSize maximum total size of cache entry records in bytes.
+     * @param segmentSize size of segment files in bytes. Entries with larger
+     *   records do not get stored.
+     * @throws IOException in case of an I/O error reading the cache directory.
+     */
+    public MappedHttpCacheStorage(
+            final File directory,
+            final long maxSize,
+            final int segmentSize) throws IOException {
+        super();
+        Args.notNull(directory, "Cache directory");
+        Args.positive(maxSize, "Max size");
+        Args.positive(segmentSize, "Segment size");
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.segmentSize = segmentSize;
+        this.locations = new LinkedHashMap<String, Location>(16, 0.75f, true);
+        this.segments = new TreeMap<Integer, MappedSegment>();
+        this.obsolete = new LinkedList<File>();
+        open();
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "httpclient-cache-compaction");
+                t.setDaemon(true);
+                return t;
+            }
+
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (final IOException ex) {
+                    log.warn("I/O error compacting cache storage", ex);
+                }
+            }
+
+        }, COMPACTION_INTERVAL, COMPACTION_INTERVAL, TimeUnit.MILLISECONDS);
+        this.scheduler = executor;
+    }
+
+    /**
+     * Creates a storage with the default segment size.
+     *
+     * @param directory cache directory. Gets created if it does not exist.
+     * @param maxSize maximum total size of cache entry records in bytes.
+     * @throws IOException in case of an I/O error reading the cache directory.
+     */
+    public MappedHttpCacheStorage(final File directory, final long maxSize) throws IOException {
+        this(directory, maxSize, DEFAULT_SEGMENT_SIZE);
+    }
+
+    private File segmentFile(final int id) {
+        return new File(this.directory, String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private File indexFile(final int generation) {
+        return new File(this.directory, String.format("%s%08d%s", INDEX_PREFIX, generation, INDEX_SUFFIX));
+    }
+
+    private static int parseId(final String name, final String prefix, final String suffix) {
+        if (name.startsWith(prefix) && name.endsWith(suffix)) {
+            try {
+                return Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length()));
+            } catch (final NumberFormatException ignore) {
+            }
+        }
+        return -1;
+    }
+
+    private void open() throws IOException {
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + this.directory);
+        }
+        final File[] files = this.directory.listFiles();
+        if (files == null) {
+            throw new IOException("Unable to list cache directory " + this.directory);
+        }
+        final Map<Integer, File> segmentFiles = new HashMap<Integer, File>();
+        final List<File> indexFiles = new ArrayList<File>();
+        int generation = 0;
+        for (final File file: files) {
+            final String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // left behind by an interrupted index rewrite
+                deleteFile(file);
+                continue;
+            }
+            final int id = parseId(name, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+            if (id >= 0) {
+                segmentFiles.put(id, file);
+            }
+            final int gen = parseId(name, INDEX_PREFIX, INDEX_SUFFIX);
+            if (gen >= 0) {
+                indexFiles.add(file);
+                generation = Math.max(generation, gen);
+            }
+        }
+        this.indexGeneration = generation;
+        this.index = new MappedIndex(indexFile(generation), INDEX_INITIAL_SIZE);
+        for (final File file: indexFiles) {
+            if (!file.equals(this.index.getFile())) {
+                deleteFile(file);
+            }
+        }
+
+        final Map<Integer, Integer> ends = new HashMap<Integer, Integer>();
+        this.index.replay(new MappedIndex.Visitor() {
+
+            @Override
+            public void put(
+                    final String key,
+                    final int segmentId,
+                    final int offset,
+                    final int length,
+                    final int checksum) {
+                locations.put(key, new Location(key, segmentId, offset, length, checksum, false));
+                final Integer end = ends.get(segmentId);
+                if (end == null || end.intValue() < offset + length) {
+                    ends.put(segmentId, offset + length);
+                }
+            }
+
+            @Override
+            public void remove(final String key) {
+                locations.remove(key);
+            }
+
+        });
+
+        for (final Map.Entry<Integer, File> entry: segmentFiles.entrySet()) {
+            final Integer id = entry.getKey();
+            final File file = entry.getValue();
+            final Integer end = ends.get(id);
+            if (end == null) {
+                deleteFile(file);
+                continue;
+            }
+            final MappedSegment segment = new MappedSegment(id, file, this.segmentSize);
+            segment.setPosition(Math.min(end, segment.getCapacity()));
+            this.segments.put(id, segment);
+        }
+        final List<String> lost = new ArrayList<String>();
+        for (final Location location: this.locations.values()) {
+            final MappedSegment segment = this.segments.get(location.segmentId);
+            if (segment == null || location.offset + location.length > segment.getCapacity()) {
+                lost.add(location.key);
+            } else {
+                segment.addLiveBytes(location.length);
+                this.size += location.length;
+            }
+        }
+        for (final String key: lost) {
+            this.log.warn("Cache entry [" + key + "] lost: segment missing");
+            this.locations.remove(key);
+            this.index.appendRemove(key);
+        }
+        if (this.segments.isEmpty()) {
+            this.active = newSegment(0);
+        } else {
+            this.active = this.segments.lastEntry().getValue();
+        }
+        evict();
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("Recovered " + this.locations.size() + " cache entries ("
+                    + this.size + " bytes) from " + this.directory);
+        }
+    }
+
+    private MappedSegment newSegment(final int id) throws IOException {
+        final MappedSegment segment = new MappedSegment(id, segmentFile(id), this.segmentSize);
+        this.segments.put(id, segment);
+        return segment;
+    }
+
+    private void deleteFile(final File file) {
+        if (file.exists() && !file.delete()) {
+            // still mapped on some platforms
+            this.obsolete.add(file);
+        }
+    }
+
+    private void ensureOpen() {
+        Asserts.check(!this.closed, "Cache storage has been closed");
+    }
+
+    /**
+     * Makes sure the active segment has room for a record of the given length,
+     * starting a new segment if necessary.
+     */
+    private void ensureCapacity(final int length) throws IOException {
+        if (this.active.remaining() < length) {
+            this.active.force();
+            this.active = newSegment(this.active.getId() + 1);
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] b = s.getBytes(Consts.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        final byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, Consts.UTF_8);
+    }
+
+    static byte[] serializeMetadata(final HttpCacheEntry entry) throws IOException {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(buf);
+        out.writeLong(entry.getRequestDate().getTime());
+        out.writeLong(entry.getResponseDate().getTime());
+        final ProtocolVersion version = entry.getProtocolVersion();
+        writeString(out, version.getProtocol());
+        out.writeInt(version.getMajor());
+        out.writeInt(version.getMinor());
+        out.writeInt(entry.getStatusCode());
+        writeString(out, entry.getReasonPhrase());
+        final Header[] headers = entry.getAllHeaders();
+        out.writeInt(headers.length);
+        for (final Header header: headers) {
+            writeString(out, header.getName());
+            writeString(out, header.getValue());
+        }
+        final Map<String, String> variantMap = entry.getVariantMap();
+        out.writeInt(variantMap.size());
+        for (final Map.Entry<String, String> variant: variantMap.entrySet()) {
+            writeString(out, variant.getKey());
+            writeString(out, variant.getValue());
+        }
+        writeString(out, entry.getRequestMethod());
+        out.flush();
+        return buf.toByteArray();
+    }
+
+    static HttpCacheEntry deserializeMetadata(final byte[] b, final Resource resource) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+        final Date requestDate = new Date(in.readLong());
+        final Date responseDate = new Date(in.readLong());
+        final ProtocolVersion version = new ProtocolVersion(readString(in), in.readInt(), in.readInt());
+        final int status = in.readInt();
+        final String reason = readString(in);
+        final Header[] headers = new Header[in.readInt()];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = new BasicHeader(readString(in), readString(in));
+        }
+        final int variants = in.readInt();
+        final Map<String, String> variantMap = new HashMap<String, String>();
+        for (int i = 0; i < variants; i++) {
+            variantMap.put(readString(in), readString(in));
+        }
+        final String requestMethod = readString(in);
+        return new HttpCacheEntry(requestDate, responseDate,
+                new BasicStatusLine(version, status, reason), headers, resource, variantMap, requestMethod);
+    }
+
+    @Override
+    public synchronized void putEntry(final String key, final HttpCacheEntry entry) throws IOException {
+        Args.notNull(key, "Key");
+        Args.notNull(entry, "Cache entry");
+        ensureOpen();
+        final byte[] k = key.getBytes(Consts.UTF_8);
+        final byte[] metadata = serializeMetadata(entry);
+        final Resource resource = entry.getResource();
+        final long bodyLength = resource != null ? resource.length() : -1;
+        final long recordLength = 4 + 4 + k.length + 4 + metadata.length + 8 + Math.max(bodyLength, 0);
+        if (recordLength > this.segmentSize) {
+            if (this.log.isDebugEnabled()) {
+                this.log.debug("Cache entry [" + key + "] too large to be stored");
+            }
+            removeEntry(key);
+            return;
+        }
+        final int length = (int) recordLength;
+        ensureCapacity(length);
+        final ByteBuffer dst = this.active.reserve(length);
+        dst.putInt(RECORD_MAGIC);
+        dst.putInt(k.length);
+        dst.put(k);
+        dst.putInt(metadata.length);
+        dst.put(metadata);
+        dst.putLong(bodyLength);
+        if (resource != null) {
+            final InputStream inStream = resource.getInputStream();
+            try {
+                final byte[] tmp = new byte[8192];
+                int l;
+                while ((l = inStream.read(tmp)) != -1) {
+                    if (l > dst.remaining()) {
+                        throw new IOException("Resource content exceeds its length");
+                    }
+                    dst.put(tmp, 0, l);
+                }
+            } finally {
+                inStream.close();
+            }
+            if (dst.hasRemaining()) {
+                throw new IOException("Resource content shorter than its length");
+            }
+        }
+        dst.flip();
+        final int checksum = (int) MappedSegment.checksum(dst);
+        final int offset = this.active.commit(length);
+        this.index.appendPut(key, this.active.getId(), offset, length, checksum);
+        final Location location = new Location(key, this.active.getId(), offset, length, checksum, true);
+        final Location previous = this.locations.put(key, location);
+        if (previous != null) {
+            release(previous);
+        }
+        this.active.addLiveBytes(length);
+        this.size += length;
+        evict();
+    }
+
+    /**
+     * Returns the entry stored under the given key. Records are never modified
+     * once written, so the checksum of a record read for the first time is
+     * verified and the record decoded without holding up access to other entries.
+     */
+    @Override
+    public HttpCacheEntry getEntry(final String key) throws IOException {
+        Args.notNull(key, "Key");
+        final Location location;
+        final ByteBuffer record;
+        final boolean verified;
+        synchronized (this) {
+            ensureOpen();
+            location = this.locations.get(key);
+            if (location == null) {
+                return null;
+            }
+            record = this.segments.get(location.segmentId).slice(location.offset, location.length);
+            verified = location.verified;
+        }
+        if (!verified) {
+            final boolean valid = (int) MappedSegment.checksum(record) == location.checksum;
+            synchronized (this) {
+                if (!valid) {
+                    this.log.warn("Cache entry [" + key + "] corrupt: checksum mismatch");
+                    discard(location);
+                    return null;
+                }
+                location.verified = true;
+            }
+        }
+        try {
+            return decode(key, record);
+        } catch (final BufferUnderflowException ex) {
+            this.log.warn("Cache entry [" + key + "] corrupt: truncated record");
+        } catch (final IOException ex) {
+            this.log.warn("Cache entry [" + key + "] corrupt: " + ex.getMessage());
+        }
+        synchronized (this) {
+            discard(location);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the entry at the given location unless it has been replaced
+     * or removed in the meantime.
+     */
+    private void discard(final Location location) throws IOException {
+        if (!location.released && !this.closed) {
+            removeEntry(location.key);
+        }
+    }
+
+    private static HttpCacheEntry decode(final String key, final ByteBuffer record) throws IOException {
+        if (record.getInt() != RECORD_MAGIC) {
+            throw new IOException("Invalid cache record");
+        }
+        final byte[] k = new byte[record.getInt()];
+        record.get(k);
+        if (!key.equals(new String(k, Consts.UTF_8))) {
+            throw new IOException("Cache record key mismatch");
+        }
+        final byte[] metadata = new byte[record.getInt()];
+        record.get(metadata);
+        final long bodyLength = record.getLong();
+        Resource resource = null;
+        if (bodyLength >= 0) {
+            if (bodyLength != record.remaining()) {
+                throw new IOException("Invalid cache record body length");
+            }
+            resource = new MappedResource(record.slice());
+        }
+        return deserializeMetadata(metadata, resource);
+    }
+
+    @Override
+    public synchronized void removeEntry(final String key) throws IOException {
+        Args.notNull(key, "Key");
+        ensureOpen();
+        final Location location = this.locations.remove(key);
+        if (location != null) {
+            release(location);
+            this.index.appendRemove(key);
+        }
+    }
+
+    @Override
+    public synchronized void updateEntry(
+            final String key,
+            final HttpCacheUpdateCallback callback) throws IOException {
+        Args.notNull(key, "Key");
+        Args.notNull(callback, "Callback");
+        final HttpCacheEntry existing = getEntry(key);
+        final HttpCacheEntry updated = callback.update(existing);
+        if (updated != null) {
+            putEntry(key, updated);
+        } else {
+            removeEntry(key);
+        }
+    }
+
+    private void release(final Location location) {
+        location.released = true;
+        final MappedSegment segment = this.segments.get(location.segmentId);
+        segment.addLiveBytes(-location.length);
+        this.size -= location.length;
+    }
+
+    private void evict() throws IOException {
+        while (this.size > this.maxSize && !this.locations.isEmpty()) {
+            removeEntry(this.locations.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Compacts segments whose records are mostly garbage, rewrites the index
+     * if it mostly consists of superseded records and forces dirty pages
+     * to disk.
+     */
+    void compact() throws IOException {
+        final List<Integer> candidates = new ArrayList<Integer>();
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            for (final File file: new ArrayList<File>(this.obsolete)) {
+                if (!file.exists() || file.delete()) {
+                    this.obsolete.remove(file);
+                }
+            }
+            for (final MappedSegment segment: this.segments.values()) {
+                if (segment != this.active && segment.getLiveBytes() * 2 < segment.getPosition()) {
+                    candidates.add(segment.getId());
+                }
+            }
+        }
+        for (final Integer id: candidates) {
+            compactSegment(id);
+        }
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            if (this.index.getRecords() > MIN_INDEX_RECORDS
+                    && this.index.getRecords() > 2 * this.locations.size()) {
+                rewriteIndex();
+            }
+            for (final MappedSegment segment: this.segments.values()) {
+                segment.force();
+            }
+            this.index.force();
+        }
+    }
+
+    private void compactSegment(final int id) throws IOException {
+        final List<Location> live = new ArrayList<Location>();
+        synchronized (this) {
+            for (final Location location: this.locations.values()) {
+                if (location.segmentId == id) {
+                    live.add(location);
+                }
+            }
+        }
+        // move one record at a time so as not to hold up cache access
+        for (final Location location: live) {
+            synchronized (this) {
+                if (this.closed) {
+                    return;
+                }
+                if (!location.released && location.segmentId == id) {
+                    move(location);
+                }
+            }
+        }
+        synchronized (this) {
+            final MappedSegment segment = this.segments.get(id);
+            if (this.closed || segment.getLiveBytes() > 0) {
+                return;
+            }
+            // new locations must be durable before the old ones go away
+            this.active.force();
+            this.index.force();
+            this.segments.remove(id);
+            segment.close();
+            deleteFile(segment.getFile());
+            this.compactions++;
+        }
+    }
+
+    private void move(final Location location) throws IOException {
+        final MappedSegment source = this.segments.get(location.segmentId);
+        final ByteBuffer src = source.slice(location.offset, location.length);
+        if (!location.verified) {
+            if ((int) MappedSegment.checksum(src) != location.checksum) {
+                this.log.warn("Cache entry [" + location.key + "] corrupt: checksum mismatch");
+                removeEntry(location.key);
+                return;
+            }
+            location.verified = true;
+        }
+        ensureCapacity(location.length);
+        final ByteBuffer dst = this.active.reserve(location.length);
+        dst.put(src);
+        final int offset = this.active.commit(location.length);
+        this.index.appendPut(location.key, this.active.getId(), offset, location.length, location.checksum);
+        source.addLiveBytes(-location.length);
+        this.active.addLiveBytes(location.length);
+        location.segmentId = this.active.getId();
+        location.offset = offset;
+    }
+
+    /**
+     * Writes a new index with the current locations of all entries, least
+     * recently used first. The new index only replaces the current one once
+     * written to disk in full.
+     */
+    private void rewriteIndex() throws IOException {
+        final int generation = this.indexGeneration + 1;
+        final File file = indexFile(generation);
+        final File tmp = new File(this.directory, file.getName() + TEMP_SUFFIX);
+        final MappedIndex newIndex = new MappedIndex(tmp, INDEX_INITIAL_SIZE);
+        try {
+            for (final Location location: this.locations.values()) {
+                newIndex.appendPut(location.key, location.segmentId, location.offset,
+                        location.length, location.checksum);
+            }
+            for (final MappedSegment segment: this.segments.values()) {
+                segment.force();
+            }
+            newIndex.force();
+        } finally {
+            newIndex.close();
+        }
+        if (!tmp.renameTo(file)) {
+            deleteFile(tmp);
+            this.log.warn("Unable to replace cache index " + this.index.getFile());
+            return;
+        }
+        final MappedIndex replacement = new MappedIndex(file, INDEX_INITIAL_SIZE);
+        replacement.replay(new MappedIndex.Visitor() {
+
+            @Override
+            public void put(
+                    final String key,
+                    final int segmentId,
+                    final int offset,
+                    final int length,
+                    final int checksum) {
+            }
+
+            @Override
+            public void remove(final String key) {
+            }
+
+        });
+        final MappedIndex old = this.index;
+        this.index = replacement;
+        this.indexGeneration = generation;
+        old.close();
+        deleteFile(old.getFile());
+    }
+
+    /**
+     * Returns the total size of cache entry records in bytes.
+     */
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Returns the number of cache entries.
+     */
+    public synchronized int getEntryCount() {
+        return this.locations.size();
+    }
+
+    /**
+     * Returns the number of segments compacted so far.
+     */
+    public synchronized long getCompactions() {
+        return this.compactions;
+    }
+
+    synchronized int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    /**
+     * Forces all changes to disk and releases the files of the storage.
+     * Resources of cache entries obtained from the storage remain readable.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            for (final MappedSegment segment: this.segments.values()) {
+                segment.force();
+                segment.close();
+            }
+            this.index.force();
+            this.index.close();
+        }
+        this.scheduler.shutdownNow();
+    }
+
+    static class Location {
+
+        final String key;
+        final int length;
+        final int checksum;
+
+        int segmentId;
+        int offset;
+        boolean verified;
+        boolean released;
+
+        Location(
+                final String key,
+                final int segmentId,
+                final int offset,
+                final int length,
+                final int checksum,
+                final boolean verified) {
+            this.key = key;
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+            this.verified = verified;
+        }
+
+    }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import org.apache.http.Consts;
+
+/**
+ * Memory-mapped, append-only index of the records kept in
+ * {@link MappedSegment}s. Each index record maps a cache key either to
+ * the location of a cache record or to nothing, if the entry has been
+ * removed. Later records supersede earlier ones.
+ * <p>
+ * Every index record carries a checksum. When the index is replayed,
+ * a record that is incomplete or fails its checksum, as left behind
+ * by a crash, terminates the index.
+ */
+class MappedIndex {
+
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+
+    private static final int HEADER_SIZE = 8;
+
+    interface Visitor {
+
+        void put(String key, int segmentId, int offset, int length, int checksum);
+
+        void remove(String key);
+
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+
+    private MappedByteBuffer buffer;
+    private int records;
+
+    MappedIndex(final File file, final int initialCapacity) throws IOException {
+        super();
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        try {
+            if (this.raf.length() < initialCapacity) {
+                this.raf.setLength(initialCapacity);
+            }
+            this.buffer = map(this.raf.length());
+        } catch (final IOException ex) {
+            this.raf.close();
+            throw ex;
+        }
+    }
+
+    private MappedByteBuffer map(final long size) throws IOException {
+        return this.raf.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, Math.min(size, Integer.MAX_VALUE));
+    }
+
+    File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns the number of records in the index.
+     */
+    int getRecords() {
+        return this.records;
+    }
+
+    /**
+     * Replays all valid records to the given visitor and positions the index
+     * past the last of them. Whatever follows is cleared.
+     */
+    void replay(final Visitor visitor) {
+        final ByteBuffer src = this.buffer.duplicate();
+        src.clear();
+        int position = 0;
+        while (src.remaining() >= HEADER_SIZE) {
+            final int length = src.getInt();
+            final int checksum = src.getInt();
+            if (length <= 0 || length > src.remaining()) {
+                break;
+            }
+            final byte[] payload = new byte[length];
+            src.get(payload);
+            if (checksum(payload) != checksum) {
+                break;
+            }
+            final ByteBuffer record = ByteBuffer.wrap(payload);
+            try {
+                final byte type = record.get();
+                final String key = readString(record);
+                if (type == PUT) {
+                    visitor.put(key, record.getInt(), record.getInt(), record.getInt(), record.getInt());
+                } else if (type == REMOVE) {
+                    visitor.remove(key);
+                } else {
+                    break;
+                }
+            } catch (final BufferUnderflowException ex) {
+                break;
+            } catch (final IllegalArgumentException ex) {
+                break;
+            }
+            position = src.position();
+            this.records++;
+        }
+        src.position(position);
+        while (src.hasRemaining()) {
+            src.put((byte) 0);
+        }
+        this.buffer.position(position);
+    }
+
+    private static String readString(final ByteBuffer src) {
+        final int len = src.getInt();
+        if (len < 0 || len > src.remaining()) {
+            throw new IllegalArgumentException("Invalid key length");
+        }
+        final byte[] b = new byte[len];
+        src.get(b);
+        return new String(b, Consts.UTF_8);
+    }
+
+    private static int checksum(final byte[] b) {
+        final CRC32 crc = new CRC32();
+        crc.update(b, 0, b.length);
+        return (int) crc.getValue();
+    }
+
+    void appendPut(
+            final String key,
+            final int segmentId,
+            final int offset,
+            final int length,
+            final int checksum) throws IOException {
+        final byte[] k = key.getBytes(Consts.UTF_8);
+        final ByteBuffer payload = ByteBuffer.allocate(1 + 4 + k.length + 16);
+        payload.put(PUT);
+        payload.putInt(k.length);
+        payload.put(k);
+        payload.putInt(segmentId);
+        payload.putInt(offset);
+        payload.putInt(length);
+        payload.putInt(checksum);
+        append(payload.array());
+    }
+
+    void appendRemove(final String key) throws IOException {
+        final byte[] k = key.getBytes(Consts.UTF_8);
+        final ByteBuffer payload = ByteBuffer.allocate(1 + 4 + k.length);
+        payload.put(REMOVE);
+        payload.putInt(k.length);
+        payload.put(k);
+        append(payload.array());
+    }
+
+    private void append(final byte[] payload) throws IOException {
+        final int required = HEADER_SIZE + payload.length;
+        if (this.buffer.remaining() < required) {
+            final int position = this.buffer.position();
+            long size = Math.max(this.buffer.capacity(), 4096);
+            while (size - position < required) {
+                size *= 2;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Index size limit exceeded");
+            }
+            this.buffer.force();
+            this.raf.setLength(size);
+            this.buffer = map(size);
+            this.buffer.position(position);
+        }
+        // write the payload first so that the record only becomes valid
+        // once complete
+        final int position = this.buffer.position();
+        this.buffer.position(position + HEADER_SIZE);
+        this.buffer.put(payload);
+        final int end = this.buffer.position();
+        this.buffer.putInt(position + 4, checksum(payload));
+        this.buffer.putInt(position, payload.length);
+        this.buffer.position(end);
+        this.records++;
+    }
+
+    void force() {
+        this.buffer.force();
+    }
+
+    void close() throws IOException {
+        this.raf.close();
+    }
+
+}
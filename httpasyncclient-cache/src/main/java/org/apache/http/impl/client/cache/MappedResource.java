@@ -0,0 +1,77 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.client.cache.Resource;
+
+/**
+ * Cache resource backed by a read-only view of a memory-mapped segment.
+ * The segment is owned by the storage; disposing the resource has no effect.
+ * <p>
+ * Serializes to a {@link HeapResource} with the same content.
+ */
+@Contract(threading = ThreadingBehavior.IMMUTABLE)
+class MappedResource implements Resource {
+
+    private static final long serialVersionUID = -2719628743263473815L;
+
+    private final transient ByteBuffer content;
+
+    MappedResource(final ByteBuffer content) {
+        super();
+        this.content = content;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new OffHeapResource.SlabInputStream(this, new ByteBuffer[] { this.content }, this.content.capacity());
+    }
+
+    @Override
+    public long length() {
+        return this.content.capacity();
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        final byte[] b = new byte[this.content.capacity()];
+        final ByteBuffer src = this.content.duplicate();
+        src.clear();
+        src.get(b);
+        return new HeapResource(b);
+    }
+
+}
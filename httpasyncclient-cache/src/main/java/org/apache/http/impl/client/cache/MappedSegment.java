@@ -0,0 +1,162 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log file of cache records, memory-mapped in full. Records are
+ * written into the mapping and read back from read-only slices of it.
+ * <p>
+ * The file is created with its full capacity. The extent holding records
+ * is recorded by the index only; content past the write position is
+ * undefined.
+ */
+class MappedSegment {
+
+    private final int id;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+
+    private int position;
+    private long liveBytes;
+
+    MappedSegment(final int id, final File file, final int capacity) throws IOException {
+        super();
+        this.id = id;
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        try {
+            if (this.raf.length() < capacity) {
+                this.raf.setLength(capacity);
+            }
+            this.buffer = this.raf.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0, Math.min(this.raf.length(), Integer.MAX_VALUE));
+        } catch (final IOException ex) {
+            this.raf.close();
+            throw ex;
+        }
+    }
+
+    int getId() {
+        return this.id;
+    }
+
+    File getFile() {
+        return this.file;
+    }
+
+    int getCapacity() {
+        return this.buffer.capacity();
+    }
+
+    int getPosition() {
+        return this.position;
+    }
+
+    void setPosition(final int position) {
+        this.position = Math.max(this.position, position);
+    }
+
+    int remaining() {
+        return this.buffer.capacity() - this.position;
+    }
+
+    long getLiveBytes() {
+        return this.liveBytes;
+    }
+
+    void addLiveBytes(final long delta) {
+        this.liveBytes += delta;
+    }
+
+    /**
+     * Returns a buffer for writing a record of the given length at the write
+     * position. The write position is not advanced until the record gets
+     * committed.
+     */
+    ByteBuffer reserve(final int length) {
+        final ByteBuffer dst = this.buffer.duplicate();
+        dst.limit(this.position + length);
+        dst.position(this.position);
+        return dst.slice();
+    }
+
+    /**
+     * Commits a record written to the buffer last reserved.
+     *
+     * @return offset of the record.
+     */
+    int commit(final int length) {
+        final int offset = this.position;
+        this.position += length;
+        return offset;
+    }
+
+    /**
+     * Returns a read-only view of the given extent.
+     */
+    ByteBuffer slice(final int offset, final int length) {
+        final ByteBuffer src = this.buffer.asReadOnlyBuffer();
+        src.limit(offset + length);
+        src.position(offset);
+        return src.slice();
+    }
+
+    static long checksum(final ByteBuffer src) {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer b = src.duplicate();
+        final byte[] tmp = new byte[4096];
+        while (b.hasRemaining()) {
+            final int n = Math.min(tmp.length, b.remaining());
+            b.get(tmp, 0, n);
+            crc.update(tmp, 0, n);
+        }
+        return crc.getValue();
+    }
+
+    void force() {
+        this.buffer.force();
+    }
+
+    void close() throws IOException {
+        this.raf.close();
+    }
+
+    @Override
+    public String toString() {
+        return this.file.getName() + " [position=" + this.position + ", live=" + this.liveBytes + "]";
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.client.cache.Resource;
+
+/**
+ * Cache resource keeping the response body in slabs of off-heap memory.
+ * <p>
+ * Serializes to a {@link HeapResource} with the same content.
+ *
+ * @since 4.1.5
+ */
+@Contract(threading = ThreadingBehavior.SAFE)
+public class OffHeapResource implements Resource {
+
+    private static final long serialVersionUID = 7385237468217593214L;
+
+    private final transient SlabAllocator allocator;
+    private final transient ByteBuffer[] slabs;
+    private final transient SlabAllocator.SlabReference ref;
+    private final long length;
+
+    private volatile transient boolean disposed;
+
+    OffHeapResource(final SlabAllocator allocator, final ByteBuffer[] slabs, final long length) {
+        super();
+        this.allocator = allocator;
+        this.slabs = slabs;
+        this.length = length;
+        this.ref = allocator.register(this, slabs);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (this.disposed) {
+            throw new IOException("Resource has been disposed");
+        }
+        return new SlabInputStream(this, this.slabs, this.length);
+    }
+
+    @Override
+    public long length() {
+        return this.length;
+    }
+
+    @Override
+    public void dispose() {
+        if (!this.disposed) {
+            this.disposed = true;
+            this.allocator.release(this.ref);
+        }
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        final byte[] b = new byte[(int) this.length];
+        int off = 0;
+        for (final ByteBuffer slab: this.slabs) {
+            final ByteBuffer src = slab.duplicate();
+            src.clear();
+            final int n = Math.min(src.remaining(), b.length - off);
+            src.get(b, off, n);
+            off += n;
+        }
+        return new HeapResource(b);
+    }
+
+    /**
+     * Reads the slabs of a resource. The stream keeps the resource reachable,
+     * so that its slabs do not get reclaimed while still being read.
+     */
+    static class SlabInputStream extends InputStream {
+
+        private final Resource resource;
+        private final ByteBuffer[] slabs;
+        private long remaining;
+        private int index;
+        private ByteBuffer current;
+
+        SlabInputStream(final Resource resource, final ByteBuffer[] slabs, final long length) {
+            super();
+            this.resource = resource;
+            this.slabs = slabs;
+            this.remaining = length;
+        }
+
+        private boolean next() {
+            if (this.remaining <= 0) {
+                return false;
+            }
+            if (this.current == null || !this.current.hasRemaining()) {
+                this.current = this.slabs[this.index++].duplicate();
+                this.current.clear();
+                if (this.current.remaining() > this.remaining) {
+                    this.current.limit((int) this.remaining);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() {
+            if (!next()) {
+                return -1;
+            }
+            this.remaining--;
+            return this.current.get() & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!next()) {
+                return -1;
+            }
+            final int n = Math.min(len, this.current.remaining());
+            this.current.get(b, off, n);
+            this.remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(this.remaining, Integer.MAX_VALUE);
+        }
+
+    }
+
+}
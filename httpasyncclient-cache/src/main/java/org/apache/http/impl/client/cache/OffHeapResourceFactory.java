@@ -0,0 +1,199 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.client.cache.InputLimit;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.client.cache.ResourceFactory;
+
+/**
+ * Generates {@link Resource} instances that keep response bodies in slabs
+ * of off-heap memory, so that cached content does not add to the size of
+ * the heap the garbage collector has to deal with.
+ * <p>
+ * Off-heap memory is allocated lazily in chunks up to the given capacity.
+ * Should the capacity be exhausted, response bodies are kept on the heap
+ * instead. Slabs of resources no longer in use are reclaimed once
+ * the resources have been disposed or garbage collected.
+ * <p>
+ * Best used with a {@link TinyLfuHttpCacheStorage} bounded to a somewhat
+ * smaller number of bytes. The difference leaves room for resources that
+ * have been evicted but not yet reclaimed.
+ *
+ * @since 4.1.5
+ */
+@Contract(threading = ThreadingBehavior.SAFE)
+public class OffHeapResourceFactory implements ResourceFactory {
+
+    /** Default slab size. */
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024;
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final SlabAllocator allocator;
+    private final AtomicLong overflows;
+
+    /**
+     * Creates a resource factory.
+     *
+     * @param capacity maximum amount of off-heap memory in bytes.
+     * @param slabSize slab size in bytes.
+     */
+    public OffHeapResourceFactory(final long capacity, final int slabSize) {
+        super();
+        this.allocator = new SlabAllocator(slabSize, Math.max(slabSize, CHUNK_SIZE), capacity);
+        this.overflows = new AtomicLong();
+    }
+
+    /**
+     * Creates a resource factory with the default slab size.
+     *
+     * @param capacity maximum amount of off-heap memory in bytes.
+     */
+    public OffHeapResourceFactory(final long capacity) {
+        this(capacity, DEFAULT_SLAB_SIZE);
+    }
+
+    @Override
+    public Resource generate(
+            final String requestId,
+            final InputStream inStream,
+            final InputLimit limit) throws IOException {
+        final int slabSize = this.allocator.getSlabSize();
+        ByteBuffer[] slabs = new ByteBuffer[4];
+        int count = 0;
+        long total = 0;
+        final byte[] buf = new byte[2048];
+        int l;
+        while ((l = inStream.read(buf)) != -1) {
+            int off = 0;
+            while (off < l) {
+                if (total == (long) count * slabSize) {
+                    final ByteBuffer slab = this.allocator.allocate();
+                    if (slab == null) {
+                        return overflow(slabs, count, buf, off, l - off, inStream, limit, total);
+                    }
+                    if (count == slabs.length) {
+                        slabs = Arrays.copyOf(slabs, count * 2);
+                    }
+                    slabs[count++] = slab;
+                }
+                final ByteBuffer slab = slabs[count - 1];
+                final int n = Math.min(l - off, slab.remaining());
+                slab.put(buf, off, n);
+                off += n;
+                total += n;
+            }
+            if (limit != null && total > limit.getValue()) {
+                limit.reached();
+                break;
+            }
+        }
+        return new OffHeapResource(this.allocator, Arrays.copyOf(slabs, count), total);
+    }
+
+    /**
+     * Moves content already read into slabs over to the heap, releases
+     * the slabs and reads the remaining content onto the heap.
+     */
+    private Resource overflow(
+            final ByteBuffer[] slabs,
+            final int count,
+            final byte[] buf,
+            final int off,
+            final int len,
+            final InputStream inStream,
+            final InputLimit limit,
+            final long total) throws IOException {
+        this.overflows.incrementAndGet();
+        final ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            final ByteBuffer slab = slabs[i];
+            slab.flip();
+            final byte[] b = new byte[slab.remaining()];
+            slab.get(b);
+            outStream.write(b);
+        }
+        this.allocator.release(slabs, count);
+        outStream.write(buf, off, len);
+        long n = total + len;
+        int l;
+        while (!(limit != null && n > limit.getValue()) && (l = inStream.read(buf)) != -1) {
+            outStream.write(buf, 0, l);
+            n += l;
+        }
+        if (limit != null && n > limit.getValue()) {
+            limit.reached();
+        }
+        return new HeapResource(outStream.toByteArray());
+    }
+
+    @Override
+    public Resource copy(
+            final String requestId,
+            final Resource resource) throws IOException {
+        final InputStream inStream = resource.getInputStream();
+        try {
+            return generate(requestId, inStream, null);
+        } finally {
+            inStream.close();
+        }
+    }
+
+    /**
+     * Returns the amount of off-heap memory in use in bytes.
+     */
+    public long getOffHeapUsed() {
+        this.allocator.reclaim();
+        return this.allocator.getUsed();
+    }
+
+    /**
+     * Returns the amount of off-heap memory allocated so far in bytes.
+     */
+    public long getOffHeapAllocated() {
+        return this.allocator.getAllocated();
+    }
+
+    /**
+     * Returns the number of response bodies that had to be kept on the heap
+     * because the off-heap capacity was exhausted.
+     */
+    public long getOverflows() {
+        return this.overflows.get();
+    }
+
+}
@@ -0,0 +1,407 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.client.cache.HeaderConstants;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.client.cache.ResourceFactory;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.message.HeaderGroup;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * Combines partial (206) responses into partial cache entries.
+ * <p>
+ * A partial cache entry holds any number of ranges of a representation
+ * along with the headers of the most recent partial response. The content
+ * of the ranges is concatenated in ascending order in the entry resource;
+ * the ranges themselves and the complete length of the representation are
+ * recorded by the {@link #CACHED_RANGES} header of the entry. Partial
+ * entries are stored under a key of their own, so that they never get
+ * mistaken for complete entries.
+ * <p>
+ * Ranges received with the same strong validator as those cached are
+ * merged into the entry as long as the total size of the entry does not
+ * exceed the maximum size of cacheable objects. Otherwise the entry is
+ * replaced.
+ */
+@Contract(threading = ThreadingBehavior.IMMUTABLE_CONDITIONAL)
+class PartialCacheEntryUpdater {
+
+    /**
+     * Header of partial cache entries listing the cached ranges followed by
+     * the complete length of the representation, for instance
+     * {@code 0-1023,4096-8191/65536}.
+     */
+    static final String CACHED_RANGES = "X-Cached-Ranges";
+
+    private final ResourceFactory resourceFactory;
+    private final long maxObjectSize;
+
+    PartialCacheEntryUpdater(final ResourceFactory resourceFactory, final long maxObjectSize) {
+        super();
+        this.resourceFactory = resourceFactory;
+        this.maxObjectSize = maxObjectSize;
+    }
+
+    /**
+     * Returns the key partial cache entries are stored under, given the key
+     * of the complete representation.
+     */
+    static String getPartialCacheKey(final String uri) {
+        return "{partial}" + uri;
+    }
+
+    /**
+     * Returns the ranges held by the given partial cache entry in ascending
+     * order, or {@code null} if the entry is not a valid partial entry.
+     */
+    static List<ByteRange> getCachedRanges(final HttpCacheEntry entry) {
+        final Header header = entry.getFirstHeader(CACHED_RANGES);
+        if (header == null) {
+            return null;
+        }
+        final String value = header.getValue();
+        final int slash = value.lastIndexOf('/');
+        return slash >= 0 ? ByteRange.parseList(value.substring(0, slash)) : null;
+    }
+
+    /**
+     * Returns the complete length of the representation the given partial
+     * cache entry holds ranges of, or {@code -1} if not a valid partial entry.
+     */
+    static long getCompleteLength(final HttpCacheEntry entry) {
+        final Header header = entry.getFirstHeader(CACHED_RANGES);
+        if (header == null) {
+            return -1;
+        }
+        final String value = header.getValue();
+        try {
+            return Long.parseLong(value.substring(value.lastIndexOf('/') + 1));
+        } catch (final NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the strong validator of the given message, that is, its entity tag
+     * if strong, or otherwise its {@code Last-Modified} date provided the date
+     * is strong. Weak entity tags disqualify the message from range requests
+     * altogether.
+     *
+     * @return the validator or {@code null} if there is no strong validator.
+     */
+    static String getStrongValidator(final Header etag, final Header lastModified, final Header date) {
+        if (etag != null) {
+            return etag.getValue().startsWith("W/") ? null : etag.getValue();
+        }
+        return isStrong(lastModified, date) ? lastModified.getValue() : null;
+    }
+
+    /**
+     * Returns {@code true} if the given {@code Last-Modified} date can be used
+     * as a strong validator, which requires the message to have been generated
+     * at least one second after the last modification (RFC 7232, section 2.2.2).
+     */
+    static boolean isStrong(final Header lastModified, final Header date) {
+        if (lastModified == null || date == null) {
+            return false;
+        }
+        final Date lastModifiedDate = DateUtils.parseDate(lastModified.getValue());
+        final Date messageDate = DateUtils.parseDate(date.getValue());
+        return lastModifiedDate != null && messageDate != null
+                && messageDate.getTime() - lastModifiedDate.getTime() >= 1000;
+    }
+
+    static String getStrongValidator(final HttpCacheEntry entry) {
+        return getStrongValidator(
+                entry.getFirstHeader(HeaderConstants.ETAG),
+                entry.getFirstHeader(HeaderConstants.LAST_MODIFIED),
+                entry.getFirstHeader(HTTP.DATE_HEADER));
+    }
+
+    static String getStrongValidator(final HttpResponse response) {
+        return getStrongValidator(
+                response.getFirstHeader(HeaderConstants.ETAG),
+                response.getFirstHeader(HeaderConstants.LAST_MODIFIED),
+                response.getFirstHeader(HTTP.DATE_HEADER));
+    }
+
+    /**
+     * Returns {@code true} if the given partial response encloses the complete
+     * content of a single range of a representation of known length and
+     * carries a strong validator.
+     */
+    boolean isCacheable(final HttpResponse response, final ResourceWriter content) {
+        return getContentRange(response, content) != null;
+    }
+
+    private static ByteRange.ContentRange getContentRange(
+            final HttpResponse response, final ResourceWriter content) {
+        final Header contentRange = response.getFirstHeader(HeaderConstants.CONTENT_RANGE);
+        final ByteRange.ContentRange cr = contentRange != null
+                ? ByteRange.parseContentRange(contentRange.getValue()) : null;
+        if (cr == null || content == null
+                || getStrongValidator(response) == null
+                || cr.range.length() != content.length()
+                || content.isOverflown()) {
+            return null;
+        }
+        return cr;
+    }
+
+    /**
+     * Combines the given partial response with the existing partial entry.
+     *
+     * @param requestId request identifier.
+     * @param existing existing partial entry. May be {@code null}.
+     * @param response partial response.
+     * @param content content of the partial response.
+     * @param requestDate when the request was sent.
+     * @param responseDate when the response was received.
+     * @return the updated or new partial entry, or {@code null} if the response
+     *   cannot be cached.
+     * @throws IOException if the content of the existing entry cannot be read.
+     */
+    HttpCacheEntry updatePartialCacheEntry(
+            final String requestId,
+            final HttpCacheEntry existing,
+            final HttpResponse response,
+            final ResourceWriter content,
+            final Date requestDate,
+            final Date responseDate) throws IOException {
+        final ByteRange.ContentRange cr = getContentRange(response, content);
+        if (cr == null) {
+            return null;
+        }
+        final String validator = getStrongValidator(response);
+        List<ByteRange> ranges = null;
+        Resource resource = null;
+        if (existing != null) {
+            if (validator.equals(getStrongValidator(existing))
+                    && cr.length == getCompleteLength(existing)) {
+                final List<ByteRange> cached = getCachedRanges(existing);
+                if (cached != null && existing.getResource() != null) {
+                    ranges = new ArrayList<ByteRange>();
+                    resource = merge(requestId, existing.getResource(), cached, cr.range, content, ranges);
+                }
+            } else if (isOlder(response, existing)) {
+                // keep the most recent of partial responses that cannot be combined
+                return existing;
+            }
+        }
+        if (resource == null) {
+            ranges = Collections.singletonList(cr.range);
+            resource = content.toResource(this.resourceFactory, requestId);
+        }
+        final HeaderGroup headers = new HeaderGroup();
+        for (final Header header: response.getAllHeaders()) {
+            final String name = header.getName();
+            if (!name.equalsIgnoreCase(HeaderConstants.CONTENT_RANGE)
+                    && !name.equalsIgnoreCase(HTTP.CONTENT_LEN)
+                    && !name.equalsIgnoreCase(HTTP.TRANSFER_ENCODING)
+                    && !name.equalsIgnoreCase(CACHED_RANGES)) {
+                headers.addHeader(header);
+            }
+        }
+        headers.addHeader(new BasicHeader(CACHED_RANGES, ByteRange.formatList(ranges) + "/" + cr.length));
+        return new HttpCacheEntry(
+                requestDate,
+                responseDate,
+                response.getStatusLine(),
+                headers.getAllHeaders(),
+                resource,
+                HeaderConstants.GET_METHOD);
+    }
+
+    private static boolean isOlder(final HttpResponse response, final HttpCacheEntry existing) {
+        final Header dateHeader = response.getFirstHeader(HTTP.DATE_HEADER);
+        final Date date = dateHeader != null ? DateUtils.parseDate(dateHeader.getValue()) : null;
+        final Date existingDate = existing.getDate();
+        return date != null && existingDate != null && date.before(existingDate);
+    }
+
+    /**
+     * Returns {@code true} if the given partial entry holds the complete representation.
+     */
+    static boolean isComplete(final HttpCacheEntry entry) {
+        final List<ByteRange> ranges = getCachedRanges(entry);
+        return ranges != null && ranges.size() == 1
+                && ranges.get(0).getFirst() == 0
+                && ranges.get(0).getLast() == getCompleteLength(entry) - 1;
+    }
+
+    /**
+     * Turns a partial entry holding the complete representation into
+     * a regular cache entry.
+     */
+    static HttpCacheEntry toCompleteEntry(final HttpCacheEntry entry) {
+        final HeaderGroup headers = new HeaderGroup();
+        headers.setHeaders(entry.getAllHeaders());
+        headers.removeHeader(entry.getFirstHeader(CACHED_RANGES));
+        headers.addHeader(new BasicHeader(HTTP.CONTENT_LEN, Long.toString(getCompleteLength(entry))));
+        return new HttpCacheEntry(
+                entry.getRequestDate(),
+                entry.getResponseDate(),
+                new BasicStatusLine(entry.getProtocolVersion(), HttpStatus.SC_OK, "OK"),
+                headers.getAllHeaders(),
+                entry.getResource(),
+                HeaderConstants.GET_METHOD);
+    }
+
+    /**
+     * Merges the new range into the cached ones. Cached content overlapped
+     * by the new range is superseded by the new content.
+     *
+     * @return resource with the merged content or {@code null} if it would
+     *   exceed the maximum size of cacheable objects.
+     */
+    private Resource merge(
+            final String requestId,
+            final Resource cachedContent,
+            final List<ByteRange> cached,
+            final ByteRange range,
+            final ResourceWriter content,
+            final List<ByteRange> merged) throws IOException {
+        // pieces of content in ascending order; cached pieces come with
+        // their offset in the cached resource, the new one with -1
+        final List<ByteRange> pieces = new ArrayList<ByteRange>();
+        final List<Long> offsets = new ArrayList<Long>();
+        long offset = 0;
+        boolean added = false;
+        for (final ByteRange r: cached) {
+            if (!added && range.getFirst() < r.getFirst()) {
+                pieces.add(range);
+                offsets.add(Long.valueOf(-1));
+                added = true;
+            }
+            if (r.getFirst() < range.getFirst()) {
+                final long last = Math.min(r.getLast(), range.getFirst() - 1);
+                pieces.add(new ByteRange(r.getFirst(), last));
+                offsets.add(Long.valueOf(offset));
+            }
+            if (r.getLast() > range.getLast()) {
+                if (!added) {
+                    pieces.add(range);
+                    offsets.add(Long.valueOf(-1));
+                    added = true;
+                }
+                final long first = Math.max(r.getFirst(), range.getLast() + 1);
+                pieces.add(new ByteRange(first, r.getLast()));
+                offsets.add(Long.valueOf(offset + first - r.getFirst()));
+            }
+            offset += r.length();
+        }
+        if (!added) {
+            pieces.add(range);
+            offsets.add(Long.valueOf(-1));
+        }
+        long total = 0;
+        for (final ByteRange piece: pieces) {
+            total += piece.length();
+        }
+        if (total > this.maxObjectSize) {
+            return null;
+        }
+
+        final ResourceWriter writer = new ResourceWriter(this.maxObjectSize, total, false);
+        final InputStream cachedStream = cachedContent.getInputStream();
+        try {
+            long pos = 0;
+            for (int i = 0; i < pieces.size(); i++) {
+                final ByteRange piece = pieces.get(i);
+                final long off = offsets.get(i).longValue();
+                if (off < 0) {
+                    final InputStream inStream = content.getInputStream();
+                    try {
+                        copy(inStream, piece.length(), writer);
+                    } finally {
+                        inStream.close();
+                    }
+                } else {
+                    skip(cachedStream, off - pos);
+                    copy(cachedStream, piece.length(), writer);
+                    pos = off + piece.length();
+                }
+                final int last = merged.size() - 1;
+                if (last >= 0 && merged.get(last).getLast() + 1 == piece.getFirst()) {
+                    merged.set(last, new ByteRange(merged.get(last).getFirst(), piece.getLast()));
+                } else {
+                    merged.add(piece);
+                }
+            }
+        } finally {
+            cachedStream.close();
+        }
+        return writer.toResource(this.resourceFactory, requestId);
+    }
+
+    private static void skip(final InputStream inStream, final long n) throws IOException {
+        long remaining = n;
+        while (remaining > 0) {
+            final long skipped = inStream.skip(remaining);
+            if (skipped > 0) {
+                remaining -= skipped;
+            } else if (inStream.read() != -1) {
+                remaining--;
+            } else {
+                throw new IOException("Cached content truncated");
+            }
+        }
+    }
+
+    private static void copy(
+            final InputStream inStream, final long n, final ResourceWriter writer) throws IOException {
+        final byte[] buf = new byte[(int) Math.min(n, 8 * 1024)];
+        long remaining = n;
+        while (remaining > 0) {
+            final int l = inStream.read(buf, 0, (int) Math.min(remaining, buf.length));
+            if (l == -1) {
+                throw new IOException("Cached content truncated");
+            }
+            writer.write(ByteBuffer.wrap(buf, 0, l));
+            remaining -= l;
+        }
+    }
+
+}
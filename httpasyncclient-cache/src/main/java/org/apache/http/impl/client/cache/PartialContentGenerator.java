@@ -0,0 +1,286 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.client.cache.HeaderConstants;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.Args;
+
+/**
+ * Generates responses to byte range requests from cached content: 206
+ * (Partial Content) responses enclosing the requested range, or 416 (Range
+ * Not Satisfiable) responses if the range lies beyond the representation.
+ * <p>
+ * Only requests for a single range of bytes are answered from the cache.
+ * Requests for multiple ranges, which would call for a
+ * {@code multipart/byteranges} response, are treated as regular requests.
+ */
+@Contract(threading = ThreadingBehavior.IMMUTABLE)
+class PartialContentGenerator {
+
+    private static final int SC_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * Returns the range requested by the given request, if it is a range
+     * request the cache can answer.
+     *
+     * @return the requested range or {@code null} if the request is not
+     *   a request for a single range of bytes of a representation, or
+     *   carries conditional headers other than {@code If-Range}.
+     */
+    static ByteRange getRequestedRange(final HttpRequest request) {
+        if (!HeaderConstants.GET_METHOD.equals(request.getRequestLine().getMethod())) {
+            return null;
+        }
+        final Header[] ranges = request.getHeaders(HeaderConstants.RANGE);
+        if (ranges.length != 1
+                || request.containsHeader(HeaderConstants.IF_MATCH)
+                || request.containsHeader(HeaderConstants.IF_NONE_MATCH)
+                || request.containsHeader(HeaderConstants.IF_MODIFIED_SINCE)
+                || request.containsHeader(HeaderConstants.IF_UNMODIFIED_SINCE)) {
+            return null;
+        }
+        return ByteRange.parseRange(ranges[0].getValue());
+    }
+
+    /**
+     * Evaluates the {@code If-Range} precondition of the given request against
+     * the validators of a cached representation. Entity tags match only if both
+     * are strong; dates match only if exactly equal to {@code Last-Modified}
+     * and the latter is a strong validator.
+     *
+     * @return {@code true} if the request has no {@code If-Range} header
+     *   or the precondition holds.
+     */
+    static boolean ifRangeMatches(final HttpRequest request, final HttpCacheEntry entry) {
+        final Header ifRange = request.getFirstHeader(HeaderConstants.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        final String value = ifRange.getValue().trim();
+        final Header etag = entry.getFirstHeader(HeaderConstants.ETAG);
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return etag != null
+                    && !value.startsWith("W/")
+                    && !etag.getValue().startsWith("W/")
+                    && value.equals(etag.getValue());
+        }
+        final Header lastModified = entry.getFirstHeader(HeaderConstants.LAST_MODIFIED);
+        if (!PartialCacheEntryUpdater.isStrong(lastModified, entry.getFirstHeader(HTTP.DATE_HEADER))) {
+            return false;
+        }
+        final Date date = DateUtils.parseDate(value);
+        return date != null && date.equals(DateUtils.parseDate(lastModified.getValue()));
+    }
+
+    private static void copyHeaders(final HttpResponse src, final HttpResponse dst) {
+        for (final Header header: src.getAllHeaders()) {
+            final String name = header.getName();
+            if (!name.equalsIgnoreCase(HTTP.CONTENT_LEN)
+                    && !name.equalsIgnoreCase(HeaderConstants.CONTENT_RANGE)
+                    && !name.equalsIgnoreCase(PartialCacheEntryUpdater.CACHED_RANGES)) {
+                dst.addHeader(header);
+            }
+        }
+    }
+
+    /**
+     * Generates a 206 response enclosing a range of the representation.
+     *
+     * @param response response with the headers of the representation.
+     * @param resource resource holding the range.
+     * @param offset offset of the range in the resource.
+     * @param range range of the representation.
+     * @param length complete length of the representation.
+     */
+    CloseableHttpResponse generatePartialResponse(
+            final HttpResponse response,
+            final Resource resource,
+            final long offset,
+            final ByteRange range,
+            final long length) {
+        final HttpResponse partial = new BasicHttpResponse(
+                HttpVersion.HTTP_1_1, HttpStatus.SC_PARTIAL_CONTENT, "Partial Content");
+        copyHeaders(response, partial);
+        partial.setHeader(HeaderConstants.CONTENT_RANGE, ByteRange.formatContentRange(range, length));
+        partial.setHeader(HTTP.CONTENT_LEN, Long.toString(range.length()));
+        final ResourceRangeEntity entity = new ResourceRangeEntity(resource, offset, range.length());
+        if (response.getEntity() != null) {
+            entity.setContentType(response.getEntity().getContentType());
+            entity.setContentEncoding(response.getEntity().getContentEncoding());
+        } else {
+            entity.setContentType(response.getFirstHeader(HTTP.CONTENT_TYPE));
+            entity.setContentEncoding(response.getFirstHeader(HTTP.CONTENT_ENCODING));
+        }
+        partial.setEntity(entity);
+        return Proxies.enhanceResponse(partial);
+    }
+
+    /**
+     * Generates a 416 response to a request for a range lying beyond
+     * the representation.
+     *
+     * @param response response with the headers of the representation.
+     * @param length complete length of the representation.
+     */
+    CloseableHttpResponse generateNotSatisfiableResponse(final HttpResponse response, final long length) {
+        final HttpResponse notSatisfiable = new BasicHttpResponse(
+                HttpVersion.HTTP_1_1, SC_RANGE_NOT_SATISFIABLE, "Requested Range Not Satisfiable");
+        final Header date = response.getFirstHeader(HTTP.DATE_HEADER);
+        if (date != null) {
+            notSatisfiable.addHeader(date);
+        }
+        notSatisfiable.setHeader(HeaderConstants.CONTENT_RANGE, "bytes */" + length);
+        notSatisfiable.setHeader(HTTP.CONTENT_LEN, "0");
+        return Proxies.enhanceResponse(notSatisfiable);
+    }
+
+    static class ResourceRangeEntity extends AbstractHttpEntity {
+
+        private final Resource resource;
+        private final long offset;
+        private final long length;
+
+        ResourceRangeEntity(final Resource resource, final long offset, final long length) {
+            super();
+            this.resource = resource;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return this.length;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            final InputStream inStream = this.resource.getInputStream();
+            long remaining = this.offset;
+            while (remaining > 0) {
+                final long skipped = inStream.skip(remaining);
+                if (skipped > 0) {
+                    remaining -= skipped;
+                } else if (inStream.read() != -1) {
+                    remaining--;
+                } else {
+                    inStream.close();
+                    throw new IOException("Cached content truncated");
+                }
+            }
+            return new RangeInputStream(inStream, this.length);
+        }
+
+        @Override
+        public void writeTo(final OutputStream outStream) throws IOException {
+            Args.notNull(outStream, "Output stream");
+            final InputStream inStream = getContent();
+            try {
+                IOUtils.copy(inStream, outStream);
+            } finally {
+                inStream.close();
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+
+    }
+
+    static class RangeInputStream extends InputStream {
+
+        private final InputStream inStream;
+        private long remaining;
+
+        RangeInputStream(final InputStream inStream, final long length) {
+            super();
+            this.inStream = inStream;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            final int b = this.inStream.read();
+            if (b != -1) {
+                this.remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            final int n = this.inStream.read(b, off, (int) Math.min(len, this.remaining));
+            if (n > 0) {
+                this.remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(this.inStream.available(), this.remaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.inStream.close();
+        }
+
+    }
+
+}
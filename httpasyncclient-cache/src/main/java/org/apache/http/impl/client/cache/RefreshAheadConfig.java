@@ -0,0 +1,191 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.util.Args;
+
+/**
+ * Refresh-ahead configuration for a {@link CachingHttpAsyncClient}.
+ * <p>
+ * With refresh-ahead enabled, cache entries that are requested frequently
+ * get revalidated in the background once they have passed a given fraction
+ * of their freshness lifetime, so that they rarely go stale and have to be
+ * revalidated while the client waits. An entry counts as hot once it has
+ * been served from the cache a given number of times since it was last
+ * refreshed.
+ *
+ * @since 4.1.5
+ */
+@Contract(threading = ThreadingBehavior.IMMUTABLE)
+public class RefreshAheadConfig {
+
+    /** Default fraction of the freshness lifetime after which hot entries are refreshed. */
+    public final static float DEFAULT_REFRESH_FRACTION = 0.8f;
+
+    /** Default number of cache hits after which an entry counts as hot. */
+    public final static int DEFAULT_MIN_HITS = 3;
+
+    /** Default maximum number of refresh requests in flight. */
+    public final static int DEFAULT_MAX_IN_FLIGHT = 10;
+
+    /** Default maximum number of entries access statistics are kept for. */
+    public final static int DEFAULT_MAX_TRACKED_ENTRIES = 1000;
+
+    public static final RefreshAheadConfig DEFAULT = new Builder().build();
+
+    private final float refreshFraction;
+    private final int minHits;
+    private final int maxInFlight;
+    private final int maxTrackedEntries;
+
+    RefreshAheadConfig(
+            final float refreshFraction,
+            final int minHits,
+            final int maxInFlight,
+            final int maxTrackedEntries) {
+        super();
+        this.refreshFraction = refreshFraction;
+        this.minHits = minHits;
+        this.maxInFlight = maxInFlight;
+        this.maxTrackedEntries = maxTrackedEntries;
+    }
+
+    /**
+     * Returns the fraction of the freshness lifetime of a hot entry after
+     * which the entry gets refreshed in the background.
+     */
+    public float getRefreshFraction() {
+        return this.refreshFraction;
+    }
+
+    /**
+     * Returns the number of times an entry needs to be served from the cache
+     * since it was last refreshed in order to count as hot.
+     */
+    public int getMinHits() {
+        return this.minHits;
+    }
+
+    /**
+     * Returns the maximum number of background refresh requests in flight.
+     * Hot entries are not refreshed ahead while the limit is reached.
+     */
+    public int getMaxInFlight() {
+        return this.maxInFlight;
+    }
+
+    /**
+     * Returns the maximum number of cache entries access statistics are
+     * kept for. Statistics of the least recently accessed entries are
+     * discarded first.
+     */
+    public int getMaxTrackedEntries() {
+        return this.maxTrackedEntries;
+    }
+
+    public static Builder custom() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private float refreshFraction;
+        private int minHits;
+        private int maxInFlight;
+        private int maxTrackedEntries;
+
+        Builder() {
+            this.refreshFraction = DEFAULT_REFRESH_FRACTION;
+            this.minHits = DEFAULT_MIN_HITS;
+            this.maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+            this.maxTrackedEntries = DEFAULT_MAX_TRACKED_ENTRIES;
+        }
+
+        /**
+         * Sets the fraction of the freshness lifetime of a hot entry after
+         * which the entry gets refreshed in the background. Must be greater
+         * than zero and less than one.
+         */
+        public Builder setRefreshFraction(final float refreshFraction) {
+            this.refreshFraction = refreshFraction;
+            return this;
+        }
+
+        /**
+         * Sets the number of times an entry needs to be served from the cache
+         * since it was last refreshed in order to count as hot.
+         */
+        public Builder setMinHits(final int minHits) {
+            this.minHits = minHits;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of background refresh requests in flight.
+         */
+        public Builder setMaxInFlight(final int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of cache entries access statistics are kept for.
+         */
+        public Builder setMaxTrackedEntries(final int maxTrackedEntries) {
+            this.maxTrackedEntries = maxTrackedEntries;
+            return this;
+        }
+
+        public RefreshAheadConfig build() {
+            Args.check(this.refreshFraction > 0 && this.refreshFraction < 1,
+                    "Refresh fraction must be between 0 and 1");
+            Args.positive(this.minHits, "Min hits");
+            Args.positive(this.maxInFlight, "Max in flight");
+            Args.positive(this.maxTrackedEntries, "Max tracked entries");
+            return new RefreshAheadConfig(
+                    this.refreshFraction,
+                    this.minHits,
+                    this.maxInFlight,
+                    this.maxTrackedEntries);
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("[refreshFraction=").append(this.refreshFraction)
+                .append(", minHits=").append(this.minHits)
+                .append(", maxInFlight=").append(this.maxInFlight)
+                .append(", maxTrackedEntries=").append(this.maxTrackedEntries)
+                .append("]");
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * Keeps track of how often cache entries get served and revalidates hot
+ * entries in the background once they have passed a configurable fraction
+ * of their freshness lifetime.
+ * <p>
+ * A prefetch counts as wasted if the refreshed entry is not served again
+ * before it goes stale or its access statistics get discarded.
+ */
+class RefreshAheadPrefetcher {
+
+    private final CachingHttpAsyncClient cachingAsyncClient;
+    private final CacheValidityPolicy validityPolicy;
+    private final RefreshAheadConfig config;
+    private final CacheKeyGenerator cacheKeyGenerator;
+    private final Map<String, AccessStats> statsMap;
+    private final Set<String> inFlight;
+    private final AtomicLong prefetches;
+    private final AtomicLong wasted;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    RefreshAheadPrefetcher(
+            final CachingHttpAsyncClient cachingClient,
+            final CacheValidityPolicy validityPolicy,
+            final RefreshAheadConfig config) {
+        super();
+        this.cachingAsyncClient = cachingClient;
+        this.validityPolicy = validityPolicy;
+        this.config = config;
+        this.cacheKeyGenerator = new CacheKeyGenerator();
+        this.statsMap = new LinkedHashMap<String, AccessStats>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, AccessStats> eldest) {
+                if (size() > RefreshAheadPrefetcher.this.config.getMaxTrackedEntries()) {
+                    if (eldest.getValue().prefetched) {
+                        wasted.incrementAndGet();
+                    }
+                    return true;
+                }
+                return false;
+            }
+
+        };
+        this.inFlight = new HashSet<String>();
+        this.prefetches = new AtomicLong();
+        this.wasted = new AtomicLong();
+    }
+
+    /**
+     * Records a cache hit on the given entry and refreshes the entry in
+     * the background if it is hot and about to go stale.
+     *
+     * @param served whether or not the request is being served with
+     *   the cache entry.
+     */
+    void cacheHit(
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheEntry entry,
+            final Date now,
+            final boolean served) {
+        final String key = this.cacheKeyGenerator.getVariantURI(target, request, entry);
+        synchronized (this) {
+            AccessStats stats = this.statsMap.get(key);
+            if (stats == null) {
+                stats = new AccessStats();
+                this.statsMap.put(key, stats);
+            }
+            if (stats.prefetched) {
+                stats.prefetched = false;
+                if (!this.validityPolicy.isResponseFresh(entry, now)) {
+                    this.wasted.incrementAndGet();
+                }
+            }
+            stats.hits++;
+            if (!served
+                    || stats.hits < this.config.getMinHits()
+                    || !isDue(entry, now)
+                    || this.inFlight.contains(key)
+                    || this.inFlight.size() >= this.config.getMaxInFlight()) {
+                return;
+            }
+            stats.hits = 0;
+            this.inFlight.add(key);
+        }
+        this.log.debug("Refreshing hot cache entry ahead of expiry");
+        prefetch(key, target, request, entry);
+    }
+
+    private boolean isDue(final HttpCacheEntry entry, final Date now) {
+        if (!this.validityPolicy.isRevalidatable(entry)) {
+            return false;
+        }
+        final long lifetime = this.validityPolicy.getFreshnessLifetimeSecs(entry);
+        final long age = this.validityPolicy.getCurrentAgeSecs(entry, now);
+        return lifetime > 0 && age < lifetime && age >= lifetime * this.config.getRefreshFraction();
+    }
+
+    private void prefetch(
+            final String key,
+            final HttpHost target,
+            final HttpRequestWrapper request,
+            final HttpCacheEntry entry) {
+        final BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(new FutureCallback<HttpResponse>() {
+
+            @Override
+            public void completed(final HttpResponse response) {
+                prefetchCompleted(key,
+                        AsynchronousAsyncValidationRequest.isNotServerError(response.getStatusLine().getStatusCode())
+                        && AsynchronousAsyncValidationRequest.isNotStale(response));
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                log.debug("Refresh ahead failed", ex);
+                prefetchCompleted(key, false);
+            }
+
+            @Override
+            public void cancelled() {
+                prefetchCompleted(key, false);
+            }
+
+        });
+        try {
+            this.cachingAsyncClient.revalidateCacheEntry(future, target, request, HttpCacheContext.create(), entry);
+        } catch (final ProtocolException ex) {
+            future.failed(ex);
+        } catch (final RuntimeException ex) {
+            future.failed(ex);
+        }
+    }
+
+    private synchronized void prefetchCompleted(final String key, final boolean refreshed) {
+        this.inFlight.remove(key);
+        if (refreshed) {
+            this.prefetches.incrementAndGet();
+            final AccessStats stats = this.statsMap.get(key);
+            if (stats != null) {
+                stats.prefetched = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cache entries refreshed ahead of expiry.
+     */
+    long getPrefetches() {
+        return this.prefetches.get();
+    }
+
+    /**
+     * Returns the number of cache entries refreshed ahead of expiry that
+     * were not served again while fresh.
+     */
+    long getWasted() {
+        return this.wasted.get();
+    }
+
+    static class AccessStats {
+
+        int hits;
+        boolean prefetched;
+
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of requests in flight to the origin by cache key, so that
+ * concurrent requests for the same resource can wait for the response
+ * to the first request to get stored in the cache rather than all going
+ * to the origin at once.
+ * <p>
+ * Waiting requests give up on waiting once the timeout elapses.
+ */
+class RequestCollapser {
+
+    /**
+     * Notified of the outcome of a request a waiting request has been
+     * collapsed into. Exactly one of the methods gets called.
+     */
+    interface Callback {
+
+        /**
+         * The request waited for has completed.
+         */
+        void released();
+
+        /**
+         * The request waited for has not completed in time.
+         */
+        void timedOut();
+
+    }
+
+    private final long timeout;
+    private final ConcurrentMap<String, Flight> flights;
+    private final AtomicLong collapsed;
+
+    private ScheduledExecutorService scheduler;
+    private boolean shutdown;
+
+    /**
+     * @param timeout the time in milliseconds requests wait at most.
+     */
+    RequestCollapser(final long timeout) {
+        super();
+        this.timeout = timeout;
+        this.flights = new ConcurrentHashMap<String, Flight>();
+        this.collapsed = new AtomicLong();
+    }
+
+    /**
+     * Joins the request in flight for the given key, if there is one.
+     *
+     * @return {@code null} if the request has been collapsed into a request
+     *   in flight already, in which case the given callback gets notified
+     *   once that request has completed, or a new flight otherwise. The caller
+     *   is then expected to execute the request and land the flight once
+     *   the response has been stored.
+     */
+    Flight join(final String key, final Callback callback) {
+        final Flight flight = new Flight(key);
+        for (;;) {
+            final ScheduledExecutorService localScheduler = getScheduler();
+            if (localScheduler == null) {
+                // shut down; do not collapse
+                return flight;
+            }
+            final Flight existing = this.flights.putIfAbsent(key, flight);
+            if (existing == null) {
+                return flight;
+            }
+            final Waiter waiter = new Waiter(existing, callback);
+            // the timeout must be in place before the waiter can be released
+            try {
+                waiter.timeoutFuture = localScheduler.schedule(waiter, this.timeout, TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException ex) {
+                return flight;
+            }
+            if (existing.add(waiter)) {
+                this.collapsed.incrementAndGet();
+                return null;
+            }
+            waiter.timeoutFuture.cancel(false);
+            // the flight has just landed
+            this.flights.remove(key, existing);
+        }
+    }
+
+    /**
+     * Returns the number of requests collapsed into a request in flight.
+     */
+    long getCollapsed() {
+        return this.collapsed.get();
+    }
+
+    /**
+     * Shuts down the timeout scheduler. Requests no longer get collapsed
+     * afterwards. Requests already waiting are still released once the request
+     * they have been collapsed into completes, but no longer time out.
+     */
+    synchronized void shutdown() {
+        this.shutdown = true;
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Returns the timeout scheduler or {@code null} if it has been shut down.
+     */
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (this.shutdown) {
+            return null;
+        }
+        if (this.scheduler == null) {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "httpclient-cache-collapser");
+                    t.setDaemon(true);
+                    return t;
+                }
+
+            });
+            executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            this.scheduler = executor;
+        }
+        return this.scheduler;
+    }
+
+    class Flight {
+
+        private final String key;
+        private final List<Waiter> waiters;
+
+        private boolean landed;
+
+        Flight(final String key) {
+            super();
+            this.key = key;
+            this.waiters = new ArrayList<Waiter>();
+        }
+
+        synchronized boolean add(final Waiter waiter) {
+            if (this.landed) {
+                return false;
+            }
+            this.waiters.add(waiter);
+            return true;
+        }
+
+        synchronized void remove(final Waiter waiter) {
+            this.waiters.remove(waiter);
+        }
+
+        /**
+         * Releases all requests waiting for this flight.
+         */
+        void land() {
+            final List<Waiter> released;
+            synchronized (this) {
+                if (this.landed) {
+                    return;
+                }
+                this.landed = true;
+                released = new ArrayList<Waiter>(this.waiters);
+                this.waiters.clear();
+            }
+            flights.remove(this.key, this);
+            for (final Waiter waiter: released) {
+                waiter.release();
+            }
+        }
+
+    }
+
+    static class Waiter implements Runnable {
+
+        private final Flight flight;
+        private final Callback callback;
+        private final AtomicBoolean done;
+
+        volatile ScheduledFuture<?> timeoutFuture;
+
+        Waiter(final Flight flight, final Callback callback) {
+            super();
+            this.flight = flight;
+            this.callback = callback;
+            this.done = new AtomicBoolean();
+        }
+
+        void release() {
+            if (this.done.compareAndSet(false, true)) {
+                final ScheduledFuture<?> local = this.timeoutFuture;
+                if (local != null) {
+                    local.cancel(false);
+                }
+                this.callback.released();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (this.done.compareAndSet(false, true)) {
+                this.flight.remove(this);
+                this.callback.timedOut();
+            }
+        }
+
+    }
+
+}
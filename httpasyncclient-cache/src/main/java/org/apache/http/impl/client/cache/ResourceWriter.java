@@ -0,0 +1,257 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.client.cache.Resource;
+import org.apache.http.client.cache.ResourceFactory;
+import org.apache.http.nio.ContentDecoder;
+
+/**
+ * Collects response content as it is received, in order to store it
+ * in the cache once complete without buffering and copying it beforehand.
+ * <p>
+ * Content is kept in a list of chunks. If the expected content length is
+ * known, a single chunk of that length is allocated up front, which a heap
+ * based resource can take over without copying. Once the content exceeds
+ * the maximum size of cacheable objects the writer is marked as overflown;
+ * depending on whether or not the content is needed for other purposes
+ * further content is either still collected or discarded.
+ * <p>
+ * Not thread safe. Content must be written by one thread at a time and
+ * be read only once complete.
+ */
+class ResourceWriter {
+
+    private static final int MIN_CHUNK_SIZE = 8 * 1024;
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+    private final long maxSize;
+    private final boolean retainOverflow;
+    private final long expectedLength;
+    private final List<byte[]> chunks;
+
+    private byte[] current;
+    private int pos;
+    private long length;
+    private boolean overflown;
+
+    /**
+     * @param maxSize maximum size of cacheable content.
+     * @param expectedLength expected content length or a negative value
+     *   if unknown.
+     * @param retainOverflow whether or not to keep collecting content once
+     *   it exceeds the maximum size.
+     */
+    ResourceWriter(final long maxSize, final long expectedLength, final boolean retainOverflow) {
+        super();
+        this.maxSize = maxSize;
+        this.expectedLength = expectedLength;
+        this.retainOverflow = retainOverflow;
+        this.chunks = new ArrayList<byte[]>();
+    }
+
+    private boolean collecting() {
+        return !this.overflown || this.retainOverflow;
+    }
+
+    private void nextChunk() {
+        final int size;
+        if (this.current == null
+                && this.expectedLength > 0
+                && this.expectedLength <= Integer.MAX_VALUE - 8
+                && (this.retainOverflow || this.expectedLength <= this.maxSize)) {
+            size = (int) this.expectedLength;
+        } else {
+            size = (int) Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, this.length / 4));
+        }
+        this.current = new byte[size];
+        this.chunks.add(this.current);
+        this.pos = 0;
+    }
+
+    private void advance(final int n) {
+        this.length += n;
+        if (!this.overflown && this.length > this.maxSize) {
+            this.overflown = true;
+            if (!this.retainOverflow) {
+                this.chunks.clear();
+                this.current = null;
+            }
+        }
+    }
+
+    /**
+     * Copies the content of the given buffer.
+     */
+    void write(final ByteBuffer src) {
+        while (src.hasRemaining()) {
+            if (!collecting()) {
+                this.length += src.remaining();
+                src.position(src.limit());
+                return;
+            }
+            if (this.current == null || this.pos == this.current.length) {
+                nextChunk();
+            }
+            final int n = Math.min(src.remaining(), this.current.length - this.pos);
+            src.get(this.current, this.pos, n);
+            this.pos += n;
+            advance(n);
+        }
+    }
+
+    /**
+     * Reads content from the given decoder straight into the chunks until
+     * no more content is available.
+     *
+     * @return {@code true} if content is still being collected.
+     */
+    boolean consume(final ContentDecoder decoder) throws IOException {
+        for (;;) {
+            if (!collecting()) {
+                return false;
+            }
+            if (this.current == null || this.pos == this.current.length) {
+                nextChunk();
+            }
+            final ByteBuffer dst = ByteBuffer.wrap(this.current, this.pos, this.current.length - this.pos);
+            final int n = decoder.read(dst);
+            if (n <= 0) {
+                return true;
+            }
+            this.pos += n;
+            advance(n);
+            if (decoder.isCompleted()) {
+                return collecting();
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the content received so far.
+     */
+    long length() {
+        return this.length;
+    }
+
+    /**
+     * Returns {@code true} if the content exceeds the maximum size
+     * of cacheable objects.
+     */
+    boolean isOverflown() {
+        return this.overflown;
+    }
+
+    /**
+     * Returns a stream of the collected content.
+     */
+    InputStream getInputStream() {
+        return new ChunkInputStream();
+    }
+
+    private byte[] toByteArray() {
+        if (!this.chunks.isEmpty() && this.chunks.get(0).length == this.length) {
+            return this.chunks.get(0);
+        }
+        final byte[] b = new byte[(int) this.length];
+        int off = 0;
+        for (final byte[] chunk: this.chunks) {
+            final int n = Math.min(chunk.length, b.length - off);
+            System.arraycopy(chunk, 0, b, off, n);
+            off += n;
+        }
+        return b;
+    }
+
+    /**
+     * Creates a cache resource with the collected content. Heap resources
+     * are created without copying if the content length was known in advance.
+     */
+    Resource toResource(final ResourceFactory resourceFactory, final String requestId) throws IOException {
+        if (resourceFactory.getClass() == HeapResourceFactory.class) {
+            return new HeapResource(toByteArray());
+        }
+        final InputStream inStream = getInputStream();
+        try {
+            return resourceFactory.generate(requestId, inStream, null);
+        } finally {
+            inStream.close();
+        }
+    }
+
+    class ChunkInputStream extends InputStream {
+
+        private int index;
+        private int off;
+        private long remaining;
+
+        ChunkInputStream() {
+            super();
+            this.remaining = chunks.size() > 0 ? length : 0;
+        }
+
+        @Override
+        public int read() {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int offset, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            byte[] chunk = chunks.get(this.index);
+            if (this.off == chunk.length) {
+                this.index++;
+                this.off = 0;
+                chunk = chunks.get(this.index);
+            }
+            final int n = (int) Math.min(Math.min(len, chunk.length - this.off), this.remaining);
+            System.arraycopy(chunk, this.off, b, offset, n);
+            this.off += n;
+            this.remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(this.remaining, Integer.MAX_VALUE);
+        }
+
+    }
+
+}
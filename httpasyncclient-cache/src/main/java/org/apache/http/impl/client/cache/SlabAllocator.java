@@ -0,0 +1,182 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+import org.apache.http.util.Args;
+
+/**
+ * Hands out fixed size slabs of off-heap memory carved out of larger direct
+ * buffers, up to a maximum total capacity. Direct buffers are allocated
+ * lazily and never given back to the system; released slabs are kept on a
+ * free list for reuse.
+ * <p>
+ * Slabs held by an {@link OffHeapResource} are released when the resource
+ * gets disposed or, failing that, once the resource has been garbage
+ * collected. The latter is required because a resource evicted from the
+ * cache may still be in use by responses generated from its cache entry.
+ */
+class SlabAllocator {
+
+    private final int slabSize;
+    private final int slabsPerChunk;
+    private final long maxSlabs;
+    private final LinkedList<ByteBuffer> freeList;
+    private final ReferenceQueue<OffHeapResource> refQueue;
+    private final Set<SlabReference> references;
+
+    private long allocated;
+    private long leased;
+
+    /**
+     * @param slabSize size of a slab in bytes.
+     * @param chunkSize size of direct buffers slabs are carved out of.
+     * @param capacity maximum total size of all slabs in bytes.
+     */
+    SlabAllocator(final int slabSize, final int chunkSize, final long capacity) {
+        super();
+        Args.positive(slabSize, "Slab size");
+        Args.check(chunkSize >= slabSize, "Chunk size may not be less than slab size");
+        Args.notNegative(capacity, "Capacity");
+        this.slabSize = slabSize;
+        this.slabsPerChunk = chunkSize / slabSize;
+        this.maxSlabs = capacity / slabSize;
+        this.freeList = new LinkedList<ByteBuffer>();
+        this.refQueue = new ReferenceQueue<OffHeapResource>();
+        this.references = new HashSet<SlabReference>();
+    }
+
+    int getSlabSize() {
+        return this.slabSize;
+    }
+
+    /**
+     * Returns a free slab or {@code null} if the capacity is exhausted.
+     */
+    ByteBuffer allocate() {
+        reclaim();
+        synchronized (this) {
+            if (this.freeList.isEmpty() && this.allocated < this.maxSlabs) {
+                final int n = (int) Math.min(this.slabsPerChunk, this.maxSlabs - this.allocated);
+                final ByteBuffer chunk = ByteBuffer.allocateDirect(n * this.slabSize);
+                for (int i = 0; i < n; i++) {
+                    chunk.limit((i + 1) * this.slabSize);
+                    chunk.position(i * this.slabSize);
+                    this.freeList.add(chunk.slice());
+                }
+                this.allocated += n;
+            }
+            final ByteBuffer slab = this.freeList.poll();
+            if (slab != null) {
+                this.leased++;
+            }
+            return slab;
+        }
+    }
+
+    /**
+     * Returns slabs that have not been handed over to a resource.
+     */
+    synchronized void release(final ByteBuffer[] slabs, final int count) {
+        for (int i = 0; i < count; i++) {
+            slabs[i].clear();
+            this.freeList.add(slabs[i]);
+        }
+        this.leased -= count;
+    }
+
+    /**
+     * Keeps track of the slabs held by the given resource in order to release
+     * them once the resource gets garbage collected without having been
+     * disposed.
+     */
+    SlabReference register(final OffHeapResource resource, final ByteBuffer[] slabs) {
+        final SlabReference ref = new SlabReference(resource, this.refQueue, slabs);
+        synchronized (this) {
+            this.references.add(ref);
+        }
+        return ref;
+    }
+
+    /**
+     * Releases the slabs held by a resource, unless that has happened already.
+     */
+    void release(final SlabReference ref) {
+        synchronized (this) {
+            if (!this.references.remove(ref)) {
+                return;
+            }
+            release(ref.slabs, ref.slabs.length);
+        }
+        ref.clear();
+    }
+
+    /**
+     * Releases the slabs of resources that have been garbage collected.
+     */
+    void reclaim() {
+        SlabReference ref;
+        while ((ref = (SlabReference) this.refQueue.poll()) != null) {
+            release(ref);
+        }
+    }
+
+    /**
+     * Returns the total size of slabs in use in bytes.
+     */
+    synchronized long getUsed() {
+        return this.leased * this.slabSize;
+    }
+
+    /**
+     * Returns the total size of off-heap memory allocated so far in bytes.
+     */
+    synchronized long getAllocated() {
+        return this.allocated * this.slabSize;
+    }
+
+    static class SlabReference extends PhantomReference<OffHeapResource> {
+
+        private final ByteBuffer[] slabs;
+
+        SlabReference(
+                final OffHeapResource resource,
+                final ReferenceQueue<OffHeapResource> q,
+                final ByteBuffer[] slabs) {
+            super(resource, q);
+            this.slabs = slabs;
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * {@link HttpAsyncCache} that executes operations of a synchronous
+ * {@link HttpCache} on the calling thread.
+ * <p>
+ * {@link HttpCache} offers no means of storing entries other than complete
+ * responses, so partial responses are not cached.
+ */
+class SynchronousHttpAsyncCache implements HttpAsyncCache {
+
+    private final HttpCache cache;
+
+    SynchronousHttpAsyncCache(final HttpCache cache) {
+        super();
+        this.cache = cache;
+    }
+
+    @Override
+    public void flushCacheEntriesFor(
+            final HttpHost host, final HttpRequest request, final FutureCallback<Void> callback) {
+        try {
+            this.cache.flushCacheEntriesFor(host, request);
+        } catch (final IOException ex) {
+            callback.failed(ex);
+            return;
+        }
+        callback.completed(null);
+    }
+
+    @Override
+    public void flushInvalidatedCacheEntriesFor(
+            final HttpHost host, final HttpRequest request, final FutureCallback<Void> callback) {
+        try {
+            this.cache.flushInvalidatedCacheEntriesFor(host, request);
+        } catch (final IOException ex) {
+            callback.failed(ex);
+            return;
+        }
+        callback.completed(null);
+    }
+
+    @Override
+    public void flushInvalidatedCacheEntriesFor(
+            final HttpHost host, final HttpRequest request, final HttpResponse response,
+            final FutureCallback<Void> callback) {
+        this.cache.flushInvalidatedCacheEntriesFor(host, request, response);
+        callback.completed(null);
+    }
+
+    @Override
+    public void getCacheEntry(
+            final HttpHost host, final HttpRequest request, final FutureCallback<HttpCacheEntry> callback) {
+        final HttpCacheEntry entry;
+        try {
+            entry = this.cache.getCacheEntry(host, request);
+        } catch (final IOException ex) {
+            callback.failed(ex);
+            return;
+        }
+        callback.completed(entry);
+    }
+
+    @Override
+    public void getVariantCacheEntriesWithEtags(
+            final HttpHost host, final HttpRequest request, final FutureCallback<Map<String, Variant>> callback) {
+        final Map<String, Variant> variants;
+        try {
+            variants = this.cache.getVariantCacheEntriesWithEtags(host, request);
+        } catch (final IOException ex) {
+            callback.failed(ex);
+            return;
+        }
+        callback.completed(variants);
+    }
+
+    @Override
+    public void cacheAndReturnResponse(
+            final HttpHost host, final HttpRequest request, final CloseableHttpResponse originResponse,
+            final Date requestSent, final Date responseReceived,
+            final FutureCallback<CloseableHttpResponse> callback) {
+        final CloseableHttpResponse response;
+        try {
+            response = this.cache.cacheAndReturnResponse(
+                    host, request, originResponse, requestSent, responseReceived);
+        } catch (final IOException ex) {
+            callback.failed(ex);
+            return;
+        }
+        callback.completed(response);
+    }
+
+    @Override
+    public void cacheAndReturnResponse(
+            final HttpHost host, final HttpRequest request, final CloseableHttpResponse originResponse,
+            final ResourceWriter content, final Date requestSent, final Date responseReceived,
+            final FutureCallback<CloseableHttpResponse> callback) {
+        // the synchronous cache reads the content from the response entity
+        cacheAndReturnResponse(host, request, originResponse, requestSent, responseReceived, callback);
+    }
+
+    @Override
+    public void getPartialCacheEntry(
+            final HttpHost host, final HttpRequest request, final FutureCallback<HttpCacheEntry> callback) {
+        callback.completed(null);
+    }
+
+    @Override
+    public void cachePartialResponse(
+            final HttpHost host,
+            final HttpRequest request,
+            final HttpResponse originResponse,
+            final ResourceWriter content,
+            final Date requestSent,
+            final Date responseReceived,
+            final FutureCallback<HttpCacheEntry> callback) {
+        callback.completed(null);
+    }
+
+    @Override
+    public void updateCacheEntry(
+            final HttpHost target, final HttpRequest request, final HttpCacheEntry stale,
+            final HttpResponse originResponse, final Date requestSent, final Date responseReceived,
+            final FutureCallback<HttpCacheEntry> callback) {
+        final HttpCacheEntry entry;
+        try {
+            entry = this.cache.updateCacheEntry(
+                    target, request, stale, originResponse, requestSent, responseReceived);
+        } catch (final IOException ex) {
+            callback.failed(ex);
+            return;
+        }
+        callback.completed(entry);
+    }
+
+    @Override
+    public void updateVariantCacheEntry(
+            final HttpHost target, final HttpRequest request, final HttpCacheEntry stale,
+            final HttpResponse originResponse, final Date requestSent, final Date responseReceived,
+            final String cacheKey, final FutureCallback<HttpCacheEntry> callback) {
+        final HttpCacheEntry entry;
+        try {
+            entry = this.cache.updateVariantCacheEntry(
+                    target, request, stale, originResponse, requestSent, responseReceived, cacheKey);
+        } catch (final IOException ex) {
+            callback.failed(ex);
+            return;
+        }
+        callback.completed(entry);
+    }
+
+    @Override
+    public void reuseVariantEntryFor(
+            final HttpHost target, final HttpRequest request, final Variant variant,
+            final FutureCallback<Void> callback) {
+        try {
+            this.cache.reuseVariantEntryFor(target, request, variant);
+        } catch (final IOException ex) {
+            callback.failed(ex);
+            return;
+        }
+        callback.completed(null);
+    }
+
+}
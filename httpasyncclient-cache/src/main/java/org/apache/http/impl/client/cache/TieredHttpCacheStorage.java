@@ -0,0 +1,527 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.client.cache.ResourceFactory;
+import org.apache.http.util.Args;
+
+/**
+ * {@link HttpCacheStorage} implementation keeping small, frequently used
+ * cache entries on the heap (L1) in front of another, larger storage (L2)
+ * such as {@link MappedHttpCacheStorage} or a {@link TinyLfuHttpCacheStorage}
+ * used with an {@link OffHeapResourceFactory}.
+ * <p>
+ * L1 is an LRU cache bounded by the estimated size of its entries in bytes.
+ * New entries small enough are stored in L1 only and written to L2 once
+ * evicted from L1 (demoted). Larger entries go to L2 directly. Entries found
+ * in L2 are copied onto the heap and added to L1 (promoted), leaving the copy
+ * in L2 in place, so that their eventual eviction from L1 costs no write.
+ * Storing an entry in either tier removes any stale copy from the other one.
+ * The size of L2 is bounded by the L2 storage itself.
+ * <p>
+ * Only L1 bookkeeping happens under a storage wide lock. L2 I/O, promotion
+ * and demotion happen outside of it while holding a lock for the key of
+ * the entry only, so that slow L2 operations never stall access to L1 or
+ * to other keys.
+ * <p>
+ * Entries stored in L1 only are not persisted by a persistent L2 until
+ * demoted; {@link #flush()} writes all of them to L2.
+ * <p>
+ * The storage keeps hit, miss and lookup time statistics for each tier
+ * in order to help with sizing them.
+ *
+ * @since 4.1.5
+ */
+@Contract(threading = ThreadingBehavior.SAFE)
+public class TieredHttpCacheStorage implements HttpCacheStorage {
+
+    private final HttpCacheStorage l2;
+    private final long l1MaxSize;
+    private final long l1MaxEntrySize;
+    private final ResourceFactory resourceFactory;
+    private final LinkedHashMap<String, Node> l1;
+    private final Map<String, Node> demoting;
+    private final Map<String, KeyLock> keyLocks;
+
+    private long l1Size;
+    private long l1Hits;
+    private long l1Misses;
+    private long l1LookupTime;
+    private long l2Hits;
+    private long l2Misses;
+    private long l2LookupTime;
+    private long promotions;
+    private long demotions;
+
+    /**
+     * Creates a storage.
+     *
+     * @param l2 storage of the second tier.
+     * @param l1MaxSize maximum total size of L1 cache entries in bytes.
+     * @param l1MaxEntrySize maximum size of a single L1 cache entry in bytes.
+     */
+    public TieredHttpCacheStorage(
+            final HttpCacheStorage l2,
+            final long l1MaxSize,
+            final long l1MaxEntrySize) {
+        super();
+        Args.notNull(l2, "L2 storage");
+        Args.positive(l1MaxSize, "L1 max size");
+        Args.positive(l1MaxEntrySize, "L1 max entry size");
+        this.l2 = l2;
+        this.l1MaxSize = l1MaxSize;
+        this.l1MaxEntrySize = Math.min(l1MaxEntrySize, l1MaxSize);
+        this.resourceFactory = new HeapResourceFactory();
+        this.l1 = new LinkedHashMap<String, Node>(16, 0.75f, true);
+        this.demoting = new HashMap<String, Node>();
+        this.keyLocks = new HashMap<String, KeyLock>();
+    }
+
+    /**
+     * Creates a storage admitting entries up to 1/16 of the L1 size to L1.
+     *
+     * @param l2 storage of the second tier.
+     * @param l1MaxSize maximum total size of L1 cache entries in bytes.
+     */
+    public TieredHttpCacheStorage(final HttpCacheStorage l2, final long l1MaxSize) {
+        this(l2, l1MaxSize, Math.max(1, l1MaxSize / 16));
+    }
+
+    @Override
+    public void putEntry(final String key, final HttpCacheEntry entry) throws IOException {
+        Args.notNull(key, "URL");
+        Args.notNull(entry, "Cache entry");
+        final List<Map.Entry<String, Node>> evicted;
+        final KeyLock keyLock = lockKey(key);
+        try {
+            synchronized (keyLock) {
+                evicted = put(key, entry);
+            }
+        } finally {
+            unlockKey(key, keyLock);
+        }
+        demote(evicted);
+    }
+
+    /**
+     * Stores the entry in one of the tiers, removing any other copy of it.
+     * Must be called holding the lock of the key. Returns entries evicted
+     * from L1 that still have to be demoted.
+     */
+    private List<Map.Entry<String, Node>> put(
+            final String key, final HttpCacheEntry entry) throws IOException {
+        final long size = TinyLfuHttpCacheStorage.weigh(key, entry);
+        if (size > this.l1MaxEntrySize) {
+            synchronized (this) {
+                removeL1(key);
+            }
+            this.l2.putEntry(key, entry);
+            return Collections.emptyList();
+        }
+        final Node previous;
+        final List<Map.Entry<String, Node>> evicted;
+        synchronized (this) {
+            previous = removeL1(key);
+            evicted = addL1(key, new Node(entry, size, true));
+        }
+        // A dirty entry has no copy in L2. Otherwise drop the stale copy
+        // so that it cannot resurface should this entry never be demoted.
+        if (previous == null || !previous.dirty) {
+            this.l2.removeEntry(key);
+        }
+        return evicted;
+    }
+
+    @Override
+    public HttpCacheEntry getEntry(final String key) throws IOException {
+        Args.notNull(key, "URL");
+        final long start = System.nanoTime();
+        synchronized (this) {
+            final Node node = getL1(key);
+            this.l1LookupTime += System.nanoTime() - start;
+            if (node != null) {
+                this.l1Hits++;
+                return node.entry;
+            }
+            this.l1Misses++;
+        }
+        final HttpCacheEntry promoted;
+        final List<Map.Entry<String, Node>> evicted;
+        final KeyLock keyLock = lockKey(key);
+        try {
+            synchronized (keyLock) {
+                // The entry may have been promoted or stored while waiting for the key.
+                synchronized (this) {
+                    final Node node = getL1(key);
+                    if (node != null) {
+                        return node.entry;
+                    }
+                }
+                final long l2Start = System.nanoTime();
+                final HttpCacheEntry entry = this.l2.getEntry(key);
+                final long l2Time = System.nanoTime() - l2Start;
+                if (entry == null) {
+                    synchronized (this) {
+                        this.l2LookupTime += l2Time;
+                        this.l2Misses++;
+                    }
+                    return null;
+                }
+                final long size = TinyLfuHttpCacheStorage.weigh(key, entry);
+                if (size > this.l1MaxEntrySize) {
+                    synchronized (this) {
+                        this.l2LookupTime += l2Time;
+                        this.l2Hits++;
+                    }
+                    return entry;
+                }
+                promoted = copyToHeap(key, entry);
+                synchronized (this) {
+                    this.l2LookupTime += l2Time;
+                    this.l2Hits++;
+                    evicted = addL1(key, new Node(promoted, size, false));
+                    this.promotions++;
+                }
+            }
+        } finally {
+            unlockKey(key, keyLock);
+        }
+        demote(evicted);
+        return promoted;
+    }
+
+    private HttpCacheEntry copyToHeap(final String key, final HttpCacheEntry entry) throws IOException {
+        final Resource resource = entry.getResource();
+        if (resource == null || resource instanceof HeapResource) {
+            return entry;
+        }
+        return new HttpCacheEntry(
+                entry.getRequestDate(),
+                entry.getResponseDate(),
+                entry.getStatusLine(),
+                entry.getAllHeaders(),
+                this.resourceFactory.copy(key, resource),
+                entry.getVariantMap(),
+                entry.getRequestMethod());
+    }
+
+    @Override
+    public void removeEntry(final String key) throws IOException {
+        Args.notNull(key, "URL");
+        final KeyLock keyLock = lockKey(key);
+        try {
+            synchronized (keyLock) {
+                synchronized (this) {
+                    removeL1(key);
+                }
+                this.l2.removeEntry(key);
+            }
+        } finally {
+            unlockKey(key, keyLock);
+        }
+    }
+
+    @Override
+    public void updateEntry(
+            final String key,
+            final HttpCacheUpdateCallback callback) throws IOException {
+        Args.notNull(key, "URL");
+        Args.notNull(callback, "Callback");
+        List<Map.Entry<String, Node>> evicted = Collections.emptyList();
+        final KeyLock keyLock = lockKey(key);
+        try {
+            synchronized (keyLock) {
+                final Node node;
+                synchronized (this) {
+                    node = getL1(key);
+                }
+                final HttpCacheEntry existing = node != null ? node.entry : this.l2.getEntry(key);
+                final HttpCacheEntry updated = callback.update(existing);
+                if (updated != null) {
+                    evicted = put(key, updated);
+                } else {
+                    synchronized (this) {
+                        removeL1(key);
+                    }
+                    this.l2.removeEntry(key);
+                }
+            }
+        } finally {
+            unlockKey(key, keyLock);
+        }
+        demote(evicted);
+    }
+
+    private KeyLock lockKey(final String key) {
+        synchronized (this) {
+            KeyLock keyLock = this.keyLocks.get(key);
+            if (keyLock == null) {
+                keyLock = new KeyLock();
+                this.keyLocks.put(key, keyLock);
+            }
+            keyLock.holders++;
+            return keyLock;
+        }
+    }
+
+    private void unlockKey(final String key, final KeyLock keyLock) {
+        synchronized (this) {
+            keyLock.holders--;
+            if (keyLock.holders == 0) {
+                this.keyLocks.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns the L1 node of the key including one evicted but not demoted yet.
+     * Must be called holding the L1 lock.
+     */
+    private Node getL1(final String key) {
+        final Node node = this.l1.get(key);
+        return node != null ? node : this.demoting.get(key);
+    }
+
+    /**
+     * Adds the node to L1 evicting eldest nodes if need be. Evicted nodes
+     * missing from L2 are kept aside until written to L2 by {@link #demote(List)}.
+     * Must be called holding the L1 lock.
+     */
+    private List<Map.Entry<String, Node>> addL1(final String key, final Node node) {
+        final Node previous = this.l1.put(key, node);
+        if (previous != null) {
+            this.l1Size -= previous.size;
+        }
+        this.l1Size += node.size;
+        List<Map.Entry<String, Node>> evicted = Collections.emptyList();
+        final Iterator<Map.Entry<String, Node>> it = this.l1.entrySet().iterator();
+        while (this.l1Size > this.l1MaxSize && it.hasNext()) {
+            final Map.Entry<String, Node> eldest = it.next();
+            it.remove();
+            this.l1Size -= eldest.getValue().size;
+            if (eldest.getValue().dirty) {
+                if (evicted.isEmpty()) {
+                    evicted = new ArrayList<Map.Entry<String, Node>>();
+                }
+                this.demoting.put(eldest.getKey(), eldest.getValue());
+                evicted.add(new AbstractMap.SimpleImmutableEntry<String, Node>(
+                        eldest.getKey(), eldest.getValue()));
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Removes the key from L1. Must be called holding the L1 lock.
+     */
+    private Node removeL1(final String key) {
+        final Node node = this.l1.remove(key);
+        if (node != null) {
+            this.l1Size -= node.size;
+            return node;
+        }
+        return this.demoting.remove(key);
+    }
+
+    /**
+     * Writes evicted nodes to L2 unless they have been superseded
+     * in the meantime. Must be called without holding any lock.
+     */
+    private void demote(final List<Map.Entry<String, Node>> evicted) throws IOException {
+        for (final Map.Entry<String, Node> eldest: evicted) {
+            final String key = eldest.getKey();
+            final Node node = eldest.getValue();
+            final KeyLock keyLock = lockKey(key);
+            try {
+                synchronized (keyLock) {
+                    synchronized (this) {
+                        if (this.demoting.get(key) != node) {
+                            continue;
+                        }
+                    }
+                    if (node.dirty) {
+                        this.l2.putEntry(key, node.entry);
+                    }
+                    synchronized (this) {
+                        this.demoting.remove(key);
+                        if (node.dirty) {
+                            node.dirty = false;
+                            this.demotions++;
+                        }
+                    }
+                }
+            } finally {
+                unlockKey(key, keyLock);
+            }
+        }
+    }
+
+    /**
+     * Writes all entries stored in L1 only to L2.
+     */
+    public void flush() throws IOException {
+        final List<Map.Entry<String, Node>> dirty = new ArrayList<Map.Entry<String, Node>>();
+        synchronized (this) {
+            for (final Map.Entry<String, Node> entry: this.l1.entrySet()) {
+                if (entry.getValue().dirty) {
+                    dirty.add(new AbstractMap.SimpleImmutableEntry<String, Node>(
+                            entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+        for (final Map.Entry<String, Node> entry: dirty) {
+            final String key = entry.getKey();
+            final Node node = entry.getValue();
+            final KeyLock keyLock = lockKey(key);
+            try {
+                synchronized (keyLock) {
+                    synchronized (this) {
+                        if (getL1(key) != node || !node.dirty) {
+                            continue;
+                        }
+                    }
+                    this.l2.putEntry(key, node.entry);
+                    synchronized (this) {
+                        node.dirty = false;
+                    }
+                }
+            } finally {
+                unlockKey(key, keyLock);
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated total size of L1 cache entries in bytes.
+     */
+    public synchronized long getL1Size() {
+        return this.l1Size;
+    }
+
+    /**
+     * Returns the number of L1 cache entries.
+     */
+    public synchronized int getL1EntryCount() {
+        return this.l1.size();
+    }
+
+    /**
+     * Returns the number of lookups served from L1.
+     */
+    public synchronized long getL1Hits() {
+        return this.l1Hits;
+    }
+
+    /**
+     * Returns the number of lookups not served from L1.
+     */
+    public synchronized long getL1Misses() {
+        return this.l1Misses;
+    }
+
+    /**
+     * Returns the total time spent on L1 lookups in nanoseconds.
+     */
+    public synchronized long getL1LookupTime() {
+        return this.l1LookupTime;
+    }
+
+    /**
+     * Returns the number of lookups served from L2.
+     */
+    public synchronized long getL2Hits() {
+        return this.l2Hits;
+    }
+
+    /**
+     * Returns the number of lookups neither served from L1 nor from L2.
+     */
+    public synchronized long getL2Misses() {
+        return this.l2Misses;
+    }
+
+    /**
+     * Returns the total time spent on L2 lookups in nanoseconds.
+     */
+    public synchronized long getL2LookupTime() {
+        return this.l2LookupTime;
+    }
+
+    /**
+     * Returns the number of entries copied from L2 to L1.
+     */
+    public synchronized long getPromotions() {
+        return this.promotions;
+    }
+
+    /**
+     * Returns the number of entries written to L2 upon eviction from L1.
+     */
+    public synchronized long getDemotions() {
+        return this.demotions;
+    }
+
+    static class KeyLock {
+
+        /** Number of threads holding or waiting for the lock. Guarded by the L1 lock. */
+        int holders;
+
+    }
+
+    static class Node {
+
+        final HttpCacheEntry entry;
+        final long size;
+
+        /** Whether the entry is missing from L2. Guarded by the L1 lock. */
+        boolean dirty;
+
+        Node(final HttpCacheEntry entry, final long size, final boolean dirty) {
+            this.entry = entry;
+            this.size = size;
+            this.dirty = dirty;
+        }
+
+    }
+
+}
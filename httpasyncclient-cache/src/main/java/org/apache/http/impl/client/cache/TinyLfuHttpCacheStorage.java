@@ -0,0 +1,283 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.util.Args;
+
+/**
+ * {@link HttpCacheStorage} implementation bounded by the total size of
+ * cache entries in bytes rather than their number, that uses the W-TinyLFU
+ * policy to decide which entries to keep.
+ * <p>
+ * New entries enter a small admission window managed as an LRU list.
+ * Entries evicted from the window compete for a place in the main space
+ * against the entry the main space would evict next. The entry accessed
+ * more frequently recently, as estimated by a frequency sketch, wins.
+ * This keeps entries requested only once, such as those requested by
+ * crawlers scanning a site, from flushing popular entries out of the
+ * cache. The main space is split into a probation and a protected segment;
+ * entries get promoted to the protected segment when accessed on probation.
+ * <p>
+ * The size of an entry is estimated from the length of its body plus
+ * the size of its headers and a fixed overhead. Resources of evicted entries
+ * are not disposed, as they may still be in use. Use
+ * with {@link OffHeapResourceFactory} to keep response bodies off the heap.
+ *
+ * @since 4.1.5
+ */
+@Contract(threading = ThreadingBehavior.SAFE)
+public class TinyLfuHttpCacheStorage implements HttpCacheStorage {
+
+    /** Estimated per entry overhead in bytes. */
+    static final int ENTRY_OVERHEAD = 256;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final long maxSize;
+    private final long maxWindowSize;
+    private final long maxProtectedSize;
+    private final FrequencySketch sketch;
+    private final Map<String, Node> nodes;
+    private final LinkedHashMap<String, Node>[] segments;
+    private final long[] sizes;
+
+    /**
+     * Creates a storage.
+     *
+     * @param maxSize maximum total size of cache entries in bytes.
+     * @param expectedEntries expected number of cache entries, used to size
+     *   the frequency sketch.
+     */
+    @SuppressWarnings("unchecked")
+    public TinyLfuHttpCacheStorage(final long maxSize, final int expectedEntries) {
+        super();
+        Args.positive(maxSize, "Max size");
+        Args.positive(expectedEntries, "Expected entries");
+        this.maxSize = maxSize;
+        this.maxWindowSize = Math.max(1, maxSize / 100);
+        this.maxProtectedSize = (long) ((maxSize - this.maxWindowSize) * 0.8);
+        this.sketch = new FrequencySketch(expectedEntries);
+        this.nodes = new HashMap<String, Node>();
+        this.segments = new LinkedHashMap[3];
+        for (int i = 0; i < this.segments.length; i++) {
+            this.segments[i] = new LinkedHashMap<String, Node>(16, 0.75f, true);
+        }
+        this.sizes = new long[3];
+    }
+
+    /**
+     * Creates a storage expecting cache entries of 8 KiB on average.
+     *
+     * @param maxSize maximum total size of cache entries in bytes.
+     */
+    public TinyLfuHttpCacheStorage(final long maxSize) {
+        this(maxSize, (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxSize / 8192)));
+    }
+
+    static long weigh(final String key, final HttpCacheEntry entry) {
+        long size = ENTRY_OVERHEAD + 2L * key.length();
+        final Resource resource = entry.getResource();
+        if (resource != null) {
+            size += resource.length();
+        }
+        for (final Header header: entry.getAllHeaders()) {
+            size += 2L * (header.getName().length() + header.getValue().length());
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized void putEntry(final String key, final HttpCacheEntry entry) throws IOException {
+        Args.notNull(key, "URL");
+        Args.notNull(entry, "Cache entry");
+        this.sketch.increment(key);
+        put(key, entry);
+    }
+
+    private void put(final String key, final HttpCacheEntry entry) {
+        final long size = weigh(key, entry);
+        if (size > this.maxSize) {
+            remove(key);
+            return;
+        }
+        Node node = this.nodes.get(key);
+        if (node != null) {
+            this.sizes[node.segment] += size - node.size;
+            node.entry = entry;
+            node.size = size;
+            this.segments[node.segment].get(key);
+        } else {
+            node = new Node(key, entry, size);
+            this.nodes.put(key, node);
+            add(node, WINDOW);
+        }
+        evict();
+    }
+
+    @Override
+    public synchronized HttpCacheEntry getEntry(final String key) throws IOException {
+        Args.notNull(key, "URL");
+        this.sketch.increment(key);
+        final Node node = this.nodes.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (node.segment == PROBATION) {
+            unlink(node);
+            add(node, PROTECTED);
+            while (this.sizes[PROTECTED] > this.maxProtectedSize) {
+                final Node eldest = eldest(PROTECTED);
+                unlink(eldest);
+                add(eldest, PROBATION);
+            }
+        } else {
+            this.segments[node.segment].get(key);
+        }
+        return node.entry;
+    }
+
+    @Override
+    public synchronized void removeEntry(final String key) throws IOException {
+        Args.notNull(key, "URL");
+        remove(key);
+    }
+
+    @Override
+    public synchronized void updateEntry(
+            final String key,
+            final HttpCacheUpdateCallback callback) throws IOException {
+        Args.notNull(key, "URL");
+        Args.notNull(callback, "Callback");
+        final Node node = this.nodes.get(key);
+        final HttpCacheEntry updated = callback.update(node != null ? node.entry : null);
+        if (updated != null) {
+            put(key, updated);
+        } else {
+            remove(key);
+        }
+    }
+
+    private void remove(final String key) {
+        final Node node = this.nodes.remove(key);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    private void add(final Node node, final int segment) {
+        node.segment = segment;
+        this.segments[segment].put(node.key, node);
+        this.sizes[segment] += node.size;
+    }
+
+    private void unlink(final Node node) {
+        this.segments[node.segment].remove(node.key);
+        this.sizes[node.segment] -= node.size;
+    }
+
+    private Node eldest(final int segment) {
+        final Iterator<Node> it = this.segments[segment].values().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    private void evict() {
+        // entries leaving the window become candidates for the main space
+        final LinkedList<Node> candidates = new LinkedList<Node>();
+        while (this.sizes[WINDOW] > this.maxWindowSize) {
+            final Node node = eldest(WINDOW);
+            unlink(node);
+            add(node, PROBATION);
+            candidates.add(node);
+        }
+        while (this.sizes[WINDOW] + this.sizes[PROBATION] + this.sizes[PROTECTED] > this.maxSize) {
+            Node victim = eldest(PROBATION);
+            if (victim == null) {
+                victim = eldest(PROTECTED);
+            }
+            if (victim == null) {
+                victim = eldest(WINDOW);
+            }
+            final Node candidate = candidates.peekLast();
+            if (candidate == null || candidate == victim) {
+                candidates.remove(victim);
+                remove(victim.key);
+            } else if (this.sketch.frequency(candidate.key) > this.sketch.frequency(victim.key)) {
+                candidates.remove(victim);
+                remove(victim.key);
+            } else {
+                candidates.removeLast();
+                remove(candidate.key);
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated total size of all cache entries in bytes.
+     */
+    public synchronized long getSize() {
+        return this.sizes[WINDOW] + this.sizes[PROBATION] + this.sizes[PROTECTED];
+    }
+
+    /**
+     * Returns the number of cache entries.
+     */
+    public synchronized int getEntryCount() {
+        return this.nodes.size();
+    }
+
+    static class Node {
+
+        final String key;
+        HttpCacheEntry entry;
+        long size;
+        int segment;
+
+        Node(final String key, final HttpCacheEntry entry, final long size) {
+            this.key = key;
+            this.entry = entry;
+            this.size = size;
+        }
+
+    }
+
+}
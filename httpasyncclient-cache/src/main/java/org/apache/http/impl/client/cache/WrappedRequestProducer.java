@@ -0,0 +1,100 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Sends the request as modified by the caching client, such as with
+ * a {@code Via} header added, in place of the request generated by
+ * the original producer. Request content is produced by the original
+ * producer.
+ */
+class WrappedRequestProducer implements HttpAsyncRequestProducer {
+
+    private final HttpAsyncRequestProducer producer;
+    private final HttpRequest request;
+
+    WrappedRequestProducer(final HttpAsyncRequestProducer producer, final HttpRequest request) {
+        super();
+        this.producer = producer;
+        this.request = request;
+    }
+
+    @Override
+    public HttpHost getTarget() {
+        return this.producer.getTarget();
+    }
+
+    @Override
+    public HttpRequest generateRequest() {
+        return this.request;
+    }
+
+    @Override
+    public void produceContent(final ContentEncoder encoder, final IOControl ioControl) throws IOException {
+        this.producer.produceContent(encoder, ioControl);
+    }
+
+    @Override
+    public void requestCompleted(final HttpContext context) {
+        this.producer.requestCompleted(context);
+    }
+
+    @Override
+    public void failed(final Exception ex) {
+        this.producer.failed(ex);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return this.producer.isRepeatable();
+    }
+
+    @Override
+    public void resetRequest() throws IOException {
+        this.producer.resetRequest();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.producer.close();
+    }
+
+    @Override
+    public String toString() {
+        return this.request.getRequestLine().toString();
+    }
+
+}
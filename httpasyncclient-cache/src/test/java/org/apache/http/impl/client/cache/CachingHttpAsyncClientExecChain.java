@@ -56,6 +56,14 @@ public class CachingHttpAsyncClientExecChain implements ClientExecChain {
                 new ClientExecChainAsyncClient(backend), cache, config);
     }
 
+    CachingHttpAsyncClientExecChain(
+            final ClientExecChain backend,
+            final HttpAsyncCache cache,
+            final CacheConfig config) {
+        this.client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(backend), cache, config);
+    }
+
     CachingHttpAsyncClientExecChain(
             final ClientExecChain backend, final HttpCache responseCache,
             final CacheValidityPolicy validityPolicy,
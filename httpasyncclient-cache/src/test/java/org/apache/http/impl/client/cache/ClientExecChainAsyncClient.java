@@ -95,7 +95,19 @@ public class ClientExecChainAsyncClient extends CloseableHttpAsyncClient {
             final HttpAsyncResponseConsumer<T> responseConsumer,
             final HttpContext context,
             final FutureCallback<T> callback) {
-        throw new UnsupportedOperationException();
+        final BasicFuture<T> future = new BasicFuture<T>(callback);
+        try {
+            final HttpRequest request = requestProducer.generateRequest();
+            final HttpResponse response = backend.execute(new HttpRoute(requestProducer.getTarget()),
+                    HttpRequestWrapper.wrap(request),
+                    HttpClientContext.adapt(context), null);
+            new CachedResponseReplay<T>(response, responseConsumer, context, future).start();
+        } catch (final IOException e) {
+            future.failed(e);
+        } catch (final HttpException e) {
+            future.failed(e);
+        }
+        return future;
     }
 
     @Override
@@ -0,0 +1,73 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.junit.After;
+
+/**
+ * Runs protocol requirement tests against a caching client backed by
+ * a non-blocking cache storage whose operations complete on a thread
+ * other than the one executing the request.
+ */
+public class TestAsyncStorageProtocolRequirements extends TestProtocolRequirements {
+
+    private ExecutorService executorService;
+
+    @After
+    public void shutDownExecutor() throws Exception {
+        if (this.executorService != null) {
+            this.executorService.shutdownNow();
+        }
+    }
+
+    @Override
+    protected ClientExecChain createCachingExecChain(
+            final ClientExecChain backend,
+            final HttpCache cache,
+            final CacheConfig config) {
+        if (!(cache instanceof BasicHttpCache)) {
+            return new CachingHttpAsyncClientExecChain(backend, cache, config);
+        }
+        this.executorService = Executors.newSingleThreadExecutor();
+        final HttpAsyncCacheStorage storage = new HttpAsyncCacheStorageAdaptor(
+                new BasicHttpCacheStorage(config), this.executorService);
+        return new CachingHttpAsyncClientExecChain(backend,
+                new BasicHttpAsyncCache(new HeapResourceFactory(), storage, config), config);
+    }
+
+    @Override
+    protected boolean supportsRangeAndContentRangeHeaders(final ClientExecChain impl) {
+        return impl instanceof CachingHttpAsyncClientExecChain
+                && ((CachingHttpAsyncClientExecChain) impl)
+                .supportsRangeAndContentRangeHeaders();
+    }
+
+}
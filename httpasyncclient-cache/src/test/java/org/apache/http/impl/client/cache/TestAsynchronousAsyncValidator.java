@@ -0,0 +1,161 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.concurrent.BasicFuture;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestAsynchronousAsyncValidator {
+
+    private CachingHttpAsyncClient mockClient;
+    private HttpHost target;
+    private HttpCacheContext context;
+    private HttpCacheEntry entry;
+    private BlockingQueue<BasicFuture<HttpResponse>> revalidations;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() throws Exception {
+        this.mockClient = Mockito.mock(CachingHttpAsyncClient.class);
+        this.target = new HttpHost("foo.example.com");
+        this.context = HttpCacheContext.create();
+        this.entry = HttpTestUtils.makeCacheEntry();
+        this.revalidations = new LinkedBlockingQueue<BasicFuture<HttpResponse>>();
+        Mockito.doAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                revalidations.add((BasicFuture<HttpResponse>) invocation.getArguments()[0]);
+                return null;
+            }
+
+        }).when(this.mockClient).revalidateCacheEntry(
+                Mockito.any(BasicFuture.class),
+                Mockito.any(HttpHost.class),
+                Mockito.any(HttpRequestWrapper.class),
+                Mockito.any(HttpCacheContext.class),
+                Mockito.any(HttpCacheEntry.class));
+    }
+
+    private void revalidate(final AsynchronousAsyncValidator impl, final String uri) {
+        impl.revalidateCacheEntry(this.target, HttpRequestWrapper.wrap(new HttpGet(uri)), this.context, this.entry);
+    }
+
+    @Test
+    public void testRevalidationIsExecutedWithoutDuplicates() throws Exception {
+        final AsynchronousAsyncValidator impl = new AsynchronousAsyncValidator(
+                this.mockClient, 2, 100, 0, 0, 10, 0);
+
+        revalidate(impl, "/foo");
+        revalidate(impl, "/foo");
+        Assert.assertEquals(1, this.revalidations.size());
+        Assert.assertEquals(1, impl.getScheduledIdentifiers().size());
+
+        this.revalidations.poll().completed(HttpTestUtils.make200Response());
+        Assert.assertEquals(0, impl.getScheduledIdentifiers().size());
+        Assert.assertEquals(1, impl.getCompleted());
+        Assert.assertEquals(0, impl.getDropped());
+    }
+
+    @Test
+    public void testRevalidationsPerOriginAreBounded() throws Exception {
+        final AsynchronousAsyncValidator impl = new AsynchronousAsyncValidator(
+                this.mockClient, 1, 100, 0, 0, 10, 0);
+
+        revalidate(impl, "/foo");
+        revalidate(impl, "/bar");
+        Assert.assertEquals(1, this.revalidations.size());
+        Assert.assertEquals(1, impl.getDropped());
+        Assert.assertEquals(1, impl.getScheduledIdentifiers().size());
+
+        this.revalidations.poll().completed(HttpTestUtils.make200Response());
+        revalidate(impl, "/bar");
+        Assert.assertEquals(1, this.revalidations.size());
+    }
+
+    @Test
+    public void testPendingRevalidationsAreBounded() throws Exception {
+        final AsynchronousAsyncValidator impl = new AsynchronousAsyncValidator(
+                this.mockClient, 10, 1, 0, 0, 10, 0);
+
+        revalidate(impl, "/foo");
+        revalidate(impl, "/bar");
+        Assert.assertEquals(1, this.revalidations.size());
+        Assert.assertEquals(1, impl.getDropped());
+    }
+
+    @Test
+    public void testFailedRevalidationIsRetriedWithBackOff() throws Exception {
+        final AsynchronousAsyncValidator impl = new AsynchronousAsyncValidator(
+                this.mockClient, 2, 100, 2, 10, 2, 1000);
+
+        revalidate(impl, "/foo");
+        this.revalidations.poll().failed(new IOException("Oppsie"));
+        Assert.assertEquals(1, impl.getScheduledIdentifiers().size());
+
+        final BasicFuture<HttpResponse> retry1 = this.revalidations.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(retry1);
+        retry1.completed(HttpTestUtils.make500Response());
+
+        final BasicFuture<HttpResponse> retry2 = this.revalidations.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(retry2);
+        retry2.failed(new IOException("Oppsie"));
+
+        Assert.assertEquals(0, impl.getScheduledIdentifiers().size());
+        Assert.assertEquals(0, impl.getCompleted());
+        Assert.assertEquals(1, impl.getDropped());
+    }
+
+    @Test
+    public void testBackOffDelay() throws Exception {
+        final AsynchronousAsyncValidator impl = new AsynchronousAsyncValidator(
+                this.mockClient, 2, 100, 2, 10, 2, 50);
+
+        Assert.assertEquals(0, impl.calculateDelayInMillis(0));
+        Assert.assertEquals(10, impl.calculateDelayInMillis(1));
+        Assert.assertEquals(20, impl.calculateDelayInMillis(2));
+        Assert.assertEquals(40, impl.calculateDelayInMillis(3));
+        Assert.assertEquals(50, impl.calculateDelayInMillis(4));
+    }
+
+}
@@ -0,0 +1,439 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.AsyncByteConsumer;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.ByteArrayBuffer;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestCachingHttpAsyncClientStreaming {
+
+    private static final byte[] CONTENT = content(20000);
+
+    private HttpHost target;
+    private ClientExecChain backend;
+
+    static byte[] content(final int len) {
+        final byte[] b = new byte[len];
+        for (int i = 0; i < len; i++) {
+            b[i] = (byte) (i % 251);
+        }
+        return b;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.target = new HttpHost("foo.example.com", 80);
+        this.backend = Mockito.mock(ClientExecChain.class);
+    }
+
+    private void respondChunked() throws Exception {
+        Mockito.when(this.backend.execute(
+                Mockito.any(HttpRoute.class),
+                Mockito.any(HttpRequestWrapper.class),
+                Mockito.any(HttpClientContext.class),
+                Mockito.any(HttpExecutionAware.class))).thenAnswer(new Answer<CloseableHttpResponse>() {
+
+            @Override
+            public CloseableHttpResponse answer(final InvocationOnMock invocation) throws Throwable {
+                final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+                response.setHeader("Date", DateUtils.formatDate(new Date()));
+                response.setHeader("Cache-Control", "max-age=3600");
+                final ByteArrayEntity entity = new ByteArrayEntity(CONTENT);
+                entity.setChunked(true);
+                response.setEntity(entity);
+                return Proxies.enhanceResponse(response);
+            }
+
+        });
+    }
+
+    private HttpResponse get(final CachingHttpAsyncClient client, final HttpContext context) throws Exception {
+        final Future<HttpResponse> future = client.execute(
+                HttpAsyncMethods.createGet(this.target.toURI() + "/large"),
+                new BasicAsyncResponseConsumer(), context, null);
+        return future.get();
+    }
+
+    private void verifyBackendCalls(final int n) throws Exception {
+        Mockito.verify(this.backend, Mockito.times(n)).execute(
+                Mockito.any(HttpRoute.class),
+                Mockito.any(HttpRequestWrapper.class),
+                Mockito.any(HttpClientContext.class),
+                Mockito.any(HttpExecutionAware.class));
+    }
+
+    @Test
+    public void testStreamedResponseIsCachedAndReplayed() throws Exception {
+        respondChunked();
+        final CacheConfig config = CacheConfig.custom().setMaxObjectSize(CONTENT.length).build();
+        final CachingHttpAsyncClient client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend), config);
+
+        final HttpResponse response1 = get(client, null);
+        Assert.assertEquals(HttpStatus.SC_OK, response1.getStatusLine().getStatusCode());
+        Assert.assertArrayEquals(CONTENT, EntityUtils.toByteArray(response1.getEntity()));
+
+        final HttpCacheContext context = HttpCacheContext.create();
+        final HttpResponse response2 = get(client, context);
+        Assert.assertEquals(HttpStatus.SC_OK, response2.getStatusLine().getStatusCode());
+        Assert.assertArrayEquals(CONTENT, EntityUtils.toByteArray(response2.getEntity()));
+        Assert.assertEquals(CacheResponseStatus.CACHE_HIT, context.getCacheResponseStatus());
+
+        verifyBackendCalls(1);
+        Assert.assertEquals(1, client.getCacheMisses());
+        Assert.assertEquals(1, client.getCacheHits());
+    }
+
+    @Test
+    public void testOversizedStreamedResponseIsNotCached() throws Exception {
+        respondChunked();
+        final CacheConfig config = CacheConfig.custom().setMaxObjectSize(CONTENT.length / 2).build();
+        final CachingHttpAsyncClient client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend), config);
+
+        Assert.assertArrayEquals(CONTENT, EntityUtils.toByteArray(get(client, null).getEntity()));
+        Assert.assertArrayEquals(CONTENT, EntityUtils.toByteArray(get(client, null).getEntity()));
+        verifyBackendCalls(2);
+    }
+
+    private HttpResponse execute(final CachingHttpAsyncClient client, final HttpContext context) throws Exception {
+        final Future<HttpResponse> future = client.execute(
+                new HttpGet(this.target.toURI() + "/large"), context, null);
+        return future.get();
+    }
+
+    @Test
+    public void testBackendResponseIsCachedWithoutBuffering() throws Exception {
+        respondChunked();
+        final CacheConfig config = CacheConfig.custom().setMaxObjectSize(CONTENT.length).build();
+        final CachingHttpAsyncClient client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend), config);
+
+        final HttpResponse response1 = execute(client, null);
+        Assert.assertEquals(HttpStatus.SC_OK, response1.getStatusLine().getStatusCode());
+        Assert.assertArrayEquals(CONTENT, EntityUtils.toByteArray(response1.getEntity()));
+
+        final HttpCacheContext context = HttpCacheContext.create();
+        final HttpResponse response2 = execute(client, context);
+        Assert.assertArrayEquals(CONTENT, EntityUtils.toByteArray(response2.getEntity()));
+        Assert.assertEquals(CacheResponseStatus.CACHE_HIT, context.getCacheResponseStatus());
+        verifyBackendCalls(1);
+    }
+
+    @Test
+    public void testOversizedBackendResponseIsDeliveredButNotCached() throws Exception {
+        respondChunked();
+        final CacheConfig config = CacheConfig.custom().setMaxObjectSize(CONTENT.length / 2).build();
+        final CachingHttpAsyncClient client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend), config);
+
+        Assert.assertArrayEquals(CONTENT, EntityUtils.toByteArray(execute(client, null).getEntity()));
+        Assert.assertArrayEquals(CONTENT, EntityUtils.toByteArray(execute(client, null).getEntity()));
+        verifyBackendCalls(2);
+    }
+
+    @Test
+    public void testReplayResumesAfterSuspend() throws Exception {
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        final BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(new ByteArrayInputStream(CONTENT));
+        response.setEntity(entity);
+
+        final ByteArrayBuffer received = new ByteArrayBuffer(CONTENT.length);
+        final IOControl[] ioControls = new IOControl[1];
+        final AsyncByteConsumer<byte[]> consumer = new AsyncByteConsumer<byte[]>(1024) {
+
+            @Override
+            protected void onResponseReceived(final HttpResponse response) {
+            }
+
+            @Override
+            protected void onByteReceived(final ByteBuffer buf, final IOControl ioctrl) throws IOException {
+                while (buf.hasRemaining()) {
+                    received.append(buf.get());
+                }
+                ioControls[0] = ioctrl;
+                ioctrl.suspendInput();
+            }
+
+            @Override
+            protected byte[] buildResult(final HttpContext context) {
+                return received.toByteArray();
+            }
+
+        };
+        final BasicFuture<byte[]> future = new BasicFuture<byte[]>(null);
+        new CachedResponseReplay<byte[]>(response, consumer, HttpCacheContext.create(), future).start();
+
+        int events = 0;
+        while (!future.isDone()) {
+            Assert.assertNotNull(ioControls[0]);
+            Assert.assertTrue(events++ < CONTENT.length);
+            ioControls[0].requestInput();
+        }
+        Assert.assertTrue(events > 1);
+        Assert.assertArrayEquals(CONTENT, future.get());
+    }
+
+    @Test
+    public void testReplayYieldsAfterEachChunk() throws Exception {
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        final BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(new ByteArrayInputStream(CONTENT));
+        response.setEntity(entity);
+
+        final ByteArrayBuffer received = new ByteArrayBuffer(CONTENT.length);
+        final AtomicInteger endOfStreamReads = new AtomicInteger();
+        final AtomicBoolean completedWithContent = new AtomicBoolean();
+        final AbstractAsyncResponseConsumer<byte[]> consumer = new AbstractAsyncResponseConsumer<byte[]>() {
+
+            @Override
+            protected void onResponseReceived(final HttpResponse response) {
+            }
+
+            @Override
+            protected void onEntityEnclosed(final HttpEntity entity, final ContentType contentType) {
+            }
+
+            @Override
+            protected void onContentReceived(
+                    final ContentDecoder decoder, final IOControl ioctrl) throws IOException {
+                final ByteBuffer buf = ByteBuffer.allocate(4096);
+                for (;;) {
+                    final int n = decoder.read(buf);
+                    if (n == -1) {
+                        endOfStreamReads.incrementAndGet();
+                    }
+                    if (n <= 0) {
+                        break;
+                    }
+                    received.append(buf.array(), 0, buf.position());
+                    buf.clear();
+                    if (decoder.isCompleted()) {
+                        completedWithContent.set(true);
+                        break;
+                    }
+                }
+            }
+
+            @Override
+            protected byte[] buildResult(final HttpContext context) {
+                return received.toByteArray();
+            }
+
+            @Override
+            protected void releaseResources() {
+            }
+
+        };
+        final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+        final Executor executor = new Executor() {
+
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+
+        };
+        final BasicFuture<byte[]> future = new BasicFuture<byte[]>(null);
+        new CachedResponseReplay<byte[]>(response, consumer, HttpCacheContext.create(), future, executor).start();
+        Assert.assertEquals(0, received.length());
+
+        int events = 0;
+        while (!tasks.isEmpty()) {
+            final int before = received.length();
+            tasks.removeFirst().run();
+            Assert.assertTrue(received.length() - before <= 8 * 1024);
+            events++;
+        }
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals((CONTENT.length + 8 * 1024 - 1) / (8 * 1024), events);
+        Assert.assertArrayEquals(CONTENT, future.get());
+        Assert.assertTrue(completedWithContent.get());
+        Assert.assertEquals(0, endOfStreamReads.get());
+    }
+
+    @Test
+    public void testStreamedRequestIsSentWithViaHeader() throws Exception {
+        respondChunked();
+        final CachingHttpAsyncClient client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend), CacheConfig.DEFAULT);
+
+        get(client, null);
+        final ArgumentCaptor<HttpRequestWrapper> captor = ArgumentCaptor.forClass(HttpRequestWrapper.class);
+        Mockito.verify(this.backend).execute(
+                Mockito.any(HttpRoute.class),
+                captor.capture(),
+                Mockito.any(HttpClientContext.class),
+                Mockito.any(HttpExecutionAware.class));
+        final HttpRequest sent = captor.getValue().getOriginal();
+        Assert.assertNotNull(sent.getFirstHeader("Via"));
+    }
+
+    @Test
+    public void testReplayOnCallerExecutor() throws Exception {
+        respondChunked();
+        final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+        final Executor executor = new Executor() {
+
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+
+        };
+        final Executor sameThread = new Executor() {
+
+            @Override
+            public void execute(final Runnable command) {
+                command.run();
+            }
+
+        };
+        final CacheConfig config = CacheConfig.custom().setMaxObjectSize(CONTENT.length).build();
+        final CachingHttpAsyncClient client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend), new HeapResourceFactory(),
+                new HttpAsyncCacheStorageAdaptor(new BasicHttpCacheStorage(config), sameThread), config, executor);
+
+        get(client, null);
+        Assert.assertTrue(tasks.isEmpty());
+        final Future<HttpResponse> future = client.execute(
+                HttpAsyncMethods.createGet(this.target.toURI() + "/large"),
+                new BasicAsyncResponseConsumer(), null);
+        Assert.assertFalse(future.isDone());
+        while (!tasks.isEmpty()) {
+            tasks.removeFirst().run();
+        }
+        Assert.assertArrayEquals(CONTENT, EntityUtils.toByteArray(future.get().getEntity()));
+        verifyBackendCalls(1);
+    }
+
+    @Test
+    public void testReplayStopsOnCancel() throws Exception {
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        final AtomicBoolean streamClosed = new AtomicBoolean();
+        final BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(new ByteArrayInputStream(CONTENT) {
+
+            @Override
+            public void close() throws IOException {
+                streamClosed.set(true);
+                super.close();
+            }
+
+        });
+        response.setEntity(entity);
+
+        final ByteArrayBuffer received = new ByteArrayBuffer(CONTENT.length);
+        final AsyncByteConsumer<byte[]> consumer = new AsyncByteConsumer<byte[]>(1024) {
+
+            @Override
+            protected void onResponseReceived(final HttpResponse response) {
+            }
+
+            @Override
+            protected void onByteReceived(final ByteBuffer buf, final IOControl ioctrl) {
+                while (buf.hasRemaining()) {
+                    received.append(buf.get());
+                }
+            }
+
+            @Override
+            protected byte[] buildResult(final HttpContext context) {
+                return received.toByteArray();
+            }
+
+        };
+        final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+        final Executor executor = new Executor() {
+
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+
+        };
+        final BasicFuture<byte[]> future = new BasicFuture<byte[]>(null);
+        new CachedResponseReplay<byte[]>(response, consumer, HttpCacheContext.create(), future, executor).start();
+        tasks.removeFirst().run();
+        final int len = received.length();
+        Assert.assertTrue(len > 0 && len < CONTENT.length);
+
+        future.cancel(true);
+        tasks.removeFirst().run();
+        Assert.assertTrue(tasks.isEmpty());
+        Assert.assertEquals(len, received.length());
+        Assert.assertTrue(consumer.isDone());
+        Assert.assertTrue(streamClosed.get());
+    }
+
+}
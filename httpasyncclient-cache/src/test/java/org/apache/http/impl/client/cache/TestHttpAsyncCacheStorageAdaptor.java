@@ -0,0 +1,118 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHttpAsyncCacheStorageAdaptor {
+
+    private HttpCacheStorage storage;
+    private HttpAsyncCacheStorageAdaptor impl;
+
+    @Before
+    public void setUp() {
+        this.storage = new BasicHttpCacheStorage(CacheConfig.DEFAULT);
+        this.impl = new HttpAsyncCacheStorageAdaptor(this.storage, 1, 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.impl.close();
+    }
+
+    @Test
+    public void testStorageOperations() throws Exception {
+        final HttpCacheEntry entry = HttpTestUtils.makeCacheEntry();
+        this.impl.putEntry("key", entry, null).get();
+        Assert.assertSame(entry, this.storage.getEntry("key"));
+        Assert.assertSame(entry, this.impl.getEntry("key", null).get());
+
+        final HttpCacheEntry updated = HttpTestUtils.makeCacheEntry();
+        this.impl.updateEntry("key", new HttpCacheUpdateCallback() {
+
+            @Override
+            public HttpCacheEntry update(final HttpCacheEntry existing) {
+                Assert.assertSame(entry, existing);
+                return updated;
+            }
+
+        }, null).get();
+        Assert.assertSame(updated, this.impl.getEntry("key", null).get());
+
+        this.impl.removeEntry("key", null).get();
+        Assert.assertNull(this.impl.getEntry("key", null).get());
+    }
+
+    @Test
+    public void testOperationsRunOnExecutor() throws Exception {
+        final Thread[] threads = new Thread[1];
+        final HttpCacheUpdateCallback callback = new HttpCacheUpdateCallback() {
+
+            @Override
+            public HttpCacheEntry update(final HttpCacheEntry existing) {
+                threads[0] = Thread.currentThread();
+                return HttpTestUtils.makeCacheEntry();
+            }
+
+        };
+        this.impl.updateEntry("key", callback, null).get();
+        Assert.assertNotNull(threads[0]);
+        Assert.assertNotSame(Thread.currentThread(), threads[0]);
+    }
+
+    @Test
+    public void testRejectedOperation() throws Exception {
+        final HttpAsyncCacheStorageAdaptor adaptor = new HttpAsyncCacheStorageAdaptor(
+                this.storage, new Executor() {
+
+            @Override
+            public void execute(final Runnable command) {
+                throw new RejectedExecutionException();
+            }
+
+        });
+        final Future<HttpCacheEntry> future = adaptor.getEntry("key", null);
+        try {
+            future.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+}
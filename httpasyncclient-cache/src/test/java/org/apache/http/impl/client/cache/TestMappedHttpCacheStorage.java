@@ -0,0 +1,336 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+public class TestMappedHttpCacheStorage {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private MappedHttpCacheStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        this.dir = this.folder.newFolder("cache");
+        this.storage = new MappedHttpCacheStorage(this.dir, 1024 * 1024, 64 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.storage.close();
+    }
+
+    private void reopen() throws Exception {
+        this.storage.close();
+        this.storage = new MappedHttpCacheStorage(this.dir, 1024 * 1024, 64 * 1024);
+    }
+
+    static HttpCacheEntry makeEntry(final byte[] content) {
+        final Date now = new Date(System.currentTimeMillis() / 1000 * 1000);
+        final Map<String, String> variantMap = new HashMap<String, String>();
+        variantMap.put("{Accept-Encoding=gzip}", "http://foo.example.com/gzip");
+        return new HttpCacheEntry(new Date(now.getTime() - 1000), now,
+                new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"),
+                new Header[] {
+                        new BasicHeader("Date", "Tue, 20 Oct 2026 10:00:00 GMT"),
+                        new BasicHeader("Cache-Control", "max-age=3600")
+                },
+                content != null ? new HeapResource(content) : null, variantMap, "GET");
+    }
+
+    static byte[] read(final Resource resource) throws IOException {
+        final ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        IOUtils.copyAndClose(resource.getInputStream(), outStream);
+        return outStream.toByteArray();
+    }
+
+    static void assertEntryEquals(final HttpCacheEntry expected, final HttpCacheEntry actual) throws Exception {
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(expected.getRequestDate(), actual.getRequestDate());
+        Assert.assertEquals(expected.getResponseDate(), actual.getResponseDate());
+        Assert.assertEquals(expected.getStatusLine().toString(), actual.getStatusLine().toString());
+        Assert.assertEquals(expected.getAllHeaders().length, actual.getAllHeaders().length);
+        for (int i = 0; i < expected.getAllHeaders().length; i++) {
+            Assert.assertEquals(expected.getAllHeaders()[i].toString(), actual.getAllHeaders()[i].toString());
+        }
+        Assert.assertEquals(expected.getVariantMap(), actual.getVariantMap());
+        Assert.assertEquals(expected.getRequestMethod(), actual.getRequestMethod());
+        if (expected.getResource() == null) {
+            Assert.assertNull(actual.getResource());
+        } else {
+            Assert.assertArrayEquals(
+                    read(expected.getResource()),
+                    read(actual.getResource()));
+        }
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        final HttpCacheEntry entry = makeEntry(HttpTestUtils.getRandomBytes(5000));
+        this.storage.putEntry("foo", entry);
+        assertEntryEquals(entry, this.storage.getEntry("foo"));
+        Assert.assertNull(this.storage.getEntry("bar"));
+        Assert.assertEquals(1, this.storage.getEntryCount());
+
+        this.storage.removeEntry("foo");
+        Assert.assertNull(this.storage.getEntry("foo"));
+        Assert.assertEquals(0, this.storage.getEntryCount());
+        Assert.assertEquals(0, this.storage.getSize());
+    }
+
+    @Test
+    public void testEntryWithoutBody() throws Exception {
+        final HttpCacheEntry entry = makeEntry(null);
+        this.storage.putEntry("foo", entry);
+        assertEntryEquals(entry, this.storage.getEntry("foo"));
+    }
+
+    @Test
+    public void testEntriesSurviveRestart() throws Exception {
+        final HttpCacheEntry entry1 = makeEntry(HttpTestUtils.getRandomBytes(5000));
+        final HttpCacheEntry entry2 = makeEntry(HttpTestUtils.getRandomBytes(100));
+        this.storage.putEntry("foo", entry1);
+        this.storage.putEntry("bar", makeEntry(HttpTestUtils.getRandomBytes(100)));
+        this.storage.putEntry("bar", entry2);
+        this.storage.putEntry("baz", makeEntry(null));
+        this.storage.removeEntry("baz");
+        final long size = this.storage.getSize();
+
+        reopen();
+        Assert.assertEquals(2, this.storage.getEntryCount());
+        Assert.assertEquals(size, this.storage.getSize());
+        assertEntryEquals(entry1, this.storage.getEntry("foo"));
+        assertEntryEquals(entry2, this.storage.getEntry("bar"));
+        Assert.assertNull(this.storage.getEntry("baz"));
+    }
+
+    @Test
+    public void testTornIndexRecordIsDiscarded() throws Exception {
+        final HttpCacheEntry entry = makeEntry(HttpTestUtils.getRandomBytes(100));
+        this.storage.putEntry("a", entry);
+        this.storage.putEntry("b", makeEntry(HttpTestUtils.getRandomBytes(100)));
+        this.storage.close();
+
+        // damage the second index record
+        final RandomAccessFile raf = new RandomAccessFile(new File(this.dir, "index-00000000.idx"), "rw");
+        try {
+            raf.seek(50);
+            final int b = raf.read();
+            raf.seek(50);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+
+        this.storage = new MappedHttpCacheStorage(this.dir, 1024 * 1024, 64 * 1024);
+        assertEntryEquals(entry, this.storage.getEntry("a"));
+        Assert.assertNull(this.storage.getEntry("b"));
+
+        final HttpCacheEntry entry2 = makeEntry(HttpTestUtils.getRandomBytes(100));
+        this.storage.putEntry("c", entry2);
+        reopen();
+        assertEntryEquals(entry, this.storage.getEntry("a"));
+        assertEntryEquals(entry2, this.storage.getEntry("c"));
+    }
+
+    @Test
+    public void testCorruptRecordIsDropped() throws Exception {
+        this.storage.putEntry("foo", makeEntry(HttpTestUtils.getRandomBytes(1000)));
+        final long size = this.storage.getSize();
+        this.storage.close();
+
+        final RandomAccessFile raf = new RandomAccessFile(new File(this.dir, "segment-00000000.dat"), "rw");
+        try {
+            raf.seek(size - 1);
+            final int b = raf.read();
+            raf.seek(size - 1);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+
+        this.storage = new MappedHttpCacheStorage(this.dir, 1024 * 1024, 64 * 1024);
+        Assert.assertEquals(1, this.storage.getEntryCount());
+        Assert.assertNull(this.storage.getEntry("foo"));
+        Assert.assertEquals(0, this.storage.getEntryCount());
+    }
+
+    @Test
+    public void testUpdateEntry() throws Exception {
+        this.storage.putEntry("foo", makeEntry(HttpTestUtils.getRandomBytes(100)));
+        final HttpCacheEntry updated = makeEntry(HttpTestUtils.getRandomBytes(200));
+        this.storage.updateEntry("foo", new HttpCacheUpdateCallback() {
+
+            @Override
+            public HttpCacheEntry update(final HttpCacheEntry existing) {
+                Assert.assertNotNull(existing);
+                return updated;
+            }
+
+        });
+        reopen();
+        assertEntryEquals(updated, this.storage.getEntry("foo"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesEvicted() throws Exception {
+        this.storage.close();
+        this.storage = new MappedHttpCacheStorage(this.dir, 12 * 1024, 64 * 1024);
+        for (int i = 0; i < 5; i++) {
+            this.storage.putEntry("entry" + i, makeEntry(new byte[2000]));
+        }
+        Assert.assertNotNull(this.storage.getEntry("entry0"));
+        this.storage.putEntry("entry5", makeEntry(new byte[2000]));
+        Assert.assertNotNull(this.storage.getEntry("entry0"));
+        Assert.assertNull(this.storage.getEntry("entry1"));
+        Assert.assertEquals(5, this.storage.getEntryCount());
+        Assert.assertTrue(this.storage.getSize() <= 12 * 1024);
+    }
+
+    @Test
+    public void testOversizedEntryIsNotStored() throws Exception {
+        this.storage.putEntry("foo", makeEntry(new byte[100]));
+        this.storage.putEntry("foo", makeEntry(new byte[128 * 1024]));
+        Assert.assertNull(this.storage.getEntry("foo"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        final byte[] content = HttpTestUtils.getRandomBytes(4000);
+        for (int i = 0; i < 100; i++) {
+            this.storage.putEntry("entry" + (i % 10), makeEntry(content));
+        }
+        final HttpCacheEntry entry = this.storage.getEntry("entry3");
+        final int segments = this.storage.getSegmentCount();
+        Assert.assertTrue(segments > 2);
+
+        this.storage.compact();
+        Assert.assertTrue(this.storage.getCompactions() > 0);
+        Assert.assertTrue(this.storage.getSegmentCount() < segments);
+        // bodies handed out before compaction remain readable
+        Assert.assertArrayEquals(content, read(entry.getResource()));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertArrayEquals(content, read(this.storage.getEntry("entry" + i).getResource()));
+        }
+
+        reopen();
+        Assert.assertEquals(10, this.storage.getEntryCount());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertArrayEquals(content, read(this.storage.getEntry("entry" + i).getResource()));
+        }
+    }
+
+    @Test
+    public void testIndexRewrite() throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            this.storage.putEntry("entry" + (i % 10), makeEntry(null));
+        }
+        this.storage.compact();
+        Assert.assertFalse(new File(this.dir, "index-00000000.idx").exists());
+        Assert.assertTrue(new File(this.dir, "index-00000001.idx").exists());
+
+        this.storage.putEntry("foo", makeEntry(null));
+        reopen();
+        Assert.assertEquals(11, this.storage.getEntryCount());
+        Assert.assertNotNull(this.storage.getEntry("foo"));
+    }
+
+    @Test
+    public void testWarmRestart() throws Exception {
+        final byte[] content = HttpTestUtils.getRandomBytes(5000);
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        response.setHeader("Date", DateUtils.formatDate(new Date()));
+        response.setHeader("Cache-Control", "max-age=3600");
+        response.setEntity(new ByteArrayEntity(content));
+        final ClientExecChain backend = Mockito.mock(ClientExecChain.class);
+        Mockito.when(backend.execute(
+                Mockito.any(HttpRoute.class),
+                Mockito.any(HttpRequestWrapper.class),
+                Mockito.any(HttpClientContext.class),
+                Mockito.any(HttpExecutionAware.class))).thenReturn(Proxies.enhanceResponse(response));
+        final CacheConfig config = CacheConfig.custom().setMaxObjectSize(content.length).build();
+        final HttpHost target = new HttpHost("foo.example.com");
+
+        final CachingHttpAsyncClient client1 = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(backend), new HeapResourceFactory(), this.storage, config);
+        final HttpResponse response1 = client1.execute(target, new HttpGet("/"), null).get();
+        Assert.assertArrayEquals(content, EntityUtils.toByteArray(response1.getEntity()));
+
+        reopen();
+        final CachingHttpAsyncClient client2 = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(backend), new HeapResourceFactory(), this.storage, config);
+        final HttpCacheContext context = HttpCacheContext.create();
+        final HttpResponse response2 = client2.execute(target, new HttpGet("/"), context, null).get();
+        Assert.assertEquals(CacheResponseStatus.CACHE_HIT, context.getCacheResponseStatus());
+        Assert.assertArrayEquals(content, EntityUtils.toByteArray(response2.getEntity()));
+        Mockito.verify(backend, Mockito.times(1)).execute(
+                Mockito.any(HttpRoute.class),
+                Mockito.any(HttpRequestWrapper.class),
+                Mockito.any(HttpClientContext.class),
+                Mockito.any(HttpExecutionAware.class));
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.WeakReference;
+import java.util.Date;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.cache.InputLimit;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestOffHeapResourceFactory {
+
+    private static byte[] read(final Resource resource) throws Exception {
+        final ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        IOUtils.copyAndClose(resource.getInputStream(), outStream);
+        return outStream.toByteArray();
+    }
+
+    @Test
+    public void testContentSpanningSlabs() throws Exception {
+        final OffHeapResourceFactory factory = new OffHeapResourceFactory(64 * 1024, 1024);
+        final byte[] content = HttpTestUtils.getRandomBytes(5000);
+        final Resource resource = factory.generate("id", new ByteArrayInputStream(content), null);
+        Assert.assertTrue(resource instanceof OffHeapResource);
+        Assert.assertEquals(content.length, resource.length());
+        Assert.assertArrayEquals(content, read(resource));
+        Assert.assertArrayEquals(content, read(resource));
+        Assert.assertEquals(5 * 1024, factory.getOffHeapUsed());
+
+        final Resource copy = factory.copy("id", resource);
+        Assert.assertArrayEquals(content, read(copy));
+        Assert.assertEquals(10 * 1024, factory.getOffHeapUsed());
+
+        resource.dispose();
+        copy.dispose();
+        Assert.assertEquals(0, factory.getOffHeapUsed());
+    }
+
+    @Test
+    public void testEmptyContent() throws Exception {
+        final OffHeapResourceFactory factory = new OffHeapResourceFactory(64 * 1024, 1024);
+        final Resource resource = factory.generate("id", new ByteArrayInputStream(new byte[0]), null);
+        Assert.assertEquals(0, resource.length());
+        Assert.assertEquals(0, read(resource).length);
+    }
+
+    @Test
+    public void testInputLimit() throws Exception {
+        final OffHeapResourceFactory factory = new OffHeapResourceFactory(64 * 1024, 1024);
+        final InputLimit limit = new InputLimit(3000);
+        factory.generate("id", new ByteArrayInputStream(HttpTestUtils.getRandomBytes(10000)), limit);
+        Assert.assertTrue(limit.isReached());
+    }
+
+    @Test
+    public void testOverflowToHeap() throws Exception {
+        final OffHeapResourceFactory factory = new OffHeapResourceFactory(4 * 1024, 1024);
+        final byte[] content = HttpTestUtils.getRandomBytes(6000);
+        final Resource resource = factory.generate("id", new ByteArrayInputStream(content), null);
+        Assert.assertTrue(resource instanceof HeapResource);
+        Assert.assertArrayEquals(content, read(resource));
+        Assert.assertEquals(1, factory.getOverflows());
+        Assert.assertEquals(0, factory.getOffHeapUsed());
+        Assert.assertEquals(4 * 1024, factory.getOffHeapAllocated());
+    }
+
+    @Test
+    public void testSlabsAreReused() throws Exception {
+        final OffHeapResourceFactory factory = new OffHeapResourceFactory(4 * 1024, 1024);
+        for (int i = 0; i < 10; i++) {
+            final byte[] content = HttpTestUtils.getRandomBytes(4000);
+            final Resource resource = factory.generate("id", new ByteArrayInputStream(content), null);
+            Assert.assertTrue(resource instanceof OffHeapResource);
+            Assert.assertArrayEquals(content, read(resource));
+            resource.dispose();
+        }
+        Assert.assertEquals(0, factory.getOverflows());
+    }
+
+    @Test
+    public void testStreamKeepsResourceReachable() throws Exception {
+        final OffHeapResourceFactory factory = new OffHeapResourceFactory(64 * 1024, 1024);
+        final byte[] content = HttpTestUtils.getRandomBytes(5000);
+        Resource resource = factory.generate("id", new ByteArrayInputStream(content), null);
+        final InputStream inStream = resource.getInputStream();
+        final ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        final byte[] b = new byte[1000];
+        outStream.write(b, 0, inStream.read(b));
+
+        final WeakReference<Resource> ref = new WeakReference<Resource>(resource);
+        resource = null;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNotNull(ref.get());
+        Assert.assertEquals(5 * 1024, factory.getOffHeapUsed());
+        // slabs released prematurely would get reused and overwritten
+        for (int i = 0; i < 10; i++) {
+            factory.generate("other", new ByteArrayInputStream(new byte[5000]), null);
+        }
+
+        int n;
+        while ((n = inStream.read(b)) != -1) {
+            outStream.write(b, 0, n);
+        }
+        Assert.assertArrayEquals(content, outStream.toByteArray());
+        inStream.close();
+    }
+
+    @Test
+    public void testSerializesToHeapResource() throws Exception {
+        final OffHeapResourceFactory factory = new OffHeapResourceFactory(64 * 1024, 1024);
+        final byte[] content = HttpTestUtils.getRandomBytes(3000);
+        final Resource resource = factory.generate("id", new ByteArrayInputStream(content), null);
+
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final ObjectOutputStream outStream = new ObjectOutputStream(buf);
+        outStream.writeObject(resource);
+        outStream.close();
+        final ObjectInputStream inStream = new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray()));
+        final Resource copy = (Resource) inStream.readObject();
+        Assert.assertTrue(copy instanceof HeapResource);
+        Assert.assertArrayEquals(content, read(copy));
+    }
+
+    @Test
+    public void testCachingClientWithOffHeapStorage() throws Exception {
+        final byte[] content = HttpTestUtils.getRandomBytes(5000);
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        response.setHeader("Date", DateUtils.formatDate(new Date()));
+        response.setHeader("Cache-Control", "max-age=3600");
+        response.setEntity(new ByteArrayEntity(content));
+        final ClientExecChain backend = Mockito.mock(ClientExecChain.class);
+        Mockito.when(backend.execute(
+                Mockito.any(HttpRoute.class),
+                Mockito.any(HttpRequestWrapper.class),
+                Mockito.any(HttpClientContext.class),
+                Mockito.any(HttpExecutionAware.class))).thenReturn(Proxies.enhanceResponse(response));
+
+        final OffHeapResourceFactory factory = new OffHeapResourceFactory(1024 * 1024);
+        final CacheConfig config = CacheConfig.custom().setMaxObjectSize(content.length).build();
+        final CachingHttpAsyncClient client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(backend),
+                factory,
+                new TinyLfuHttpCacheStorage(512 * 1024),
+                config);
+        final HttpHost target = new HttpHost("foo.example.com");
+
+        final HttpResponse response1 = client.execute(target, new HttpGet("/"), null).get();
+        Assert.assertArrayEquals(content, EntityUtils.toByteArray(response1.getEntity()));
+        final HttpCacheContext context = HttpCacheContext.create();
+        final HttpResponse response2 = client.execute(target, new HttpGet("/"), context, null).get();
+        Assert.assertEquals(HttpStatus.SC_OK, response2.getStatusLine().getStatusCode());
+        Assert.assertEquals(CacheResponseStatus.CACHE_HIT, context.getCacheResponseStatus());
+        Assert.assertArrayEquals(content, EntityUtils.toByteArray(response2.getEntity()));
+        Assert.assertTrue(factory.getOffHeapUsed() >= content.length);
+    }
+
+}
@@ -0,0 +1,298 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
+import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestPartialContent {
+
+    private static final byte[] CONTENT = TestCachingHttpAsyncClientStreaming.content(20000);
+
+    private HttpHost target;
+    private ClientExecChain backend;
+    private CachingHttpAsyncClient client;
+    private String etag;
+    private long lastModifiedAge;
+
+    @Before
+    public void setUp() throws Exception {
+        this.target = new HttpHost("foo.example.com", 80);
+        this.etag = "\"v1\"";
+        this.lastModifiedAge = -1;
+        this.backend = Mockito.mock(ClientExecChain.class);
+        Mockito.when(this.backend.execute(
+                Mockito.any(HttpRoute.class),
+                Mockito.any(HttpRequestWrapper.class),
+                Mockito.any(HttpClientContext.class),
+                Mockito.any(HttpExecutionAware.class))).thenAnswer(new Answer<CloseableHttpResponse>() {
+
+            @Override
+            public CloseableHttpResponse answer(final InvocationOnMock invocation) throws Throwable {
+                return Proxies.enhanceResponse(respond((HttpRequest) invocation.getArguments()[1]));
+            }
+
+        });
+        final Executor executor = new Executor() {
+
+            @Override
+            public void execute(final Runnable command) {
+                command.run();
+            }
+
+        };
+        final CacheConfig config = CacheConfig.custom().setMaxObjectSize(CONTENT.length).build();
+        this.client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend),
+                new HeapResourceFactory(),
+                new HttpAsyncCacheStorageAdaptor(new BasicHttpCacheStorage(config), executor),
+                config);
+    }
+
+    private HttpResponse respond(final HttpRequest request) {
+        final HttpResponse response;
+        final ByteRange range = PartialContentGenerator.getRequestedRange(request);
+        if (range == null) {
+            response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+            response.setEntity(new ByteArrayEntity(CONTENT));
+        } else {
+            final ByteRange resolved = range.resolve(CONTENT.length);
+            response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_PARTIAL_CONTENT, "Partial Content");
+            response.setHeader("Content-Range", ByteRange.formatContentRange(resolved, CONTENT.length));
+            response.setEntity(new ByteArrayEntity(slice(resolved.getFirst(), resolved.getLast())));
+        }
+        final Date now = new Date();
+        response.setHeader("Date", DateUtils.formatDate(now));
+        response.setHeader("Cache-Control", "max-age=3600");
+        if (this.etag != null) {
+            response.setHeader("ETag", this.etag);
+        }
+        if (this.lastModifiedAge >= 0) {
+            response.setHeader("Last-Modified", DateUtils.formatDate(new Date(now.getTime() - this.lastModifiedAge)));
+        }
+        return response;
+    }
+
+    private static byte[] slice(final long first, final long last) {
+        return Arrays.copyOfRange(CONTENT, (int) first, (int) last + 1);
+    }
+
+    private HttpResponse get(final String range, final HttpContext context) throws Exception {
+        final HttpGet request = new HttpGet(this.target.toURI() + "/large");
+        if (range != null) {
+            request.setHeader("Range", range);
+        }
+        final Future<HttpResponse> future = this.client.execute(request, context, null);
+        return future.get();
+    }
+
+    private void verifyBackendCalls(final int n) throws Exception {
+        Mockito.verify(this.backend, Mockito.times(n)).execute(
+                Mockito.any(HttpRoute.class),
+                Mockito.any(HttpRequestWrapper.class),
+                Mockito.any(HttpClientContext.class),
+                Mockito.any(HttpExecutionAware.class));
+    }
+
+    @Test
+    public void testRangeIsServedFromCompleteEntry() throws Exception {
+        get(null, null);
+
+        final HttpCacheContext context = HttpCacheContext.create();
+        final HttpResponse response = get("bytes=100-199", context);
+        Assert.assertEquals(HttpStatus.SC_PARTIAL_CONTENT, response.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes 100-199/20000", response.getFirstHeader("Content-Range").getValue());
+        Assert.assertArrayEquals(slice(100, 199), EntityUtils.toByteArray(response.getEntity()));
+        Assert.assertEquals(CacheResponseStatus.CACHE_HIT, context.getCacheResponseStatus());
+        verifyBackendCalls(1);
+    }
+
+    @Test
+    public void testStreamedRangeIsServedFromCompleteEntry() throws Exception {
+        get(null, null);
+
+        final HttpGet request = new HttpGet(this.target.toURI() + "/large");
+        request.setHeader("Range", "bytes=-100");
+        final Future<HttpResponse> future = this.client.execute(
+                new BasicAsyncRequestProducer(this.target, request),
+                new BasicAsyncResponseConsumer(), null, null);
+        final HttpResponse response = future.get();
+        Assert.assertEquals(HttpStatus.SC_PARTIAL_CONTENT, response.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes 19900-19999/20000", response.getFirstHeader("Content-Range").getValue());
+        Assert.assertArrayEquals(slice(19900, 19999), EntityUtils.toByteArray(response.getEntity()));
+        verifyBackendCalls(1);
+    }
+
+    @Test
+    public void testUnsatisfiableRangeOfCompleteEntry() throws Exception {
+        get(null, null);
+
+        final HttpResponse response = get("bytes=30000-", null);
+        Assert.assertEquals(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes */20000", response.getFirstHeader("Content-Range").getValue());
+        verifyBackendCalls(1);
+    }
+
+    @Test
+    public void testIfRangeMismatchServesCompleteEntry() throws Exception {
+        get(null, null);
+
+        final HttpGet request = new HttpGet(this.target.toURI() + "/large");
+        request.setHeader("Range", "bytes=100-199");
+        request.setHeader("If-Range", "\"v0\"");
+        final HttpResponse response = this.client.execute(request, null, null).get();
+        Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        Assert.assertArrayEquals(CONTENT, EntityUtils.toByteArray(response.getEntity()));
+        verifyBackendCalls(1);
+    }
+
+    @Test
+    public void testCachedRangeIsServedFromPartialEntry() throws Exception {
+        final HttpResponse response1 = get("bytes=0-999", null);
+        Assert.assertEquals(HttpStatus.SC_PARTIAL_CONTENT, response1.getStatusLine().getStatusCode());
+        Assert.assertArrayEquals(slice(0, 999), EntityUtils.toByteArray(response1.getEntity()));
+
+        final HttpCacheContext context = HttpCacheContext.create();
+        final HttpResponse response2 = get("bytes=100-199", context);
+        Assert.assertEquals(HttpStatus.SC_PARTIAL_CONTENT, response2.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes 100-199/20000", response2.getFirstHeader("Content-Range").getValue());
+        Assert.assertArrayEquals(slice(100, 199), EntityUtils.toByteArray(response2.getEntity()));
+        Assert.assertEquals(CacheResponseStatus.CACHE_HIT, context.getCacheResponseStatus());
+        verifyBackendCalls(1);
+    }
+
+    @Test
+    public void testOnlyMissingRangeIsRequested() throws Exception {
+        get("bytes=0-999", null);
+
+        final HttpResponse response = get("bytes=500-1499", null);
+        Assert.assertEquals(HttpStatus.SC_PARTIAL_CONTENT, response.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes 500-1499/20000", response.getFirstHeader("Content-Range").getValue());
+        Assert.assertArrayEquals(slice(500, 1499), EntityUtils.toByteArray(response.getEntity()));
+
+        final ArgumentCaptor<HttpRequestWrapper> captor = ArgumentCaptor.forClass(HttpRequestWrapper.class);
+        Mockito.verify(this.backend, Mockito.times(2)).execute(
+                Mockito.any(HttpRoute.class),
+                captor.capture(),
+                Mockito.any(HttpClientContext.class),
+                Mockito.any(HttpExecutionAware.class));
+        final HttpRequestWrapper fillRequest = captor.getAllValues().get(1);
+        Assert.assertEquals("bytes=1000-1499", fillRequest.getFirstHeader("Range").getValue());
+        final Header ifRange = fillRequest.getFirstHeader("If-Range");
+        Assert.assertNotNull(ifRange);
+        Assert.assertEquals("\"v1\"", ifRange.getValue());
+
+        get("bytes=0-1499", null);
+        verifyBackendCalls(2);
+    }
+
+    @Test
+    public void testCombinedRangesBecomeCompleteEntry() throws Exception {
+        get("bytes=0-9999", null);
+        get("bytes=10000-19999", null);
+
+        final HttpCacheContext context = HttpCacheContext.create();
+        final HttpResponse response = get(null, context);
+        Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        Assert.assertArrayEquals(CONTENT, EntityUtils.toByteArray(response.getEntity()));
+        Assert.assertEquals(CacheResponseStatus.CACHE_HIT, context.getCacheResponseStatus());
+        verifyBackendCalls(2);
+    }
+
+    @Test
+    public void testWeakLastModifiedDoesNotValidateRanges() throws Exception {
+        this.etag = null;
+        this.lastModifiedAge = 0;
+        get("bytes=0-999", null);
+
+        final HttpResponse response = get("bytes=100-199", null);
+        Assert.assertEquals(HttpStatus.SC_PARTIAL_CONTENT, response.getStatusLine().getStatusCode());
+        Assert.assertArrayEquals(slice(100, 199), EntityUtils.toByteArray(response.getEntity()));
+        verifyBackendCalls(2);
+    }
+
+    @Test
+    public void testIfRangeDateMatchesStrongLastModifiedOnly() throws Exception {
+        this.etag = null;
+        this.lastModifiedAge = 0;
+        final HttpResponse response1 = get(null, null);
+        final String lastModified1 = response1.getFirstHeader("Last-Modified").getValue();
+
+        final HttpGet request1 = new HttpGet(this.target.toURI() + "/large");
+        request1.setHeader("Range", "bytes=100-199");
+        request1.setHeader("If-Range", lastModified1);
+        final HttpResponse response2 = this.client.execute(request1, null, null).get();
+        Assert.assertEquals(HttpStatus.SC_OK, response2.getStatusLine().getStatusCode());
+        Assert.assertArrayEquals(CONTENT, EntityUtils.toByteArray(response2.getEntity()));
+
+        this.target = new HttpHost("bar.example.com", 80);
+        this.lastModifiedAge = 3600 * 1000;
+        final HttpResponse response3 = get(null, null);
+        final String lastModified2 = response3.getFirstHeader("Last-Modified").getValue();
+
+        final HttpGet request2 = new HttpGet(this.target.toURI() + "/large");
+        request2.setHeader("Range", "bytes=100-199");
+        request2.setHeader("If-Range", lastModified2);
+        final HttpResponse response4 = this.client.execute(request2, null, null).get();
+        Assert.assertEquals(HttpStatus.SC_PARTIAL_CONTENT, response4.getStatusLine().getStatusCode());
+        Assert.assertArrayEquals(slice(100, 199), EntityUtils.toByteArray(response4.getEntity()));
+        verifyBackendCalls(2);
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestRefreshAhead {
+
+    private HttpHost target;
+    private ClientExecChain backend;
+    private CachingHttpAsyncClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        this.target = new HttpHost("foo.example.com", 80);
+        this.backend = Mockito.mock(ClientExecChain.class);
+        Mockito.when(this.backend.execute(
+                Mockito.any(HttpRoute.class),
+                Mockito.any(HttpRequestWrapper.class),
+                Mockito.any(HttpClientContext.class),
+                Mockito.any(HttpExecutionAware.class))).thenAnswer(new Answer<CloseableHttpResponse>() {
+
+            @Override
+            public CloseableHttpResponse answer(final InvocationOnMock invocation) throws Throwable {
+                final HttpRequestWrapper request = (HttpRequestWrapper) invocation.getArguments()[1];
+                final Date now = new Date();
+                final HttpResponse response;
+                if (request.containsHeader("If-None-Match")) {
+                    response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_NOT_MODIFIED, "Not Modified");
+                    response.setHeader("Date", DateUtils.formatDate(now));
+                } else {
+                    // most of the freshness lifetime has passed already
+                    response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+                    response.setHeader("Date", DateUtils.formatDate(new Date(now.getTime() - 9000)));
+                    response.setEntity(new ByteArrayEntity(HttpTestUtils.getRandomBytes(128)));
+                }
+                response.setHeader("ETag", "\"etag\"");
+                response.setHeader("Cache-Control", "max-age=10");
+                return Proxies.enhanceResponse(response);
+            }
+
+        });
+    }
+
+    private void createClient(final RefreshAheadConfig refreshAheadConfig) {
+        this.client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend), CacheConfig.DEFAULT, refreshAheadConfig);
+    }
+
+    private HttpCacheContext get(final String uri) throws Exception {
+        final HttpCacheContext context = HttpCacheContext.create();
+        final HttpResponse response = this.client.execute(
+                this.target, new HttpGet(uri), context, null).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        return context;
+    }
+
+    private void verifyBackendCalls(final int n) throws Exception {
+        Mockito.verify(this.backend, Mockito.times(n)).execute(
+                Mockito.any(HttpRoute.class),
+                Mockito.any(HttpRequestWrapper.class),
+                Mockito.any(HttpClientContext.class),
+                Mockito.any(HttpExecutionAware.class));
+    }
+
+    @Test
+    public void testHotEntryIsRefreshedAhead() throws Exception {
+        createClient(RefreshAheadConfig.custom().setMinHits(2).build());
+
+        get("/hot");
+        Assert.assertEquals(CacheResponseStatus.CACHE_HIT, get("/hot").getCacheResponseStatus());
+        verifyBackendCalls(1);
+        Assert.assertEquals(CacheResponseStatus.CACHE_HIT, get("/hot").getCacheResponseStatus());
+        verifyBackendCalls(2);
+        Assert.assertEquals(1, this.client.getPrefetches());
+
+        // the refreshed entry is fresh again
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(CacheResponseStatus.CACHE_HIT, get("/hot").getCacheResponseStatus());
+        }
+        verifyBackendCalls(2);
+        Assert.assertEquals(1, this.client.getPrefetches());
+        Assert.assertEquals(0, this.client.getWastedPrefetches());
+    }
+
+    @Test
+    public void testColdEntryIsNotRefreshedAhead() throws Exception {
+        createClient(RefreshAheadConfig.custom().setMinHits(5).build());
+
+        get("/cold");
+        get("/cold");
+        get("/cold");
+        verifyBackendCalls(1);
+        Assert.assertEquals(0, this.client.getPrefetches());
+    }
+
+    @Test
+    public void testUnusedPrefetchIsReportedAsWasted() throws Exception {
+        createClient(RefreshAheadConfig.custom().setMinHits(1).setMaxTrackedEntries(1).build());
+
+        get("/a");
+        get("/a");
+        Assert.assertEquals(1, this.client.getPrefetches());
+
+        // statistics of the refreshed entry get discarded
+        get("/b");
+        get("/b");
+        Assert.assertEquals(1, this.client.getWastedPrefetches());
+    }
+
+    @Test
+    public void testStreamedHitOnAsyncStorageIsRefreshedAhead() throws Exception {
+        final Executor executor = new Executor() {
+
+            @Override
+            public void execute(final Runnable command) {
+                command.run();
+            }
+
+        };
+        this.client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend),
+                new HttpAsyncCacheStorageAdaptor(new BasicHttpCacheStorage(CacheConfig.DEFAULT), executor),
+                CacheConfig.DEFAULT,
+                RefreshAheadConfig.custom().setMinHits(2).build());
+
+        for (int i = 0; i < 3; i++) {
+            final HttpCacheContext context = HttpCacheContext.create();
+            final HttpResponse response = this.client.execute(
+                    HttpAsyncMethods.createGet(this.target.toURI() + "/hot"),
+                    new BasicAsyncResponseConsumer(), context, null).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        }
+        verifyBackendCalls(2);
+        Assert.assertEquals(1, this.client.getPrefetches());
+        this.client.close();
+    }
+
+}
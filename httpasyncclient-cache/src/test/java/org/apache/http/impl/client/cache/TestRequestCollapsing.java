@@ -0,0 +1,279 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRequestCollapsing {
+
+    private HttpHost target;
+    private ClientExecChain backend;
+    private CountDownLatch latch;
+    private AtomicInteger backendCalls;
+
+    @Before
+    public void setUp() throws Exception {
+        this.target = new HttpHost("foo.example.com", 80);
+        this.latch = new CountDownLatch(1);
+        this.backendCalls = new AtomicInteger();
+        this.backend = new ClientExecChain() {
+
+            @Override
+            public CloseableHttpResponse execute(
+                    final HttpRoute route,
+                    final HttpRequestWrapper request,
+                    final HttpClientContext clientContext,
+                    final HttpExecutionAware execAware) throws IOException, HttpException {
+                if (backendCalls.incrementAndGet() == 1) {
+                    // hold back the first response only
+                    try {
+                        latch.await(10, TimeUnit.SECONDS);
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+                response.setHeader("Date", DateUtils.formatDate(new Date()));
+                response.setHeader("Cache-Control", "max-age=3600");
+                response.setEntity(new ByteArrayEntity(HttpTestUtils.getRandomBytes(128)));
+                return Proxies.enhanceResponse(response);
+            }
+
+        };
+    }
+
+    private Thread executeInBackground(final CachingHttpAsyncClient client) {
+        final Thread t = new Thread() {
+
+            @Override
+            public void run() {
+                client.execute(target, new HttpGet("/popular"), null);
+            }
+
+        };
+        t.start();
+        return t;
+    }
+
+    private static void awaitCollapsed(final CachingHttpAsyncClient client, final long n) throws Exception {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (client.getCollapsedRequests() < n && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(n, client.getCollapsedRequests());
+    }
+
+    @Test
+    public void testConcurrentMissesAreCollapsed() throws Exception {
+        final CachingHttpAsyncClient client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend), CacheConfig.DEFAULT);
+
+        final Thread leader = executeInBackground(client);
+        while (this.backendCalls.get() == 0) {
+            Thread.sleep(10);
+        }
+        final List<Future<HttpResponse>> futures = new ArrayList<Future<HttpResponse>>();
+        final List<HttpCacheContext> contexts = new ArrayList<HttpCacheContext>();
+        for (int i = 0; i < 10; i++) {
+            final HttpCacheContext context = HttpCacheContext.create();
+            contexts.add(context);
+            futures.add(client.execute(this.target, new HttpGet("/popular"), context, null));
+        }
+        awaitCollapsed(client, 10);
+        for (final Future<HttpResponse> future: futures) {
+            Assert.assertFalse(future.isDone());
+        }
+
+        this.latch.countDown();
+        leader.join(5000);
+        for (int i = 0; i < futures.size(); i++) {
+            final HttpResponse response = futures.get(i).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+            Assert.assertEquals(CacheResponseStatus.CACHE_HIT, contexts.get(i).getCacheResponseStatus());
+        }
+        Assert.assertEquals(1, this.backendCalls.get());
+        Assert.assertEquals(11, client.getCacheMisses());
+    }
+
+    @Test
+    public void testCollapsedRangeRequestIsAnsweredWithRange() throws Exception {
+        final CachingHttpAsyncClient client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend), CacheConfig.DEFAULT);
+
+        final Thread leader = executeInBackground(client);
+        while (this.backendCalls.get() == 0) {
+            Thread.sleep(10);
+        }
+        final HttpGet request = new HttpGet("/popular");
+        request.setHeader("Range", "bytes=10-19");
+        final HttpCacheContext context = HttpCacheContext.create();
+        final Future<HttpResponse> future = client.execute(this.target, request, context, null);
+        awaitCollapsed(client, 1);
+
+        this.latch.countDown();
+        leader.join(5000);
+        final HttpResponse response = future.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(HttpStatus.SC_PARTIAL_CONTENT, response.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes 10-19/128", response.getFirstHeader("Content-Range").getValue());
+        Assert.assertEquals(10, EntityUtils.toByteArray(response.getEntity()).length);
+        Assert.assertEquals(CacheResponseStatus.CACHE_HIT, context.getCacheResponseStatus());
+        Assert.assertEquals(1, this.backendCalls.get());
+    }
+
+    @Test
+    public void testCollapsedRequestGoesToBackendOnTimeout() throws Exception {
+        final CacheConfig config = CacheConfig.DEFAULT;
+        final CachingHttpAsyncClient client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend),
+                new SynchronousHttpAsyncCache(new BasicHttpCache(config)),
+                config,
+                new RequestCollapser(100),
+                null);
+
+        final Thread leader = executeInBackground(client);
+        while (this.backendCalls.get() == 0) {
+            Thread.sleep(10);
+        }
+        final HttpCacheContext context = HttpCacheContext.create();
+        final Future<HttpResponse> future = client.execute(this.target, new HttpGet("/popular"), context, null);
+        final HttpResponse response = future.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        Assert.assertEquals(CacheResponseStatus.CACHE_MISS, context.getCacheResponseStatus());
+        Assert.assertEquals(2, this.backendCalls.get());
+        Assert.assertEquals(1, client.getCollapsedRequests());
+
+        this.latch.countDown();
+        leader.join(5000);
+        Assert.assertFalse(leader.isAlive());
+    }
+
+    @Test
+    public void testRequestsForDifferentResourcesAreNotCollapsed() throws Exception {
+        final CachingHttpAsyncClient client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend), CacheConfig.DEFAULT);
+
+        final Thread leader = executeInBackground(client);
+        while (this.backendCalls.get() == 0) {
+            Thread.sleep(10);
+        }
+        final HttpResponse response = client.execute(
+                this.target, new HttpGet("/other"), null).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        Assert.assertEquals(0, client.getCollapsedRequests());
+
+        this.latch.countDown();
+        leader.join(5000);
+    }
+
+    static class RecordingCallback implements RequestCollapser.Callback {
+
+        volatile boolean released;
+        volatile boolean timedOut;
+
+        @Override
+        public void released() {
+            this.released = true;
+        }
+
+        @Override
+        public void timedOut() {
+            this.timedOut = true;
+        }
+
+    }
+
+    @Test
+    public void testRequestsAreNotCollapsedAfterShutdown() throws Exception {
+        final RequestCollapser collapser = new RequestCollapser(5000);
+        final RecordingCallback callback1 = new RecordingCallback();
+        final RecordingCallback callback2 = new RecordingCallback();
+        final RequestCollapser.Flight flight = collapser.join("key", new RecordingCallback());
+        Assert.assertNotNull(flight);
+        Assert.assertNull(collapser.join("key", callback1));
+
+        collapser.shutdown();
+        Assert.assertNotNull(collapser.join("key", callback2));
+        Assert.assertEquals(1, collapser.getCollapsed());
+
+        flight.land();
+        Assert.assertTrue(callback1.released);
+        Assert.assertFalse(callback1.timedOut);
+        Assert.assertFalse(callback2.released);
+    }
+
+    @Test
+    public void testCollapsedRequestIsReleasedAfterClose() throws Exception {
+        final CachingHttpAsyncClient client = new CachingHttpAsyncClient(
+                new ClientExecChainAsyncClient(this.backend), CacheConfig.DEFAULT);
+
+        final Thread leader = executeInBackground(client);
+        while (this.backendCalls.get() == 0) {
+            Thread.sleep(10);
+        }
+        final Future<HttpResponse> future = client.execute(this.target, new HttpGet("/popular"), null);
+        awaitCollapsed(client, 1);
+        client.close();
+
+        this.latch.countDown();
+        leader.join(5000);
+        final HttpResponse response = future.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        Assert.assertEquals(1, this.backendCalls.get());
+    }
+
+}
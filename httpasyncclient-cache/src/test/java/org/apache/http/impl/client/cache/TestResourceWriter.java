@@ -0,0 +1,148 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.http.client.cache.InputLimit;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.client.cache.ResourceFactory;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestResourceWriter {
+
+    private static final byte[] CONTENT = TestCachingHttpAsyncClientStreaming.content(50000);
+
+    private static ContentDecoder createDecoder(final byte[] content, final int chunkSize) throws Exception {
+        final ByteBuffer src = ByteBuffer.wrap(content);
+        final ContentDecoder decoder = Mockito.mock(ContentDecoder.class);
+        Mockito.when(decoder.read(Mockito.any(ByteBuffer.class))).thenAnswer(new Answer<Integer>() {
+
+            @Override
+            public Integer answer(final InvocationOnMock invocation) throws Throwable {
+                final ByteBuffer dst = (ByteBuffer) invocation.getArguments()[0];
+                final int n = Math.min(Math.min(chunkSize, dst.remaining()), src.remaining());
+                if (n == 0) {
+                    return src.hasRemaining() ? 0 : -1;
+                }
+                final ByteBuffer chunk = src.duplicate();
+                chunk.limit(chunk.position() + n);
+                dst.put(chunk);
+                src.position(src.position() + n);
+                return n;
+            }
+
+        });
+        Mockito.when(decoder.isCompleted()).thenAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+                return !src.hasRemaining();
+            }
+
+        });
+        return decoder;
+    }
+
+    private static byte[] read(final ResourceWriter writer) throws Exception {
+        final InputStream inStream = writer.getInputStream();
+        return EntityUtils.toByteArray(new InputStreamEntity(inStream));
+    }
+
+    @Test
+    public void testKnownLengthBecomesHeapResourceWithoutCopying() throws Exception {
+        final ResourceWriter writer = new ResourceWriter(CONTENT.length, CONTENT.length, false);
+        Assert.assertTrue(writer.consume(createDecoder(CONTENT, 4096)));
+        Assert.assertEquals(CONTENT.length, writer.length());
+        Assert.assertFalse(writer.isOverflown());
+
+        final HeapResource resource1 = (HeapResource) writer.toResource(new HeapResourceFactory(), "/");
+        final HeapResource resource2 = (HeapResource) writer.toResource(new HeapResourceFactory(), "/");
+        Assert.assertArrayEquals(CONTENT, resource1.getByteArray());
+        // both resources share the chunk the content has been read into
+        Assert.assertSame(resource1.getByteArray(), resource2.getByteArray());
+    }
+
+    @Test
+    public void testUnknownLengthIsCollectedInChunks() throws Exception {
+        final ResourceWriter writer = new ResourceWriter(CONTENT.length, -1, false);
+        for (int off = 0; off < CONTENT.length; off += 3000) {
+            writer.write(ByteBuffer.wrap(CONTENT, off, Math.min(3000, CONTENT.length - off)));
+        }
+        Assert.assertEquals(CONTENT.length, writer.length());
+        Assert.assertArrayEquals(CONTENT, read(writer));
+        Assert.assertArrayEquals(CONTENT, ((HeapResource) writer.toResource(
+                new HeapResourceFactory(), "/")).getByteArray());
+    }
+
+    @Test
+    public void testOtherResourceFactoriesAreGivenContentStream() throws Exception {
+        final ResourceWriter writer = new ResourceWriter(CONTENT.length, CONTENT.length, false);
+        writer.write(ByteBuffer.wrap(CONTENT));
+        final ResourceFactory resourceFactory = Mockito.mock(ResourceFactory.class);
+        Mockito.when(resourceFactory.generate(
+                Mockito.eq("/"), Mockito.any(InputStream.class), Mockito.any(InputLimit.class)))
+                .thenAnswer(new Answer<Resource>() {
+
+            @Override
+            public Resource answer(final InvocationOnMock invocation) throws Throwable {
+                final InputStream inStream = (InputStream) invocation.getArguments()[1];
+                return new HeapResource(EntityUtils.toByteArray(new InputStreamEntity(inStream)));
+            }
+
+        });
+        final Resource resource = writer.toResource(resourceFactory, "/");
+        Assert.assertArrayEquals(CONTENT, ((HeapResource) resource).getByteArray());
+    }
+
+    @Test
+    public void testOverflowDiscardsContent() throws Exception {
+        final ResourceWriter writer = new ResourceWriter(CONTENT.length / 2, CONTENT.length, false);
+        Assert.assertFalse(writer.consume(createDecoder(CONTENT, 4096)));
+        Assert.assertTrue(writer.isOverflown());
+        writer.write(ByteBuffer.wrap(CONTENT));
+        Assert.assertEquals(0, read(writer).length);
+    }
+
+    @Test
+    public void testOverflowRetainsContentIfRequested() throws Exception {
+        final ResourceWriter writer = new ResourceWriter(CONTENT.length / 2, -1, true);
+        Assert.assertTrue(writer.consume(createDecoder(CONTENT, 4096)));
+        Assert.assertTrue(writer.isOverflown());
+        Assert.assertEquals(CONTENT.length, writer.length());
+        Assert.assertArrayEquals(CONTENT, read(writer));
+    }
+
+}
@@ -0,0 +1,256 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestTieredHttpCacheStorage {
+
+    private HttpCacheStorage l2;
+    private TieredHttpCacheStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        this.l2 = Mockito.spy(new BasicHttpCacheStorage(CacheConfig.DEFAULT));
+        this.storage = new TieredHttpCacheStorage(this.l2, 4096, 1024);
+    }
+
+    static HttpCacheEntry makeEntry(final int length) {
+        final Date now = new Date();
+        return new HttpCacheEntry(now, now,
+                new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"),
+                new Header[0], new HeapResource(new byte[length]));
+    }
+
+    @Test
+    public void testSmallEntryStoredInL1Only() throws Exception {
+        final HttpCacheEntry entry = makeEntry(100);
+        this.storage.putEntry("foo", entry);
+        Assert.assertSame(entry, this.storage.getEntry("foo"));
+        Assert.assertNull(this.l2.getEntry("foo"));
+        Assert.assertEquals(1, this.storage.getL1EntryCount());
+        Assert.assertEquals(TinyLfuHttpCacheStorage.weigh("foo", entry), this.storage.getL1Size());
+        Assert.assertEquals(1, this.storage.getL1Hits());
+        Assert.assertEquals(0, this.storage.getL1Misses());
+    }
+
+    @Test
+    public void testLargeEntryStoredInL2Only() throws Exception {
+        final HttpCacheEntry entry = makeEntry(2000);
+        this.storage.putEntry("foo", entry);
+        Assert.assertEquals(0, this.storage.getL1EntryCount());
+        Assert.assertSame(entry, this.storage.getEntry("foo"));
+        Assert.assertEquals(1, this.storage.getL1Misses());
+        Assert.assertEquals(1, this.storage.getL2Hits());
+        Assert.assertEquals(0, this.storage.getPromotions());
+    }
+
+    @Test
+    public void testEvictedEntriesDemoted() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            this.storage.putEntry("entry" + i, makeEntry(500));
+        }
+        Assert.assertTrue(this.storage.getL1Size() <= 4096);
+        Assert.assertTrue(this.storage.getDemotions() > 0);
+        Assert.assertEquals(10, this.storage.getL1EntryCount() + this.storage.getDemotions());
+        Assert.assertNotNull(this.l2.getEntry("entry0"));
+        Assert.assertNull(this.l2.getEntry("entry9"));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertNotNull(this.storage.getEntry("entry" + i));
+        }
+    }
+
+    @Test
+    public void testL2HitPromoted() throws Exception {
+        final HttpCacheEntry entry = makeEntry(100);
+        this.l2.putEntry("foo", entry);
+        Assert.assertNotNull(this.storage.getEntry("foo"));
+        Assert.assertEquals(1, this.storage.getL2Hits());
+        Assert.assertEquals(1, this.storage.getPromotions());
+        Assert.assertEquals(1, this.storage.getL1EntryCount());
+
+        Assert.assertNotNull(this.storage.getEntry("foo"));
+        Assert.assertEquals(1, this.storage.getL1Hits());
+        Mockito.verify(this.l2, Mockito.times(1)).getEntry("foo");
+        Assert.assertTrue(this.storage.getL2LookupTime() > 0);
+    }
+
+    @Test
+    public void testPromotedEntryCopiedToHeap() throws Exception {
+        final byte[] content = HttpTestUtils.getRandomBytes(100);
+        final OffHeapResourceFactory factory = new OffHeapResourceFactory(64 * 1024);
+        final Date now = new Date();
+        this.l2.putEntry("foo", new HttpCacheEntry(now, now,
+                new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"),
+                new Header[0], factory.generate("foo", new ByteArrayInputStream(content), null)));
+        final HttpCacheEntry promoted = this.storage.getEntry("foo");
+        Assert.assertTrue(promoted.getResource() instanceof HeapResource);
+        Assert.assertArrayEquals(content, ((HeapResource) promoted.getResource()).getByteArray());
+    }
+
+    @Test
+    public void testPromotedEntryNotWrittenBackOnEviction() throws Exception {
+        this.l2.putEntry("foo", makeEntry(500));
+        Assert.assertNotNull(this.storage.getEntry("foo"));
+        for (int i = 0; i < 10; i++) {
+            this.storage.putEntry("entry" + i, makeEntry(500));
+        }
+        Mockito.verify(this.l2, Mockito.times(1)).putEntry(Mockito.eq("foo"), Mockito.any(HttpCacheEntry.class));
+    }
+
+    @Test
+    public void testMissInBothTiers() throws Exception {
+        Assert.assertNull(this.storage.getEntry("foo"));
+        Assert.assertEquals(1, this.storage.getL1Misses());
+        Assert.assertEquals(1, this.storage.getL2Misses());
+    }
+
+    @Test
+    public void testRemoveFromBothTiers() throws Exception {
+        this.l2.putEntry("foo", makeEntry(100));
+        Assert.assertNotNull(this.storage.getEntry("foo"));
+        this.storage.removeEntry("foo");
+        Assert.assertNull(this.storage.getEntry("foo"));
+        Assert.assertNull(this.l2.getEntry("foo"));
+        Assert.assertEquals(0, this.storage.getL1Size());
+    }
+
+    @Test
+    public void testUpdateEntry() throws Exception {
+        this.l2.putEntry("foo", makeEntry(100));
+        final HttpCacheEntry updated = makeEntry(200);
+        this.storage.updateEntry("foo", new HttpCacheUpdateCallback() {
+
+            @Override
+            public HttpCacheEntry update(final HttpCacheEntry existing) {
+                Assert.assertNotNull(existing);
+                return updated;
+            }
+
+        });
+        Assert.assertSame(updated, this.storage.getEntry("foo"));
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        final HttpCacheEntry entry = makeEntry(100);
+        this.storage.putEntry("foo", entry);
+        this.storage.flush();
+        Assert.assertSame(entry, this.l2.getEntry("foo"));
+        this.storage.flush();
+        Mockito.verify(this.l2, Mockito.times(1)).putEntry("foo", entry);
+    }
+
+    @Test
+    public void testPutRemovesStaleL2Copy() throws Exception {
+        this.l2.putEntry("foo", makeEntry(100));
+        Assert.assertNotNull(this.storage.getEntry("foo"));
+        final HttpCacheEntry updated = makeEntry(200);
+        this.storage.putEntry("foo", updated);
+        Assert.assertNull(this.l2.getEntry("foo"));
+        for (int i = 0; i < 10; i++) {
+            this.storage.putEntry("entry" + i, makeEntry(500));
+        }
+        Assert.assertSame(updated, this.l2.getEntry("foo"));
+        Assert.assertSame(updated, this.storage.getEntry("foo"));
+    }
+
+    @Test
+    public void testDirtyEntryOverwrittenWithoutL2Removal() throws Exception {
+        this.storage.putEntry("foo", makeEntry(100));
+        this.storage.putEntry("foo", makeEntry(200));
+        Mockito.verify(this.l2, Mockito.times(1)).removeEntry("foo");
+    }
+
+    @Test(timeout = 10000)
+    public void testL2LookupDoesNotBlockL1() throws Exception {
+        final CountDownLatch lookup = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final HttpCacheStorage slowL2 = new BasicHttpCacheStorage(CacheConfig.DEFAULT) {
+
+            @Override
+            public HttpCacheEntry getEntry(final String key) throws IOException {
+                lookup.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getEntry(key);
+            }
+
+        };
+        slowL2.putEntry("bar", makeEntry(100));
+        final TieredHttpCacheStorage tiered = new TieredHttpCacheStorage(slowL2, 4096, 1024);
+        final HttpCacheEntry entry = makeEntry(100);
+        tiered.putEntry("foo", entry);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<HttpCacheEntry> future = executor.submit(new Callable<HttpCacheEntry>() {
+
+                @Override
+                public HttpCacheEntry call() throws Exception {
+                    return tiered.getEntry("bar");
+                }
+
+            });
+            Assert.assertTrue(lookup.await(5, TimeUnit.SECONDS));
+            Assert.assertSame(entry, tiered.getEntry("foo"));
+            tiered.putEntry("baz", makeEntry(100));
+            Assert.assertEquals(2, tiered.getL1EntryCount());
+            release.countDown();
+            Assert.assertNotNull(future.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(3, tiered.getL1EntryCount());
+            Assert.assertEquals(1, tiered.getPromotions());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+}
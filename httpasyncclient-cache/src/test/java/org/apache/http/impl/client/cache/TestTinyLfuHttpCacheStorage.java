@@ -0,0 +1,211 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.client.cache;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTinyLfuHttpCacheStorage {
+
+    static HttpCacheEntry makeEntry(final int length) {
+        final Date now = new Date();
+        return new HttpCacheEntry(now, now,
+                new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"),
+                new Header[0], new HeapResource(new byte[length]));
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        final TinyLfuHttpCacheStorage storage = new TinyLfuHttpCacheStorage(1024 * 1024);
+        final HttpCacheEntry entry = makeEntry(100);
+        storage.putEntry("foo", entry);
+        Assert.assertSame(entry, storage.getEntry("foo"));
+        Assert.assertNull(storage.getEntry("bar"));
+        Assert.assertEquals(1, storage.getEntryCount());
+        Assert.assertEquals(TinyLfuHttpCacheStorage.weigh("foo", entry), storage.getSize());
+
+        storage.removeEntry("foo");
+        Assert.assertNull(storage.getEntry("foo"));
+        Assert.assertEquals(0, storage.getEntryCount());
+        Assert.assertEquals(0, storage.getSize());
+    }
+
+    @Test
+    public void testUpdateEntry() throws Exception {
+        final TinyLfuHttpCacheStorage storage = new TinyLfuHttpCacheStorage(1024 * 1024);
+        storage.putEntry("foo", makeEntry(100));
+        final HttpCacheEntry updated = makeEntry(200);
+        storage.updateEntry("foo", new HttpCacheUpdateCallback() {
+
+            @Override
+            public HttpCacheEntry update(final HttpCacheEntry existing) {
+                Assert.assertNotNull(existing);
+                return updated;
+            }
+
+        });
+        Assert.assertSame(updated, storage.getEntry("foo"));
+        Assert.assertEquals(TinyLfuHttpCacheStorage.weigh("foo", updated), storage.getSize());
+    }
+
+    @Test
+    public void testOversizedEntryIsNotStored() throws Exception {
+        final TinyLfuHttpCacheStorage storage = new TinyLfuHttpCacheStorage(1024);
+        storage.putEntry("foo", makeEntry(2048));
+        Assert.assertNull(storage.getEntry("foo"));
+        Assert.assertEquals(0, storage.getSize());
+    }
+
+    @Test
+    public void testSizeIsBounded() throws Exception {
+        final long maxSize = 100 * 1024;
+        final TinyLfuHttpCacheStorage storage = new TinyLfuHttpCacheStorage(maxSize);
+        for (int i = 0; i < 1000; i++) {
+            storage.putEntry("key" + i, makeEntry(1024));
+            Assert.assertTrue(storage.getSize() <= maxSize);
+        }
+        Assert.assertTrue(storage.getEntryCount() > 50);
+    }
+
+    @Test
+    public void testPopularEntriesSurviveScan() throws Exception {
+        final long entrySize = TinyLfuHttpCacheStorage.weigh("hot0", makeEntry(1024));
+        final TinyLfuHttpCacheStorage storage = new TinyLfuHttpCacheStorage(entrySize * 20);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 10; i++) {
+                final String key = "hot" + i;
+                if (storage.getEntry(key) == null) {
+                    storage.putEntry(key, makeEntry(1024));
+                }
+            }
+        }
+        // one-hit wonders
+        for (int i = 0; i < 1000; i++) {
+            final String key = "scan" + i;
+            if (storage.getEntry(key) == null) {
+                storage.putEntry(key, makeEntry(1024));
+            }
+        }
+        int hits = 0;
+        for (int i = 0; i < 10; i++) {
+            if (storage.getEntry("hot" + i) != null) {
+                hits++;
+            }
+        }
+        Assert.assertEquals(10, hits);
+    }
+
+    /**
+     * Creates a trace mixing requests for a Zipf distributed set
+     * of popular resources with scans of resources requested only once.
+     */
+    static String[] createTrace(final int keys, final int length, final long seed) {
+        final double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1.0 / Math.pow(i + 1, 0.9);
+            cumulative[i] = sum;
+        }
+        final Random random = new Random(seed);
+        final String[] trace = new String[length];
+        int scan = 0;
+        for (int i = 0; i < length; i++) {
+            if (random.nextDouble() < 0.2) {
+                trace[i] = "http://scan.example.com/" + scan++;
+            } else {
+                final double r = random.nextDouble() * sum;
+                int low = 0;
+                int high = keys - 1;
+                while (low < high) {
+                    final int mid = (low + high) >>> 1;
+                    if (cumulative[mid] < r) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                trace[i] = "http://popular.example.com/" + low;
+            }
+        }
+        return trace;
+    }
+
+    static double replay(final String[] trace, final HttpCacheStorage storage) throws IOException {
+        int hits = 0;
+        for (final String key: trace) {
+            if (storage.getEntry(key) != null) {
+                hits++;
+            } else {
+                storage.putEntry(key, makeEntry(1024 + (key.hashCode() & 0x7fffffff) % 3072));
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    @Test
+    public void testTraceHitRatio() throws Exception {
+        final String[] trace = createTrace(5000, 100000, 42L);
+        final int maxEntries = 200;
+        final double lru = replay(trace, new BasicHttpCacheStorage(
+                CacheConfig.custom().setMaxCacheEntries(maxEntries).build()));
+        // same budget for entries of average size
+        final long maxSize = maxEntries * TinyLfuHttpCacheStorage.weigh(
+                "http://popular.example.com/0", makeEntry(2560));
+        final TinyLfuHttpCacheStorage storage = new TinyLfuHttpCacheStorage(maxSize, maxEntries);
+        final double tinyLfu = replay(trace, storage);
+        Assert.assertTrue(storage.getSize() <= maxSize);
+        // about 0.41 against 0.29 on this trace
+        Assert.assertTrue(tinyLfu > lru + 0.05);
+    }
+
+    @Test
+    public void testFrequencySketch() throws Exception {
+        final FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("foo");
+        }
+        sketch.increment("bar");
+        Assert.assertTrue(sketch.frequency("foo") >= 5);
+        Assert.assertTrue(sketch.frequency("foo") > sketch.frequency("bar"));
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("foo");
+        }
+        Assert.assertTrue(sketch.frequency("foo") <= 15);
+    }
+
+}
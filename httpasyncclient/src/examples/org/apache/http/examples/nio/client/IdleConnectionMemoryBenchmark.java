@@ -0,0 +1,198 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.examples.nio.client;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.bootstrap.HttpServer;
+import org.apache.http.impl.nio.bootstrap.ServerBootstrap;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.client.util.PooledByteBufferAllocator;
+import org.apache.http.nio.protocol.BasicAsyncRequestConsumer;
+import org.apache.http.nio.protocol.HttpAsyncExchange;
+import org.apache.http.nio.protocol.HttpAsyncRequestConsumer;
+import org.apache.http.nio.protocol.HttpAsyncRequestHandler;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * This benchmark measures the heap retained per idle keep-alive connection
+ * with session buffers kept by every connection and with session buffers
+ * released to a shared {@link PooledByteBufferAllocator} while connections
+ * sit idle in the pool.
+ * <p>
+ * The figures include the server side of every connection, which is run in
+ * the same JVM with small session buffers. Run with a fixed heap size, e.g.
+ * {@code -Xms1g -Xmx1g}, for stable results.
+ */
+public class IdleConnectionMemoryBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        final int connections = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        final int bufferSize = args.length > 1 ? Integer.parseInt(args[1]) : 8 * 1024;
+
+        final Barrier barrier = new Barrier();
+        final HttpServer server = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .setConnectionConfig(ConnectionConfig.custom().setBufferSize(256).build())
+                .registerHandler("*", barrier)
+                .create();
+        server.start();
+        try {
+            server.getEndpoint().waitFor();
+            final InetSocketAddress address = (InetSocketAddress) server.getEndpoint().getAddress();
+            final HttpHost target = new HttpHost("localhost", address.getPort());
+
+            // Warm up
+            measure(target, barrier, connections, bufferSize, null);
+            measure(target, barrier, connections, bufferSize, new PooledByteBufferAllocator());
+
+            final long before = measure(target, barrier, connections, bufferSize, null);
+            final long after = measure(target, barrier, connections, bufferSize, new PooledByteBufferAllocator());
+            System.out.println("Idle connections: " + connections + "; session buffer size: " + bufferSize);
+            System.out.println("Heap per idle connection, buffers retained: " + before + " bytes");
+            System.out.println("Heap per idle connection, buffers released: " + after + " bytes");
+        } finally {
+            server.shutdown(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Opens the given number of connections, lets them go idle and returns
+     * the increase in heap usage per connection.
+     */
+    static long measure(
+            final HttpHost target,
+            final Barrier barrier,
+            final int connections,
+            final int bufferSize,
+            final PooledByteBufferAllocator bufferPool) throws Exception {
+        final PoolingNHttpClientConnectionManager connMgr = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(),
+                new ManagedNHttpClientConnectionFactory(null, null, bufferPool));
+        connMgr.setMaxTotal(connections);
+        connMgr.setDefaultMaxPerRoute(connections);
+        connMgr.setDefaultConnectionConfig(ConnectionConfig.custom().setBufferSize(bufferSize).build());
+        final CloseableHttpAsyncClient httpclient = HttpAsyncClients.custom()
+                .setConnectionManager(connMgr)
+                .setByteBufferPool(bufferPool)
+                .build();
+        httpclient.start();
+        try {
+            // Responses are held back until all requests have been received
+            // so that every request is executed over a connection of its own
+            barrier.reset(connections);
+            final long baseline = usedHeap();
+            final List<Future<HttpResponse>> futures = new ArrayList<Future<HttpResponse>>(connections);
+            for (int i = 0; i < connections; i++) {
+                futures.add(httpclient.execute(target, new HttpGet("/"), null));
+            }
+            for (final Future<HttpResponse> future: futures) {
+                EntityUtils.consume(future.get().getEntity());
+            }
+            while (connMgr.getTotalStats().getAvailable() < connections
+                    || (bufferPool != null && bufferPool.getLeased() > 0)) {
+                Thread.sleep(10);
+            }
+            if (bufferPool != null) {
+                // Buffers retained by the shared pool are not attributable to connections
+                bufferPool.clear();
+            }
+            final long idle = usedHeap();
+            return (idle - baseline) / connections;
+        } finally {
+            httpclient.close();
+        }
+    }
+
+    /**
+     * Holds back responses until the expected number of requests has been received.
+     */
+    static class Barrier implements HttpAsyncRequestHandler<HttpRequest> {
+
+        private final List<HttpAsyncExchange> exchanges = new ArrayList<HttpAsyncExchange>();
+        private int parties;
+
+        synchronized void reset(final int parties) {
+            this.parties = parties;
+            this.exchanges.clear();
+        }
+
+        @Override
+        public HttpAsyncRequestConsumer<HttpRequest> processRequest(
+                final HttpRequest request,
+                final HttpContext context) {
+            return new BasicAsyncRequestConsumer();
+        }
+
+        @Override
+        public void handle(
+                final HttpRequest request,
+                final HttpAsyncExchange httpExchange,
+                final HttpContext context) {
+            final List<HttpAsyncExchange> released;
+            synchronized (this) {
+                this.exchanges.add(httpExchange);
+                if (this.exchanges.size() < this.parties) {
+                    return;
+                }
+                released = new ArrayList<HttpAsyncExchange>(this.exchanges);
+                this.exchanges.clear();
+            }
+            for (final HttpAsyncExchange exchange: released) {
+                exchange.getResponse().setEntity(new StringEntity("OK", ContentType.TEXT_PLAIN));
+                exchange.submitResponse();
+            }
+        }
+
+    }
+
+    static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.FileContentDecoder;
+
+/**
+ * {@link ContentDecoder} that keeps count of content bytes read. Content
+ * transferred directly to a file is not counted.
+ */
+class CountingContentDecoder implements ContentDecoder {
+
+    private final ContentDecoder decoder;
+
+    private long count;
+
+    CountingContentDecoder(final ContentDecoder decoder) {
+        super();
+        this.decoder = decoder;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        final int bytesRead = this.decoder.read(dst);
+        if (bytesRead > 0) {
+            this.count += bytesRead;
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public boolean isCompleted() {
+        return this.decoder.isCompleted();
+    }
+
+    long getCount() {
+        return this.count;
+    }
+
+    @Override
+    public String toString() {
+        return this.decoder.toString();
+    }
+
+    static CountingContentDecoder create(final ContentDecoder decoder) {
+        if (decoder instanceof FileContentDecoder) {
+            return new CountingFileContentDecoder((FileContentDecoder) decoder);
+        }
+        return new CountingContentDecoder(decoder);
+    }
+
+    static class CountingFileContentDecoder extends CountingContentDecoder implements FileContentDecoder {
+
+        private final FileContentDecoder decoder;
+
+        CountingFileContentDecoder(final FileContentDecoder decoder) {
+            super(decoder);
+            this.decoder = decoder;
+        }
+
+        @Override
+        public long transfer(final FileChannel dst, final long position, final long count) throws IOException {
+            return this.decoder.transfer(dst, position, count);
+        }
+
+    }
+
+}
@@ -42,6 +42,7 @@ import org.apache.http.nio.ContentDecoder;
 import org.apache.http.nio.ContentEncoder;
 import org.apache.http.nio.IOControl;
 import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.client.util.ContentBudget;
 import org.apache.http.nio.conn.NHttpClientConnectionManager;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
@@ -80,6 +81,10 @@ class DefaultClientExchangeHandlerImpl<T> extends AbstractClientExchangeHandler
 
     @Override
     void releaseResources() {
+        final ContentBudget.Reservation reservation = this.state.getReservation();
+        if (reservation != null) {
+            reservation.release();
+        }
         try {
             this.requestProducer.close();
         } catch (final IOException ex) {
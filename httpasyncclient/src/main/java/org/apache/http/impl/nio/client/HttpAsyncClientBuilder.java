@@ -96,9 +96,12 @@ import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
 import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
 import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.nio.NHttpClientEventHandler;
+import org.apache.http.nio.client.util.ByteBufferPool;
+import org.apache.http.nio.client.util.ContentBudget;
 import org.apache.http.nio.conn.NHttpClientConnectionManager;
 import org.apache.http.nio.conn.NoopIOSessionStrategy;
 import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.PooledSSLBufferManagementStrategy;
 import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
 import org.apache.http.nio.protocol.HttpAsyncRequestExecutor;
 import org.apache.http.nio.reactor.ConnectingIOReactor;
@@ -192,6 +195,9 @@ public class HttpAsyncClientBuilder {
     private int maxConnPerRoute = 0;
     private long connTimeToLive = -1;
     private TimeUnit connTimeToLiveTimeUnit = TimeUnit.MILLISECONDS;
+    private int maxPipelineDepth = 0;
+    private ByteBufferPool bufferPool;
+    private ContentBudget contentBudget;
 
     public static HttpAsyncClientBuilder create() {
         return new HttpAsyncClientBuilder();
@@ -288,6 +294,73 @@ public class HttpAsyncClientBuilder {
         return this;
     }
 
+    /**
+     * Enables opportunistic pipelining of requests executed with the regular
+     * {@link CloseableHttpAsyncClient} methods. Requests with a safe idempotent
+     * method ({@code GET}, {@code HEAD}, {@code OPTIONS}, {@code TRACE}) and no
+     * enclosed entity get queued behind other in-flight exchanges with the same
+     * route on an already leased connection as long as it has fewer than
+     * {@code maxPipelineDepth} outstanding exchanges. Should the connection fail
+     * queued requests get re-executed over connections leased from the pool.
+     * Requests are not pipelined while the pool has an idle connection for
+     * the route. Once the pool is exhausted for the route they can also be
+     * queued for connections still being leased.
+     * <p>
+     * Requests routed via a proxy and requests bound to a particular user token
+     * are never pipelined. Responses that require a follow-up exchange such as
+     * redirects or authentication challenges cause the request to be re-executed
+     * over a dedicated connection.
+     * <p>
+     * Response content of pipelined exchanges is accounted for by the
+     * {@link #setContentBudget(ContentBudget) content budget}, if any.
+     * Input suspended due to the budget being exhausted holds back all
+     * exchanges queued on the connection.
+     * <p>
+     * Values less than {@code 2} disable opportunistic pipelining (default).
+     *
+     * @since 4.1.5
+     */
+    public final HttpAsyncClientBuilder setMaxPipelineDepth(final int maxPipelineDepth) {
+        this.maxPipelineDepth = maxPipelineDepth;
+        return this;
+    }
+
+    /**
+     * Assigns {@link ByteBufferPool} instance used to allocate session buffers
+     * of connections and temporary buffers of message exchanges. Session buffers
+     * get returned to the pool while the connection is kept alive in the pool
+     * of idle connections and once the connection has been closed. TLS/SSL
+     * session buffers get returned to the pool as soon as they have been drained.
+     * <p>
+     * Please note this value applies to connections only if the connection
+     * manager is created by this builder. TLS/SSL session buffers get pooled
+     * only if the TLS/SSL strategy is created by this builder as well.
+     *
+     * @since 4.1.5
+     */
+    public final HttpAsyncClientBuilder setByteBufferPool(final ByteBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        return this;
+    }
+
+    /**
+     * Assigns {@link ContentBudget} instance limiting the total amount of response
+     * content held by exchanges in progress. Once the budget has been exhausted
+     * connections of exchanges consuming content get input suspended until
+     * other exchanges complete and return their reservations.
+     * <p>
+     * Content transferred directly to a file through
+     * {@link org.apache.http.nio.FileContentDecoder} is not accounted for.
+     * The budget applies to exchanges executed over opportunistically pipelined
+     * connections as well, suspending input of the shared connection.
+     *
+     * @since 4.1.5
+     */
+    public final HttpAsyncClientBuilder setContentBudget(final ContentBudget contentBudget) {
+        this.contentBudget = contentBudget;
+        return this;
+    }
+
     /**
      * Assigns {@link ConnectionReuseStrategy} instance.
      */
@@ -681,13 +754,15 @@ public class HttpAsyncClientBuilder {
                     hostnameVerifier = new DefaultHostnameVerifier(publicSuffixMatcher);
                 }
                 sslStrategy = new SSLIOSessionStrategy(
-                        sslcontext, supportedProtocols, supportedCipherSuites, hostnameVerifier);
+                        sslcontext, supportedProtocols, supportedCipherSuites, hostnameVerifier,
+                        bufferPool != null ? new PooledSSLBufferManagementStrategy(bufferPool) : null);
             }
             final ConnectingIOReactor ioReactor = IOReactorUtils.create(
                 defaultIOReactorConfig != null ? defaultIOReactorConfig : IOReactorConfig.DEFAULT, threadFactory);
             final PoolingNHttpClientConnectionManager poolingmgr = new PoolingNHttpClientConnectionManager(
                     ioReactor,
-                    ManagedNHttpClientConnectionFactory.INSTANCE,
+                    bufferPool != null ? new ManagedNHttpClientConnectionFactory(null, null, bufferPool) :
+                        ManagedNHttpClientConnectionFactory.INSTANCE,
                     RegistryBuilder.<SchemeIOSessionStrategy>create()
                         .register("http", NoopIOSessionStrategy.INSTANCE)
                         .register("https", sslStrategy)
@@ -878,7 +953,9 @@ public class HttpAsyncClientBuilder {
             redirectStrategy,
             targetAuthStrategy,
             proxyAuthStrategy,
-            userTokenHandler);
+            userTokenHandler,
+            bufferPool,
+            contentBudget);
 
         ThreadFactory threadFactory = null;
         NHttpClientEventHandler eventHandler = null;
@@ -903,7 +980,8 @@ public class HttpAsyncClientBuilder {
             authSchemeRegistry,
             defaultCookieStore,
             defaultCredentialsProvider,
-            defaultRequestConfig);
+            defaultRequestConfig,
+            maxPipelineDepth);
     }
 
 }
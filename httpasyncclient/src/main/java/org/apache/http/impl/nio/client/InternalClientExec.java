@@ -32,6 +32,9 @@ import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.nio.ContentDecoder;
 import org.apache.http.nio.ContentEncoder;
 import org.apache.http.nio.IOControl;
@@ -71,4 +74,28 @@ interface InternalClientExec {
             InternalState state,
             AbstractClientExchangeHandler handler) throws IOException, HttpException;
 
+    HttpRoute determineRoute(
+            HttpHost target,
+            HttpRequest request,
+            HttpClientContext localContext) throws HttpException;
+
+    HttpRequestWrapper generatePipelinedRequest(
+            long id,
+            HttpRequest original,
+            HttpRoute route,
+            HttpClientContext localContext) throws IOException, HttpException;
+
+    void consumePipelinedContent(
+            long id,
+            PipelinedExchange<?> exchange,
+            HttpRoute route,
+            ContentDecoder decoder,
+            IOControl ioControl) throws IOException;
+
+    boolean pipelinedResponseReceived(
+            long id,
+            HttpRequestWrapper request,
+            HttpResponse response,
+            HttpClientContext localContext) throws IOException, HttpException;
+
 }
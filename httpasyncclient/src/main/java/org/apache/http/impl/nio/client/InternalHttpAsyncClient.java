@@ -65,6 +65,7 @@ class InternalHttpAsyncClient extends CloseableHttpAsyncClientBase {
     private final CookieStore cookieStore;
     private final CredentialsProvider credentialsProvider;
     private final RequestConfig defaultConfig;
+    private final InternalPipelineDispatcher pipelineDispatcher;
 
     public InternalHttpAsyncClient(
             final NHttpClientConnectionManager connmgr,
@@ -77,7 +78,8 @@ class InternalHttpAsyncClient extends CloseableHttpAsyncClientBase {
             final Lookup<AuthSchemeProvider> authSchemeRegistry,
             final CookieStore cookieStore,
             final CredentialsProvider credentialsProvider,
-            final RequestConfig defaultConfig) {
+            final RequestConfig defaultConfig,
+            final int maxPipelineDepth) {
         super(connmgr, threadFactory, handler);
         this.connmgr = connmgr;
         this.connReuseStrategy = connReuseStrategy;
@@ -88,6 +90,8 @@ class InternalHttpAsyncClient extends CloseableHttpAsyncClientBase {
         this.cookieStore = cookieStore;
         this.credentialsProvider = credentialsProvider;
         this.defaultConfig = defaultConfig;
+        this.pipelineDispatcher = maxPipelineDepth > 1 ? new InternalPipelineDispatcher(
+                this.log, this, connmgr, connReuseStrategy, keepaliveStrategy, exec, maxPipelineDepth) : null;
     }
 
     private void setupContext(final HttpClientContext context) {
@@ -125,6 +129,14 @@ class InternalHttpAsyncClient extends CloseableHttpAsyncClientBase {
             context != null ? context : new BasicHttpContext());
         setupContext(localcontext);
 
+        if (this.pipelineDispatcher != null && isRunning()) {
+            final PipelinedExchange<T> exchange = this.pipelineDispatcher.dispatch(
+                    requestProducer, responseConsumer, localcontext, future);
+            if (exchange != null) {
+                return new FutureWrapper<T>(future, exchange);
+            }
+        }
+
         final DefaultClientExchangeHandlerImpl<T> handler = new DefaultClientExchangeHandlerImpl<T>(
             this.log,
             requestProducer,
@@ -139,6 +151,21 @@ class InternalHttpAsyncClient extends CloseableHttpAsyncClientBase {
         return new FutureWrapper<T>(future, handler);
     }
 
+    <T> void executeDirect(final PipelinedExchange<T> exchange) {
+        final DefaultClientExchangeHandlerImpl<T> handler = new DefaultClientExchangeHandlerImpl<T>(
+            this.log,
+            exchange.getRequestProducer(),
+            exchange.getResponseConsumer(),
+            exchange.getLocalContext(),
+            exchange.getResultFuture(),
+            this.connmgr,
+            this.connReuseStrategy,
+            this.keepaliveStrategy,
+            this.exec);
+        exchange.bind(handler);
+        execute(handler);
+    }
+
     @Override
     public <T> Future<List<T>> execute(
             final HttpHost target,
@@ -27,14 +27,17 @@
 
 package org.apache.http.impl.nio.client;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.channels.CancelledKeyException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.impl.nio.DefaultNHttpClientConnection;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
 import org.apache.http.impl.nio.reactor.AbstractIODispatch;
 import org.apache.http.nio.NHttpClientEventHandler;
+import org.apache.http.nio.conn.ssl.PooledSSLBufferManagementStrategy;
 import org.apache.http.nio.reactor.IOSession;
 
 class InternalIODispatch extends AbstractIODispatch<DefaultNHttpClientConnection> {
@@ -74,7 +77,23 @@ class InternalIODispatch extends AbstractIODispatch<DefaultNHttpClientConnection
 
     @Override
     protected void onClosed(final DefaultNHttpClientConnection conn) {
-        this.handler.closed(conn);
+        try {
+            this.handler.closed(conn);
+        } finally {
+            releaseBuffers(conn, ManagedNHttpClientConnectionFactory.SESSION_BUFFERS);
+            releaseBuffers(conn, PooledSSLBufferManagementStrategy.SESSION_BUFFERS);
+        }
+    }
+
+    private void releaseBuffers(final DefaultNHttpClientConnection conn, final String attribute) {
+        final Object buffers = conn.getContext().removeAttribute(attribute);
+        if (buffers instanceof Closeable) {
+            try {
+                ((Closeable) buffers).close();
+            } catch (final IOException ex) {
+                this.log.debug("I/O error releasing session buffers", ex);
+            }
+        }
     }
 
     @Override
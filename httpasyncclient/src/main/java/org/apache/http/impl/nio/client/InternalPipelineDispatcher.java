@@ -0,0 +1,248 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.RequestLine;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.nio.conn.NHttpClientConnectionManager;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Dispatches executions of safe idempotent requests onto connections shared
+ * with other in-flight exchanges to the same route, up to the given maximum
+ * pipeline depth per connection.
+ * <p>
+ * Requests are never pipelined while the pool has an idle connection for
+ * the route. Otherwise they are queued behind exchanges in flight on an
+ * already leased connection. Only once the pool for the route is exhausted
+ * are requests also queued on pipelines still waiting for a connection.
+ * The state of the pool is unknown to connection managers other than
+ * {@link ConnPoolControl}; requests are only pipelined on leased connections
+ * with such managers.
+ */
+class InternalPipelineDispatcher {
+
+    private final Log log;
+    private final InternalHttpAsyncClient client;
+    private final NHttpClientConnectionManager connmgr;
+    private final ConnectionReuseStrategy connReuseStrategy;
+    private final ConnectionKeepAliveStrategy keepaliveStrategy;
+    private final InternalClientExec exec;
+    private final int maxDepth;
+    private final Map<HttpRoute, List<OpportunisticPipeliningHandlerImpl>> pipelineMap;
+
+    InternalPipelineDispatcher(
+            final Log log,
+            final InternalHttpAsyncClient client,
+            final NHttpClientConnectionManager connmgr,
+            final ConnectionReuseStrategy connReuseStrategy,
+            final ConnectionKeepAliveStrategy keepaliveStrategy,
+            final InternalClientExec exec,
+            final int maxDepth) {
+        super();
+        this.log = log;
+        this.client = client;
+        this.connmgr = connmgr;
+        this.connReuseStrategy = connReuseStrategy;
+        this.keepaliveStrategy = keepaliveStrategy;
+        this.exec = exec;
+        this.maxDepth = maxDepth;
+        this.pipelineMap = new HashMap<HttpRoute, List<OpportunisticPipeliningHandlerImpl>>();
+    }
+
+    private static boolean isPipelinable(final HttpRequest request) {
+        final RequestLine requestLine = request.getRequestLine();
+        if (requestLine.getProtocolVersion().lessEquals(HttpVersion.HTTP_1_0)) {
+            return false;
+        }
+        if (request instanceof HttpEntityEnclosingRequest
+                && ((HttpEntityEnclosingRequest) request).getEntity() != null) {
+            return false;
+        }
+        final String method = requestLine.getMethod().toUpperCase(Locale.ROOT);
+        return method.equals("GET") || method.equals("HEAD")
+                || method.equals("OPTIONS") || method.equals("TRACE");
+    }
+
+    /**
+     * Queues the exchange for execution over a pipelined connection.
+     *
+     * @return the queued exchange or {@code null} if the request is not
+     *   eligible for pipelining and should be executed as usual.
+     */
+    <T> PipelinedExchange<T> dispatch(
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final HttpClientContext localContext,
+            final BasicFuture<T> resultFuture) {
+        if (localContext.getUserToken() != null) {
+            return null;
+        }
+        final HttpRequest request;
+        final HttpRoute route;
+        try {
+            request = requestProducer.generateRequest();
+            if (!isPipelinable(request)) {
+                return null;
+            }
+            route = this.exec.determineRoute(requestProducer.getTarget(), request, localContext);
+        } catch (final IOException ex) {
+            return null;
+        } catch (final HttpException ex) {
+            return null;
+        }
+        if (route.getProxyHost() != null) {
+            return null;
+        }
+
+        final PipelinedExchange<T> exchange = new PipelinedExchange<T>(
+                requestProducer, responseConsumer, localContext, resultFuture);
+        final OpportunisticPipeliningHandlerImpl handler;
+        synchronized (this.pipelineMap) {
+            List<OpportunisticPipeliningHandlerImpl> pipelines = this.pipelineMap.get(route);
+            if (pipelines == null) {
+                pipelines = new LinkedList<OpportunisticPipeliningHandlerImpl>();
+                this.pipelineMap.put(route, pipelines);
+            }
+            final PipelineState state = getPipelineState(route);
+            if (state != PipelineState.IDLE_CONNECTIONS) {
+                final OpportunisticPipeliningHandlerImpl pipeline = enqueue(
+                        pipelines, exchange, state == PipelineState.POOL_EXHAUSTED);
+                if (pipeline != null) {
+                    if (this.log.isDebugEnabled()) {
+                        this.log.debug("[exchange: " + pipeline.getId() + "] Request queued: "
+                                + request.getRequestLine());
+                    }
+                    return exchange;
+                }
+            }
+            RequestConfig config = null;
+            if (request instanceof Configurable) {
+                config = ((Configurable) request).getConfig();
+            }
+            final HttpClientContext pipelineContext = HttpClientContext.create();
+            pipelineContext.setRequestConfig(config != null ? config : localContext.getRequestConfig());
+            handler = new OpportunisticPipeliningHandlerImpl(
+                    this.log,
+                    this,
+                    route,
+                    pipelineContext,
+                    this.connmgr,
+                    this.connReuseStrategy,
+                    this.keepaliveStrategy,
+                    this.exec,
+                    this.maxDepth);
+            handler.enqueue(exchange, false);
+            pipelines.add(handler);
+        }
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + handler.getId() + "] Request queued: " + request.getRequestLine());
+        }
+        this.client.execute(handler);
+        return exchange;
+    }
+
+    enum PipelineState { IDLE_CONNECTIONS, CONNECTIONS_LEASED, POOL_EXHAUSTED }
+
+    @SuppressWarnings("unchecked")
+    private PipelineState getPipelineState(final HttpRoute route) {
+        if (!(this.connmgr instanceof ConnPoolControl<?>)) {
+            return PipelineState.CONNECTIONS_LEASED;
+        }
+        final PoolStats stats = ((ConnPoolControl<HttpRoute>) this.connmgr).getStats(route);
+        if (stats.getAvailable() > 0) {
+            return PipelineState.IDLE_CONNECTIONS;
+        }
+        if (stats.getLeased() + stats.getPending() >= stats.getMax()) {
+            return PipelineState.POOL_EXHAUSTED;
+        }
+        return PipelineState.CONNECTIONS_LEASED;
+    }
+
+    /**
+     * Queues the exchange on a pipeline with exchanges in flight on a leased
+     * connection or, if {@code poolExhausted} is {@code true}, on any pipeline
+     * still accepting exchanges. Must be called holding the pipeline map lock.
+     */
+    private static OpportunisticPipeliningHandlerImpl enqueue(
+            final List<OpportunisticPipeliningHandlerImpl> pipelines,
+            final PipelinedExchange<?> exchange,
+            final boolean poolExhausted) {
+        for (final OpportunisticPipeliningHandlerImpl pipeline: pipelines) {
+            if (pipeline.enqueue(exchange, true)) {
+                return pipeline;
+            }
+        }
+        if (poolExhausted) {
+            for (final OpportunisticPipeliningHandlerImpl pipeline: pipelines) {
+                if (pipeline.enqueue(exchange, false)) {
+                    return pipeline;
+                }
+            }
+        }
+        return null;
+    }
+
+    void remove(final OpportunisticPipeliningHandlerImpl handler) {
+        synchronized (this.pipelineMap) {
+            final HttpRoute route = handler.getRoute();
+            final List<OpportunisticPipeliningHandlerImpl> pipelines = this.pipelineMap.get(route);
+            if (pipelines != null) {
+                pipelines.remove(handler);
+                if (pipelines.isEmpty()) {
+                    this.pipelineMap.remove(route);
+                }
+            }
+        }
+    }
+
+    <T> void executeDirect(final PipelinedExchange<T> exchange) {
+        this.client.executeDirect(exchange);
+    }
+
+}
@@ -32,6 +32,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpRequestWrapper;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.nio.client.util.ContentBudget;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
 
@@ -47,6 +48,7 @@ class InternalState {
     private ByteBuffer tmpbuf;
     private boolean requestContentProduced;
     private int execCount;
+    private ContentBudget.Reservation reservation;
 
     private int redirectCount;
     private HttpUriRequest redirect;
@@ -118,6 +120,14 @@ class InternalState {
         this.execCount++;
     }
 
+    public ContentBudget.Reservation getReservation() {
+        return reservation;
+    }
+
+    public void setReservation(final ContentBudget.Reservation reservation) {
+        this.reservation = reservation;
+    }
+
     public int getRedirectCount() {
         return redirectCount;
     }
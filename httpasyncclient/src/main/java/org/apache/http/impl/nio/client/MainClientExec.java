@@ -70,6 +70,8 @@ import org.apache.http.nio.ContentDecoder;
 import org.apache.http.nio.ContentEncoder;
 import org.apache.http.nio.IOControl;
 import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.client.util.ByteBufferPool;
+import org.apache.http.nio.client.util.ContentBudget;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
 import org.apache.http.protocol.HttpCoreContext;
@@ -90,6 +92,8 @@ class MainClientExec implements InternalClientExec {
     private final RedirectStrategy redirectStrategy;
     private final HttpRouteDirector routeDirector;
     private final HttpAuthenticator authenticator;
+    private final ByteBufferPool bufferPool;
+    private final ContentBudget contentBudget;
 
     public MainClientExec(
             final HttpProcessor httpProcessor,
@@ -97,7 +101,9 @@ class MainClientExec implements InternalClientExec {
             final RedirectStrategy redirectStrategy,
             final AuthenticationStrategy targetAuthStrategy,
             final AuthenticationStrategy proxyAuthStrategy,
-            final UserTokenHandler userTokenHandler) {
+            final UserTokenHandler userTokenHandler,
+            final ByteBufferPool bufferPool,
+            final ContentBudget contentBudget) {
         super();
         this.httpProcessor = httpProcessor;
         this.proxyHttpProcessor = new ImmutableHttpProcessor(
@@ -109,6 +115,8 @@ class MainClientExec implements InternalClientExec {
         this.userTokenHandler = userTokenHandler;
         this.routeDirector = new BasicRouteDirector();
         this.authenticator = new HttpAuthenticator(log);
+        this.bufferPool = bufferPool;
+        this.contentBudget = contentBudget;
     }
 
     @Override
@@ -326,7 +334,24 @@ class MainClientExec implements InternalClientExec {
         }
         if (state.getFinalResponse() != null) {
             final HttpAsyncResponseConsumer<?> responseConsumer = state.getResponseConsumer();
-            responseConsumer.consumeContent(decoder, ioControl);
+            if (this.contentBudget != null) {
+                ContentBudget.Reservation reservation = state.getReservation();
+                if (reservation == null) {
+                    reservation = this.contentBudget.open(
+                            state.getLocalContext().getAttribute(HttpClientContext.HTTP_ROUTE, HttpRoute.class));
+                    state.setReservation(reservation);
+                }
+                consumeContent(state.getId(), responseConsumer, reservation, decoder, ioControl);
+            } else {
+                responseConsumer.consumeContent(decoder, ioControl);
+            }
+        } else if (this.bufferPool != null) {
+            final ByteBuffer tmpbuf = this.bufferPool.allocate(4 * 1024);
+            try {
+                decoder.read(tmpbuf);
+            } finally {
+                this.bufferPool.release(tmpbuf);
+            }
         } else {
             final ByteBuffer tmpbuf = state.getTmpbuf();
             tmpbuf.clear();
@@ -334,6 +359,21 @@ class MainClientExec implements InternalClientExec {
         }
     }
 
+    private void consumeContent(
+            final long id,
+            final HttpAsyncResponseConsumer<?> responseConsumer,
+            final ContentBudget.Reservation reservation,
+            final ContentDecoder decoder,
+            final IOControl ioControl) throws IOException {
+        final CountingContentDecoder countingDecoder = CountingContentDecoder.create(decoder);
+        responseConsumer.consumeContent(countingDecoder, ioControl);
+        if (reservation.reserve(countingDecoder.getCount(), ioControl)
+                && this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + id + "] Content budget exhausted; " +
+                    "input suspended " + this.contentBudget);
+        }
+    }
+
     @Override
     public void responseCompleted(
             final InternalState state,
@@ -384,6 +424,11 @@ class MainClientExec implements InternalClientExec {
             if (this.log.isDebugEnabled()) {
                 this.log.debug("[exchange: " + state.getId() + "] Response processed");
             }
+            final ContentBudget.Reservation reservation = state.getReservation();
+            if (reservation != null) {
+                state.setReservation(null);
+                reservation.release();
+            }
             handler.releaseConnection();
         } else {
             if (state.getRedirect() != null) {
@@ -437,6 +482,86 @@ class MainClientExec implements InternalClientExec {
         handler.setCurrentResponse(null);
     }
 
+    @Override
+    public HttpRoute determineRoute(
+            final HttpHost target,
+            final HttpRequest request,
+            final HttpClientContext localContext) throws HttpException {
+        return this.routePlanner.determineRoute(target, request, localContext);
+    }
+
+    @Override
+    public HttpRequestWrapper generatePipelinedRequest(
+            final long id,
+            final HttpRequest original,
+            final HttpRoute route,
+            final HttpClientContext localContext) throws IOException, HttpException {
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + id + "] start pipelined execution");
+        }
+        if (original instanceof Configurable) {
+            final RequestConfig config = ((Configurable) original).getConfig();
+            if (config != null) {
+                localContext.setRequestConfig(config);
+            }
+        }
+        final HttpRequestWrapper request = HttpRequestWrapper.wrap(original);
+        prepareRequest(id, request, route, localContext);
+        if (!request.containsHeader(AUTH.WWW_AUTH_RESP)) {
+            final AuthState targetAuthState = localContext.getTargetAuthState();
+            this.authenticator.generateAuthResponse(request, targetAuthState, localContext);
+        }
+        return request;
+    }
+
+    @Override
+    public void consumePipelinedContent(
+            final long id,
+            final PipelinedExchange<?> exchange,
+            final HttpRoute route,
+            final ContentDecoder decoder,
+            final IOControl ioControl) throws IOException {
+        final HttpAsyncResponseConsumer<?> responseConsumer = exchange.getResponseConsumer();
+        if (this.contentBudget != null) {
+            ContentBudget.Reservation reservation = exchange.getReservation();
+            if (reservation == null) {
+                reservation = this.contentBudget.open(route);
+                exchange.setReservation(reservation);
+            }
+            consumeContent(id, responseConsumer, reservation, decoder, ioControl);
+        } else {
+            responseConsumer.consumeContent(decoder, ioControl);
+        }
+    }
+
+    @Override
+    public boolean pipelinedResponseReceived(
+            final long id,
+            final HttpRequestWrapper request,
+            final HttpResponse response,
+            final HttpClientContext localContext) throws IOException, HttpException {
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + id + "] Pipelined response received " + response.getStatusLine());
+        }
+        localContext.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
+        localContext.setAttribute(HttpCoreContext.HTTP_RESPONSE, response);
+        this.httpProcessor.process(response, localContext);
+
+        final RequestConfig config = localContext.getRequestConfig();
+        if (config.isAuthenticationEnabled() && localContext.getCredentialsProvider() != null) {
+            final int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_UNAUTHORIZED || status == HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED) {
+                return false;
+            }
+        }
+        if (config.isRedirectsEnabled()) {
+            if (this.redirectStrategy.isRedirected(request, response, localContext)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void rewriteRequestURI(
             final HttpRequestWrapper request,
             final HttpRoute route) throws ProtocolException {
@@ -470,10 +595,14 @@ class MainClientExec implements InternalClientExec {
     private void prepareRequest(
             final InternalState state,
             final AbstractClientExchangeHandler handler) throws IOException, HttpException {
-        final HttpClientContext localContext = state.getLocalContext();
-        final HttpRequestWrapper currentRequest = handler.getCurrentRequest();
-        final HttpRoute route = handler.getRoute();
+        prepareRequest(state.getId(), handler.getCurrentRequest(), handler.getRoute(), state.getLocalContext());
+    }
 
+    private void prepareRequest(
+            final long id,
+            final HttpRequestWrapper currentRequest,
+            final HttpRoute route,
+            final HttpClientContext localContext) throws IOException, HttpException {
         final HttpRequest original = currentRequest.getOriginal();
         URI uri = null;
         if (original instanceof HttpUriRequest) {
@@ -484,7 +613,7 @@ class MainClientExec implements InternalClientExec {
                 uri = URI.create(uriString);
             } catch (final IllegalArgumentException ex) {
                 if (this.log.isDebugEnabled()) {
-                    this.log.debug("[exchange: " + state.getId() + "] Unable to parse '" + uriString +
+                    this.log.debug("[exchange: " + id + "] Unable to parse '" + uriString +
                             "' as a valid URI; request URI and Host header may be inconsistent", ex);
                 }
             }
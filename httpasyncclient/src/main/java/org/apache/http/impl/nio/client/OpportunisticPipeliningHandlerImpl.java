@@ -0,0 +1,425 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.ConnectionShutdownException;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.NHttpClientConnectionManager;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.nio.protocol.Pipelined;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.util.Asserts;
+
+/**
+ * {@link org.apache.http.nio.protocol.HttpAsyncClientExchangeHandler} implementation
+ * that executes independent exchanges with the same route over a single pipelined
+ * connection. New exchanges can be queued with {@link #enqueue(PipelinedExchange, boolean)}
+ * as long as the number of outstanding exchanges is below the maximum pipeline depth.
+ * The connection is released back to the pool once the last outstanding exchange
+ * completes.
+ * <p>
+ * Should the connection fail or be closed by the opposite endpoint, exchanges
+ * whose response has not been received yet are re-executed over connections
+ * leased from the pool.
+ * <p>
+ * Instances of this class are expected to be accessed by one thread at a time only.
+ * The {@link #cancel()} and {@link #enqueue(PipelinedExchange, boolean)} methods can be called
+ * concurrently by multiple threads.
+ */
+@Pipelined
+class OpportunisticPipeliningHandlerImpl extends AbstractClientExchangeHandler {
+
+    private final InternalPipelineDispatcher dispatcher;
+    private final HttpClientContext localContext;
+    private final InternalClientExec exec;
+    private final int maxDepth;
+    private final Queue<PipelinedExchange<?>> pendingQueue;
+    private final Queue<PipelinedExchange<?>> requestQueue;
+    private final AtomicReference<PipelinedExchange<?>> requestExchangeRef;
+    private final AtomicReference<PipelinedExchange<?>> responseExchangeRef;
+    private final AtomicBoolean responseConsumed;
+
+    private ByteBuffer tmpbuf;
+
+    private int depth;
+    private boolean accepting;
+
+    public OpportunisticPipeliningHandlerImpl(
+            final Log log,
+            final InternalPipelineDispatcher dispatcher,
+            final HttpRoute route,
+            final HttpClientContext localContext,
+            final NHttpClientConnectionManager connmgr,
+            final ConnectionReuseStrategy connReuseStrategy,
+            final ConnectionKeepAliveStrategy keepaliveStrategy,
+            final InternalClientExec exec,
+            final int maxDepth) {
+        super(log, localContext, connmgr, connReuseStrategy, keepaliveStrategy);
+        this.dispatcher = dispatcher;
+        this.localContext = localContext;
+        this.exec = exec;
+        this.maxDepth = maxDepth;
+        this.pendingQueue = new ConcurrentLinkedQueue<PipelinedExchange<?>>();
+        this.requestQueue = new ConcurrentLinkedQueue<PipelinedExchange<?>>();
+        this.requestExchangeRef = new AtomicReference<PipelinedExchange<?>>(null);
+        this.responseExchangeRef = new AtomicReference<PipelinedExchange<?>>(null);
+        this.responseConsumed = new AtomicBoolean(false);
+        this.accepting = true;
+        setRoute(route);
+    }
+
+    /**
+     * Queues the exchange for execution over the pipelined connection.
+     *
+     * @param leasedOnly whether to queue the exchange only behind exchanges
+     *   in flight on an already leased connection.
+     * @return {@code true} if the exchange has been queued, {@code false} if
+     *   the maximum pipeline depth has been reached, the handler is being
+     *   released or, with {@code leasedOnly}, has no exchanges in flight on
+     *   a leased connection.
+     */
+    boolean enqueue(final PipelinedExchange<?> exchange, final boolean leasedOnly) {
+        synchronized (this) {
+            if (!this.accepting || this.depth >= this.maxDepth) {
+                return false;
+            }
+            if (leasedOnly && (this.depth == 0 || getConnection() == null)) {
+                return false;
+            }
+            this.depth++;
+            this.pendingQueue.add(exchange);
+        }
+        final NHttpClientConnection localConn = getConnection();
+        if (localConn != null) {
+            try {
+                localConn.requestOutput();
+            } catch (final ConnectionShutdownException ex) {
+                // The exchange will be re-executed once the handler gets released
+            }
+        }
+        return true;
+    }
+
+    private void exchangeReleased(final PipelinedExchange<?> exchange) {
+        exchange.releaseResources(this.log);
+        synchronized (this) {
+            this.depth--;
+        }
+    }
+
+    private void exchangeWithdrawn(final PipelinedExchange<?> exchange) {
+        synchronized (this) {
+            this.depth--;
+        }
+        withdraw(exchange);
+    }
+
+    private void withdraw(final PipelinedExchange<?> exchange) {
+        if (exchange.isCancelled()) {
+            exchange.releaseResources(this.log);
+        } else {
+            if (this.log.isDebugEnabled()) {
+                this.log.debug("[exchange: " + getId() + "] Re-executing withdrawn request");
+            }
+            this.dispatcher.executeDirect(exchange);
+        }
+    }
+
+    private void releaseIfIdle() {
+        synchronized (this) {
+            if (this.depth > 0) {
+                return;
+            }
+            this.accepting = false;
+        }
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + getId() + "] Pipeline idle");
+        }
+        try {
+            markCompleted();
+            releaseConnection();
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    void releaseResources() {
+        synchronized (this) {
+            this.accepting = false;
+        }
+        this.dispatcher.remove(this);
+        final PipelinedExchange<?> responseExchange = this.responseExchangeRef.getAndSet(null);
+        if (responseExchange != null) {
+            if (this.responseConsumed.get()) {
+                if (!responseExchange.getResultFuture().isDone()) {
+                    responseExchange.failed(new ConnectionClosedException("Connection closed"));
+                }
+                responseExchange.releaseResources(this.log);
+            } else {
+                withdraw(responseExchange);
+            }
+        }
+        this.requestExchangeRef.set(null);
+        PipelinedExchange<?> exchange;
+        while ((exchange = this.requestQueue.poll()) != null) {
+            withdraw(exchange);
+        }
+        while ((exchange = this.pendingQueue.poll()) != null) {
+            withdraw(exchange);
+        }
+    }
+
+    @Override
+    void executionFailed(final Exception ex) {
+        final PipelinedExchange<?> responseExchange = this.responseExchangeRef.get();
+        if (responseExchange != null && this.responseConsumed.get()) {
+            this.responseExchangeRef.set(null);
+            try {
+                responseExchange.failed(ex);
+            } finally {
+                responseExchange.releaseResources(this.log);
+            }
+        }
+        if (getConnection() == null) {
+            // No connection could be leased. Re-executing pending requests
+            // is not going to fare any better
+            PipelinedExchange<?> exchange;
+            while ((exchange = this.pendingQueue.poll()) != null) {
+                try {
+                    exchange.failed(ex);
+                } finally {
+                    exchange.releaseResources(this.log);
+                }
+            }
+        }
+    }
+
+    @Override
+    boolean executionCancelled() {
+        return false;
+    }
+
+    @Override
+    void start() throws HttpException, IOException {
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("[exchange: " + getId() + "] start pipeline for " + getRoute());
+        }
+        requestConnection();
+    }
+
+    @Override
+    public HttpRequest generateRequest() throws IOException, HttpException {
+        verifytRoute();
+        if (!isRouteEstablished()) {
+            onRouteToTarget();
+            onRouteComplete();
+        }
+        final NHttpClientConnection localConn = getConnection();
+        this.localContext.setAttribute(HttpCoreContext.HTTP_CONNECTION, localConn);
+
+        Asserts.check(this.requestExchangeRef.get() == null, "Inconsistent state: request exchange is not null");
+        PipelinedExchange<?> exchange;
+        while ((exchange = this.pendingQueue.poll()) != null) {
+            if (exchange.isCancelled()) {
+                exchangeReleased(exchange);
+                continue;
+            }
+            final HttpRequestWrapper request;
+            try {
+                request = prepareRequest(exchange, localConn);
+            } catch (final HttpException ex) {
+                exchange.failed(ex);
+                exchangeReleased(exchange);
+                continue;
+            } catch (final IOException ex) {
+                exchange.failed(ex);
+                exchangeReleased(exchange);
+                continue;
+            }
+            this.requestQueue.add(exchange);
+            this.requestExchangeRef.set(exchange);
+            return request;
+        }
+        if (this.requestQueue.isEmpty() && this.responseExchangeRef.get() == null) {
+            releaseIfIdle();
+        }
+        return null;
+    }
+
+    private HttpRequestWrapper prepareRequest(
+            final PipelinedExchange<?> exchange,
+            final NHttpClientConnection localConn) throws IOException, HttpException {
+        final HttpClientContext context = exchange.getLocalContext();
+        final HttpRequest original = exchange.getRequestProducer().generateRequest();
+        if (original instanceof HttpExecutionAware) {
+            ((HttpExecutionAware) original).setCancellable(exchange);
+        }
+        context.setAttribute(HttpCoreContext.HTTP_CONNECTION, localConn);
+        final HttpRequestWrapper request = this.exec.generatePipelinedRequest(
+                getId(), original, getRoute(), context);
+        final RequestConfig config = context.getRequestConfig();
+        if (config.getSocketTimeout() > 0) {
+            localConn.setSocketTimeout(config.getSocketTimeout());
+        }
+        exchange.setRequest(request);
+        return request;
+    }
+
+    @Override
+    public void produceContent(
+            final ContentEncoder encoder, final IOControl ioControl) throws IOException {
+        final PipelinedExchange<?> exchange = this.requestExchangeRef.get();
+        Asserts.check(exchange != null, "Inconsistent state: request exchange is null");
+        final HttpAsyncRequestProducer requestProducer = exchange.getRequestProducer();
+        requestProducer.produceContent(encoder, ioControl);
+        if (encoder.isCompleted()) {
+            requestProducer.resetRequest();
+        }
+    }
+
+    @Override
+    public void requestCompleted() {
+        final PipelinedExchange<?> exchange = this.requestExchangeRef.getAndSet(null);
+        Asserts.check(exchange != null, "Inconsistent state: request exchange is null");
+        exchange.getRequestProducer().requestCompleted(exchange.getLocalContext());
+    }
+
+    @Override
+    public void responseReceived(
+            final HttpResponse response) throws IOException, HttpException {
+        Asserts.check(this.responseExchangeRef.get() == null, "Inconsistent state: response exchange is not null");
+        final PipelinedExchange<?> exchange = this.requestQueue.poll();
+        Asserts.check(exchange != null, "Inconsistent state: request queue is empty");
+        this.responseExchangeRef.set(exchange);
+        this.responseConsumed.set(false);
+        setCurrentResponse(response);
+
+        final HttpRequestWrapper request = exchange.getRequest();
+        this.localContext.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
+        this.localContext.setAttribute(HttpCoreContext.HTTP_RESPONSE, response);
+        if (exchange.isCancelled()) {
+            return;
+        }
+        if (this.exec.pipelinedResponseReceived(getId(), request, response, exchange.getLocalContext())) {
+            this.responseConsumed.set(true);
+            exchange.getResponseConsumer().responseReceived(response);
+        } else {
+            if (this.log.isDebugEnabled()) {
+                this.log.debug("[exchange: " + getId() + "] Response requires follow-up; " +
+                        "request will be re-executed");
+            }
+        }
+    }
+
+    @Override
+    public void consumeContent(
+            final ContentDecoder decoder, final IOControl ioControl) throws IOException {
+        final PipelinedExchange<?> exchange = this.responseExchangeRef.get();
+        Asserts.check(exchange != null, "Inconsistent state: response exchange is null");
+        if (this.responseConsumed.get()) {
+            final HttpAsyncResponseConsumer<?> responseConsumer = exchange.getResponseConsumer();
+            this.exec.consumePipelinedContent(getId(), exchange, getRoute(), decoder, ioControl);
+            if (!decoder.isCompleted() && responseConsumer.isDone()) {
+                this.responseExchangeRef.set(null);
+                markConnectionNonReusable();
+                try {
+                    exchange.getResultFuture().cancel();
+                    exchangeReleased(exchange);
+                } finally {
+                    close();
+                }
+            }
+        } else {
+            if (this.tmpbuf == null) {
+                this.tmpbuf = ByteBuffer.allocate(4 * 1024);
+            }
+            this.tmpbuf.clear();
+            decoder.read(this.tmpbuf);
+        }
+    }
+
+    @Override
+    public void responseCompleted() throws IOException, HttpException {
+        final boolean keepAlive = manageConnectionPersistence();
+        final PipelinedExchange<?> exchange = this.responseExchangeRef.getAndSet(null);
+        Asserts.check(exchange != null, "Inconsistent state: response exchange is null");
+        setCurrentResponse(null);
+        if (this.responseConsumed.get()) {
+            try {
+                exchange.getResponseConsumer().responseCompleted(exchange.getLocalContext());
+                exchange.releaseReservation();
+                exchange.responseCompleted();
+            } finally {
+                exchangeReleased(exchange);
+            }
+        } else if (exchange.isCancelled()) {
+            exchangeReleased(exchange);
+        } else {
+            exchangeWithdrawn(exchange);
+        }
+        if (keepAlive) {
+            releaseIfIdle();
+        } else {
+            try {
+                markCompleted();
+                releaseConnection();
+            } finally {
+                close();
+            }
+        }
+    }
+
+    @Override
+    public void inputTerminated() {
+        close();
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.client;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.nio.client.util.ContentBudget;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+
+/**
+ * Single request / response exchange that has been queued for execution
+ * over a shared pipelined connection by {@link InternalPipelineDispatcher}.
+ * <p>
+ * If the exchange cannot be completed over the pipelined connection it gets
+ * handed over to a {@link DefaultClientExchangeHandlerImpl} and executed
+ * over a connection leased from the pool as usual.
+ */
+class PipelinedExchange<T> implements Cancellable {
+
+    private final HttpAsyncRequestProducer requestProducer;
+    private final HttpAsyncResponseConsumer<T> responseConsumer;
+    private final HttpClientContext localContext;
+    private final BasicFuture<T> resultFuture;
+    private final AtomicBoolean cancelled;
+    private final AtomicReference<Cancellable> cancellableRef;
+    private final AtomicReference<ContentBudget.Reservation> reservationRef;
+
+    private volatile HttpRequestWrapper request;
+
+    PipelinedExchange(
+            final HttpAsyncRequestProducer requestProducer,
+            final HttpAsyncResponseConsumer<T> responseConsumer,
+            final HttpClientContext localContext,
+            final BasicFuture<T> resultFuture) {
+        super();
+        this.requestProducer = requestProducer;
+        this.responseConsumer = responseConsumer;
+        this.localContext = localContext;
+        this.resultFuture = resultFuture;
+        this.cancelled = new AtomicBoolean(false);
+        this.cancellableRef = new AtomicReference<Cancellable>(null);
+        this.reservationRef = new AtomicReference<ContentBudget.Reservation>(null);
+    }
+
+    HttpAsyncRequestProducer getRequestProducer() {
+        return this.requestProducer;
+    }
+
+    HttpAsyncResponseConsumer<T> getResponseConsumer() {
+        return this.responseConsumer;
+    }
+
+    HttpClientContext getLocalContext() {
+        return this.localContext;
+    }
+
+    BasicFuture<T> getResultFuture() {
+        return this.resultFuture;
+    }
+
+    HttpRequestWrapper getRequest() {
+        return this.request;
+    }
+
+    void setRequest(final HttpRequestWrapper request) {
+        this.request = request;
+    }
+
+    ContentBudget.Reservation getReservation() {
+        return this.reservationRef.get();
+    }
+
+    void setReservation(final ContentBudget.Reservation reservation) {
+        this.reservationRef.set(reservation);
+    }
+
+    boolean isCancelled() {
+        return this.cancelled.get();
+    }
+
+    /**
+     * Binds the exchange to the handler that took over its execution after
+     * it has been withdrawn from the pipeline.
+     */
+    void bind(final Cancellable cancellable) {
+        this.cancellableRef.set(cancellable);
+        if (this.cancelled.get()) {
+            cancellable.cancel();
+        }
+    }
+
+    void responseCompleted() {
+        final T result = this.responseConsumer.getResult();
+        final Exception ex = this.responseConsumer.getException();
+        if (ex == null) {
+            this.resultFuture.completed(result);
+        } else {
+            this.resultFuture.failed(ex);
+        }
+    }
+
+    void failed(final Exception ex) {
+        try {
+            this.requestProducer.failed(ex);
+            this.responseConsumer.failed(ex);
+        } finally {
+            this.resultFuture.failed(ex);
+        }
+    }
+
+    /**
+     * Returns content bytes reserved by the exchange to the budget.
+     */
+    void releaseReservation() {
+        final ContentBudget.Reservation reservation = this.reservationRef.getAndSet(null);
+        if (reservation != null) {
+            reservation.release();
+        }
+    }
+
+    void releaseResources(final Log log) {
+        releaseReservation();
+        try {
+            this.requestProducer.close();
+        } catch (final IOException ex) {
+            log.debug("I/O error closing request producer", ex);
+        }
+        try {
+            this.responseConsumer.close();
+        } catch (final IOException ex) {
+            log.debug("I/O error closing response consumer", ex);
+        }
+    }
+
+    @Override
+    public boolean cancel() {
+        if (this.cancelled.compareAndSet(false, true)) {
+            final Cancellable cancellable = this.cancellableRef.get();
+            if (cancellable != null) {
+                return cancellable.cancel();
+            }
+            this.responseConsumer.cancel();
+            return this.resultFuture.cancel();
+        }
+        return false;
+    }
+
+}
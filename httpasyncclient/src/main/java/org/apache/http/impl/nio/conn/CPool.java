@@ -76,6 +76,9 @@ class CPool extends AbstractNIOConnPool<HttpRoute, ManagedNHttpClientConnection,
     protected void onRelease(final CPoolEntry entry) {
         final NHttpClientConnection conn = entry.getConnection();
         conn.setSocketTimeout(0);
+        if (conn instanceof ManagedNHttpClientConnectionImpl) {
+            ((ManagedNHttpClientConnectionImpl) conn).releaseBuffers();
+        }
     }
 
 }
@@ -41,6 +41,7 @@ import org.apache.http.impl.nio.codecs.DefaultHttpRequestWriterFactory;
 import org.apache.http.impl.nio.codecs.DefaultHttpResponseParserFactory;
 import org.apache.http.nio.NHttpMessageParserFactory;
 import org.apache.http.nio.NHttpMessageWriterFactory;
+import org.apache.http.nio.client.util.ByteBufferPool;
 import org.apache.http.nio.conn.ManagedNHttpClientConnection;
 import org.apache.http.nio.conn.NHttpConnectionFactory;
 import org.apache.http.nio.reactor.IOEventDispatch;
@@ -55,6 +56,15 @@ import org.apache.http.nio.util.HeapByteBufferAllocator;
  */
 public class ManagedNHttpClientConnectionFactory implements NHttpConnectionFactory<ManagedNHttpClientConnection> {
 
+    /**
+     * Name of the I/O session attribute holding a {@link java.io.Closeable} that returns
+     * session buffers of the connection to the {@link ByteBufferPool} they were allocated
+     * from. The I/O event dispatch is expected to close it once the session has been closed.
+     *
+     * @since 4.1.5
+     */
+    public static final String SESSION_BUFFERS = "http.nio.session-buffers";
+
     private final Log headerLog = LogFactory.getLog("org.apache.http.headers");
     private final Log wireLog = LogFactory.getLog("org.apache.http.wire");
     private final Log log = LogFactory.getLog(ManagedNHttpClientConnectionImpl.class);
@@ -102,6 +112,15 @@ public class ManagedNHttpClientConnectionFactory implements NHttpConnectionFacto
             charEncoder.onMalformedInput(malformedInputAction);
             charEncoder.onUnmappableCharacter(unmappableInputAction);
         }
+        final ByteBufferAllocator sessionAllocator;
+        if (this.allocator instanceof ByteBufferPool) {
+            final SessionBufferAllocator sessionBuffers = new SessionBufferAllocator(
+                    (ByteBufferPool) this.allocator);
+            ioSession.setAttribute(SESSION_BUFFERS, sessionBuffers);
+            sessionAllocator = sessionBuffers;
+        } else {
+            sessionAllocator = this.allocator;
+        }
         final ManagedNHttpClientConnection conn = new ManagedNHttpClientConnectionImpl(
                 id,
                 this.log,
@@ -110,7 +129,7 @@ public class ManagedNHttpClientConnectionFactory implements NHttpConnectionFacto
                 ioSession,
                 config.getBufferSize(),
                 config.getFragmentSizeHint(),
-                this.allocator,
+                sessionAllocator,
                 charDecoder,
                 charEncoder,
                 config.getMessageConstraints(),
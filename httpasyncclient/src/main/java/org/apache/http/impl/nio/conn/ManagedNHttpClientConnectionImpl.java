@@ -26,8 +26,11 @@
  */
 package org.apache.http.impl.nio.conn;
 
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.SSLSession;
 
@@ -38,24 +41,51 @@ import org.apache.http.HttpResponse;
 import org.apache.http.config.MessageConstraints;
 import org.apache.http.entity.ContentLengthStrategy;
 import org.apache.http.impl.nio.DefaultNHttpClientConnection;
+import org.apache.http.nio.NHttpClientEventHandler;
 import org.apache.http.nio.NHttpMessageParserFactory;
 import org.apache.http.nio.NHttpMessageWriterFactory;
 import org.apache.http.nio.conn.ManagedNHttpClientConnection;
+import org.apache.http.nio.conn.ssl.PooledSSLBufferManagementStrategy;
 import org.apache.http.nio.reactor.IOSession;
 import org.apache.http.nio.reactor.ssl.SSLIOSession;
 import org.apache.http.nio.util.ByteBufferAllocator;
+import org.apache.http.nio.util.ExpandableBuffer;
 import org.apache.http.util.Args;
 import org.apache.http.util.Asserts;
 
 class ManagedNHttpClientConnectionImpl
                     extends DefaultNHttpClientConnection implements ManagedNHttpClientConnection {
 
+    // httpcore exposes the backing buffer of session buffers to subclasses of
+    // ExpandableBuffer only. Releasing session buffers is disabled if the field
+    // cannot be accessed.
+    private static final Field BUFFER_FIELD = getBufferField();
+
+    private static Field getBufferField() {
+        try {
+            final Field field = ExpandableBuffer.class.getDeclaredField("buffer");
+            field.setAccessible(true);
+            return field;
+        } catch (final Exception ex) {
+            return null;
+        }
+    }
+
     private final Log headerLog;
     private final Log wireLog;
     private final Log log;
 
     private final String id;
+    private final int bufferSize;
+    private final SessionBufferAllocator sessionBuffers;
+    private final ReentrantLock bufferLock;
+    // Stand in for session buffers released to the pool. Owned by this
+    // connection and only accessed holding the buffer lock.
+    private final ByteBuffer inPlaceholder;
+    private final ByteBuffer outPlaceholder;
     private IOSession original;
+    private volatile boolean releaseRequested;
+    private volatile boolean buffersReleased;
 
     public ManagedNHttpClientConnectionImpl(
             final String id,
@@ -81,6 +111,12 @@ class ManagedNHttpClientConnectionImpl
         this.headerLog = headerLog;
         this.wireLog = wireLog;
         this.original = ioSession;
+        this.bufferSize = bufferSize;
+        this.sessionBuffers = allocator instanceof SessionBufferAllocator && BUFFER_FIELD != null ?
+                (SessionBufferAllocator) allocator : null;
+        this.bufferLock = new ReentrantLock();
+        this.inPlaceholder = ByteBuffer.allocate(0);
+        this.outPlaceholder = ByteBuffer.allocate(0);
         if (this.log.isDebugEnabled() || this.wireLog.isDebugEnabled()) {
             super.bind(new LoggingIOSession(ioSession, this.id, this.log, this.wireLog));
         }
@@ -117,6 +153,154 @@ class ManagedNHttpClientConnectionImpl
         return this.id;
     }
 
+    @Override
+    public void consumeInput(final NHttpClientEventHandler handler) {
+        if (this.sessionBuffers == null) {
+            super.consumeInput(handler);
+            return;
+        }
+        this.bufferLock.lock();
+        final boolean idle = this.buffersReleased;
+        try {
+            reclaimBuffers();
+            super.consumeInput(handler);
+        } finally {
+            try {
+                if (idle || this.releaseRequested) {
+                    doReleaseBuffers();
+                } else {
+                    releaseReplacedBuffers();
+                }
+            } finally {
+                this.bufferLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void produceOutput(final NHttpClientEventHandler handler) {
+        if (this.sessionBuffers == null) {
+            super.produceOutput(handler);
+            return;
+        }
+        this.bufferLock.lock();
+        final boolean idle = this.buffersReleased;
+        try {
+            reclaimBuffers();
+            super.produceOutput(handler);
+        } finally {
+            try {
+                if (idle || this.releaseRequested) {
+                    doReleaseBuffers();
+                } else {
+                    releaseReplacedBuffers();
+                }
+            } finally {
+                this.bufferLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns session buffers to the pool they have been allocated from,
+     * provided the connection holds no buffered data. TLS/SSL session buffers
+     * get returned if they hold no data. If the connection is processing
+     * an I/O event at the moment the buffers get returned once the event
+     * has been processed.
+     * <p>
+     * The buffers get reclaimed from the pool upon the next I/O event and
+     * returned again once the event has been processed, unless by then they
+     * hold buffered data or a message is being transferred.
+     */
+    void releaseBuffers() {
+        releaseSSLBuffers();
+        if (this.sessionBuffers == null || this.buffersReleased) {
+            return;
+        }
+        this.releaseRequested = true;
+        if (!this.bufferLock.isHeldByCurrentThread() && this.bufferLock.tryLock()) {
+            try {
+                doReleaseBuffers();
+            } finally {
+                this.bufferLock.unlock();
+            }
+        }
+    }
+
+    private void releaseSSLBuffers() {
+        final Object sslBuffers = this.original.getAttribute(PooledSSLBufferManagementStrategy.SESSION_BUFFERS);
+        if (sslBuffers instanceof PooledSSLBufferManagementStrategy.SessionBuffers) {
+            ((PooledSSLBufferManagementStrategy.SessionBuffers) sslBuffers).releaseEmpty();
+        }
+    }
+
+    private void doReleaseBuffers() {
+        this.releaseRequested = false;
+        if (this.buffersReleased || this.status != ACTIVE
+                || this.contentDecoder != null || this.contentEncoder != null
+                || this.inbuf.hasData() || this.outbuf.hasData()) {
+            return;
+        }
+        try {
+            BUFFER_FIELD.set(this.inbuf, this.inPlaceholder);
+            BUFFER_FIELD.set(this.outbuf, this.outPlaceholder);
+            this.buffersReleased = true;
+            this.sessionBuffers.releaseAll();
+        } catch (final IllegalAccessException ex) {
+            this.log.debug(this.id + " Unable to release session buffers", ex);
+            return;
+        }
+        releaseSSLBuffers();
+        if (this.log.isDebugEnabled()) {
+            this.log.debug(this.id + " Session buffers released");
+        }
+    }
+
+    /**
+     * Returns buffers superseded by expanded session buffers to the pool.
+     */
+    private void releaseReplacedBuffers() {
+        if (!this.sessionBuffers.hasReplaced()) {
+            return;
+        }
+        try {
+            this.sessionBuffers.releaseAllBut(
+                    (ByteBuffer) BUFFER_FIELD.get(this.inbuf),
+                    (ByteBuffer) BUFFER_FIELD.get(this.outbuf));
+        } catch (final IllegalAccessException ex) {
+            this.log.debug(this.id + " Unable to release replaced session buffers", ex);
+        }
+    }
+
+    private void reclaimBuffers() {
+        if (!this.buffersReleased) {
+            return;
+        }
+        this.buffersReleased = false;
+        try {
+            reclaimBuffer(this.inbuf, this.inPlaceholder);
+            reclaimBuffer(this.outbuf, this.outPlaceholder);
+        } catch (final IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+        if (this.log.isDebugEnabled()) {
+            this.log.debug(this.id + " Session buffers reclaimed");
+        }
+    }
+
+    private void reclaimBuffer(
+            final ExpandableBuffer expandableBuffer,
+            final ByteBuffer placeholder) throws IllegalAccessException {
+        // Switch to output mode, in which an empty buffer has no remaining content
+        expandableBuffer.hasData();
+        if (BUFFER_FIELD.get(expandableBuffer) == placeholder) {
+            final ByteBuffer buffer = this.sessionBuffers.allocate(this.bufferSize);
+            buffer.clear();
+            buffer.limit(0);
+            BUFFER_FIELD.set(expandableBuffer, buffer);
+        }
+    }
+
     @Override
     protected void onResponseReceived(final HttpResponse response) {
         if (response != null && this.headerLog.isDebugEnabled()) {
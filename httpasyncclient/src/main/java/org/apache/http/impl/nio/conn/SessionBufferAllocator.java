@@ -0,0 +1,100 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.http.nio.client.util.ByteBufferPool;
+import org.apache.http.nio.util.ByteBufferAllocator;
+
+/**
+ * Allocates session buffers of a single connection from a {@link ByteBufferPool}
+ * and keeps track of them so they can be returned to the pool while the
+ * connection is idle or once it has been closed. Buffers superseded by
+ * expanded ones are returned by the connection once the I/O event that
+ * expanded them has been processed.
+ */
+class SessionBufferAllocator implements ByteBufferAllocator, Closeable {
+
+    private final ByteBufferPool pool;
+    private final List<ByteBuffer> buffers;
+
+    SessionBufferAllocator(final ByteBufferPool pool) {
+        super();
+        this.pool = pool;
+        this.buffers = new ArrayList<ByteBuffer>(2);
+    }
+
+    @Override
+    public synchronized ByteBuffer allocate(final int size) {
+        final ByteBuffer buffer = this.pool.allocate(size);
+        this.buffers.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * Returns whether more buffers have been allocated than a connection
+     * has session buffers, that is whether some of them have been replaced
+     * by expanded buffers.
+     */
+    public synchronized boolean hasReplaced() {
+        return this.buffers.size() > 2;
+    }
+
+    /**
+     * Returns all buffers but the given current session buffers to the pool.
+     */
+    public synchronized void releaseAllBut(final ByteBuffer inbuffer, final ByteBuffer outbuffer) {
+        for (final Iterator<ByteBuffer> it = this.buffers.iterator(); it.hasNext(); ) {
+            final ByteBuffer buffer = it.next();
+            if (buffer != inbuffer && buffer != outbuffer) {
+                it.remove();
+                this.pool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Returns all buffers to the pool.
+     */
+    public synchronized void releaseAll() {
+        for (final ByteBuffer buffer : this.buffers) {
+            this.pool.release(buffer);
+        }
+        this.buffers.clear();
+    }
+
+    @Override
+    public void close() {
+        releaseAll();
+    }
+
+}
@@ -33,7 +33,9 @@ import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.nio.ContentDecoder;
 import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.util.ByteBufferPool;
 import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.util.Args;
 import org.apache.http.util.Asserts;
 
 /**
@@ -45,11 +47,32 @@ import org.apache.http.util.Asserts;
  */
 public abstract class AsyncByteConsumer<T> extends AbstractAsyncResponseConsumer<T> {
 
+    private final int bufSize;
+    private final ByteBufferPool bufferPool;
     private final ByteBuffer bbuf;
 
-    public AsyncByteConsumer(final int bufSize) {
+    /**
+     * Creates a consumer that leases its buffer from the given pool. The buffer
+     * is held only for the duration of a single
+     * {@link #onByteReceived(ByteBuffer, IOControl)} invocation and returned
+     * to the pool right after.
+     *
+     * @param bufSize buffer size.
+     * @param bufferPool buffer pool. If {@code null} the consumer allocates
+     *   a buffer of its own.
+     *
+     * @since 4.1.5
+     */
+    public AsyncByteConsumer(final int bufSize, final ByteBufferPool bufferPool) {
         super();
-        this.bbuf = ByteBuffer.allocate(bufSize);
+        Args.positive(bufSize, "Buffer size");
+        this.bufSize = bufSize;
+        this.bufferPool = bufferPool;
+        this.bbuf = bufferPool == null ? ByteBuffer.allocate(bufSize) : null;
+    }
+
+    public AsyncByteConsumer(final int bufSize) {
+        this(bufSize, null);
     }
 
     public AsyncByteConsumer() {
@@ -76,14 +99,29 @@ public abstract class AsyncByteConsumer<T> extends AbstractAsyncResponseConsumer
     @Override
     protected final void onContentReceived(
             final ContentDecoder decoder, final IOControl ioControl) throws IOException {
-        Asserts.notNull(this.bbuf, "Byte buffer");
-        final int bytesRead = decoder.read(this.bbuf);
+        if (this.bufferPool != null) {
+            final ByteBuffer buf = this.bufferPool.allocate(this.bufSize);
+            try {
+                consume(buf, decoder, ioControl);
+            } finally {
+                this.bufferPool.release(buf);
+            }
+        } else {
+            Asserts.notNull(this.bbuf, "Byte buffer");
+            consume(this.bbuf, decoder, ioControl);
+        }
+    }
+
+    private void consume(
+            final ByteBuffer buf,
+            final ContentDecoder decoder, final IOControl ioControl) throws IOException {
+        final int bytesRead = decoder.read(buf);
         if (bytesRead <= 0) {
             return;
         }
-        this.bbuf.flip();
-        onByteReceived(this.bbuf, ioControl);
-        this.bbuf.clear();
+        buf.flip();
+        onByteReceived(buf, ioControl);
+        buf.clear();
     }
 
     @Override
@@ -37,8 +37,10 @@ import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.nio.ContentDecoder;
 import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.util.ByteBufferPool;
 import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
 import org.apache.http.protocol.HTTP;
+import org.apache.http.util.Args;
 import org.apache.http.util.Asserts;
 
 /**
@@ -50,17 +52,39 @@ import org.apache.http.util.Asserts;
  */
 public abstract class AsyncCharConsumer<T> extends AbstractAsyncResponseConsumer<T> {
 
+    private final int bufSize;
+    private final ByteBufferPool bufferPool;
     private final ByteBuffer bbuf;
     private final CharBuffer cbuf;
 
     private CharsetDecoder charDecoder;
+    private ByteBuffer remainder;
 
-    public AsyncCharConsumer(final int bufSize) {
+    /**
+     * Creates a consumer that leases its byte buffer from the given pool.
+     * The buffer is held only for the duration of a single content event.
+     * Trailing bytes of an incomplete character are carried over to the next
+     * content event in a small buffer of the consumer's own.
+     *
+     * @param bufSize buffer size.
+     * @param bufferPool buffer pool. If {@code null} the consumer allocates
+     *   a byte buffer of its own.
+     *
+     * @since 4.1.5
+     */
+    public AsyncCharConsumer(final int bufSize, final ByteBufferPool bufferPool) {
         super();
-        this.bbuf = ByteBuffer.allocate(bufSize);
+        Args.positive(bufSize, "Buffer size");
+        this.bufSize = bufSize;
+        this.bufferPool = bufferPool;
+        this.bbuf = bufferPool == null ? ByteBuffer.allocate(bufSize) : null;
         this.cbuf = CharBuffer.allocate(bufSize);
     }
 
+    public AsyncCharConsumer(final int bufSize) {
+        this(bufSize, null);
+    }
+
     public AsyncCharConsumer() {
         this(8 * 1024);
     }
@@ -104,17 +128,47 @@ public abstract class AsyncCharConsumer<T> extends AbstractAsyncResponseConsumer
     @Override
     protected final void onContentReceived(
             final ContentDecoder decoder, final IOControl ioControl) throws IOException {
-        Asserts.notNull(this.bbuf, "Byte buffer");
+        if (this.bufferPool != null) {
+            final ByteBuffer buf = this.bufferPool.allocate(this.bufSize);
+            try {
+                if (this.remainder != null) {
+                    buf.put(this.remainder);
+                    this.remainder.rewind();
+                }
+                final int bytesRead = decoder.read(buf);
+                if (bytesRead <= 0) {
+                    return;
+                }
+                this.remainder = null;
+                buf.flip();
+                decode(buf, decoder.isCompleted(), ioControl);
+                if (buf.hasRemaining()) {
+                    this.remainder = ByteBuffer.allocate(buf.remaining());
+                    this.remainder.put(buf);
+                    this.remainder.flip();
+                }
+            } finally {
+                this.bufferPool.release(buf);
+            }
+        } else {
+            Asserts.notNull(this.bbuf, "Byte buffer");
 
-        final int bytesRead = decoder.read(this.bbuf);
-        if (bytesRead <= 0) {
-            return;
+            final int bytesRead = decoder.read(this.bbuf);
+            if (bytesRead <= 0) {
+                return;
+            }
+            this.bbuf.flip();
+            decode(this.bbuf, decoder.isCompleted(), ioControl);
+            this.bbuf.compact();
         }
-        this.bbuf.flip();
-        final boolean completed = decoder.isCompleted();
-        CoderResult result = this.charDecoder.decode(this.bbuf, this.cbuf, completed);
+    }
+
+    private void decode(
+            final ByteBuffer buf,
+            final boolean completed,
+            final IOControl ioControl) throws IOException {
+        CoderResult result = this.charDecoder.decode(buf, this.cbuf, completed);
         handleDecodingResult(result, ioControl);
-        this.bbuf.compact();
         if (completed) {
             result = this.charDecoder.flush(this.cbuf);
             handleDecodingResult(result, ioControl);
@@ -135,6 +189,7 @@ public abstract class AsyncCharConsumer<T> extends AbstractAsyncResponseConsumer
 
     @Override
     protected void releaseResources() {
+        this.remainder = null;
     }
 
 }
@@ -0,0 +1,228 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.MessageConstraintException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.util.Args;
+
+/**
+ * {@link org.apache.http.nio.protocol.HttpAsyncResponseConsumer} implementation that
+ * splits content into lines or, more generally, records terminated by a delimiter byte.
+ * <p>
+ * Content is split without being decoded. Lines are handed to
+ * {@link #onLineReceived(ByteBuffer, IOControl)} as slices of the buffer content has
+ * been read into, so complete lines are never copied. Only the beginning of a line
+ * that continues in the next chunk of content is moved to the front of the buffer.
+ * The buffer grows as necessary to hold lines longer than its initial size.
+ * If content is UTF-8 or ASCII encoded lines can be decoded with
+ * {@link #decodeLine(ByteBuffer)}.
+ * <p>
+ * Line delimiters are not passed on. If lines are delimited by {@code LF}
+ * a preceding {@code CR} is removed as well. Trailing content not terminated
+ * by a delimiter is passed on as the last line. Subclasses in this package
+ * can also have lines terminated by a lone {@code CR}, in which case
+ * {@code CR}, {@code LF} and {@code CRLF} are all recognized as line endings.
+ * <p>
+ * All content available is consumed in a single content event. A request
+ * to suspend input takes effect once the event has been processed.
+ *
+ * @param <T> the result type.
+ *
+ * @since 4.1.5
+ */
+public abstract class AsyncLineConsumer<T> extends AbstractAsyncResponseConsumer<T> {
+
+    private final byte delimiter;
+    private final int maxLineLength;
+    private final boolean crDelimits;
+
+    private ByteBuffer buf;
+    private ByteBuffer view;
+    private int scanned;
+    private boolean skipLF;
+
+    /**
+     * Creates a consumer.
+     *
+     * @param delimiter line delimiter.
+     * @param bufSize initial buffer size.
+     * @param maxLineLength maximum line length. Zero or negative value
+     *   means no limit.
+     */
+    public AsyncLineConsumer(final byte delimiter, final int bufSize, final int maxLineLength) {
+        this(delimiter, bufSize, maxLineLength, false);
+    }
+
+    /**
+     * Creates a consumer of lines terminated by {@code CR}, {@code LF}
+     * or {@code CRLF}.
+     */
+    AsyncLineConsumer(final int bufSize, final int maxLineLength, final boolean crDelimits) {
+        this((byte) '\n', bufSize, maxLineLength, crDelimits);
+    }
+
+    private AsyncLineConsumer(
+            final byte delimiter, final int bufSize, final int maxLineLength, final boolean crDelimits) {
+        super();
+        Args.positive(bufSize, "Buffer size");
+        this.delimiter = delimiter;
+        this.maxLineLength = maxLineLength;
+        this.crDelimits = crDelimits;
+        this.buf = ByteBuffer.allocate(bufSize);
+        this.view = ByteBuffer.wrap(this.buf.array());
+    }
+
+    public AsyncLineConsumer(final int bufSize, final int maxLineLength) {
+        this((byte) '\n', bufSize, maxLineLength);
+    }
+
+    public AsyncLineConsumer() {
+        this(8 * 1024, -1);
+    }
+
+    /**
+     * Invoked to process a line of content.
+     * The {@link IOControl} interface can be used to suspend input events
+     * if the consumer is temporarily unable to consume more content.
+     *
+     * @param line buffer whose remaining content is the line without delimiter.
+     *   The buffer is only valid for the duration of the call and must not
+     *   be modified or retained.
+     * @param ioControl I/O control of the underlying connection.
+     * @throws IOException in case of an I/O error
+     */
+    protected abstract void onLineReceived(
+            ByteBuffer line, IOControl ioControl) throws IOException;
+
+    /**
+     * Decodes a line of UTF-8 encoded content.
+     *
+     * @param line line as passed to {@link #onLineReceived(ByteBuffer, IOControl)}.
+     * @return decoded line.
+     * @throws CharacterCodingException if the line is not valid UTF-8.
+     */
+    protected String decodeLine(final ByteBuffer line) throws CharacterCodingException {
+        return Utf8Decoder.decode(line);
+    }
+
+    @Override
+    protected final void onEntityEnclosed(
+            final HttpEntity entity, final ContentType contentType) throws IOException {
+    }
+
+    private void expand() throws IOException {
+        final int capacity = this.buf.capacity();
+        if (this.maxLineLength > 0 && capacity > this.maxLineLength) {
+            throw new MessageConstraintException("Maximum line length limit exceeded");
+        }
+        final ByteBuffer newbuf = ByteBuffer.allocate(
+                capacity <= Integer.MAX_VALUE >> 1 ? capacity << 1 : Integer.MAX_VALUE);
+        this.buf.flip();
+        newbuf.put(this.buf);
+        this.buf = newbuf;
+        this.view = ByteBuffer.wrap(newbuf.array());
+    }
+
+    private void emit(final int start, final int end, final IOControl ioControl) throws IOException {
+        int len = end - start;
+        if (this.delimiter == '\n' && len > 0 && this.buf.array()[end - 1] == '\r') {
+            len--;
+        }
+        if (this.maxLineLength > 0 && len > this.maxLineLength) {
+            throw new MessageConstraintException("Maximum line length limit exceeded");
+        }
+        this.view.clear();
+        this.view.position(start);
+        this.view.limit(start + len);
+        onLineReceived(this.view, ioControl);
+    }
+
+    @Override
+    protected final void onContentReceived(
+            final ContentDecoder decoder, final IOControl ioControl) throws IOException {
+        for (;;) {
+            if (!this.buf.hasRemaining()) {
+                expand();
+            }
+            final int bytesRead = decoder.read(this.buf);
+            final boolean completed = decoder.isCompleted();
+            if (bytesRead <= 0 && !completed) {
+                return;
+            }
+            final byte[] b = this.buf.array();
+            final int limit = this.buf.position();
+            int start = 0;
+            for (int i = this.scanned; i < limit; i++) {
+                if (this.crDelimits) {
+                    if (b[i] == '\r') {
+                        emit(start, i, ioControl);
+                        start = i + 1;
+                        this.skipLF = true;
+                        continue;
+                    }
+                    if (this.skipLF) {
+                        // LF completing a CRLF, possibly in the next chunk
+                        this.skipLF = false;
+                        if (b[i] == '\n') {
+                            start = i + 1;
+                            continue;
+                        }
+                    }
+                }
+                if (b[i] == this.delimiter) {
+                    emit(start, i, ioControl);
+                    start = i + 1;
+                }
+            }
+            if (completed && start < limit) {
+                emit(start, limit, ioControl);
+                start = limit;
+            }
+            this.buf.flip();
+            this.buf.position(start);
+            this.buf.compact();
+            this.scanned = this.buf.position();
+            if (completed) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected void releaseResources() {
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.MalformedInputException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.util.Args;
+
+/**
+ * {@link org.apache.http.nio.protocol.HttpAsyncResponseConsumer} implementation that
+ * decodes textual content as UTF-8.
+ * <p>
+ * Unlike {@link AsyncCharConsumer} this consumer does not go through
+ * a {@link java.nio.charset.CharsetDecoder}. Content is decoded straight from
+ * the byte buffer into the char buffer with a fast path for runs of ASCII
+ * characters, which makes it well suited for JSON, NDJSON or CSV feeds.
+ * The charset declared by the response is ignored. Malformed input results
+ * in a {@link java.nio.charset.CharacterCodingException}.
+ * <p>
+ * All content available is consumed in a single content event. A request
+ * to suspend input takes effect once the event has been processed.
+ *
+ * @param <T> the result type.
+ *
+ * @since 4.1.5
+ */
+public abstract class AsyncUtf8Consumer<T> extends AbstractAsyncResponseConsumer<T> {
+
+    private final ByteBuffer bbuf;
+    private final CharBuffer cbuf;
+
+    /**
+     * Creates a consumer.
+     *
+     * @param bufSize buffer size. Must be at least {@code 4} in order to be
+     *   able to hold any UTF-8 byte sequence.
+     */
+    public AsyncUtf8Consumer(final int bufSize) {
+        super();
+        Args.check(bufSize >= 4, "Buffer size may not be less than 4");
+        this.bbuf = ByteBuffer.allocate(bufSize);
+        this.cbuf = CharBuffer.allocate(bufSize);
+    }
+
+    public AsyncUtf8Consumer() {
+        this(8 * 1024);
+    }
+
+    /**
+     * Invoked to process a {@link CharBuffer chunk} of content.
+     * The {@link IOControl} interface can be used to suspend input events
+     * if the consumer is temporarily unable to consume more content.
+     *
+     * @param buf chunk of content.
+     * @param ioControl I/O control of the underlying connection.
+     * @throws IOException in case of an I/O error
+     */
+    protected abstract void onCharReceived(
+            CharBuffer buf, IOControl ioControl) throws IOException;
+
+    @Override
+    protected final void onEntityEnclosed(
+            final HttpEntity entity, final ContentType contentType) throws IOException {
+    }
+
+    @Override
+    protected final void onContentReceived(
+            final ContentDecoder decoder, final IOControl ioControl) throws IOException {
+        for (;;) {
+            final int bytesRead = decoder.read(this.bbuf);
+            final boolean completed = decoder.isCompleted();
+            if (bytesRead <= 0 && !completed) {
+                return;
+            }
+            this.bbuf.flip();
+            // a char buffer the size of the byte buffer can always take
+            // all complete byte sequences
+            Utf8Decoder.decode(this.bbuf, this.cbuf);
+            this.cbuf.flip();
+            if (this.cbuf.hasRemaining()) {
+                onCharReceived(this.cbuf, ioControl);
+            }
+            this.cbuf.clear();
+            if (completed && this.bbuf.hasRemaining()) {
+                throw new MalformedInputException(this.bbuf.remaining());
+            }
+            this.bbuf.compact();
+            if (completed) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected void releaseResources() {
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+/**
+ * Minimal Base64 (RFC 4648) encoding routines for digest values carried
+ * by {@code Digest} and {@code Content-MD5} headers, which spares
+ * a dependency on a codec library.
+ */
+final class Base64Codec {
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private static final int[] VALUES = new int[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64Codec() {
+    }
+
+    /**
+     * Encodes the given bytes with padding.
+     */
+    static String encode(final byte[] data) {
+        final StringBuilder buffer = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            final int remaining = data.length - i;
+            final int b0 = data[i] & 0xff;
+            final int b1 = remaining > 1 ? data[i + 1] & 0xff : 0;
+            final int b2 = remaining > 2 ? data[i + 2] & 0xff : 0;
+            buffer.append(ALPHABET[b0 >>> 2]);
+            buffer.append(ALPHABET[((b0 & 0x03) << 4) | (b1 >>> 4)]);
+            buffer.append(remaining > 1 ? ALPHABET[((b1 & 0x0f) << 2) | (b2 >>> 6)] : '=');
+            buffer.append(remaining > 2 ? ALPHABET[b2 & 0x3f] : '=');
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Decodes the given Base64 text. Whitespace is ignored and padding
+     * is optional.
+     *
+     * @return decoded bytes or {@code null} if the text is not valid Base64.
+     */
+    static byte[] decode(final String text) {
+        final byte[] tmp = new byte[text.length() * 3 / 4 + 3];
+        int len = 0;
+        int bits = 0;
+        int count = 0;
+        int padding = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char ch = text.charAt(i);
+            if (ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n') {
+                continue;
+            }
+            if (ch == '=') {
+                padding++;
+                continue;
+            }
+            final int value = ch < VALUES.length ? VALUES[ch] : -1;
+            if (value < 0 || padding > 0) {
+                return null;
+            }
+            bits = (bits << 6) | value;
+            count++;
+            if (count == 4) {
+                tmp[len++] = (byte) (bits >> 16);
+                tmp[len++] = (byte) (bits >> 8);
+                tmp[len++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 1 || padding > 2) {
+            return null;
+        }
+        if (count == 2) {
+            tmp[len++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            tmp[len++] = (byte) (bits >> 10);
+            tmp[len++] = (byte) (bits >> 2);
+        }
+        final byte[] result = new byte[len];
+        System.arraycopy(tmp, 0, result, 0, len);
+        return result;
+    }
+
+}
@@ -45,6 +45,7 @@ import org.apache.http.nio.ContentEncoder;
 import org.apache.http.nio.ContentEncoderChannel;
 import org.apache.http.nio.FileContentEncoder;
 import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.util.ByteBufferPool;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.Args;
@@ -55,13 +56,21 @@ abstract class BaseZeroCopyRequestProducer implements HttpAsyncRequestProducer {
     private final File file;
     private final RandomAccessFile accessfile;
     private final ContentType contentType;
+    private final RecordTransferBuffer recordBuffer;
 
     private FileChannel fileChannel;
     private long idx = -1;
 
+    /**
+     * @param bufferPool pool of buffers used to transfer content over TLS sessions.
+     *   If {@code null} the producer allocates a buffer of its own when needed.
+     *
+     * @since 4.1.5
+     */
     protected BaseZeroCopyRequestProducer(
             final URI requestURI,
-            final File file, final ContentType contentType) throws FileNotFoundException {
+            final File file, final ContentType contentType,
+            final ByteBufferPool bufferPool) throws FileNotFoundException {
         super();
         Args.notNull(requestURI, "Request URI");
         Args.notNull(file, "Source file");
@@ -69,9 +78,17 @@ abstract class BaseZeroCopyRequestProducer implements HttpAsyncRequestProducer {
         this.file = file;
         this.accessfile = new RandomAccessFile(file, "r");
         this.contentType = contentType;
+        this.recordBuffer = new RecordTransferBuffer(bufferPool);
+    }
+
+    protected BaseZeroCopyRequestProducer(
+            final URI requestURI,
+            final File file, final ContentType contentType) throws FileNotFoundException {
+        this(requestURI, file, contentType, null);
     }
 
     private void closeChannel() throws IOException {
+        this.recordBuffer.release();
         if (this.fileChannel != null) {
             this.fileChannel.close();
             this.fileChannel = null;
@@ -104,7 +121,10 @@ abstract class BaseZeroCopyRequestProducer implements HttpAsyncRequestProducer {
             this.idx = 0;
         }
         final long transferred;
-        if (encoder instanceof FileContentEncoder) {
+        if (RecordTransferBuffer.isSecure(ioControl)) {
+            transferred = this.recordBuffer.write(
+                    this.fileChannel, this.idx, this.fileChannel.size() - this.idx, encoder);
+        } else if (encoder instanceof FileContentEncoder) {
             transferred = ((FileContentEncoder)encoder).transfer(
                     this.fileChannel, this.idx, Integer.MAX_VALUE);
         } else {
@@ -141,6 +161,7 @@ abstract class BaseZeroCopyRequestProducer implements HttpAsyncRequestProducer {
 
     @Override
     public synchronized void close() throws IOException {
+        this.recordBuffer.release();
         try {
             this.accessfile.close();
         } catch (final IOException ignore) {
@@ -0,0 +1,126 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.util.Args;
+
+/**
+ * {@link HttpAsyncResponseConsumer} decorator that computes a checksum
+ * of response content as it is being consumed, which spares a second pass
+ * over the content in order to verify its integrity.
+ * <p>
+ * Any {@link Checksum} implementation can be used, such as
+ * {@link java.util.zip.CRC32} or a CRC32C implementation.
+ * Content is checksummed the same way as by {@link DigestingConsumer}.
+ * If the checksum does not match the expected value the decorated consumer
+ * is failed with an {@link IOException} before it gets to build its result.
+ *
+ * @param <T> the result type of the decorated consumer.
+ *
+ * @since 4.1.5
+ */
+public class ChecksumConsumer<T> extends HashingConsumer<T> {
+
+    private final Checksum checksum;
+    private final long expected;
+
+    private byte[] tmp;
+    private volatile long value;
+
+    /**
+     * Creates a consumer that verifies the checksum against the given value.
+     *
+     * @param consumer consumer to decorate.
+     * @param checksum checksum to update with response content.
+     * @param expected expected checksum value or {@code -1} if the checksum
+     *   is not to be verified.
+     */
+    public ChecksumConsumer(
+            final HttpAsyncResponseConsumer<T> consumer,
+            final Checksum checksum,
+            final long expected) {
+        super(consumer);
+        Args.notNull(checksum, "Checksum");
+        this.checksum = checksum;
+        this.expected = expected;
+        this.value = -1;
+    }
+
+    /**
+     * Creates a consumer that computes the checksum without verifying it.
+     *
+     * @param consumer consumer to decorate.
+     * @param checksum checksum to update with response content.
+     */
+    public ChecksumConsumer(
+            final HttpAsyncResponseConsumer<T> consumer,
+            final Checksum checksum) {
+        this(consumer, checksum, -1);
+    }
+
+    @Override
+    void update(final ByteBuffer src) {
+        if (src.hasArray()) {
+            this.checksum.update(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+        } else {
+            if (this.tmp == null) {
+                this.tmp = new byte[4 * 1024];
+            }
+            while (src.hasRemaining()) {
+                final int len = Math.min(src.remaining(), this.tmp.length);
+                src.get(this.tmp, 0, len);
+                this.checksum.update(this.tmp, 0, len);
+            }
+        }
+    }
+
+    @Override
+    void verify(final HttpResponse response) throws IOException {
+        this.value = this.checksum.getValue();
+        if (this.expected != -1 && this.expected != this.value) {
+            throw new IOException("Checksum mismatch (expected: "
+                    + Long.toHexString(this.expected) + "; actual: "
+                    + Long.toHexString(this.value) + ")");
+        }
+    }
+
+    /**
+     * Returns the checksum of response content or {@code -1} if
+     * the response has not been completed yet.
+     */
+    public long getValue() {
+        return this.value;
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpResponse;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.util.Args;
+
+/**
+ * {@link HttpAsyncResponseConsumer} decorator that computes a message digest
+ * of response content as it is being consumed, which spares a second pass
+ * over the content in order to verify its integrity.
+ * <p>
+ * Content read through the content decoder is digested as it passes through.
+ * Content transferred directly to a file, for instance by {@link ZeroCopyConsumer},
+ * is digested by reading back the region just written while it is still
+ * in the page cache.
+ * <p>
+ * Once all content has been received the digest is checked against
+ * the expected value, if given, or otherwise against a value of the same
+ * algorithm given by the {@code Digest} response header (RFC 3230) or,
+ * for MD5 digests, the {@code Content-MD5} header. If the digest does not
+ * match the decorated consumer is failed with an {@link IOException} before
+ * it gets to build its result.
+ *
+ * @param <T> the result type of the decorated consumer.
+ *
+ * @since 4.1.5
+ */
+public class DigestingConsumer<T> extends HashingConsumer<T> {
+
+    private final MessageDigest digest;
+    private final byte[] expected;
+
+    private volatile byte[] value;
+
+    /**
+     * Creates a consumer that verifies the digest against the given value.
+     *
+     * @param consumer consumer to decorate.
+     * @param digest message digest to update with response content.
+     * @param expected expected digest or {@code null} if the digest is to be
+     *   verified against response headers.
+     */
+    public DigestingConsumer(
+            final HttpAsyncResponseConsumer<T> consumer,
+            final MessageDigest digest,
+            final byte[] expected) {
+        super(consumer);
+        Args.notNull(digest, "Message digest");
+        this.digest = digest;
+        this.expected = expected != null ? expected.clone() : null;
+    }
+
+    /**
+     * Creates a consumer that verifies the digest against response headers
+     * if present.
+     *
+     * @param consumer consumer to decorate.
+     * @param digest message digest to update with response content.
+     */
+    public DigestingConsumer(
+            final HttpAsyncResponseConsumer<T> consumer,
+            final MessageDigest digest) {
+        this(consumer, digest, null);
+    }
+
+    @Override
+    void update(final ByteBuffer src) {
+        this.digest.update(src);
+    }
+
+    @Override
+    void verify(final HttpResponse response) throws IOException {
+        this.value = this.digest.digest();
+        final byte[] expectedValue = this.expected != null ? this.expected : getExpected(response);
+        if (expectedValue != null && !Arrays.equals(expectedValue, this.value)) {
+            throw new IOException(this.digest.getAlgorithm() + " digest mismatch (expected: "
+                    + Base64Codec.encode(expectedValue) + "; actual: "
+                    + Base64Codec.encode(this.value) + ")");
+        }
+    }
+
+    /**
+     * Returns the digest of response content or {@code null} if
+     * the response has not been completed yet.
+     */
+    public byte[] getDigest() {
+        final byte[] local = this.value;
+        return local != null ? local.clone() : null;
+    }
+
+    private byte[] getExpected(final HttpResponse response) throws IOException {
+        if (response == null) {
+            return null;
+        }
+        final String algorithm = getDigestAlgorithm(this.digest.getAlgorithm());
+        final Header[] headers = response.getHeaders("Digest");
+        for (final Header header: headers) {
+            for (final HeaderElement element: header.getElements()) {
+                if (algorithm.equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    return decode(element.getValue());
+                }
+            }
+        }
+        if (algorithm.equals("MD5")) {
+            final Header header = response.getFirstHeader("Content-MD5");
+            if (header != null) {
+                return decode(header.getValue());
+            }
+        }
+        return null;
+    }
+
+    private byte[] decode(final String value) throws IOException {
+        final byte[] decoded = Base64Codec.decode(value);
+        if (decoded == null) {
+            throw new IOException("Malformed " + this.digest.getAlgorithm() + " digest: " + value);
+        }
+        return decoded;
+    }
+
+    /**
+     * Maps a {@link MessageDigest} algorithm name to the corresponding
+     * {@code Digest} header algorithm token.
+     */
+    static String getDigestAlgorithm(final String name) {
+        final String algorithm = name.toUpperCase(Locale.ROOT);
+        if (algorithm.equals("SHA-1") || algorithm.equals("SHA1")) {
+            return "SHA";
+        }
+        return algorithm;
+    }
+
+}
@@ -0,0 +1,273 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.CharacterCodingException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpHeaders;
+import org.apache.http.MessageConstraintException;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.util.Args;
+import org.apache.http.util.Asserts;
+
+/**
+ * Subscribes to a {@code text/event-stream} feed reconnecting whenever
+ * the connection is lost.
+ * <p>
+ * Events are parsed by a {@link ServerSentEventConsumer} and delivered to the
+ * listener as they arrive. Once the response ends or fails with an I/O error
+ * the feed is requested again after the reconnection time, which defaults
+ * to the given value and can be changed by the server with the {@code retry}
+ * field. The ID of the last event received is sent with {@code Last-Event-ID}
+ * so the server can resume the feed where it left off.
+ * <p>
+ * The feed holds on to a single connection of the client's pool for as long as
+ * it is open, so the pool must allow for one connection per feed and route
+ * in addition to those used for regular requests.
+ * <p>
+ * The feed ends when the server responds with status {@code 204}, when it
+ * responds with an unexpected status or content type, when it sends malformed
+ * or oversized content, or when the event source is closed.
+ *
+ * @since 4.1.5
+ */
+public class EventSource implements Closeable {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final HttpAsyncClient client;
+    private final URI uri;
+    private final ServerSentEventListener listener;
+    private final ScheduledExecutorService scheduler;
+    private final int maxEventSize;
+
+    private BasicFuture<String> resultFuture;
+    private Future<?> pending;
+    private ServerSentEventConsumer consumer;
+    private String lastEventId;
+    private long retry;
+    private boolean closed;
+
+    /**
+     * Creates an event source.
+     *
+     * @param client HTTP client.
+     * @param uri URI of the feed.
+     * @param listener event listener.
+     * @param scheduler scheduler used to delay reconnection.
+     * @param retry initial reconnection time in milliseconds.
+     * @param maxEventSize maximum size of event data and of field lines.
+     */
+    public EventSource(
+            final HttpAsyncClient client,
+            final URI uri,
+            final ServerSentEventListener listener,
+            final ScheduledExecutorService scheduler,
+            final long retry,
+            final int maxEventSize) {
+        super();
+        Args.notNull(client, "HTTP client");
+        Args.notNull(uri, "URI");
+        Args.notNull(listener, "Event listener");
+        Args.notNull(scheduler, "Scheduler");
+        Args.notNegative(retry, "Reconnection time");
+        Args.positive(maxEventSize, "Max event size");
+        this.client = client;
+        this.uri = uri;
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.retry = retry;
+        this.maxEventSize = maxEventSize;
+    }
+
+    public EventSource(
+            final HttpAsyncClient client,
+            final URI uri,
+            final ServerSentEventListener listener,
+            final ScheduledExecutorService scheduler) {
+        this(client, uri, listener, scheduler, 3000, 1024 * 1024);
+    }
+
+    /**
+     * Opens the feed.
+     *
+     * @param lastEventId ID of the last event received in a previous
+     *   session or {@code null}.
+     * @param callback future callback.
+     * @return future completed with the ID of the last event received
+     *   once the feed has ended.
+     */
+    public synchronized Future<String> open(final String lastEventId, final FutureCallback<String> callback) {
+        Asserts.check(this.resultFuture == null, "Event source already opened");
+        this.resultFuture = new BasicFuture<String>(callback);
+        this.lastEventId = lastEventId;
+        connect();
+        return this.resultFuture;
+    }
+
+    /**
+     * Returns the ID of the last event received or {@code null}.
+     */
+    public synchronized String getLastEventId() {
+        return this.consumer != null ? this.consumer.getLastEventId() : this.lastEventId;
+    }
+
+    private synchronized void connect() {
+        if (this.closed) {
+            return;
+        }
+        final HttpGet httpget = new HttpGet(this.uri);
+        httpget.addHeader(HttpHeaders.ACCEPT, ServerSentEventConsumer.TEXT_EVENT_STREAM);
+        httpget.addHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        if (this.lastEventId != null) {
+            httpget.addHeader("Last-Event-ID", this.lastEventId);
+        }
+        this.consumer = new ServerSentEventConsumer(this.listener, this.lastEventId, this.maxEventSize);
+        this.pending = this.client.execute(
+                HttpAsyncMethods.create(httpget), this.consumer, new Callback(this.consumer));
+    }
+
+    private synchronized void reconnect(final ServerSentEventConsumer consumer, final Exception cause) {
+        this.lastEventId = consumer.getLastEventId();
+        if (consumer.getRetry() >= 0) {
+            this.retry = consumer.getRetry();
+        }
+        if (this.closed) {
+            return;
+        }
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("Event stream " + this.uri + (cause != null ? " failed: " + cause.getMessage() : " ended")
+                    + "; reconnecting in " + this.retry + " ms");
+        }
+        try {
+            this.pending = this.scheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    connect();
+                }
+
+            }, this.retry, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException ex) {
+            this.closed = true;
+            this.resultFuture.failed(ex);
+        }
+    }
+
+    private void end(final ServerSentEventConsumer consumer, final Exception cause) {
+        final String id;
+        synchronized (this) {
+            this.closed = true;
+            this.pending = null;
+            id = consumer.getLastEventId();
+            this.lastEventId = id;
+        }
+        if (cause != null) {
+            this.resultFuture.failed(cause);
+        } else {
+            this.resultFuture.completed(id);
+        }
+    }
+
+    /**
+     * Closes the feed. The future returned by
+     * {@link #open(String, FutureCallback)} is completed with the ID
+     * of the last event received.
+     */
+    @Override
+    public void close() throws IOException {
+        final Future<?> future;
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            future = this.pending;
+            this.pending = null;
+        }
+        if (future != null) {
+            future.cancel(true);
+        }
+        if (this.resultFuture != null) {
+            this.resultFuture.completed(getLastEventId());
+        }
+    }
+
+    static boolean isRecoverable(final Exception ex) {
+        return ex instanceof IOException
+                && !(ex instanceof ClientProtocolException)
+                && !(ex instanceof MessageConstraintException)
+                && !(ex instanceof CharacterCodingException);
+    }
+
+    class Callback implements FutureCallback<String> {
+
+        private final ServerSentEventConsumer consumer;
+
+        Callback(final ServerSentEventConsumer consumer) {
+            super();
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void completed(final String result) {
+            if (this.consumer.isTerminated()) {
+                end(this.consumer, null);
+            } else {
+                reconnect(this.consumer, null);
+            }
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            if (isRecoverable(ex)) {
+                reconnect(this.consumer, ex);
+            } else {
+                end(this.consumer, ex);
+            }
+        }
+
+        @Override
+        public void cancelled() {
+        }
+
+    }
+
+}
@@ -0,0 +1,298 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.util.ByteBufferPool;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.Args;
+
+/**
+ * {@link org.apache.http.nio.protocol.HttpAsyncResponseConsumer} implementation that
+ * hands chunks of content over to worker threads of an {@link Executor} for processing,
+ * keeping the I/O dispatch thread free of any potentially blocking work.
+ * <p>
+ * Content is read into a bounded number of buffers. Filled buffers are processed
+ * by {@link #onByteReceived(ByteBuffer)} in the order content has been received,
+ * one at a time, and returned once processed. Whenever all buffers are in use
+ * input on the connection is suspended until a worker has processed a buffer,
+ * so a slow consumer holds back its own connection only.
+ * <p>
+ * As processing of content can lag behind its reception, the result of the consumer
+ * is a {@link Future} that gets completed with the result of {@link #process()} once all
+ * content has been processed.
+ *
+ * @param <T> the result type of content processing.
+ *
+ * @since 4.1.5
+ */
+public abstract class HandoffConsumer<T> extends AbstractAsyncResponseConsumer<Future<T>> {
+
+    private final Executor executor;
+    private final int bufSize;
+    private final int maxBuffers;
+    private final ByteBufferPool bufferPool;
+    private final BasicFuture<T> resultFuture;
+    private final LinkedList<ByteBuffer> pending;
+    private final Runnable worker;
+
+    private int leased;
+    private boolean running;
+    private boolean endOfContent;
+    private boolean aborted;
+    private Exception failure;
+    private IOControl ioControl;
+    private boolean suspended;
+
+    /**
+     * Creates a consumer.
+     *
+     * @param executor executor to process content with.
+     * @param bufSize buffer size.
+     * @param maxBuffers maximum number of buffers holding content not processed yet.
+     * @param bufferPool buffer pool. If {@code null} the consumer allocates
+     *   buffers of its own.
+     * @param callback callback notified once content processing completes.
+     *   May be {@code null}.
+     */
+    public HandoffConsumer(
+            final Executor executor,
+            final int bufSize,
+            final int maxBuffers,
+            final ByteBufferPool bufferPool,
+            final FutureCallback<T> callback) {
+        super();
+        Args.notNull(executor, "Executor");
+        Args.positive(bufSize, "Buffer size");
+        Args.positive(maxBuffers, "Max buffers");
+        this.executor = executor;
+        this.bufSize = bufSize;
+        this.maxBuffers = maxBuffers;
+        this.bufferPool = bufferPool;
+        this.resultFuture = new BasicFuture<T>(callback);
+        this.pending = new LinkedList<ByteBuffer>();
+        this.worker = new Runnable() {
+
+            @Override
+            public void run() {
+                drain();
+            }
+
+        };
+    }
+
+    public HandoffConsumer(final Executor executor) {
+        this(executor, 8 * 1024, 16, null, null);
+    }
+
+    /**
+     * Invoked by a worker thread to process a chunk of content.
+     *
+     * @param buf chunk of content. Must not be retained once this method returns.
+     * @throws IOException in case of an I/O error
+     */
+    protected abstract void onByteReceived(ByteBuffer buf) throws IOException;
+
+    /**
+     * Invoked by a worker thread once all content has been processed.
+     *
+     * @return result of content processing.
+     */
+    protected abstract T process() throws Exception;
+
+    @Override
+    protected final void onEntityEnclosed(
+            final HttpEntity entity, final ContentType contentType) throws IOException {
+    }
+
+    private ByteBuffer allocate() {
+        return this.bufferPool != null
+                ? this.bufferPool.allocate(this.bufSize)
+                : ByteBuffer.allocate(this.bufSize);
+    }
+
+    private void release(final ByteBuffer buf) {
+        if (this.bufferPool != null) {
+            this.bufferPool.release(buf);
+        }
+    }
+
+    private void dispatch() {
+        if (!this.running) {
+            this.running = true;
+            try {
+                this.executor.execute(this.worker);
+            } catch (final RejectedExecutionException ex) {
+                this.running = false;
+                abort(ex);
+            }
+        }
+    }
+
+    @Override
+    protected final void onContentReceived(
+            final ContentDecoder decoder, final IOControl ioControl) throws IOException {
+        for (;;) {
+            synchronized (this) {
+                if (this.failure != null) {
+                    throw new IOException("Content processing failed", this.failure);
+                }
+                if (this.leased >= this.maxBuffers) {
+                    this.ioControl = ioControl;
+                    this.suspended = true;
+                    ioControl.suspendInput();
+                    return;
+                }
+                this.leased++;
+            }
+            final ByteBuffer buf = allocate();
+            final int bytesRead;
+            try {
+                bytesRead = decoder.read(buf);
+            } catch (final IOException ex) {
+                returnBuffer(buf);
+                throw ex;
+            }
+            if (bytesRead <= 0) {
+                returnBuffer(buf);
+                return;
+            }
+            buf.flip();
+            synchronized (this) {
+                this.pending.add(buf);
+                dispatch();
+            }
+            if (decoder.isCompleted()) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void returnBuffer(final ByteBuffer buf) {
+        this.leased--;
+        release(buf);
+        if (this.suspended && this.leased < this.maxBuffers) {
+            this.suspended = false;
+            this.ioControl.requestInput();
+        }
+    }
+
+    private void drain() {
+        for (;;) {
+            final ByteBuffer buf;
+            synchronized (this) {
+                buf = this.pending.poll();
+                if (buf == null) {
+                    this.running = false;
+                    if (!this.endOfContent || this.aborted) {
+                        return;
+                    }
+                }
+            }
+            if (buf == null) {
+                try {
+                    this.resultFuture.completed(process());
+                } catch (final Exception ex) {
+                    this.resultFuture.failed(ex);
+                }
+                return;
+            }
+            try {
+                onByteReceived(buf);
+            } catch (final Exception ex) {
+                abort(ex);
+            } finally {
+                returnBuffer(buf);
+            }
+        }
+    }
+
+    private void abort(final Exception ex) {
+        synchronized (this) {
+            if (this.aborted) {
+                return;
+            }
+            this.aborted = true;
+            this.failure = ex;
+            for (final ByteBuffer buf: this.pending) {
+                this.leased--;
+                release(buf);
+            }
+            this.pending.clear();
+            if (this.suspended) {
+                // let the I/O dispatch thread pick up the failure
+                this.suspended = false;
+                this.ioControl.requestInput();
+            }
+        }
+        this.resultFuture.failed(ex);
+    }
+
+    @Override
+    protected Future<T> buildResult(final HttpContext context) throws Exception {
+        synchronized (this) {
+            this.endOfContent = true;
+            dispatch();
+        }
+        return this.resultFuture;
+    }
+
+    @Override
+    protected void releaseResources() {
+        synchronized (this) {
+            if (this.endOfContent || this.aborted) {
+                return;
+            }
+            this.aborted = true;
+            for (final ByteBuffer buf: this.pending) {
+                this.leased--;
+                release(buf);
+            }
+            this.pending.clear();
+        }
+        final Exception ex = getException();
+        if (ex != null) {
+            this.resultFuture.failed(ex);
+        } else {
+            this.resultFuture.cancel();
+        }
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.FileContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.Args;
+
+/**
+ * Base class for {@link HttpAsyncResponseConsumer} decorators that compute
+ * a hash of response content as it passes through to the decorated consumer.
+ * <p>
+ * Content read through the decoder is hashed straight out of the destination
+ * buffer. Content transferred directly to a file is read back from the file
+ * region just written, while it is still in the page cache. The hash is
+ * verified before the decorated consumer gets to build its result.
+ */
+abstract class HashingConsumer<T> implements HttpAsyncResponseConsumer<T> {
+
+    private final HttpAsyncResponseConsumer<T> consumer;
+
+    private volatile HttpResponse response;
+    private volatile Exception ex;
+    private ByteBuffer readBuffer;
+
+    HashingConsumer(final HttpAsyncResponseConsumer<T> consumer) {
+        super();
+        Args.notNull(consumer, "Response consumer");
+        this.consumer = consumer;
+    }
+
+    /**
+     * Updates the hash with content remaining in the given buffer.
+     */
+    abstract void update(ByteBuffer src);
+
+    /**
+     * Verifies the hash of complete response content.
+     *
+     * @throws IOException if the hash does not match the expected value.
+     */
+    abstract void verify(HttpResponse response) throws IOException;
+
+    @Override
+    public void responseReceived(final HttpResponse response) throws IOException, HttpException {
+        this.response = response;
+        this.consumer.responseReceived(response);
+    }
+
+    @Override
+    public void consumeContent(final ContentDecoder decoder, final IOControl ioControl) throws IOException {
+        final ContentDecoder hashingDecoder = decoder instanceof FileContentDecoder
+                ? new HashingFileContentDecoder((FileContentDecoder) decoder)
+                : new HashingContentDecoder(decoder);
+        this.consumer.consumeContent(hashingDecoder, ioControl);
+    }
+
+    @Override
+    public void responseCompleted(final HttpContext context) {
+        try {
+            verify(this.response);
+        } catch (final IOException ex) {
+            this.ex = ex;
+            this.consumer.failed(ex);
+            return;
+        }
+        this.consumer.responseCompleted(context);
+    }
+
+    @Override
+    public void failed(final Exception ex) {
+        this.consumer.failed(ex);
+    }
+
+    @Override
+    public Exception getException() {
+        return this.ex != null ? this.ex : this.consumer.getException();
+    }
+
+    @Override
+    public T getResult() {
+        return this.consumer.getResult();
+    }
+
+    @Override
+    public boolean isDone() {
+        return this.consumer.isDone();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.consumer.close();
+    }
+
+    @Override
+    public boolean cancel() {
+        return this.consumer.cancel();
+    }
+
+    private void updateFromFile(final FileChannel src, final long position, final long count) throws IOException {
+        if (this.readBuffer == null) {
+            this.readBuffer = ByteBuffer.allocate(8 * 1024);
+        }
+        final ByteBuffer buf = this.readBuffer;
+        long total = 0;
+        while (total < count) {
+            buf.clear();
+            if (count - total < buf.capacity()) {
+                buf.limit((int) (count - total));
+            }
+            final int bytesRead = src.read(buf, position + total);
+            if (bytesRead <= 0) {
+                throw new IOException("Unexpected end of file at " + (position + total));
+            }
+            buf.flip();
+            update(buf);
+            total += bytesRead;
+        }
+    }
+
+    class HashingContentDecoder implements ContentDecoder {
+
+        private final ContentDecoder decoder;
+
+        HashingContentDecoder(final ContentDecoder decoder) {
+            super();
+            this.decoder = decoder;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            final int bytesRead = this.decoder.read(dst);
+            if (bytesRead > 0) {
+                final ByteBuffer src = dst.duplicate();
+                src.limit(dst.position());
+                src.position(dst.position() - bytesRead);
+                update(src);
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return this.decoder.isCompleted();
+        }
+
+        @Override
+        public String toString() {
+            return this.decoder.toString();
+        }
+
+    }
+
+    class HashingFileContentDecoder extends HashingContentDecoder implements FileContentDecoder {
+
+        private final FileContentDecoder decoder;
+
+        HashingFileContentDecoder(final FileContentDecoder decoder) {
+            super(decoder);
+            this.decoder = decoder;
+        }
+
+        @Override
+        public long transfer(final FileChannel dst, final long position, final long count) throws IOException {
+            final long transferred = this.decoder.transfer(dst, position, count);
+            if (transferred > 0) {
+                updateFromFile(dst, position, transferred);
+            }
+            return transferred;
+        }
+
+    }
+
+}
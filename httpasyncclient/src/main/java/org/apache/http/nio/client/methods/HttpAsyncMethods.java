@@ -410,6 +410,21 @@ public final class HttpAsyncMethods {
         };
     }
 
+    /**
+     * Creates response consumer that will buffer response content in memory
+     * up to the given threshold and spill it into a temporary file beyond it.
+     *
+     * @param threshold maximum size of content to be kept in memory.
+     * @return asynchronous response consumer.
+     *
+     * @see SpillingConsumer
+     *
+     * @since 4.1.5
+     */
+    public static HttpAsyncResponseConsumer<HttpResponse> createSpillingConsumer(final long threshold) {
+        return new SpillingConsumer(threshold);
+    }
+
     static class RequestProducerImpl extends BasicAsyncRequestProducer {
 
         protected RequestProducerImpl(
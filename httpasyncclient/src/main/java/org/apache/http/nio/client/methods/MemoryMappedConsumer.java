@@ -0,0 +1,248 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.Args;
+import org.apache.http.util.Asserts;
+
+/**
+ * {@link org.apache.http.nio.protocol.HttpAsyncResponseConsumer} implementation that
+ * decodes content entity enclosed in an HTTP response directly into a memory mapped
+ * region of a file.
+ * <p>
+ * If the response declares the length of its content, the file is sized upfront and
+ * the content gets decoded straight into a {@link MappedByteBuffer} of that size.
+ * Content of unknown length, such as chunk coded content, as well as content exceeding
+ * {@link Integer#MAX_VALUE} bytes is written to the file through its channel instead.
+ * Upon completion the buffer is passed on to {@link #process(HttpResponse, File,
+ * MappedByteBuffer, ContentType)}, letting random access readers make use of the content
+ * without reading it again.
+ * <p>
+ * Content is decoded into the mapped region by the I/O dispatch thread. Writes to
+ * the region are page faults rather than system calls and can stall the I/O dispatch
+ * thread, and with it all other connections it serves, if pages have to be read from
+ * or written back to a slow storage device.
+ * <p>
+ * A mapped region stays valid for as long as the buffer is reachable, even after the
+ * file has been closed, and by default gets released once the buffer has been garbage
+ * collected. {@link #releaseMapping()} releases the region handed to {@code process}
+ * right away.
+ *
+ * @since 4.1.5
+ */
+public abstract class MemoryMappedConsumer<T> extends AbstractAsyncResponseConsumer<T> {
+
+    private final File file;
+    private final RandomAccessFile accessfile;
+    private final AtomicReference<MappedByteBuffer> mappingRef;
+
+    private HttpResponse response;
+    private ContentType contentType;
+    private Header contentEncoding;
+    private FileChannel fileChannel;
+    private MappedByteBuffer buffer;
+    private long idx = -1;
+
+    public MemoryMappedConsumer(final File file) throws FileNotFoundException {
+        super();
+        Args.notNull(file, "File");
+        this.file = file;
+        this.accessfile = new RandomAccessFile(this.file, "rw");
+        this.mappingRef = new AtomicReference<MappedByteBuffer>(null);
+    }
+
+    @Override
+    protected void onResponseReceived(final HttpResponse response) {
+        this.response = response;
+    }
+
+    @Override
+    protected void onEntityEnclosed(
+            final HttpEntity entity, final ContentType contentType) throws IOException {
+        this.contentType = contentType;
+        this.contentEncoding = entity.getContentEncoding();
+        this.fileChannel = this.accessfile.getChannel();
+        final long len = entity.getContentLength();
+        this.accessfile.setLength(len >= 0 ? len : 0);
+        if (len >= 0 && len <= Integer.MAX_VALUE) {
+            this.buffer = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, len);
+        }
+        this.idx = 0;
+    }
+
+    @Override
+    protected void onContentReceived(
+            final ContentDecoder decoder, final IOControl ioControl) throws IOException {
+        Asserts.notNull(this.fileChannel, "File channel");
+        if (this.buffer != null) {
+            int bytesRead;
+            do {
+                bytesRead = decoder.read(this.buffer);
+            } while (bytesRead > 0 && this.buffer.hasRemaining());
+            this.idx = this.buffer.position();
+        } else {
+            final long transferred = ZeroCopyConsumer.transfer(
+                    decoder, this.fileChannel, this.idx, Integer.MAX_VALUE);
+            if (transferred > 0) {
+                this.idx += transferred;
+            }
+        }
+        if (decoder.isCompleted()) {
+            this.fileChannel.close();
+        }
+    }
+
+    /**
+     * Returns the number of content bytes written to the file so far
+     * or {@code -1} if no content has been received yet.
+     */
+    public long getPosition() {
+        return this.idx;
+    }
+
+    /**
+     * Invoked to process received file.
+     * <p>
+     * Please note that on some platforms, notably Windows, the file cannot be deleted
+     * or truncated while it is still mapped. On others truncating a mapped file makes
+     * subsequent access to the buffer beyond the new end of the file fail with
+     * a {@link InternalError} or crash the process. Neither should be attempted
+     * before the mapping has been released by {@link #releaseMapping()} or garbage
+     * collected.
+     *
+     * @param response original response head.
+     * @param file file containing response content.
+     * @param buffer buffer mapped to the content of the file positioned at its start
+     *   or {@code null} if the response enclosed no content or the content is too large
+     *   to be mapped.
+     * @param contentType the content type.
+     * @return result of the response processing
+     */
+    protected abstract T process(
+            HttpResponse response,
+            File file,
+            MappedByteBuffer buffer,
+            ContentType contentType) throws Exception;
+
+    @Override
+    protected T buildResult(final HttpContext context) throws Exception {
+        MappedByteBuffer mapped = this.buffer;
+        if (mapped != null) {
+            mapped.flip();
+        } else if (this.idx >= 0 && this.idx <= Integer.MAX_VALUE) {
+            final RandomAccessFile raf = new RandomAccessFile(this.file, "r");
+            try {
+                mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, this.idx);
+            } finally {
+                raf.close();
+            }
+        }
+        this.mappingRef.set(mapped);
+        final FileEntity entity = new FileEntity(this.file, this.contentType);
+        entity.setContentEncoding(this.contentEncoding);
+        this.response.setEntity(entity);
+        return process(this.response, this.file, mapped, this.contentType);
+    }
+
+    /**
+     * Releases the memory mapped region handed to {@link #process(HttpResponse, File,
+     * MappedByteBuffer, ContentType)} without waiting for the buffer to be garbage
+     * collected. The region is released by means of JDK internals; should they not be
+     * accessible the mapping is left to the garbage collector.
+     * <p>
+     * Neither the buffer nor any of its duplicates or slices may be accessed once
+     * the mapping has been released. Doing so can crash the process.
+     *
+     * @return {@code true} if the mapping has been released, {@code false} if there
+     *   is no mapping to release or it could not be released explicitly.
+     *
+     * @since 4.1.5
+     */
+    public boolean releaseMapping() {
+        final MappedByteBuffer mapping = this.mappingRef.getAndSet(null);
+        return mapping != null && unmap(mapping);
+    }
+
+    static boolean unmap(final MappedByteBuffer buffer) {
+        try {
+            // Java 9 and newer
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (final NoSuchMethodException ex) {
+                // Java 8 and older
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner == null) {
+                    return false;
+                }
+                final Method cleanMethod = cleaner.getClass().getMethod("clean");
+                cleanMethod.setAccessible(true);
+                cleanMethod.invoke(cleaner);
+                return true;
+            }
+            final Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            invokeCleaner.invoke(unsafeField.get(null), buffer);
+            return true;
+        } catch (final Exception ex) {
+            return false;
+        }
+    }
+
+    @Override
+    protected void releaseResources() {
+        this.buffer = null;
+        try {
+            this.accessfile.close();
+        } catch (final IOException ignore) {
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+import org.apache.http.Consts;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.Args;
+
+/**
+ * Single part of a {@code multipart/form-data} request body produced by
+ * {@link ZeroCopyMultipartPost}. A part either holds its content in memory
+ * or refers to a file or a region of a file.
+ *
+ * @since 4.1.5
+ */
+public final class MultipartPart {
+
+    private final String name;
+    private final String filename;
+    private final ContentType contentType;
+    private final byte[] content;
+    private final File file;
+    private final long offset;
+    private final long length;
+
+    private MultipartPart(
+            final String name,
+            final String filename,
+            final ContentType contentType,
+            final byte[] content,
+            final File file,
+            final long offset,
+            final long length) {
+        super();
+        this.name = name;
+        this.filename = filename;
+        this.contentType = contentType;
+        this.content = content;
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Creates a text part.
+     *
+     * @param name field name.
+     * @param text text content.
+     * @param contentType content type. If {@code null} {@code text/plain}
+     *   with {@code UTF-8} charset is assumed.
+     */
+    public static MultipartPart text(final String name, final String text, final ContentType contentType) {
+        Args.notNull(name, "Name");
+        Args.notNull(text, "Text");
+        final ContentType type = contentType != null ? contentType : ContentType.create("text/plain", Consts.UTF_8);
+        final Charset charset = type.getCharset() != null ? type.getCharset() : Consts.UTF_8;
+        return new MultipartPart(name, null, type, text.getBytes(charset), null, 0, -1);
+    }
+
+    /**
+     * Creates a part with the given content.
+     *
+     * @param name field name.
+     * @param content binary content.
+     * @param contentType content type. May be {@code null}.
+     * @param filename file name. May be {@code null}.
+     */
+    public static MultipartPart bytes(
+            final String name, final byte[] content, final ContentType contentType, final String filename) {
+        Args.notNull(name, "Name");
+        Args.notNull(content, "Content");
+        return new MultipartPart(name, filename, contentType, content, null, 0, -1);
+    }
+
+    /**
+     * Creates a part referring to a region of a file.
+     *
+     * @param name field name.
+     * @param file file.
+     * @param offset offset of the region.
+     * @param length length of the region or {@code -1} for the rest of the file.
+     * @param contentType content type. May be {@code null}.
+     * @param filename file name. If {@code null} the name of the file is used.
+     */
+    public static MultipartPart file(
+            final String name,
+            final File file,
+            final long offset,
+            final long length,
+            final ContentType contentType,
+            final String filename) {
+        Args.notNull(name, "Name");
+        Args.notNull(file, "File");
+        Args.notNegative(offset, "Offset");
+        return new MultipartPart(name, filename != null ? filename : file.getName(), contentType,
+                null, file, offset, length);
+    }
+
+    /**
+     * Creates a part referring to the entire content of a file.
+     *
+     * @param name field name.
+     * @param file file.
+     * @param contentType content type. May be {@code null}.
+     */
+    public static MultipartPart file(final String name, final File file, final ContentType contentType) {
+        return file(name, file, 0, -1, contentType, null);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getFilename() {
+        return this.filename;
+    }
+
+    public ContentType getContentType() {
+        return this.contentType;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    byte[] getContent() {
+        return this.content;
+    }
+
+    long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Returns the length of the part content.
+     */
+    public long getLength() {
+        if (this.content != null) {
+            return this.content.length;
+        }
+        if (this.length >= 0) {
+            return this.length;
+        }
+        return Math.max(0, this.file.length() - this.offset);
+    }
+
+}
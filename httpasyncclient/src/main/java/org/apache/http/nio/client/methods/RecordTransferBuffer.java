@@ -0,0 +1,173 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.util.ByteBufferPool;
+import org.apache.http.nio.conn.ManagedNHttpClientConnection;
+
+/**
+ * Direct buffer used to move file content to and from TLS sessions.
+ * <p>
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * and {@link FileChannel#transferFrom(java.nio.channels.ReadableByteChannel, long, long)}
+ * can only move content without copying to and from sockets. The SSL session
+ * channel gets fed through a small temporary buffer instead, which results in
+ * TLS records smaller than the protocol allows. This buffer is sized to hold
+ * the content of exactly one TLS record. File content is read into it
+ * with a single positional read and handed to the content encoder as a whole,
+ * which lets it get encrypted straight out of the buffer into a full record.
+ */
+final class RecordTransferBuffer {
+
+    /**
+     * Maximum length of TLS record plaintext.
+     */
+    static final int RECORD_SIZE = 16 * 1024;
+
+    private final ByteBufferPool bufferPool;
+
+    private ByteBuffer buffer;
+
+    RecordTransferBuffer(final ByteBufferPool bufferPool) {
+        super();
+        this.bufferPool = bufferPool;
+    }
+
+    static boolean isSecure(final IOControl ioControl) {
+        return ioControl instanceof ManagedNHttpClientConnection
+                && ((ManagedNHttpClientConnection) ioControl).getSSLSession() != null;
+    }
+
+    private ByteBuffer getBuffer() {
+        if (this.buffer == null) {
+            this.buffer = this.bufferPool != null
+                    ? this.bufferPool.allocate(RECORD_SIZE)
+                    : ByteBuffer.allocateDirect(RECORD_SIZE);
+            this.buffer.clear();
+            this.buffer.limit(0);
+        }
+        return this.buffer;
+    }
+
+    /**
+     * Writes up to {@code count} bytes of file content starting at
+     * {@code position} to the encoder. Content read from the file but not
+     * accepted by the encoder is retained and written first on the next call,
+     * in which case {@code position} is expected to have been advanced only
+     * by the number of bytes actually written.
+     *
+     * @return number of bytes written to the encoder.
+     */
+    long write(
+            final FileChannel src,
+            final long position,
+            final long count,
+            final ContentEncoder encoder) throws IOException {
+        final ByteBuffer buf = getBuffer();
+        long total = 0;
+        while (total < count) {
+            if (!buf.hasRemaining()) {
+                buf.clear();
+                if (count - total < buf.capacity()) {
+                    buf.limit((int) (count - total));
+                } else if (buf.capacity() > RECORD_SIZE) {
+                    buf.limit(RECORD_SIZE);
+                }
+                final int bytesRead = src.read(buf, position + total);
+                buf.flip();
+                if (bytesRead <= 0) {
+                    break;
+                }
+            }
+            total += encoder.write(buf);
+            if (buf.hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Reads up to {@code count} bytes of content from the decoder and
+     * writes them to the file starting at {@code position}. A pooled buffer
+     * is returned to the pool before this method returns.
+     *
+     * @return number of bytes written to the file.
+     */
+    long read(
+            final ContentDecoder decoder,
+            final FileChannel dst,
+            final long position,
+            final long count) throws IOException {
+        final ByteBuffer buf = getBuffer();
+        try {
+            long total = 0;
+            while (total < count) {
+                buf.clear();
+                if (count - total < buf.capacity()) {
+                    buf.limit((int) (count - total));
+                }
+                final int bytesRead = decoder.read(buf);
+                buf.flip();
+                if (bytesRead <= 0) {
+                    break;
+                }
+                while (buf.hasRemaining()) {
+                    total += dst.write(buf, position + total);
+                }
+            }
+            return total;
+        } finally {
+            if (this.bufferPool != null) {
+                release();
+            } else {
+                buf.clear();
+                buf.limit(0);
+            }
+        }
+    }
+
+    /**
+     * Discards buffered content and returns the buffer to the pool.
+     */
+    void release() {
+        if (this.buffer != null) {
+            if (this.bufferPool != null) {
+                this.bufferPool.release(this.buffer);
+            }
+            this.buffer = null;
+        }
+    }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.util.Args;
+
+/**
+ * Downloads a resource into a file over a single connection resuming
+ * the transfer with a range request should the connection fail midway.
+ * <p>
+ * Content is streamed to the file by a {@link ZeroCopyConsumer}. Upon an I/O
+ * failure the request is re-issued with {@code Range} starting at the offset
+ * the consumer has reached and {@code If-Range} carrying the validator
+ * ({@code ETag} or {@code Last-Modified}) of the original response. Content
+ * of the partial response is appended at that offset. If the resource has
+ * changed in the meantime the server responds with the complete content and
+ * the download starts over from the beginning of the file.
+ * <p>
+ * Resumption is only attempted for responses carrying a strong validator
+ * and no more than the given number of times.
+ *
+ * @since 4.1.5
+ */
+public class ResumableDownload {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final HttpAsyncClient client;
+    private final URI uri;
+    private final File file;
+    private final int maxResumes;
+
+    /**
+     * Creates a download.
+     *
+     * @param client HTTP client.
+     * @param uri URI of the resource.
+     * @param file target file.
+     * @param maxResumes maximum number of times the transfer may be resumed
+     *   or restarted.
+     */
+    public ResumableDownload(
+            final HttpAsyncClient client,
+            final URI uri,
+            final File file,
+            final int maxResumes) {
+        super();
+        Args.notNull(client, "HTTP client");
+        Args.notNull(uri, "URI");
+        Args.notNull(file, "File");
+        Args.notNegative(maxResumes, "Max resumes");
+        this.client = client;
+        this.uri = uri;
+        this.file = file;
+        this.maxResumes = maxResumes;
+    }
+
+    /**
+     * Initiates the download.
+     *
+     * @param callback future callback.
+     * @return future representing the target file once the download is complete.
+     */
+    public Future<File> execute(final FutureCallback<File> callback) {
+        final Execution execution = new Execution(callback);
+        try {
+            execution.execute(0);
+        } catch (final FileNotFoundException ex) {
+            execution.future.failed(ex);
+        }
+        return execution.future;
+    }
+
+    class Execution implements FutureCallback<File> {
+
+        private final BasicFuture<File> future;
+
+        private volatile ResumeConsumer consumer;
+        private volatile Future<File> requestFuture;
+        private volatile String validator;
+        private volatile int resumes;
+
+        Execution(final FutureCallback<File> callback) {
+            super();
+            this.future = new BasicFuture<File>(new FutureCallback<File>() {
+
+                @Override
+                public void completed(final File result) {
+                    if (callback != null) {
+                        callback.completed(result);
+                    }
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    if (callback != null) {
+                        callback.failed(ex);
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    cancelRequest();
+                    if (callback != null) {
+                        callback.cancelled();
+                    }
+                }
+
+            });
+        }
+
+        void execute(final long offset) throws FileNotFoundException {
+            final HttpGet httpget = new HttpGet(uri);
+            if (offset > 0) {
+                httpget.addHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+                httpget.addHeader(HttpHeaders.IF_RANGE, this.validator);
+            }
+            this.consumer = new ResumeConsumer(this, offset);
+            this.requestFuture = client.execute(HttpAsyncMethods.create(httpget), this.consumer, this);
+            if (this.future.isCancelled()) {
+                cancelRequest();
+            }
+        }
+
+        private void cancelRequest() {
+            final Future<File> localFuture = this.requestFuture;
+            if (localFuture != null) {
+                localFuture.cancel(true);
+            }
+        }
+
+        @Override
+        public void completed(final File result) {
+            this.future.completed(result);
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            if (ex instanceof IOException && !(ex instanceof ClientProtocolException)
+                    && this.validator != null && this.resumes < maxResumes && !this.future.isDone()) {
+                this.resumes++;
+                final long offset = this.consumer.getResumeOffset();
+                if (log.isDebugEnabled()) {
+                    log.debug("I/O error downloading " + uri + "; resuming at offset " + offset
+                            + " (attempt " + this.resumes + ")");
+                }
+                try {
+                    execute(offset);
+                    return;
+                } catch (final FileNotFoundException ex2) {
+                    this.future.failed(ex2);
+                    return;
+                }
+            }
+            this.future.failed(ex);
+        }
+
+        @Override
+        public void cancelled() {
+            this.future.cancel();
+        }
+
+    }
+
+    class ResumeConsumer extends ZeroCopyConsumer<File> {
+
+        private final Execution execution;
+        private final long requestedOffset;
+
+        ResumeConsumer(final Execution execution, final long requestedOffset) throws FileNotFoundException {
+            super(file);
+            this.execution = execution;
+            this.requestedOffset = requestedOffset;
+        }
+
+        /**
+         * Returns the offset to resume the transfer at: the position reached
+         * or, if no content has been received, the offset requested.
+         */
+        long getResumeOffset() {
+            final long position = getPosition();
+            return position >= 0 ? position : this.requestedOffset;
+        }
+
+        @Override
+        protected long getOffset(final HttpResponse response) throws IOException {
+            final int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_PARTIAL_CONTENT && this.requestedOffset > 0) {
+                final Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+                if (contentRange == null
+                        || !contentRange.getValue().trim().startsWith("bytes " + this.requestedOffset + "-")) {
+                    throw new ClientProtocolException("Unexpected content range: "
+                            + (contentRange != null ? contentRange.getValue() : null));
+                }
+                return this.requestedOffset;
+            }
+            if (status != HttpStatus.SC_OK) {
+                throw new ClientProtocolException("Unexpected response status: " + response.getStatusLine());
+            }
+            if (this.requestedOffset > 0 && log.isDebugEnabled()) {
+                log.debug("Resource " + uri + " has changed; restarting download");
+            }
+            this.execution.validator = SegmentedDownload.getValidator(response);
+            final RandomAccessFile accessfile = new RandomAccessFile(file, "rw");
+            try {
+                accessfile.setLength(0);
+            } finally {
+                accessfile.close();
+            }
+            return 0;
+        }
+
+        @Override
+        protected File process(
+                final HttpResponse response,
+                final File file,
+                final ContentType contentType) throws Exception {
+            final int status = response.getStatusLine().getStatusCode();
+            if (status != HttpStatus.SC_OK && status != HttpStatus.SC_PARTIAL_CONTENT) {
+                throw new ClientProtocolException("Unexpected response status: " + response.getStatusLine());
+            }
+            return file;
+        }
+
+    }
+
+}
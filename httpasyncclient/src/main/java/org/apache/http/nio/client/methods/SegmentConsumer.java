@@ -0,0 +1,147 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.Asserts;
+
+/**
+ * Response consumer that writes content of a single segment of
+ * a {@link SegmentedDownload} directly to its offset in the target file.
+ * <p>
+ * Every segment writes through a file channel of its own as buffered content
+ * gets transferred relative to the channel position.
+ */
+class SegmentConsumer extends AbstractAsyncResponseConsumer<Long> {
+
+    private final File file;
+    private final SegmentMap segmentMap;
+    private final int index;
+    private final boolean ranged;
+
+    private RandomAccessFile accessfile;
+    private FileChannel fileChannel;
+    private long transferred;
+
+    SegmentConsumer(final File file, final SegmentMap segmentMap, final int index, final boolean ranged) {
+        super();
+        this.file = file;
+        this.segmentMap = segmentMap;
+        this.index = index;
+        this.ranged = ranged;
+    }
+
+    @Override
+    protected void onResponseReceived(final HttpResponse response) throws HttpException, IOException {
+        final int status = response.getStatusLine().getStatusCode();
+        if (!this.ranged) {
+            if (status != HttpStatus.SC_OK) {
+                throw new ProtocolException("Unexpected response status: " + response.getStatusLine());
+            }
+            return;
+        }
+        if (status == HttpStatus.SC_OK) {
+            this.segmentMap.invalidate();
+            throw new ProtocolException("Resource has changed");
+        }
+        if (status != HttpStatus.SC_PARTIAL_CONTENT) {
+            throw new ProtocolException("Unexpected response status: " + response.getStatusLine());
+        }
+        final String validator = this.segmentMap.getValidator();
+        final Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        if (etag != null && validator != null && validator.startsWith("\"")
+                && !validator.equals(etag.getValue())) {
+            this.segmentMap.invalidate();
+            throw new ProtocolException("Resource has changed");
+        }
+        final Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+        final String expected = "bytes " + this.segmentMap.getPosition(this.index) + "-"
+                + this.segmentMap.getEnd(this.index) + "/";
+        if (contentRange == null || !contentRange.getValue().trim().startsWith(expected)) {
+            throw new ProtocolException("Unexpected content range: "
+                    + (contentRange != null ? contentRange.getValue() : null));
+        }
+    }
+
+    @Override
+    protected void onEntityEnclosed(
+            final HttpEntity entity, final ContentType contentType) throws IOException {
+        this.accessfile = new RandomAccessFile(this.file, "rw");
+        this.fileChannel = this.accessfile.getChannel();
+    }
+
+    @Override
+    protected void onContentReceived(
+            final ContentDecoder decoder, final IOControl ioControl) throws IOException {
+        Asserts.notNull(this.fileChannel, "File channel");
+        final long position = this.segmentMap.getPosition(this.index);
+        final long count = this.ranged ? this.segmentMap.getEnd(this.index) + 1 - position : Integer.MAX_VALUE;
+        if (count <= 0) {
+            throw new IOException("Segment content exceeds its range");
+        }
+        final long n = ZeroCopyConsumer.transfer(decoder, this.fileChannel, position, count);
+        if (n > 0) {
+            this.segmentMap.advance(this.index, n);
+            this.transferred += n;
+        }
+    }
+
+    @Override
+    protected Long buildResult(final HttpContext context) throws Exception {
+        if (this.ranged && !this.segmentMap.isComplete(this.index)) {
+            throw new ProtocolException("Incomplete segment content");
+        }
+        return Long.valueOf(this.transferred);
+    }
+
+    @Override
+    protected void releaseResources() {
+        if (this.accessfile != null) {
+            try {
+                this.accessfile.close();
+            } catch (final IOException ignore) {
+            }
+        }
+    }
+
+}
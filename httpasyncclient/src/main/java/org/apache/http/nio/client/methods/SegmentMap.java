@@ -0,0 +1,207 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Byte ranges a resource has been split into along with download progress
+ * of each range. The map can be persisted to a file in order to resume
+ * an interrupted download.
+ */
+class SegmentMap {
+
+    private final long length;
+    private final String validator;
+    private final long[] starts;
+    private final long[] ends;
+    private final long[] positions;
+
+    private boolean valid;
+
+    SegmentMap(final long length, final String validator, final long[] starts, final long[] ends, final long[] positions) {
+        super();
+        this.length = length;
+        this.validator = validator;
+        this.starts = starts;
+        this.ends = ends;
+        this.positions = positions;
+        this.valid = true;
+    }
+
+    /**
+     * Splits content of the given length into at most {@code maxSegments}
+     * segments no shorter than {@code minSegmentSize} bytes each.
+     */
+    static SegmentMap create(
+            final long length,
+            final String validator,
+            final int maxSegments,
+            final long minSegmentSize) {
+        final long n = Math.max(1, Math.min(maxSegments, length / minSegmentSize));
+        final int count = length > 0 ? (int) n : 0;
+        final long[] starts = new long[count];
+        final long[] ends = new long[count];
+        final long[] positions = new long[count];
+        final long size = count > 0 ? length / count : 0;
+        for (int i = 0; i < count; i++) {
+            starts[i] = i * size;
+            ends[i] = i < count - 1 ? (i + 1) * size - 1 : length - 1;
+            positions[i] = starts[i];
+        }
+        return new SegmentMap(length, validator, starts, ends, positions);
+    }
+
+    /**
+     * Loads the map from the given file.
+     *
+     * @return the map or {@code null} if the file does not exist or is not a valid map.
+     */
+    static SegmentMap load(final File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        final Properties props = new Properties();
+        try {
+            final InputStream inStream = new FileInputStream(file);
+            try {
+                props.load(inStream);
+            } finally {
+                inStream.close();
+            }
+            final long length = Long.parseLong(props.getProperty("length"));
+            final String validator = props.getProperty("validator");
+            final int count = Integer.parseInt(props.getProperty("segments"));
+            final long[] starts = new long[count];
+            final long[] ends = new long[count];
+            final long[] positions = new long[count];
+            for (int i = 0; i < count; i++) {
+                final String[] values = props.getProperty("segment." + i).split(",");
+                starts[i] = Long.parseLong(values[0]);
+                ends[i] = Long.parseLong(values[1]);
+                positions[i] = Long.parseLong(values[2]);
+                if (positions[i] < starts[i] || positions[i] > ends[i] + 1) {
+                    return null;
+                }
+            }
+            return new SegmentMap(length, validator, starts, ends, positions);
+        } catch (final IOException ex) {
+            return null;
+        } catch (final RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the map to the given file.
+     */
+    synchronized void store(final File file) throws IOException {
+        final Properties props = new Properties();
+        props.setProperty("length", Long.toString(this.length));
+        if (this.validator != null) {
+            props.setProperty("validator", this.validator);
+        }
+        props.setProperty("segments", Integer.toString(this.starts.length));
+        for (int i = 0; i < this.starts.length; i++) {
+            props.setProperty("segment." + i, this.starts[i] + "," + this.ends[i] + "," + this.positions[i]);
+        }
+        final File tmp = new File(file.getPath() + ".tmp");
+        final OutputStream outStream = new FileOutputStream(tmp);
+        try {
+            props.store(outStream, null);
+        } finally {
+            outStream.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to store segment map to " + file);
+            }
+        }
+    }
+
+    /**
+     * Determines whether the map describes content of the given length and validator.
+     */
+    boolean matches(final long length, final String validator) {
+        return this.length == length && this.validator != null && this.validator.equals(validator);
+    }
+
+    long getLength() {
+        return this.length;
+    }
+
+    String getValidator() {
+        return this.validator;
+    }
+
+    int getCount() {
+        return this.starts.length;
+    }
+
+    long getEnd(final int i) {
+        return this.ends[i];
+    }
+
+    synchronized long getPosition(final int i) {
+        return this.positions[i];
+    }
+
+    synchronized void advance(final int i, final long n) {
+        this.positions[i] += n;
+    }
+
+    synchronized boolean isComplete(final int i) {
+        return this.positions[i] > this.ends[i];
+    }
+
+    synchronized long getRemaining() {
+        long remaining = 0;
+        for (int i = 0; i < this.starts.length; i++) {
+            remaining += this.ends[i] + 1 - this.positions[i];
+        }
+        return remaining;
+    }
+
+    /**
+     * Marks the map as no longer valid for the resource as it has changed.
+     */
+    synchronized void invalidate() {
+        this.valid = false;
+    }
+
+    synchronized boolean isValid() {
+        return this.valid;
+    }
+
+}
@@ -0,0 +1,401 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.util.Args;
+
+/**
+ * Downloads a resource into a file over several connections at once.
+ * <p>
+ * The download starts with a {@code HEAD} request. If the origin server
+ * accepts byte ranges and the resource has a known length and a strong
+ * validator (a strong {@code ETag}, or a {@code Last-Modified} date at
+ * least one second older than the {@code Date} of the response) the resource
+ * is split into segments fetched concurrently with range requests conditional
+ * upon the validator by means of {@code If-Range}. Every segment is written
+ * straight to its offset in the file. Otherwise the resource is fetched
+ * with a single plain {@code GET}.
+ * <p>
+ * Progress of individual segments is persisted to a segment map file next
+ * to the target file when a segment completes or the download fails.
+ * A subsequent download of the same resource into the same file picks up
+ * where the previous one left off, provided the resource has not changed.
+ * The segment map file is deleted once the download completes.
+ * <p>
+ * Please note that segments are executed over connections leased from
+ * the pool of the client. The per-route connection limit of its connection
+ * manager effectively caps the number of segments fetched in parallel.
+ *
+ * @since 4.1.5
+ */
+public class SegmentedDownload {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final HttpAsyncClient client;
+    private final URI uri;
+    private final File file;
+    private final File mapFile;
+    private final int maxSegments;
+    private final long minSegmentSize;
+
+    /**
+     * Creates a download.
+     *
+     * @param client HTTP client.
+     * @param uri URI of the resource.
+     * @param file target file.
+     * @param maxSegments maximum number of segments.
+     * @param minSegmentSize minimum size of a segment.
+     */
+    public SegmentedDownload(
+            final HttpAsyncClient client,
+            final URI uri,
+            final File file,
+            final int maxSegments,
+            final long minSegmentSize) {
+        super();
+        Args.notNull(client, "HTTP client");
+        Args.notNull(uri, "URI");
+        Args.notNull(file, "File");
+        Args.positive(maxSegments, "Max segments");
+        Args.positive(minSegmentSize, "Min segment size");
+        this.client = client;
+        this.uri = uri;
+        this.file = file;
+        this.mapFile = new File(file.getPath() + ".segments");
+        this.maxSegments = maxSegments;
+        this.minSegmentSize = minSegmentSize;
+    }
+
+    public SegmentedDownload(
+            final HttpAsyncClient client,
+            final URI uri,
+            final File file,
+            final int maxSegments) {
+        this(client, uri, file, maxSegments, 1024 * 1024);
+    }
+
+    /**
+     * Returns the file download progress gets persisted to.
+     */
+    public File getSegmentMapFile() {
+        return this.mapFile;
+    }
+
+    /**
+     * Initiates the download.
+     *
+     * @param callback future callback.
+     * @return future representing the target file once the download is complete.
+     */
+    public Future<File> execute(final FutureCallback<File> callback) {
+        final Execution execution = new Execution();
+        final BasicFuture<File> future = new BasicFuture<File>(new FutureCallback<File>() {
+
+            @Override
+            public void completed(final File result) {
+                if (callback != null) {
+                    callback.completed(result);
+                }
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                if (callback != null) {
+                    callback.failed(ex);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                execution.abort(null);
+                if (callback != null) {
+                    callback.cancelled();
+                }
+            }
+
+        });
+        execution.future = future;
+        this.client.execute(
+                HttpAsyncMethods.createHead(this.uri),
+                HttpAsyncMethods.createConsumer(),
+                new FutureCallback<HttpResponse>() {
+
+            @Override
+            public void completed(final HttpResponse response) {
+                try {
+                    execution.start(response);
+                } catch (final Exception ex) {
+                    execution.abort(ex);
+                }
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                execution.abort(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                execution.abort(null);
+            }
+
+        });
+        return future;
+    }
+
+    /**
+     * Returns the strong validator of the given response or {@code null}
+     * if it has none. {@code Last-Modified} is considered strong only if
+     * the response has been generated at least one second after the last
+     * modification (RFC 7232, section 2.2.2).
+     */
+    static String getValidator(final HttpResponse response) {
+        final Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        if (etag != null && etag.getValue().startsWith("\"")) {
+            return etag.getValue();
+        }
+        final Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        final Header date = response.getFirstHeader(HttpHeaders.DATE);
+        if (lastModified == null || date == null) {
+            return null;
+        }
+        final Date lastModifiedDate = DateUtils.parseDate(lastModified.getValue());
+        final Date responseDate = DateUtils.parseDate(date.getValue());
+        if (lastModifiedDate == null || responseDate == null
+                || responseDate.getTime() - lastModifiedDate.getTime() < 1000) {
+            return null;
+        }
+        return lastModified.getValue();
+    }
+
+    static long getContentLength(final HttpResponse response) {
+        final Header header = response.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+        if (header != null) {
+            try {
+                return Long.parseLong(header.getValue().trim());
+            } catch (final NumberFormatException ignore) {
+            }
+        }
+        return -1;
+    }
+
+    class Execution {
+
+        private final AtomicBoolean done;
+        private final List<Future<Long>> segmentFutures;
+        private final AtomicInteger remaining;
+
+        private volatile BasicFuture<File> future;
+        private volatile SegmentMap segmentMap;
+        private volatile boolean ranged;
+
+        Execution() {
+            super();
+            this.done = new AtomicBoolean(false);
+            this.segmentFutures = new ArrayList<Future<Long>>();
+            this.remaining = new AtomicInteger(0);
+        }
+
+        void start(final HttpResponse response) throws IOException, ProtocolException {
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                throw new ProtocolException("Unexpected response status: " + response.getStatusLine());
+            }
+            final long length = getContentLength(response);
+            final Header acceptRanges = response.getFirstHeader(HttpHeaders.ACCEPT_RANGES);
+            final String validator = getValidator(response);
+            this.ranged = length >= 0 && validator != null
+                    && acceptRanges != null && "bytes".equalsIgnoreCase(acceptRanges.getValue().trim());
+            final File target = SegmentedDownload.this.file;
+            final File mapFile = SegmentedDownload.this.mapFile;
+            SegmentMap map = null;
+            if (this.ranged) {
+                map = SegmentMap.load(mapFile);
+                if (map != null && map.matches(length, validator) && target.length() == length) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Resuming download of " + uri + "; " + map.getRemaining() + " bytes remaining");
+                    }
+                } else {
+                    map = SegmentMap.create(length, validator, maxSegments, minSegmentSize);
+                }
+            } else {
+                mapFile.delete();
+                map = new SegmentMap(length, null,
+                        new long[] {0},
+                        new long[] {length >= 0 ? length - 1 : Long.MAX_VALUE - 1},
+                        new long[] {0});
+            }
+            this.segmentMap = map;
+            final RandomAccessFile accessfile = new RandomAccessFile(target, "rw");
+            try {
+                accessfile.setLength(this.ranged ? length : 0);
+            } finally {
+                accessfile.close();
+            }
+
+            final List<Integer> pending = new ArrayList<Integer>();
+            for (int i = 0; i < map.getCount(); i++) {
+                if (!this.ranged || !map.isComplete(i)) {
+                    pending.add(Integer.valueOf(i));
+                }
+            }
+            if (pending.isEmpty()) {
+                complete();
+                return;
+            }
+            this.remaining.set(pending.size());
+            for (final Integer i: pending) {
+                final HttpGet httpget = new HttpGet(uri);
+                if (this.ranged) {
+                    httpget.addHeader(HttpHeaders.RANGE,
+                            "bytes=" + map.getPosition(i.intValue()) + "-" + map.getEnd(i.intValue()));
+                    httpget.addHeader(HttpHeaders.IF_RANGE, validator);
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Requesting segment " + i + " of " + uri);
+                }
+                final Future<Long> segmentFuture = client.execute(
+                        HttpAsyncMethods.create(httpget),
+                        new SegmentConsumer(target, map, i.intValue(), this.ranged),
+                        new SegmentCallback(i.intValue()));
+                synchronized (this.segmentFutures) {
+                    this.segmentFutures.add(segmentFuture);
+                }
+            }
+            if (this.done.get()) {
+                cancelSegments();
+            }
+        }
+
+        void segmentCompleted(final int i) {
+            if (log.isDebugEnabled()) {
+                log.debug("Segment " + i + " of " + uri + " complete");
+            }
+            if (this.remaining.decrementAndGet() == 0) {
+                complete();
+            } else if (this.ranged) {
+                storeMap();
+            }
+        }
+
+        void complete() {
+            if (this.done.compareAndSet(false, true)) {
+                mapFile.delete();
+                this.future.completed(file);
+            }
+        }
+
+        void abort(final Exception ex) {
+            if (this.done.compareAndSet(false, true)) {
+                cancelSegments();
+                final SegmentMap map = this.segmentMap;
+                if (map != null && this.ranged) {
+                    if (map.isValid()) {
+                        storeMap();
+                    } else {
+                        mapFile.delete();
+                    }
+                }
+                if (ex != null) {
+                    this.future.failed(ex);
+                } else {
+                    this.future.cancel();
+                }
+            }
+        }
+
+        private void storeMap() {
+            try {
+                this.segmentMap.store(mapFile);
+            } catch (final IOException ex) {
+                log.debug("I/O error storing segment map", ex);
+            }
+        }
+
+        private void cancelSegments() {
+            final List<Future<Long>> futures;
+            synchronized (this.segmentFutures) {
+                futures = new ArrayList<Future<Long>>(this.segmentFutures);
+            }
+            for (final Future<Long> segmentFuture: futures) {
+                segmentFuture.cancel(true);
+            }
+        }
+
+        class SegmentCallback implements FutureCallback<Long> {
+
+            private final int index;
+
+            SegmentCallback(final int index) {
+                super();
+                this.index = index;
+            }
+
+            @Override
+            public void completed(final Long result) {
+                segmentCompleted(this.index);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                abort(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                abort(null);
+            }
+
+        }
+
+    }
+
+}
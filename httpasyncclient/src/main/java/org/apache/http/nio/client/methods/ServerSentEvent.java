@@ -0,0 +1,82 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.util.Args;
+
+/**
+ * Event received from a {@code text/event-stream} feed.
+ *
+ * @since 4.1.5
+ */
+@Contract(threading = ThreadingBehavior.IMMUTABLE)
+public final class ServerSentEvent {
+
+    private final String id;
+    private final String type;
+    private final String data;
+
+    public ServerSentEvent(final String id, final String type, final String data) {
+        super();
+        Args.notNull(type, "Event type");
+        Args.notNull(data, "Event data");
+        this.id = id;
+        this.type = type;
+        this.data = data;
+    }
+
+    /**
+     * Returns the last event ID as of this event, which may have been
+     * set by a preceding event, or {@code null} if none has been set.
+     */
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * Returns the event type, {@code message} unless specified otherwise.
+     */
+    public String getType() {
+        return this.type;
+    }
+
+    /**
+     * Returns the event data. Data of multiple {@code data} fields is
+     * separated by line feeds.
+     */
+    public String getData() {
+        return this.data;
+    }
+
+    @Override
+    public String toString() {
+        return "[id=" + this.id + ", type=" + this.type + ", data=" + this.data + "]";
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.MessageConstraintException;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.IOControl;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.Args;
+
+/**
+ * {@link org.apache.http.nio.protocol.HttpAsyncResponseConsumer} implementation that
+ * parses a {@code text/event-stream} feed as specified by the HTML Living Standard
+ * and delivers events to a {@link ServerSentEventListener} as they are received.
+ * <p>
+ * Fields are parsed line by line as content arrives so events spanning
+ * several chunks of content are reassembled without buffering the feed.
+ * Memory use is bounded by the maximum event size, which applies to both
+ * the length of individual lines and the accumulated data of an event.
+ * Lines can be terminated by {@code CR}, {@code LF} or {@code CRLF}.
+ * <p>
+ * The result of the consumer is the last event ID received, which can be
+ * used to resume the feed. A response status other than {@code 200} or
+ * {@code 204} or a content type other than {@code text/event-stream}
+ * results in a {@link ClientProtocolException}. {@code 204} indicates that
+ * the feed has ended for good, see {@link #isTerminated()}.
+ *
+ * @see EventSource
+ *
+ * @since 4.1.5
+ */
+public class ServerSentEventConsumer extends AsyncLineConsumer<String> {
+
+    static final String TEXT_EVENT_STREAM = "text/event-stream";
+
+    private final ServerSentEventListener listener;
+    private final int maxEventSize;
+    private final StringBuilder data;
+
+    private volatile String lastEventId;
+    private volatile long retry;
+    private volatile boolean terminated;
+    private String idBuffer;
+    private String eventType;
+    private boolean firstLine;
+
+    /**
+     * Creates a consumer.
+     *
+     * @param listener event listener.
+     * @param lastEventId ID of the last event received over a previous
+     *   connection or {@code null}.
+     * @param maxEventSize maximum size of event data and of field lines.
+     */
+    public ServerSentEventConsumer(
+            final ServerSentEventListener listener,
+            final String lastEventId,
+            final int maxEventSize) {
+        super(1024, maxEventSize, true);
+        Args.notNull(listener, "Event listener");
+        Args.positive(maxEventSize, "Max event size");
+        this.listener = listener;
+        this.maxEventSize = maxEventSize;
+        this.data = new StringBuilder();
+        this.lastEventId = lastEventId;
+        this.idBuffer = lastEventId;
+        this.retry = -1;
+        this.firstLine = true;
+    }
+
+    public ServerSentEventConsumer(final ServerSentEventListener listener) {
+        this(listener, null, 1024 * 1024);
+    }
+
+    @Override
+    protected void onResponseReceived(final HttpResponse response) throws HttpException, IOException {
+        final int status = response.getStatusLine().getStatusCode();
+        if (status == HttpStatus.SC_NO_CONTENT) {
+            this.terminated = true;
+            return;
+        }
+        if (status != HttpStatus.SC_OK) {
+            throw new HttpResponseException(status, "Unexpected response status: " + response.getStatusLine());
+        }
+        final HttpEntity entity = response.getEntity();
+        final ContentType contentType = entity != null ? ContentType.get(entity) : null;
+        if (contentType == null || !TEXT_EVENT_STREAM.equalsIgnoreCase(contentType.getMimeType())) {
+            throw new ClientProtocolException("Unexpected content type: "
+                    + (contentType != null ? contentType.getMimeType() : null));
+        }
+    }
+
+    @Override
+    protected void onLineReceived(final ByteBuffer line, final IOControl ioControl) throws IOException {
+        if (this.firstLine) {
+            this.firstLine = false;
+            // skip byte order mark
+            if (line.remaining() >= 3
+                    && line.get(line.position()) == (byte) 0xef
+                    && line.get(line.position() + 1) == (byte) 0xbb
+                    && line.get(line.position() + 2) == (byte) 0xbf) {
+                line.position(line.position() + 3);
+            }
+        }
+        if (!line.hasRemaining()) {
+            dispatch();
+            return;
+        }
+        if (line.get(line.position()) == ':') {
+            // comment
+            return;
+        }
+        final String s = decodeLine(line);
+        final int colon = s.indexOf(':');
+        final String field;
+        final String value;
+        if (colon >= 0) {
+            field = s.substring(0, colon);
+            final int start = colon + 1 < s.length() && s.charAt(colon + 1) == ' ' ? colon + 2 : colon + 1;
+            value = s.substring(start);
+        } else {
+            field = s;
+            value = "";
+        }
+        if ("data".equals(field)) {
+            if (this.data.length() + value.length() + 1 > this.maxEventSize) {
+                throw new MessageConstraintException("Maximum event size limit exceeded");
+            }
+            this.data.append(value).append('\n');
+        } else if ("event".equals(field)) {
+            this.eventType = value;
+        } else if ("id".equals(field)) {
+            if (value.indexOf('\0') < 0) {
+                this.idBuffer = value;
+            }
+        } else if ("retry".equals(field)) {
+            if (!value.isEmpty() && value.length() <= 18 && isDigits(value)) {
+                this.retry = Long.parseLong(value);
+            }
+        }
+    }
+
+    private static boolean isDigits(final String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void dispatch() {
+        this.lastEventId = this.idBuffer;
+        if (this.data.length() == 0) {
+            this.eventType = null;
+            return;
+        }
+        this.data.setLength(this.data.length() - 1);
+        final ServerSentEvent event = new ServerSentEvent(
+                this.lastEventId,
+                this.eventType != null && !this.eventType.isEmpty() ? this.eventType : "message",
+                this.data.toString());
+        this.data.setLength(0);
+        this.eventType = null;
+        this.listener.onEvent(event);
+    }
+
+    @Override
+    protected String buildResult(final HttpContext context) throws Exception {
+        return this.lastEventId;
+    }
+
+    @Override
+    protected void releaseResources() {
+        this.data.setLength(0);
+    }
+
+    /**
+     * Returns the ID of the last event dispatched or {@code null} if none
+     * has been set.
+     */
+    public String getLastEventId() {
+        return this.lastEventId;
+    }
+
+    /**
+     * Returns the reconnection time in milliseconds requested by the server
+     * or {@code -1} if none has been requested.
+     */
+    public long getRetry() {
+        return this.retry;
+    }
+
+    /**
+     * Returns {@code true} if the server has signalled with status
+     * {@code 204} that the feed has ended and must not be reconnected.
+     */
+    public boolean isTerminated() {
+        return this.terminated;
+    }
+
+}
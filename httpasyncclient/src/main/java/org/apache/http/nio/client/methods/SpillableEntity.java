@@ -0,0 +1,236 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.client.util.ByteBufferPool;
+import org.apache.http.util.Args;
+import org.apache.http.util.Asserts;
+
+/**
+ * Streamed, non-repeatable entity whose content has been buffered by
+ * {@link SpillingConsumer} either in memory or in a temporary file.
+ * <p>
+ * Memory buffers held by the entity are released and the temporary file,
+ * if any, is deleted once the content stream or channel gets closed.
+ *
+ * @see SpillingConsumer
+ *
+ * @since 4.1.5
+ */
+public class SpillableEntity extends AbstractHttpEntity {
+
+    private final List<ByteBuffer> buffers;
+    private final ByteBufferPool bufferPool;
+    private final File file;
+    private final RandomAccessFile accessfile;
+    private final long length;
+
+    private boolean consumed;
+    private boolean released;
+
+    SpillableEntity(
+            final List<ByteBuffer> buffers,
+            final ByteBufferPool bufferPool,
+            final File file,
+            final RandomAccessFile accessfile,
+            final long length) {
+        super();
+        this.buffers = buffers;
+        this.bufferPool = bufferPool;
+        this.file = file;
+        this.accessfile = accessfile;
+        this.length = length;
+    }
+
+    /**
+     * Returns {@code true} if the content is held in memory, {@code false}
+     * if it has been spilled to a temporary file.
+     */
+    public boolean isInMemory() {
+        return this.file == null;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public long getContentLength() {
+        return this.length;
+    }
+
+    @Override
+    public synchronized boolean isStreaming() {
+        return !this.consumed;
+    }
+
+    /**
+     * Returns a channel reading the content. Closing the channel releases
+     * resources held by the entity.
+     *
+     * @throws IllegalStateException if the content has already been obtained.
+     */
+    public synchronized ReadableByteChannel getChannel() throws IOException {
+        Asserts.check(!this.consumed, "Content has already been consumed");
+        Asserts.check(!this.released, "Content has already been released");
+        this.consumed = true;
+        if (this.accessfile != null) {
+            final FileChannel fileChannel = this.accessfile.getChannel();
+            fileChannel.position(0);
+            return new ContentChannel(fileChannel);
+        }
+        return new ContentChannel(null);
+    }
+
+    /**
+     * Returns a stream reading the content. Closing the stream releases
+     * resources held by the entity.
+     *
+     * @throws IllegalStateException if the content has already been obtained.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        return Channels.newInputStream(getChannel());
+    }
+
+    @Override
+    public void writeTo(final OutputStream outStream) throws IOException {
+        Args.notNull(outStream, "Output stream");
+        final InputStream inStream = getContent();
+        try {
+            final byte[] tmp = new byte[OUTPUT_BUFFER_SIZE];
+            int l;
+            while ((l = inStream.read(tmp)) != -1) {
+                outStream.write(tmp, 0, l);
+            }
+        } finally {
+            inStream.close();
+        }
+    }
+
+    /**
+     * Releases memory buffers and deletes the temporary file held by the entity.
+     * The content can no longer be read once released.
+     */
+    public synchronized void release() {
+        if (this.released) {
+            return;
+        }
+        this.released = true;
+        if (this.buffers != null) {
+            if (this.bufferPool != null) {
+                for (final ByteBuffer buffer: this.buffers) {
+                    this.bufferPool.release(buffer);
+                }
+            }
+            this.buffers.clear();
+        }
+        if (this.accessfile != null) {
+            try {
+                this.accessfile.close();
+            } catch (final IOException ignore) {
+            }
+            this.file.delete();
+        }
+    }
+
+    private synchronized int readBuffers(final ByteBuffer dst) throws ClosedChannelException {
+        if (this.released) {
+            throw new ClosedChannelException();
+        }
+        int total = 0;
+        for (int i = 0; i < this.buffers.size() && dst.hasRemaining(); i++) {
+            final ByteBuffer src = this.buffers.get(i);
+            if (src.hasRemaining()) {
+                final int chunk = Math.min(src.remaining(), dst.remaining());
+                final ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + chunk);
+                dst.put(slice);
+                src.position(src.position() + chunk);
+                total += chunk;
+            }
+        }
+        if (total == 0 && dst.hasRemaining()) {
+            return -1;
+        }
+        return total;
+    }
+
+    private class ContentChannel implements ReadableByteChannel {
+
+        private final FileChannel fileChannel;
+
+        private volatile boolean open;
+
+        ContentChannel(final FileChannel fileChannel) {
+            super();
+            this.fileChannel = fileChannel;
+            this.open = true;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            Args.notNull(dst, "Byte buffer");
+            if (!this.open) {
+                throw new ClosedChannelException();
+            }
+            if (this.fileChannel != null) {
+                return this.fileChannel.read(dst);
+            }
+            return readBuffers(dst);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.open) {
+                this.open = false;
+                release();
+            }
+        }
+
+    }
+
+}
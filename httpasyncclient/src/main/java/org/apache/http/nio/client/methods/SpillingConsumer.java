@@ -0,0 +1,226 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.util.ByteBufferPool;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.Args;
+import org.apache.http.util.Asserts;
+
+/**
+ * {@link org.apache.http.nio.protocol.HttpAsyncResponseConsumer} implementation that
+ * buffers content entity enclosed in an HTTP response in memory as long as it does
+ * not exceed the given threshold and transparently spills it into a temporary file
+ * once it does. Content entities declaring a length above the threshold are
+ * streamed to the file right away.
+ * <p>
+ * The resulting response encloses a {@link SpillableEntity} that owns the buffered
+ * content. Its content stream or channel must be closed in order to release memory
+ * buffers and to delete the temporary file.
+ *
+ * @since 4.1.5
+ */
+public class SpillingConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+    private final long threshold;
+    private final File directory;
+    private final int bufSize;
+    private final ByteBufferPool bufferPool;
+
+    private HttpResponse response;
+    private ContentType contentType;
+    private String contentEncoding;
+    private List<ByteBuffer> buffers;
+    private ByteBuffer current;
+    private File file;
+    private RandomAccessFile accessfile;
+    private FileChannel fileChannel;
+    private long length;
+
+    /**
+     * Creates a spilling consumer.
+     *
+     * @param threshold maximum size of content to be kept in memory.
+     * @param directory directory for temporary files. If {@code null} the default
+     *   temporary-file directory is used.
+     * @param bufSize size of individual memory buffers.
+     * @param bufferPool buffer pool memory buffers are leased from. If {@code null}
+     *   memory buffers are allocated on the heap.
+     */
+    public SpillingConsumer(
+            final long threshold,
+            final File directory,
+            final int bufSize,
+            final ByteBufferPool bufferPool) {
+        super();
+        Args.notNegative(threshold, "Threshold");
+        Args.positive(bufSize, "Buffer size");
+        this.threshold = threshold;
+        this.directory = directory;
+        this.bufSize = bufSize;
+        this.bufferPool = bufferPool;
+    }
+
+    public SpillingConsumer(final long threshold, final ByteBufferPool bufferPool) {
+        this(threshold, null, 8 * 1024, bufferPool);
+    }
+
+    public SpillingConsumer(final long threshold) {
+        this(threshold, null);
+    }
+
+    @Override
+    protected void onResponseReceived(final HttpResponse response) {
+        this.response = response;
+    }
+
+    @Override
+    protected void onEntityEnclosed(
+            final HttpEntity entity, final ContentType contentType) throws IOException {
+        this.contentType = contentType;
+        this.contentEncoding = entity.getContentEncoding() != null ? entity.getContentEncoding().getValue() : null;
+        this.buffers = new ArrayList<ByteBuffer>();
+        this.length = 0;
+        if (entity.getContentLength() > this.threshold) {
+            spill();
+        }
+    }
+
+    @Override
+    protected void onContentReceived(
+            final ContentDecoder decoder, final IOControl ioControl) throws IOException {
+        Asserts.notNull(this.buffers, "Content buffer");
+        if (this.fileChannel == null) {
+            for (;;) {
+                if (this.current == null || !this.current.hasRemaining()) {
+                    this.current = this.bufferPool != null ?
+                            this.bufferPool.allocate(this.bufSize) : ByteBuffer.allocate(this.bufSize);
+                    this.buffers.add(this.current);
+                }
+                final int bytesRead = decoder.read(this.current);
+                if (bytesRead <= 0) {
+                    break;
+                }
+                this.length += bytesRead;
+                if (this.length > this.threshold) {
+                    spill();
+                    break;
+                }
+            }
+        }
+        if (this.fileChannel != null) {
+            final long transferred = ZeroCopyConsumer.transfer(
+                    decoder, this.fileChannel, this.length, Integer.MAX_VALUE);
+            if (transferred > 0) {
+                this.length += transferred;
+            }
+        }
+    }
+
+    private void spill() throws IOException {
+        this.file = File.createTempFile("httpasyncclient", ".tmp", this.directory);
+        this.accessfile = new RandomAccessFile(this.file, "rw");
+        this.fileChannel = this.accessfile.getChannel();
+        long pos = 0;
+        for (final ByteBuffer buffer: this.buffers) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                pos += this.fileChannel.write(buffer, pos);
+            }
+        }
+        releaseBuffers();
+    }
+
+    private void releaseBuffers() {
+        if (this.buffers != null) {
+            if (this.bufferPool != null) {
+                for (final ByteBuffer buffer: this.buffers) {
+                    this.bufferPool.release(buffer);
+                }
+            }
+            this.buffers.clear();
+        }
+        this.current = null;
+    }
+
+    @Override
+    protected HttpResponse buildResult(final HttpContext context) throws Exception {
+        if (this.buffers != null) {
+            final SpillableEntity entity;
+            if (this.accessfile != null) {
+                entity = new SpillableEntity(null, null, this.file, this.accessfile, this.length);
+            } else {
+                final List<ByteBuffer> content = new ArrayList<ByteBuffer>(this.buffers);
+                for (final ByteBuffer buffer: content) {
+                    buffer.flip();
+                }
+                entity = new SpillableEntity(content, this.bufferPool, null, null, this.length);
+            }
+            entity.setContentType(this.contentType != null ? this.contentType.toString() : null);
+            entity.setContentEncoding(this.contentEncoding);
+            // Ownership of the content passes to the entity
+            this.buffers = null;
+            this.current = null;
+            this.file = null;
+            this.accessfile = null;
+            this.fileChannel = null;
+            this.response.setEntity(entity);
+        }
+        return this.response;
+    }
+
+    @Override
+    protected void releaseResources() {
+        releaseBuffers();
+        this.buffers = null;
+        if (this.accessfile != null) {
+            try {
+                this.accessfile.close();
+            } catch (final IOException ignore) {
+            }
+            this.file.delete();
+            this.accessfile = null;
+            this.fileChannel = null;
+            this.file = null;
+        }
+    }
+
+}
@@ -0,0 +1,332 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.Args;
+import org.apache.http.util.Asserts;
+
+/**
+ * {@link HttpAsyncRequestProducer} that streams out request content written
+ * by application threads through a bounded queue of buffers.
+ * <p>
+ * Application threads hand over buffers with content by means of
+ * {@link #put(ByteBuffer)}, which blocks while the amount of content queued
+ * exceeds the capacity of the producer, or {@link #write(ByteBuffer, FutureCallback)},
+ * which never blocks and returns a {@link Future} that gets completed once
+ * the buffer content has been written out. Ownership of buffers passes on to
+ * the producer: the content of a buffer must not be modified until it has been
+ * written out. Once all content has been handed over {@link #writeCompleted()}
+ * must be called in order to terminate the request message.
+ * <p>
+ * The I/O dispatch thread drains queued buffers into the content encoder.
+ * Output gets suspended whenever the queue runs empty and requested again
+ * by the application thread queueing more content.
+ * <p>
+ * If the request message does not enclose an entity, chunk coding is used.
+ * The producer is not repeatable.
+ *
+ * @since 4.1.5
+ */
+@Contract(threading = ThreadingBehavior.SAFE)
+public class StreamingRequestProducer implements HttpAsyncRequestProducer {
+
+    private final HttpHost target;
+    private final HttpEntityEnclosingRequest request;
+    private final long capacity;
+    private final LinkedList<Item> queue;
+
+    private long queued;
+    private boolean endOfStream;
+    private boolean completed;
+    private Exception exception;
+    private IOControl ioControl;
+    private boolean suspended;
+
+    /**
+     * Creates a producer.
+     *
+     * @param target target host.
+     * @param request request message.
+     * @param capacity maximum number of content bytes queued before
+     *   {@link #put(ByteBuffer)} starts blocking.
+     */
+    public StreamingRequestProducer(
+            final HttpHost target,
+            final HttpEntityEnclosingRequest request,
+            final int capacity) {
+        super();
+        Args.notNull(target, "HTTP host");
+        Args.notNull(request, "HTTP request");
+        Args.positive(capacity, "Capacity");
+        this.target = target;
+        this.request = request;
+        this.capacity = capacity;
+        this.queue = new LinkedList<Item>();
+        if (request.getEntity() == null) {
+            final BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setChunked(true);
+            request.setEntity(entity);
+        }
+    }
+
+    @Override
+    public HttpRequest generateRequest() {
+        return this.request;
+    }
+
+    @Override
+    public HttpHost getTarget() {
+        return this.target;
+    }
+
+    private void ensureWritable() throws IOException {
+        if (this.exception != null) {
+            throw new IOException("Request aborted", this.exception);
+        }
+        Asserts.check(!this.endOfStream, "Request content already completed");
+    }
+
+    private void enqueue(final Item item) {
+        this.queue.add(item);
+        this.queued += item.buffer.remaining();
+        if (this.suspended) {
+            this.suspended = false;
+            this.ioControl.requestOutput();
+        }
+    }
+
+    /**
+     * Queues the given buffer blocking while the amount of content queued
+     * exceeds the capacity of the producer.
+     *
+     * @param src buffer with content. Must not be modified until its content
+     *   has been written out.
+     * @throws IOException if the request has failed or been cancelled.
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    public synchronized void put(final ByteBuffer src) throws IOException {
+        Args.notNull(src, "Buffer");
+        ensureWritable();
+        try {
+            while (this.queued >= this.capacity) {
+                wait();
+                ensureWritable();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for queue capacity");
+        }
+        if (src.hasRemaining()) {
+            enqueue(new Item(src, null));
+        }
+    }
+
+    /**
+     * Queues the given buffer without blocking. The returned future gets
+     * completed with the buffer once its content has been written out,
+     * at which point the buffer can be re-used. In order to respect
+     * the capacity of the queue the caller is expected to await completion
+     * of outstanding writes before queueing more content.
+     *
+     * @param src buffer with content. Must not be modified until its content
+     *   has been written out.
+     * @param callback future callback. May be {@code null}.
+     * @return future completed once the buffer content has been written out.
+     */
+    public Future<ByteBuffer> write(final ByteBuffer src, final FutureCallback<ByteBuffer> callback) {
+        Args.notNull(src, "Buffer");
+        final BasicFuture<ByteBuffer> future = new BasicFuture<ByteBuffer>(callback);
+        final boolean empty = !src.hasRemaining();
+        Exception ex = null;
+        synchronized (this) {
+            try {
+                ensureWritable();
+                if (!empty) {
+                    enqueue(new Item(src, future));
+                }
+            } catch (final Exception e) {
+                ex = e;
+            }
+        }
+        if (ex != null) {
+            future.failed(ex);
+        } else if (empty) {
+            future.completed(src);
+        }
+        return future;
+    }
+
+    /**
+     * Returns the number of content bytes queued.
+     */
+    public synchronized long getQueued() {
+        return this.queued;
+    }
+
+    /**
+     * Signals that all request content has been handed over.
+     */
+    public synchronized void writeCompleted() throws IOException {
+        if (this.endOfStream) {
+            return;
+        }
+        ensureWritable();
+        this.endOfStream = true;
+        if (this.suspended) {
+            this.suspended = false;
+            this.ioControl.requestOutput();
+        }
+    }
+
+    @Override
+    public void produceContent(
+            final ContentEncoder encoder, final IOControl ioControl) throws IOException {
+        final List<Item> written = new ArrayList<Item>();
+        try {
+            synchronized (this) {
+                this.ioControl = ioControl;
+                while (!this.queue.isEmpty()) {
+                    final Item item = this.queue.getFirst();
+                    final int bytesWritten = encoder.write(item.buffer);
+                    this.queued -= bytesWritten;
+                    if (item.buffer.hasRemaining()) {
+                        break;
+                    }
+                    this.queue.removeFirst();
+                    written.add(item);
+                }
+                if (!written.isEmpty()) {
+                    notifyAll();
+                }
+                if (this.queue.isEmpty()) {
+                    if (this.endOfStream) {
+                        encoder.complete();
+                    } else {
+                        this.suspended = true;
+                        ioControl.suspendOutput();
+                    }
+                }
+            }
+        } finally {
+            for (final Item item: written) {
+                if (item.future != null) {
+                    item.future.completed(item.buffer);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void requestCompleted(final HttpContext context) {
+        synchronized (this) {
+            this.completed = true;
+            notifyAll();
+        }
+    }
+
+    private void abort(final Exception ex) {
+        final List<Item> pending;
+        synchronized (this) {
+            if (this.exception == null) {
+                this.exception = ex;
+            }
+            this.completed = true;
+            this.suspended = false;
+            pending = new ArrayList<Item>(this.queue);
+            this.queue.clear();
+            this.queued = 0;
+            notifyAll();
+        }
+        for (final Item item: pending) {
+            if (item.future != null) {
+                item.future.failed(ex);
+            }
+        }
+    }
+
+    @Override
+    public void failed(final Exception ex) {
+        abort(ex);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public void resetRequest() {
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (this.completed && this.queue.isEmpty()) {
+                return;
+            }
+        }
+        abort(new IOException("Request producer closed"));
+    }
+
+    @Override
+    public String toString() {
+        return this.target + " " + this.request.getRequestLine();
+    }
+
+    static class Item {
+
+        final ByteBuffer buffer;
+        final BasicFuture<ByteBuffer> future;
+
+        Item(final ByteBuffer buffer, final BasicFuture<ByteBuffer> future) {
+            this.buffer = buffer;
+            this.future = future;
+        }
+
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.MalformedInputException;
+
+/**
+ * UTF-8 decoding routines operating directly on the backing arrays of heap buffers.
+ * <p>
+ * Runs of ASCII characters are copied by a tight loop without any per character
+ * branching on the sequence length, which makes decoding of mostly ASCII content
+ * such as JSON or CSV considerably cheaper than going through
+ * a {@link java.nio.charset.CharsetDecoder}. Malformed input is always reported.
+ */
+final class Utf8Decoder {
+
+    private Utf8Decoder() {
+    }
+
+    private static boolean isContinuation(final int b) {
+        return (b & 0xc0) == 0x80;
+    }
+
+    /**
+     * Decodes as many complete characters from {@code src} into {@code dst} as
+     * the latter can take. An incomplete byte sequence at the end of {@code src}
+     * is left unconsumed.
+     *
+     * @param src heap buffer with UTF-8 content.
+     * @param dst heap buffer to decode into.
+     * @throws MalformedInputException if the content is not valid UTF-8.
+     */
+    static void decode(final ByteBuffer src, final CharBuffer dst) throws CharacterCodingException {
+        final byte[] sa = src.array();
+        final int soff = src.arrayOffset();
+        int sp = soff + src.position();
+        final int sl = soff + src.limit();
+        final char[] da = dst.array();
+        final int doff = dst.arrayOffset();
+        int dp = doff + dst.position();
+        final int dl = doff + dst.limit();
+        try {
+            final int asciiEnd = sp + Math.min(sl - sp, dl - dp);
+            while (sp < asciiEnd && sa[sp] >= 0) {
+                da[dp++] = (char) sa[sp++];
+            }
+            while (sp < sl && dp < dl) {
+                final int b1 = sa[sp];
+                if (b1 >= 0) {
+                    da[dp++] = (char) b1;
+                    sp++;
+                } else if ((b1 & 0xe0) == 0xc0) {
+                    if (sl - sp < 2) {
+                        return;
+                    }
+                    final int b2 = sa[sp + 1];
+                    if ((b1 & 0x1e) == 0 || !isContinuation(b2)) {
+                        throw new MalformedInputException(1);
+                    }
+                    da[dp++] = (char) (((b1 & 0x1f) << 6) | (b2 & 0x3f));
+                    sp += 2;
+                } else if ((b1 & 0xf0) == 0xe0) {
+                    if (sl - sp < 3) {
+                        return;
+                    }
+                    final int b2 = sa[sp + 1];
+                    final int b3 = sa[sp + 2];
+                    if (!isContinuation(b2) || !isContinuation(b3)) {
+                        throw new MalformedInputException(1);
+                    }
+                    final int c = ((b1 & 0x0f) << 12) | ((b2 & 0x3f) << 6) | (b3 & 0x3f);
+                    if (c < 0x800 || (c >= 0xd800 && c <= 0xdfff)) {
+                        throw new MalformedInputException(3);
+                    }
+                    da[dp++] = (char) c;
+                    sp += 3;
+                } else if ((b1 & 0xf8) == 0xf0) {
+                    if (sl - sp < 4 || dl - dp < 2) {
+                        return;
+                    }
+                    final int b2 = sa[sp + 1];
+                    final int b3 = sa[sp + 2];
+                    final int b4 = sa[sp + 3];
+                    if (!isContinuation(b2) || !isContinuation(b3) || !isContinuation(b4)) {
+                        throw new MalformedInputException(1);
+                    }
+                    final int cp = ((b1 & 0x07) << 18) | ((b2 & 0x3f) << 12) | ((b3 & 0x3f) << 6) | (b4 & 0x3f);
+                    if (cp < 0x10000 || cp > 0x10ffff) {
+                        throw new MalformedInputException(4);
+                    }
+                    final int offset = cp - 0x10000;
+                    da[dp++] = (char) (0xd800 + (offset >>> 10));
+                    da[dp++] = (char) (0xdc00 + (offset & 0x3ff));
+                    sp += 4;
+                } else {
+                    throw new MalformedInputException(1);
+                }
+            }
+        } finally {
+            src.position(sp - soff);
+            dst.position(dp - doff);
+        }
+    }
+
+    /**
+     * Decodes the entire remaining content of the buffer.
+     *
+     * @param src buffer with UTF-8 content.
+     * @return decoded content.
+     * @throws MalformedInputException if the content is not valid UTF-8
+     *   or ends with an incomplete byte sequence.
+     */
+    static String decode(final ByteBuffer src) throws CharacterCodingException {
+        final ByteBuffer buf;
+        if (src.hasArray()) {
+            buf = src;
+        } else {
+            buf = ByteBuffer.allocate(src.remaining());
+            buf.put(src);
+            buf.flip();
+        }
+        final CharBuffer dst = CharBuffer.allocate(buf.remaining());
+        decode(buf, dst);
+        if (buf.hasRemaining()) {
+            throw new MalformedInputException(buf.remaining());
+        }
+        return new String(dst.array(), 0, dst.position());
+    }
+
+}
@@ -41,6 +41,7 @@ import org.apache.http.nio.ContentDecoder;
 import org.apache.http.nio.ContentDecoderChannel;
 import org.apache.http.nio.FileContentDecoder;
 import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.util.ByteBufferPool;
 import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.Asserts;
@@ -48,9 +49,15 @@ import org.apache.http.util.Asserts;
 /**
  * {@link org.apache.http.nio.protocol.HttpAsyncResponseConsumer} implementation that
  * streams content entity enclosed in an HTTP response directly into a file
- * without an intermediate in-memory buffer.
+ * without an intermediate in-memory buffer. Over TLS sessions content is
+ * passed on through a direct buffer holding a single TLS record worth of data.
  * <p>
  * This consumer can be useful for file downloads.
+ * <p>
+ * Content is written by the I/O dispatch thread only. The position in the file
+ * reached can be read by other threads at any time by means of
+ * {@link #getPosition()}, also once the response has been processed,
+ * the consumer has failed or has been closed.
  *
  * @since 4.0
  */
@@ -58,20 +65,33 @@ public abstract class ZeroCopyConsumer<T> extends AbstractAsyncResponseConsumer<
 
     private final File file;
     private final RandomAccessFile accessfile;
+    private final RecordTransferBuffer recordBuffer;
 
     private HttpResponse response;
     private ContentType contentType;
     private Header contentEncoding;
     private FileChannel fileChannel;
-    private long idx = -1;
+    // Written by the I/O dispatch thread only, read by any thread
+    private volatile long idx = -1;
 
-    public ZeroCopyConsumer(final File file) throws FileNotFoundException {
+    /**
+     * @param bufferPool pool of buffers used to transfer content over TLS sessions.
+     *   If {@code null} the consumer allocates a buffer of its own when needed.
+     *
+     * @since 4.1.5
+     */
+    public ZeroCopyConsumer(final File file, final ByteBufferPool bufferPool) throws FileNotFoundException {
         super();
         if (file == null) {
             throw new IllegalArgumentException("File may nor be null");
         }
         this.file = file;
         this.accessfile = new RandomAccessFile(this.file, "rw");
+        this.recordBuffer = new RecordTransferBuffer(bufferPool);
+    }
+
+    public ZeroCopyConsumer(final File file) throws FileNotFoundException {
+        this(file, null);
     }
 
     @Override
@@ -85,7 +105,41 @@ public abstract class ZeroCopyConsumer<T> extends AbstractAsyncResponseConsumer<
         this.contentType = contentType;
         this.contentEncoding = entity.getContentEncoding();
         this.fileChannel = this.accessfile.getChannel();
-        this.idx = 0;
+        this.idx = getOffset(this.response);
+    }
+
+    /**
+     * Returns the offset in the file content enclosed in the given response
+     * is to be written at. This implementation returns {@code 0}.
+     * <p>
+     * Subclasses can override this method in order to append content
+     * of a partial response to previously transferred content.
+     *
+     * @param response response head.
+     * @return file offset.
+     *
+     * @since 4.1.5
+     */
+    protected long getOffset(final HttpResponse response) throws IOException {
+        return 0;
+    }
+
+    /**
+     * Returns the offset in the file the next content byte will be written at
+     * or {@code -1} if no response enclosing an entity has been received yet.
+     * Once the entity has been received the position starts at the offset
+     * returned by {@link #getOffset(HttpResponse)} and is never reset, so that
+     * after {@link #failed(Exception)} or {@link #close()} it is the offset
+     * content transfer can be resumed from.
+     * <p>
+     * This method can be called by any thread. The value returned is
+     * a snapshot of the position that may advance concurrently while
+     * content is being received.
+     *
+     * @since 4.1.5
+     */
+    public long getPosition() {
+        return this.idx;
     }
 
     @Override
@@ -93,14 +147,13 @@ public abstract class ZeroCopyConsumer<T> extends AbstractAsyncResponseConsumer<
             final ContentDecoder decoder, final IOControl ioControl) throws IOException {
         Asserts.notNull(this.fileChannel, "File channel");
         final long transferred;
-        if (decoder instanceof FileContentDecoder) {
-            transferred = ((FileContentDecoder)decoder).transfer(
-                    this.fileChannel, this.idx, Integer.MAX_VALUE);
+        if (RecordTransferBuffer.isSecure(ioControl)) {
+            transferred = this.recordBuffer.read(decoder, this.fileChannel, this.idx, Integer.MAX_VALUE);
         } else {
-            transferred = this.fileChannel.transferFrom(
-                    new ContentDecoderChannel(decoder), this.idx, Integer.MAX_VALUE);
+            transferred = transfer(decoder, this.fileChannel, this.idx, Integer.MAX_VALUE);
         }
         if (transferred > 0) {
+            // Not atomic, but the I/O dispatch thread is the only writer
             this.idx += transferred;
         }
         if (decoder.isCompleted()) {
@@ -108,6 +161,22 @@ public abstract class ZeroCopyConsumer<T> extends AbstractAsyncResponseConsumer<
         }
     }
 
+    static long transfer(
+            final ContentDecoder decoder,
+            final FileChannel fileChannel,
+            final long position,
+            final long count) throws IOException {
+        if (decoder instanceof FileContentDecoder) {
+            final long transferred = ((FileContentDecoder)decoder).transfer(fileChannel, position, count);
+            if (transferred != 0 || decoder.isCompleted()) {
+                return transferred;
+            }
+            // FileChannel#transferFrom does not signal the end of stream.
+            // Read through the decoder in order to detect a premature one.
+        }
+        return fileChannel.transferFrom(new ContentDecoderChannel(decoder), position, count);
+    }
+
     /**
      * Invoked to process received file.
      *
@@ -0,0 +1,313 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.http.Consts;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.ContentEncoderChannel;
+import org.apache.http.nio.FileContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.util.ByteBufferPool;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.Args;
+import org.apache.http.util.ByteArrayBuffer;
+
+/**
+ * {@link HttpAsyncRequestProducer} that generates a {@code POST} request
+ * with a {@code multipart/form-data} body.
+ * <p>
+ * Boundaries and part headers are rendered once into small byte arrays
+ * written directly to the content encoder, while file parts are streamed
+ * from the file with {@link FileContentEncoder#transfer(FileChannel, long, long)}
+ * whenever the encoder supports it, or through a direct buffer holding
+ * a single TLS record over TLS sessions. The body is never assembled in memory.
+ * The content length is computed upfront so the body is not chunk coded.
+ * <p>
+ * The producer is repeatable as long as files referred to by file parts
+ * remain unchanged.
+ *
+ * @since 4.1.5
+ */
+public class ZeroCopyMultipartPost implements HttpAsyncRequestProducer {
+
+    private static final char[] BOUNDARY_CHARS =
+            "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+    private final URI requestURI;
+    private final String boundary;
+    private final List<Segment> segments;
+    private final RecordTransferBuffer recordBuffer;
+
+    private int index;
+    private long pos;
+    private RandomAccessFile accessfile;
+    private FileChannel fileChannel;
+
+    /**
+     * Creates a multipart producer.
+     *
+     * @param requestURI request URI.
+     * @param parts body parts.
+     * @param boundary multipart boundary. If {@code null} a random boundary
+     *   is generated.
+     * @param bufferPool pool of buffers used to transfer content over TLS sessions.
+     *   If {@code null} the producer allocates a buffer of its own when needed.
+     */
+    public ZeroCopyMultipartPost(
+            final URI requestURI,
+            final List<MultipartPart> parts,
+            final String boundary,
+            final ByteBufferPool bufferPool) {
+        super();
+        Args.notNull(requestURI, "Request URI");
+        Args.notEmpty(parts, "Parts");
+        this.requestURI = requestURI;
+        this.boundary = boundary != null ? boundary : generateBoundary();
+        this.segments = createSegments(parts, this.boundary);
+        this.recordBuffer = new RecordTransferBuffer(bufferPool);
+    }
+
+    /**
+     * Creates a multipart producer.
+     *
+     * @param requestURI request URI.
+     * @param parts body parts.
+     * @param boundary multipart boundary. If {@code null} a random boundary
+     *   is generated.
+     */
+    public ZeroCopyMultipartPost(
+            final URI requestURI,
+            final List<MultipartPart> parts,
+            final String boundary) {
+        this(requestURI, parts, boundary, null);
+    }
+
+    public ZeroCopyMultipartPost(final URI requestURI, final List<MultipartPart> parts) {
+        this(requestURI, parts, null);
+    }
+
+    public ZeroCopyMultipartPost(final String requestURI, final List<MultipartPart> parts) {
+        this(URI.create(requestURI), parts, null);
+    }
+
+    static String generateBoundary() {
+        final Random rand = new Random();
+        final StringBuilder buffer = new StringBuilder();
+        final int count = rand.nextInt(11) + 30;
+        for (int i = 0; i < count; i++) {
+            buffer.append(BOUNDARY_CHARS[rand.nextInt(BOUNDARY_CHARS.length)]);
+        }
+        return buffer.toString();
+    }
+
+    static String escape(final String s) {
+        return s.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+    }
+
+    private static void append(final ByteArrayBuffer buffer, final String s) {
+        final byte[] b = s.getBytes(Consts.UTF_8);
+        buffer.append(b, 0, b.length);
+    }
+
+    private static List<Segment> createSegments(final List<MultipartPart> parts, final String boundary) {
+        final List<Segment> segments = new ArrayList<Segment>();
+        final ByteArrayBuffer buffer = new ByteArrayBuffer(256);
+        for (final MultipartPart part: parts) {
+            Args.notNull(part, "Part");
+            append(buffer, "--" + boundary + "\r\n");
+            append(buffer, "Content-Disposition: form-data; name=\"" + escape(part.getName()) + "\"");
+            if (part.getFilename() != null) {
+                append(buffer, "; filename=\"" + escape(part.getFilename()) + "\"");
+            }
+            append(buffer, "\r\n");
+            if (part.getContentType() != null) {
+                append(buffer, "Content-Type: " + part.getContentType() + "\r\n");
+            }
+            append(buffer, "\r\n");
+            if (part.getFile() != null) {
+                segments.add(new Segment(buffer.toByteArray(), null));
+                buffer.clear();
+                segments.add(new Segment(null, part));
+            } else {
+                final byte[] content = part.getContent();
+                buffer.append(content, 0, content.length);
+            }
+            append(buffer, "\r\n");
+        }
+        append(buffer, "--" + boundary + "--\r\n");
+        segments.add(new Segment(buffer.toByteArray(), null));
+        return segments;
+    }
+
+    public String getBoundary() {
+        return this.boundary;
+    }
+
+    /**
+     * Returns the total length of the request body.
+     */
+    public long getContentLength() {
+        long len = 0;
+        for (final Segment segment: this.segments) {
+            len += segment.getLength();
+        }
+        return len;
+    }
+
+    @Override
+    public HttpRequest generateRequest() throws IOException, HttpException {
+        final BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setChunked(false);
+        entity.setContentLength(getContentLength());
+        entity.setContentType("multipart/form-data; boundary=" + this.boundary);
+        final HttpPost httppost = new HttpPost(this.requestURI);
+        httppost.setEntity(entity);
+        return httppost;
+    }
+
+    @Override
+    public synchronized HttpHost getTarget() {
+        return URIUtils.extractHost(this.requestURI);
+    }
+
+    @Override
+    public synchronized void produceContent(
+            final ContentEncoder encoder, final IOControl ioControl) throws IOException {
+        while (this.index < this.segments.size()) {
+            final Segment segment = this.segments.get(this.index);
+            final long len = segment.getLength();
+            if (segment.data != null) {
+                final ByteBuffer src = ByteBuffer.wrap(
+                        segment.data, (int) this.pos, segment.data.length - (int) this.pos);
+                this.pos += encoder.write(src);
+            } else if (len > 0) {
+                if (this.fileChannel == null) {
+                    this.accessfile = new RandomAccessFile(segment.part.getFile(), "r");
+                    this.fileChannel = this.accessfile.getChannel();
+                }
+                final long position = segment.part.getOffset() + this.pos;
+                final long transferred;
+                if (RecordTransferBuffer.isSecure(ioControl)) {
+                    transferred = this.recordBuffer.write(
+                            this.fileChannel, position, len - this.pos, encoder);
+                } else if (encoder instanceof FileContentEncoder) {
+                    transferred = ((FileContentEncoder) encoder).transfer(
+                            this.fileChannel, position, len - this.pos);
+                } else {
+                    transferred = this.fileChannel.transferTo(
+                            position, len - this.pos, new ContentEncoderChannel(encoder));
+                }
+                if (transferred == 0 && position >= this.fileChannel.size()) {
+                    throw new IOException("Unexpected end of file " + segment.part.getFile());
+                }
+                if (transferred > 0) {
+                    this.pos += transferred;
+                }
+            }
+            if (this.pos < len) {
+                return;
+            }
+            closeChannel();
+            this.index++;
+            this.pos = 0;
+        }
+        encoder.complete();
+    }
+
+    private void closeChannel() throws IOException {
+        if (this.accessfile != null) {
+            this.fileChannel = null;
+            final RandomAccessFile local = this.accessfile;
+            this.accessfile = null;
+            local.close();
+        }
+    }
+
+    @Override
+    public void requestCompleted(final HttpContext context) {
+    }
+
+    @Override
+    public void failed(final Exception ex) {
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public synchronized void resetRequest() throws IOException {
+        closeChannel();
+        this.recordBuffer.release();
+        this.index = 0;
+        this.pos = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.recordBuffer.release();
+        try {
+            closeChannel();
+        } catch (final IOException ignore) {
+        }
+    }
+
+    static class Segment {
+
+        private final byte[] data;
+        private final MultipartPart part;
+
+        Segment(final byte[] data, final MultipartPart part) {
+            super();
+            this.data = data;
+            this.part = part;
+        }
+
+        long getLength() {
+            return this.data != null ? this.data.length : this.part.getLength();
+        }
+
+    }
+
+}
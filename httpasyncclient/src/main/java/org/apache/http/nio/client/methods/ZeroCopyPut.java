@@ -34,12 +34,14 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.ContentType;
+import org.apache.http.nio.client.util.ByteBufferPool;
 
 /**
  * {@link org.apache.http.nio.protocol.HttpAsyncRequestProducer} implementation
  * that generates an HTTP {@code PUT} request enclosing content of a file.
  * The request content will be streamed out directly from the underlying file
- * without an intermediate in-memory buffer.
+ * without an intermediate in-memory buffer. Over TLS sessions content is
+ * passed on through a direct buffer holding a single TLS record worth of data.
  *
  * @since 4.0
  */
@@ -52,6 +54,19 @@ public class ZeroCopyPut extends BaseZeroCopyRequestProducer {
         super(requestURI, content, contentType);
     }
 
+    /**
+     * @param bufferPool pool of buffers used to transfer content over TLS sessions.
+     *
+     * @since 4.1.5
+     */
+    public ZeroCopyPut(
+            final URI requestURI,
+            final File content,
+            final ContentType contentType,
+            final ByteBufferPool bufferPool) throws FileNotFoundException {
+        super(requestURI, content, contentType, bufferPool);
+    }
+
     public ZeroCopyPut(
             final String requestURI,
             final File content,
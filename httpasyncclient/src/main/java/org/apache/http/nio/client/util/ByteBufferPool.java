@@ -0,0 +1,55 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.util;
+
+import java.nio.ByteBuffer;
+
+import org.apache.http.nio.util.ByteBufferAllocator;
+
+/**
+ * {@link ByteBufferAllocator} that can take back buffers it has allocated
+ * once they are no longer in use and hand them out again.
+ * <p>
+ * Buffers returned by {@link #allocate(int)} may have a greater capacity
+ * than requested. A buffer must not be accessed in any way once it has been
+ * {@link #release(ByteBuffer) released}.
+ *
+ * @since 4.1.5
+ */
+public interface ByteBufferPool extends ByteBufferAllocator {
+
+    /**
+     * Returns the buffer to the pool. The buffer must have been allocated
+     * by this pool and must not be released more than once. Implementations
+     * may discard buffers they can tell were not allocated by them, but are
+     * not required to detect such misuse.
+     *
+     * @param buffer the buffer to release.
+     */
+    void release(ByteBuffer buffer);
+
+}
@@ -0,0 +1,260 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.nio.IOControl;
+import org.apache.http.util.Args;
+
+/**
+ * Client-wide budget of response content held in memory by exchanges
+ * in progress.
+ * <p>
+ * Every exchange opens a {@link Reservation} attributed to its route and
+ * reserves content bytes from the budget as they are consumed. Reserved
+ * bytes are returned to the budget once the exchange completes. Exchanges
+ * that consume content while the budget is exhausted get input suspended on
+ * their connection until enough bytes have been returned.
+ * <p>
+ * The budget is a soft limit: content already read by an exchange is never
+ * discarded, so the amount of content reserved can exceed the capacity by
+ * the size of one read per connection. In order to always make progress,
+ * an exchange is never suspended while no other exchange holding
+ * a reservation can return it, that is the last exchange still reading
+ * is allowed to exceed the budget.
+ *
+ * @since 4.1.5
+ */
+@Contract(threading = ThreadingBehavior.SAFE)
+public class ContentBudget {
+
+    private final long capacity;
+    private final Map<HttpRoute, Long> routeReserved;
+    private final LinkedList<Reservation> suspended;
+
+    private long reserved;
+    private int active;
+
+    /**
+     * Creates a budget.
+     *
+     * @param capacity maximum number of content bytes exchanges may hold in total.
+     */
+    public ContentBudget(final long capacity) {
+        super();
+        Args.positive(capacity, "Capacity");
+        this.capacity = capacity;
+        this.routeReserved = new HashMap<HttpRoute, Long>();
+        this.suspended = new LinkedList<Reservation>();
+    }
+
+    /**
+     * Opens a new reservation for an exchange over the given route.
+     */
+    public Reservation open(final HttpRoute route) {
+        Args.notNull(route, "Route");
+        return new Reservation(route);
+    }
+
+    public long getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the total number of bytes currently reserved.
+     */
+    public synchronized long getReserved() {
+        return this.reserved;
+    }
+
+    /**
+     * Returns the number of bytes currently reserved by exchanges over the given route.
+     */
+    public synchronized long getReserved(final HttpRoute route) {
+        final Long n = this.routeReserved.get(route);
+        return n != null ? n.longValue() : 0;
+    }
+
+    /**
+     * Returns routes exchanges currently hold reservations for.
+     */
+    public synchronized Set<HttpRoute> getRoutes() {
+        return new HashSet<HttpRoute>(this.routeReserved.keySet());
+    }
+
+    /**
+     * Returns the number of exchanges currently suspended due to the budget
+     * being exhausted.
+     */
+    public synchronized int getSuspended() {
+        return this.suspended.size();
+    }
+
+    private void addToRoute(final HttpRoute route, final long n) {
+        final Long current = this.routeReserved.get(route);
+        final long total = (current != null ? current.longValue() : 0) + n;
+        if (total > 0) {
+            this.routeReserved.put(route, Long.valueOf(total));
+        } else {
+            this.routeReserved.remove(route);
+        }
+    }
+
+    synchronized boolean reserve(final Reservation reservation, final long n, final IOControl ioControl) {
+        if (n > 0) {
+            if (reservation.bytes == 0 && !reservation.suspended) {
+                this.active++;
+            }
+            reservation.bytes += n;
+            this.reserved += n;
+            addToRoute(reservation.route, n);
+        }
+        if (!reservation.suspended && this.reserved > this.capacity && this.active > 1) {
+            reservation.suspended = true;
+            reservation.ioControl = ioControl;
+            if (reservation.bytes > 0) {
+                this.active--;
+            }
+            this.suspended.add(reservation);
+            ioControl.suspendInput();
+        }
+        return reservation.suspended;
+    }
+
+    synchronized void release(final Reservation reservation) {
+        if (reservation.suspended) {
+            reservation.suspended = false;
+            reservation.ioControl = null;
+            this.suspended.remove(reservation);
+        } else if (reservation.bytes > 0) {
+            this.active--;
+        }
+        this.reserved -= reservation.bytes;
+        addToRoute(reservation.route, -reservation.bytes);
+        reservation.bytes = 0;
+        if (this.reserved < this.capacity) {
+            while (!this.suspended.isEmpty()) {
+                resume(this.suspended.removeFirst());
+            }
+        } else if (this.active == 0 && !this.suspended.isEmpty()) {
+            resume(this.suspended.removeFirst());
+        }
+    }
+
+    private void resume(final Reservation reservation) {
+        reservation.suspended = false;
+        if (reservation.bytes > 0) {
+            this.active++;
+        }
+        final IOControl ioControl = reservation.ioControl;
+        reservation.ioControl = null;
+        if (ioControl != null) {
+            ioControl.requestInput();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder buffer = new StringBuilder();
+        buffer.append("[reserved: ");
+        buffer.append(this.reserved);
+        buffer.append("; capacity: ");
+        buffer.append(this.capacity);
+        buffer.append("; suspended: ");
+        buffer.append(this.suspended.size());
+        buffer.append("]");
+        return buffer.toString();
+    }
+
+    /**
+     * Content bytes reserved by a single exchange.
+     */
+    public class Reservation {
+
+        private final HttpRoute route;
+
+        private long bytes;
+        private IOControl ioControl;
+        private boolean suspended;
+
+        Reservation(final HttpRoute route) {
+            super();
+            this.route = route;
+        }
+
+        public HttpRoute getRoute() {
+            return this.route;
+        }
+
+        /**
+         * Returns the number of bytes held by this reservation.
+         */
+        public long getReserved() {
+            synchronized (ContentBudget.this) {
+                return this.bytes;
+            }
+        }
+
+        /**
+         * Reserves the given number of bytes. If the budget has been exhausted
+         * input gets suspended through the given {@link IOControl} until bytes
+         * are returned to the budget.
+         *
+         * @param n number of bytes consumed.
+         * @param ioControl I/O control of the connection content is consumed from.
+         * @return {@code true} if input has been suspended.
+         */
+        public boolean reserve(final long n, final IOControl ioControl) {
+            Args.notNegative(n, "Number of bytes");
+            Args.notNull(ioControl, "I/O control");
+            return ContentBudget.this.reserve(this, n, ioControl);
+        }
+
+        /**
+         * Returns all bytes held by this reservation to the budget resuming
+         * suspended exchanges if enough bytes have become available.
+         */
+        public void release() {
+            ContentBudget.this.release(this);
+        }
+
+        @Override
+        public String toString() {
+            return this.route + " " + getReserved();
+        }
+
+    }
+
+}
@@ -0,0 +1,344 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.annotation.Contract;
+import org.apache.http.annotation.ThreadingBehavior;
+import org.apache.http.util.Args;
+
+/**
+ * {@link ByteBufferPool} implementation that maintains a free list of buffers
+ * for each power of two size class between a minimum and a maximum buffer size.
+ * Requests for buffers are rounded up to the nearest size class. Requests
+ * exceeding the maximum size are served with freshly allocated buffers that
+ * are not retained upon release.
+ * <p>
+ * The pool keeps track of buffers handed out by means of weak references
+ * and ignores releases of buffers not currently leased from it, so that
+ * a buffer released twice can never be handed out to two owners. Buffers
+ * that got garbage collected without having been released back to the pool
+ * stop counting as leased. The pool can optionally report such buffers.
+ * Leak detection records the stack trace of the allocation site of every
+ * buffer and therefore should be enabled for diagnostic purposes only.
+ *
+ * @since 4.1.5
+ */
+@Contract(threading = ThreadingBehavior.SAFE)
+public class PooledByteBufferAllocator implements ByteBufferPool {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final boolean direct;
+    private final int minShift;
+    private final int maxShift;
+    private final int maxPerClass;
+    private final Queue<ByteBuffer>[] freeLists;
+    private final AtomicIntegerArray freeCounts;
+    private final AtomicLong leased;
+    private final AtomicLong leaked;
+    private final boolean leakDetection;
+
+    private final ReferenceQueue<ByteBuffer> refQueue;
+    private final Map<Integer, List<Lease>> leases;
+
+    /**
+     * Creates a new pool.
+     *
+     * @param direct whether or not to allocate direct buffers.
+     * @param minSize size of the smallest size class. Rounded up to the
+     *   nearest power of two.
+     * @param maxSize size of the largest size class. Rounded up to the
+     *   nearest power of two.
+     * @param maxPerClass maximum number of free buffers retained per
+     *   size class.
+     * @param leakDetection whether or not to report buffers that got garbage
+     *   collected without having been released.
+     */
+    @SuppressWarnings("unchecked")
+    public PooledByteBufferAllocator(
+            final boolean direct,
+            final int minSize,
+            final int maxSize,
+            final int maxPerClass,
+            final boolean leakDetection) {
+        super();
+        Args.positive(minSize, "Min buffer size");
+        Args.check(maxSize >= minSize, "Max buffer size may not be less than min buffer size");
+        Args.check(maxSize <= 1 << 30, "Max buffer size may not exceed 1 GiB");
+        Args.notNegative(maxPerClass, "Max buffers per size class");
+        this.direct = direct;
+        this.minShift = shift(minSize);
+        this.maxShift = shift(maxSize);
+        this.maxPerClass = maxPerClass;
+        final int classes = this.maxShift - this.minShift + 1;
+        this.freeLists = new Queue[classes];
+        for (int i = 0; i < classes; i++) {
+            this.freeLists[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+        }
+        this.freeCounts = new AtomicIntegerArray(classes);
+        this.leased = new AtomicLong();
+        this.leaked = new AtomicLong();
+        this.leakDetection = leakDetection;
+        this.refQueue = new ReferenceQueue<ByteBuffer>();
+        this.leases = new HashMap<Integer, List<Lease>>();
+    }
+
+    /**
+     * Creates a new pool with size classes from 1 KiB to 64 KiB retaining
+     * up to 64 free buffers per class.
+     *
+     * @param direct whether or not to allocate direct buffers.
+     */
+    public PooledByteBufferAllocator(final boolean direct) {
+        this(direct, 1024, 64 * 1024, 64, false);
+    }
+
+    /**
+     * Creates a new pool of heap buffers with size classes from 1 KiB
+     * to 64 KiB retaining up to 64 free buffers per class.
+     */
+    public PooledByteBufferAllocator() {
+        this(false);
+    }
+
+    private static int shift(final int size) {
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    private int sizeClass(final int size) {
+        if (size > 1 << this.maxShift) {
+            return -1;
+        }
+        return size <= 1 << this.minShift ? 0 : shift(size) - this.minShift;
+    }
+
+    private ByteBuffer newBuffer(final int capacity) {
+        return this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    @Override
+    public ByteBuffer allocate(final int size) {
+        Args.notNegative(size, "Buffer size");
+        expungeLeaks();
+        final int index = sizeClass(size);
+        if (index < 0) {
+            return newBuffer(size);
+        }
+        ByteBuffer buffer = this.freeLists[index].poll();
+        if (buffer != null) {
+            this.freeCounts.decrementAndGet(index);
+        } else {
+            buffer = newBuffer(1 << (this.minShift + index));
+        }
+        this.leased.incrementAndGet();
+        track(buffer);
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer to the pool. Buffers not currently leased from
+     * the pool, such as buffers released twice or allocated elsewhere, are
+     * ignored. With leak detection enabled such releases are also logged.
+     */
+    @Override
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null || buffer.isDirect() != this.direct) {
+            return;
+        }
+        final int capacity = buffer.capacity();
+        if (Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        final int index = shift(capacity) - this.minShift;
+        if (index < 0 || index >= this.freeLists.length) {
+            return;
+        }
+        if (!untrack(buffer)) {
+            if (this.leakDetection) {
+                this.log.warn("Buffer released that is not currently leased from this pool: " + buffer);
+            }
+            return;
+        }
+        this.leased.decrementAndGet();
+        if (this.freeCounts.incrementAndGet(index) <= this.maxPerClass) {
+            buffer.clear();
+            this.freeLists[index].add(buffer);
+        } else {
+            this.freeCounts.decrementAndGet(index);
+        }
+    }
+
+    /**
+     * Returns the number of buffers currently leased from the pool.
+     */
+    public long getLeased() {
+        return this.leased.get();
+    }
+
+    /**
+     * Returns the number of free buffers currently retained by the pool.
+     */
+    public int getAvailable() {
+        int total = 0;
+        for (int i = 0; i < this.freeCounts.length(); i++) {
+            total += this.freeCounts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of buffers found to have been garbage collected
+     * without having been released. Always {@code 0} unless leak detection
+     * has been enabled.
+     */
+    public long getLeaked() {
+        expungeLeaks();
+        return this.leaked.get();
+    }
+
+    /**
+     * Discards all free buffers retained by the pool.
+     */
+    public void clear() {
+        for (int i = 0; i < this.freeLists.length; i++) {
+            while (this.freeLists[i].poll() != null) {
+                this.freeCounts.decrementAndGet(i);
+            }
+        }
+    }
+
+    private void track(final ByteBuffer buffer) {
+        final Lease lease = new Lease(buffer, this.refQueue,
+                this.leakDetection ? new Exception("Buffer allocation site") : null);
+        synchronized (this.leases) {
+            List<Lease> bucket = this.leases.get(lease.hash);
+            if (bucket == null) {
+                bucket = new LinkedList<Lease>();
+                this.leases.put(lease.hash, bucket);
+            }
+            bucket.add(lease);
+        }
+    }
+
+    private boolean untrack(final ByteBuffer buffer) {
+        final Integer hash = Integer.valueOf(System.identityHashCode(buffer));
+        synchronized (this.leases) {
+            final List<Lease> bucket = this.leases.get(hash);
+            if (bucket != null) {
+                for (final Lease lease : bucket) {
+                    if (lease.get() == buffer) {
+                        lease.clear();
+                        remove(bucket, lease);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean remove(final List<Lease> bucket, final Lease lease) {
+        boolean removed = false;
+        for (final Iterator<Lease> it = bucket.iterator(); it.hasNext(); ) {
+            if (it.next() == lease) {
+                it.remove();
+                removed = true;
+                break;
+            }
+        }
+        if (bucket.isEmpty()) {
+            this.leases.remove(lease.hash);
+        }
+        return removed;
+    }
+
+    private void expungeLeaks() {
+        Reference<? extends ByteBuffer> ref;
+        while ((ref = this.refQueue.poll()) != null) {
+            final Lease lease = (Lease) ref;
+            final boolean removed;
+            synchronized (this.leases) {
+                final List<Lease> bucket = this.leases.get(lease.hash);
+                removed = bucket != null && remove(bucket, lease);
+            }
+            if (removed) {
+                this.leased.decrementAndGet();
+            }
+            if (removed && this.leakDetection) {
+                this.leaked.incrementAndGet();
+                this.log.warn("Buffer of " + lease.capacity + " bytes was garbage collected "
+                        + "without having been released to the pool", lease.site);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("[direct: ").append(this.direct);
+        buf.append("; size classes: ").append(1 << this.minShift).append("-").append(1 << this.maxShift);
+        buf.append("; leased: ").append(getLeased());
+        buf.append("; available: ").append(getAvailable());
+        if (this.leakDetection) {
+            buf.append("; leaked: ").append(this.leaked.get());
+        }
+        buf.append("]");
+        return buf.toString();
+    }
+
+    static class Lease extends WeakReference<ByteBuffer> {
+
+        final Integer hash;
+        final int capacity;
+        final Throwable site;
+
+        Lease(final ByteBuffer buffer, final ReferenceQueue<ByteBuffer> refQueue, final Throwable site) {
+            super(buffer, refQueue);
+            this.hash = Integer.valueOf(System.identityHashCode(buffer));
+            this.capacity = buffer.capacity();
+            this.site = site;
+        }
+
+    }
+
+}
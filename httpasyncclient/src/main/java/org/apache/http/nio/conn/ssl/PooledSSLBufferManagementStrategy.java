@@ -0,0 +1,183 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.conn.ssl;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.nio.client.util.ByteBufferPool;
+import org.apache.http.nio.reactor.ssl.SSLBuffer;
+import org.apache.http.nio.reactor.ssl.SSLBufferManagementStrategy;
+import org.apache.http.nio.reactor.ssl.SSLIOSession;
+import org.apache.http.util.Args;
+
+/**
+ * {@link SSLBufferManagementStrategy} that leases TLS/SSL session buffers
+ * from a {@link ByteBufferPool} only when needed and returns them to the pool
+ * as soon as they have been drained.
+ * <p>
+ * {@link SSLIOSessionStrategy} makes buffers of individual sessions available
+ * as a {@link SessionBuffers} attribute of the I/O session, which can be used
+ * to return buffers to the pool that have been acquired but hold no data.
+ *
+ * @since 4.1.5
+ */
+public class PooledSSLBufferManagementStrategy implements SSLBufferManagementStrategy {
+
+    /**
+     * Name of the I/O session attribute holding {@link SessionBuffers} of the session.
+     */
+    public static final String SESSION_BUFFERS = "http.nio.ssl-session-buffers";
+
+    private final ByteBufferPool bufferPool;
+
+    public PooledSSLBufferManagementStrategy(final ByteBufferPool bufferPool) {
+        super();
+        this.bufferPool = Args.notNull(bufferPool, "Buffer pool");
+    }
+
+    @Override
+    public SSLBuffer constructBuffer(final int size) {
+        return new InternalBuffer(this.bufferPool, size);
+    }
+
+    /**
+     * Creates a strategy for a single TLS/SSL session that keeps track of
+     * the buffers it constructs.
+     */
+    SessionBuffers createSessionBuffers() {
+        return new SessionBuffers(this.bufferPool);
+    }
+
+    /**
+     * Buffers of a single TLS/SSL session.
+     */
+    public static final class SessionBuffers implements SSLBufferManagementStrategy, Closeable {
+
+        private final ByteBufferPool bufferPool;
+        private final List<InternalBuffer> buffers;
+
+        private volatile SSLIOSession sslioSession;
+
+        SessionBuffers(final ByteBufferPool bufferPool) {
+            super();
+            this.bufferPool = bufferPool;
+            this.buffers = new ArrayList<InternalBuffer>(3);
+        }
+
+        @Override
+        public SSLBuffer constructBuffer(final int size) {
+            final InternalBuffer buffer = new InternalBuffer(this.bufferPool, size);
+            this.buffers.add(buffer);
+            return buffer;
+        }
+
+        void bind(final SSLIOSession sslioSession) {
+            this.sslioSession = sslioSession;
+        }
+
+        /**
+         * Returns buffers to the pool that have been acquired but hold no data.
+         */
+        public void releaseEmpty() {
+            final SSLIOSession session = this.sslioSession;
+            if (session == null) {
+                return;
+            }
+            // Session buffers are accessed while holding the session lock only
+            synchronized (session) {
+                for (final InternalBuffer buffer : this.buffers) {
+                    if (buffer.isAcquired() && !buffer.hasData()) {
+                        buffer.release();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns all buffers to the pool. To be invoked once the session
+         * has been closed.
+         */
+        @Override
+        public void close() {
+            final SSLIOSession session = this.sslioSession;
+            if (session == null) {
+                return;
+            }
+            synchronized (session) {
+                for (final InternalBuffer buffer : this.buffers) {
+                    buffer.release();
+                }
+            }
+        }
+
+    }
+
+    private static final class InternalBuffer implements SSLBuffer {
+
+        private final ByteBufferPool bufferPool;
+        private final int length;
+
+        private ByteBuffer wrapped;
+
+        InternalBuffer(final ByteBufferPool bufferPool, final int size) {
+            Args.positive(size, "size");
+            this.bufferPool = bufferPool;
+            this.length = size;
+        }
+
+        @Override
+        public ByteBuffer acquire() {
+            if (this.wrapped == null) {
+                this.wrapped = this.bufferPool.allocate(this.length);
+            }
+            return this.wrapped;
+        }
+
+        @Override
+        public void release() {
+            if (this.wrapped != null) {
+                this.bufferPool.release(this.wrapped);
+                this.wrapped = null;
+            }
+        }
+
+        @Override
+        public boolean isAcquired() {
+            return this.wrapped != null;
+        }
+
+        @Override
+        public boolean hasData() {
+            return this.wrapped != null && this.wrapped.position() > 0;
+        }
+
+    }
+
+}
@@ -48,6 +48,8 @@ import org.apache.http.conn.ssl.X509HostnameVerifier;
 import org.apache.http.conn.util.PublicSuffixMatcherLoader;
 import org.apache.http.nio.conn.SchemeIOSessionStrategy;
 import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.nio.reactor.ssl.PermanentSSLBufferManagementStrategy;
+import org.apache.http.nio.reactor.ssl.SSLBufferManagementStrategy;
 import org.apache.http.nio.reactor.ssl.SSLIOSession;
 import org.apache.http.nio.reactor.ssl.SSLMode;
 import org.apache.http.nio.reactor.ssl.SSLSetupHandler;
@@ -116,6 +118,7 @@ public class SSLIOSessionStrategy implements SchemeIOSessionStrategy {
     private final String[] supportedProtocols;
     private final String[] supportedCipherSuites;
     private final HostnameVerifier hostnameVerifier;
+    private final SSLBufferManagementStrategy bufferManagementStrategy;
 
     /**
      * @deprecated (4.1) use {@link SSLIOSessionStrategy#SSLIOSessionStrategy(
@@ -141,18 +144,36 @@ public class SSLIOSessionStrategy implements SchemeIOSessionStrategy {
     }
 
     /**
-     * @since 4.1
+     * @param bufferManagementStrategy strategy for the management of TLS/SSL
+     *   session buffers. If {@code null} buffers are allocated once per session
+     *   and retained for its whole lifetime.
+     *
+     * @since 4.1.5
      */
     public SSLIOSessionStrategy(
             final SSLContext sslContext,
             final String[] supportedProtocols,
             final String[] supportedCipherSuites,
-            final HostnameVerifier hostnameVerifier) {
+            final HostnameVerifier hostnameVerifier,
+            final SSLBufferManagementStrategy bufferManagementStrategy) {
         super();
         this.sslContext = Args.notNull(sslContext, "SSL context");
         this.supportedProtocols = supportedProtocols;
         this.supportedCipherSuites = supportedCipherSuites;
         this.hostnameVerifier = hostnameVerifier != null ? hostnameVerifier : getDefaultHostnameVerifier();
+        this.bufferManagementStrategy = bufferManagementStrategy != null ? bufferManagementStrategy :
+            new PermanentSSLBufferManagementStrategy();
+    }
+
+    /**
+     * @since 4.1
+     */
+    public SSLIOSessionStrategy(
+            final SSLContext sslContext,
+            final String[] supportedProtocols,
+            final String[] supportedCipherSuites,
+            final HostnameVerifier hostnameVerifier) {
+        this(sslContext, supportedProtocols, supportedCipherSuites, hostnameVerifier, null);
     }
 
     /**
@@ -171,6 +192,9 @@ public class SSLIOSessionStrategy implements SchemeIOSessionStrategy {
     @Override
     public SSLIOSession upgrade(final HttpHost host, final IOSession ioSession) throws IOException {
         Asserts.check(!(ioSession instanceof SSLIOSession), "I/O session is already upgraded to TLS/SSL");
+        final PooledSSLBufferManagementStrategy.SessionBuffers sessionBuffers =
+                this.bufferManagementStrategy instanceof PooledSSLBufferManagementStrategy ?
+                ((PooledSSLBufferManagementStrategy) this.bufferManagementStrategy).createSessionBuffers() : null;
         final SSLIOSession sslioSession = new SSLIOSession(
             ioSession,
             SSLMode.CLIENT,
@@ -197,8 +221,13 @@ public class SSLIOSessionStrategy implements SchemeIOSessionStrategy {
                     verifySession(host, ioSession, sslsession);
                 }
 
-        });
+            },
+            sessionBuffers != null ? sessionBuffers : this.bufferManagementStrategy);
         ioSession.setAttribute(SSLIOSession.SESSION_KEY, sslioSession);
+        if (sessionBuffers != null) {
+            sessionBuffers.bind(sslioSession);
+            ioSession.setAttribute(PooledSSLBufferManagementStrategy.SESSION_BUFFERS, sessionBuffers);
+        }
         sslioSession.initialize();
         return sslioSession;
     }
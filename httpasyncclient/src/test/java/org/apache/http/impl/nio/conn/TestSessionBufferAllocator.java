@@ -0,0 +1,62 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.impl.nio.conn;
+
+import java.nio.ByteBuffer;
+
+import org.apache.http.nio.client.util.PooledByteBufferAllocator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSessionBufferAllocator {
+
+    @Test
+    public void testReplacedBuffersReleased() throws Exception {
+        final PooledByteBufferAllocator pool = new PooledByteBufferAllocator(false, 1024, 8192, 4, false);
+        final SessionBufferAllocator allocator = new SessionBufferAllocator(pool);
+        final ByteBuffer inbuffer = allocator.allocate(1024);
+        final ByteBuffer outbuffer = allocator.allocate(1024);
+        Assert.assertFalse(allocator.hasReplaced());
+
+        // expansion of the input buffer
+        final ByteBuffer expanded = allocator.allocate(4096);
+        Assert.assertTrue(allocator.hasReplaced());
+        allocator.releaseAllBut(expanded, outbuffer);
+        Assert.assertFalse(allocator.hasReplaced());
+        Assert.assertEquals(2, pool.getLeased());
+        Assert.assertEquals(1, pool.getAvailable());
+        Assert.assertSame(inbuffer, pool.allocate(1024));
+        pool.release(inbuffer);
+
+        allocator.releaseAll();
+        Assert.assertEquals(0, pool.getLeased());
+        Assert.assertEquals(3, pool.getAvailable());
+        allocator.close();
+        Assert.assertEquals(3, pool.getAvailable());
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.integration;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.localserver.HttpAsyncTestBase;
+import org.apache.http.localserver.RandomHandler;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.client.util.ContentBudget;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class TestContentBudgetBackpressure extends HttpAsyncTestBase {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> protocols() {
+        return Arrays.asList(new Object[][]{
+                {ProtocolScheme.http},
+                {ProtocolScheme.https},
+        });
+    }
+
+    public TestContentBudgetBackpressure(final ProtocolScheme scheme) {
+        super(scheme);
+    }
+
+    private ContentBudget contentBudget;
+
+    @Before @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        this.serverBootstrap.registerHandler("/random/*", new BasicAsyncRequestHandler(new RandomHandler()));
+        this.contentBudget = new ContentBudget(64 * 1024);
+        this.clientBuilder.setContentBudget(this.contentBudget);
+        this.connMgr.setDefaultMaxPerRoute(20);
+        this.connMgr.setMaxTotal(20);
+    }
+
+    @Test
+    public void testConcurrentLargeResponses() throws Exception {
+        final HttpHost target = start();
+
+        final Queue<Future<HttpResponse>> queue = new LinkedList<Future<HttpResponse>>();
+        for (int i = 0; i < 20; i++) {
+            queue.add(this.httpclient.execute(target, new HttpGet("/random/500000"), null));
+        }
+        while (!queue.isEmpty()) {
+            final HttpResponse response = queue.remove().get();
+            Assert.assertNotNull(response);
+            Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+            Assert.assertEquals(500000, EntityUtils.toByteArray(response.getEntity()).length);
+        }
+        Assert.assertEquals(0, this.contentBudget.getReserved());
+        Assert.assertEquals(0, this.contentBudget.getSuspended());
+        Assert.assertTrue(this.contentBudget.getRoutes().isEmpty());
+    }
+
+    @Test
+    public void testPipelinedResponsesAreAccountedFor() throws Exception {
+        this.clientBuilder.setMaxPipelineDepth(5);
+        final HttpHost target = start();
+        this.connMgr.setDefaultMaxPerRoute(2);
+
+        final AtomicLong maxReserved = new AtomicLong();
+        final Queue<Future<HttpResponse>> queue = new LinkedList<Future<HttpResponse>>();
+        for (int i = 0; i < 20; i++) {
+            queue.add(this.httpclient.execute(
+                    HttpAsyncMethods.createGet(target.toURI() + "/random/200000"),
+                    new BasicAsyncResponseConsumer() {
+
+                        @Override
+                        protected HttpResponse buildResult(final HttpContext context) {
+                            // content of the exchange is still accounted for
+                            final long reserved = contentBudget.getReserved();
+                            if (reserved > maxReserved.get()) {
+                                maxReserved.set(reserved);
+                            }
+                            return super.buildResult(context);
+                        }
+
+                    }, null));
+        }
+        while (!queue.isEmpty()) {
+            final HttpResponse response = queue.remove().get();
+            Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+            Assert.assertEquals(200000, EntityUtils.toByteArray(response.getEntity()).length);
+        }
+        Assert.assertTrue(maxReserved.get() >= 200000);
+        Assert.assertEquals(0, this.contentBudget.getReserved());
+        Assert.assertEquals(0, this.contentBudget.getSuspended());
+        Assert.assertTrue(this.contentBudget.getRoutes().isEmpty());
+    }
+
+}
@@ -0,0 +1,403 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.integration;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.localserver.EchoHandler;
+import org.apache.http.localserver.HttpAsyncTestBase;
+import org.apache.http.localserver.RandomHandler;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.nio.conn.NHttpClientConnectionManager;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.nio.protocol.BasicAsyncRequestConsumer;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.apache.http.nio.protocol.HttpAsyncExchange;
+import org.apache.http.nio.protocol.HttpAsyncRequestConsumer;
+import org.apache.http.nio.protocol.HttpAsyncRequestHandler;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class TestHttpAsyncOpportunisticPipelining extends HttpAsyncTestBase {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> protocols() {
+        return Arrays.asList(new Object[][]{
+                {ProtocolScheme.http},
+                {ProtocolScheme.https},
+        });
+    }
+
+    public TestHttpAsyncOpportunisticPipelining(final ProtocolScheme scheme) {
+        super(scheme);
+    }
+
+    static class CountingConnectionManager
+            implements NHttpClientConnectionManager, ConnPoolControl<HttpRoute> {
+
+        private final PoolingNHttpClientConnectionManager connmgr;
+        private final AtomicInteger leaseCount;
+
+        CountingConnectionManager(final PoolingNHttpClientConnectionManager connmgr) {
+            this.connmgr = connmgr;
+            this.leaseCount = new AtomicInteger();
+        }
+
+        int getLeaseCount() {
+            return this.leaseCount.get();
+        }
+
+        @Override
+        public Future<NHttpClientConnection> requestConnection(
+                final HttpRoute route,
+                final Object state,
+                final long connectTimeout,
+                final long connectionRequestTimeout,
+                final TimeUnit timeUnit,
+                final FutureCallback<NHttpClientConnection> callback) {
+            this.leaseCount.incrementAndGet();
+            return this.connmgr.requestConnection(
+                    route, state, connectTimeout, connectionRequestTimeout, timeUnit, callback);
+        }
+
+        @Override
+        public void releaseConnection(
+                final NHttpClientConnection conn,
+                final Object newState,
+                final long validDuration,
+                final TimeUnit timeUnit) {
+            this.connmgr.releaseConnection(conn, newState, validDuration, timeUnit);
+        }
+
+        @Override
+        public void startRoute(
+                final NHttpClientConnection conn,
+                final HttpRoute route,
+                final HttpContext context) throws IOException {
+            this.connmgr.startRoute(conn, route, context);
+        }
+
+        @Override
+        public void upgrade(
+                final NHttpClientConnection conn,
+                final HttpRoute route,
+                final HttpContext context) throws IOException {
+            this.connmgr.upgrade(conn, route, context);
+        }
+
+        @Override
+        public void routeComplete(
+                final NHttpClientConnection conn,
+                final HttpRoute route,
+                final HttpContext context) {
+            this.connmgr.routeComplete(conn, route, context);
+        }
+
+        @Override
+        public boolean isRouteComplete(final NHttpClientConnection conn) {
+            return this.connmgr.isRouteComplete(conn);
+        }
+
+        @Override
+        public void closeIdleConnections(final long idletime, final TimeUnit timeUnit) {
+            this.connmgr.closeIdleConnections(idletime, timeUnit);
+        }
+
+        @Override
+        public void closeExpiredConnections() {
+            this.connmgr.closeExpiredConnections();
+        }
+
+        @Override
+        public void execute(final IOEventDispatch eventDispatch) throws IOException {
+            this.connmgr.execute(eventDispatch);
+        }
+
+        @Override
+        public void shutdown() throws IOException {
+            this.connmgr.shutdown();
+        }
+
+        @Override
+        public void setMaxTotal(final int max) {
+            this.connmgr.setMaxTotal(max);
+        }
+
+        @Override
+        public int getMaxTotal() {
+            return this.connmgr.getMaxTotal();
+        }
+
+        @Override
+        public void setDefaultMaxPerRoute(final int max) {
+            this.connmgr.setDefaultMaxPerRoute(max);
+        }
+
+        @Override
+        public int getDefaultMaxPerRoute() {
+            return this.connmgr.getDefaultMaxPerRoute();
+        }
+
+        @Override
+        public void setMaxPerRoute(final HttpRoute route, final int max) {
+            this.connmgr.setMaxPerRoute(route, max);
+        }
+
+        @Override
+        public int getMaxPerRoute(final HttpRoute route) {
+            return this.connmgr.getMaxPerRoute(route);
+        }
+
+        @Override
+        public PoolStats getTotalStats() {
+            return this.connmgr.getTotalStats();
+        }
+
+        @Override
+        public PoolStats getStats(final HttpRoute route) {
+            return this.connmgr.getStats(route);
+        }
+
+    }
+
+    private CountingConnectionManager countingConnMgr;
+
+    @Before @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        this.serverBootstrap.registerHandler("/echo/*", new BasicAsyncRequestHandler(new EchoHandler()));
+        this.serverBootstrap.registerHandler("/random/*", new BasicAsyncRequestHandler(new RandomHandler()));
+        this.serverBootstrap.registerHandler("/redirect/*", new BasicAsyncRequestHandler(new HttpRequestHandler() {
+
+            @Override
+            public void handle(
+                    final HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context) throws HttpException, IOException {
+                final String uri = request.getRequestLine().getUri();
+                response.setStatusCode(HttpStatus.SC_MOVED_TEMPORARILY);
+                response.addHeader("Location", uri.replace("/redirect/", "/random/"));
+            }
+
+        }));
+        this.serverBootstrap.registerHandler("/close/*", new BasicAsyncRequestHandler(new HttpRequestHandler() {
+
+            @Override
+            public void handle(
+                    final HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context) throws HttpException, IOException {
+                response.setStatusCode(HttpStatus.SC_OK);
+                response.setEntity(new StringEntity("closing"));
+                response.addHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+            }
+
+        }));
+        this.serverBootstrap.registerHandler("/delay/*", new HttpAsyncRequestHandler<HttpRequest>() {
+
+            @Override
+            public HttpAsyncRequestConsumer<HttpRequest> processRequest(
+                    final HttpRequest request,
+                    final HttpContext context) {
+                return new BasicAsyncRequestConsumer();
+            }
+
+            @Override
+            public void handle(
+                    final HttpRequest request,
+                    final HttpAsyncExchange httpExchange,
+                    final HttpContext context) {
+                final String uri = request.getRequestLine().getUri();
+                final long delay = Long.parseLong(uri.substring(uri.lastIndexOf('/') + 1));
+                final Thread thread = new Thread() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(delay);
+                        } catch (final InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                        httpExchange.getResponse().setEntity(new NStringEntity("delayed", ContentType.TEXT_PLAIN));
+                        httpExchange.submitResponse();
+                    }
+
+                };
+                thread.start();
+            }
+
+        });
+        this.countingConnMgr = new CountingConnectionManager(this.connMgr);
+        this.clientBuilder.setConnectionManager(this.countingConnMgr);
+        this.clientBuilder.setMaxPipelineDepth(5);
+    }
+
+    @Override
+    public HttpHost start() throws Exception {
+        final HttpHost target = super.start();
+        this.connMgr.setDefaultMaxPerRoute(2);
+        return target;
+    }
+
+    @Test
+    public void testPipelinedGets() throws Exception {
+        final HttpHost target = start();
+        final Queue<Future<HttpResponse>> queue = new LinkedList<Future<HttpResponse>>();
+        for (int i = 0; i < 30; i++) {
+            queue.add(this.httpclient.execute(target, new HttpGet("/random/" + (512 + i)), null));
+        }
+        int i = 0;
+        while (!queue.isEmpty()) {
+            final HttpResponse response = queue.remove().get();
+            Assert.assertNotNull(response);
+            Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+            final byte[] bytes = EntityUtils.toByteArray(response.getEntity());
+            Assert.assertEquals(512 + i, bytes.length);
+            i++;
+        }
+        // pipelined requests share connection leases
+        Assert.assertTrue(this.countingConnMgr.getLeaseCount() < 30);
+    }
+
+    @Test
+    public void testMixedPostsAndGets() throws Exception {
+        final HttpHost target = start();
+        final Queue<Future<HttpResponse>> queue = new LinkedList<Future<HttpResponse>>();
+        for (int i = 0; i < 10; i++) {
+            final HttpPost httppost = new HttpPost("/echo/");
+            httppost.setEntity(new StringEntity("stuff " + i));
+            queue.add(this.httpclient.execute(target, httppost, null));
+            queue.add(this.httpclient.execute(target, new HttpGet("/random/" + (100 + i)), null));
+        }
+        int i = 0;
+        while (!queue.isEmpty()) {
+            final HttpResponse response1 = queue.remove().get();
+            Assert.assertEquals(200, response1.getStatusLine().getStatusCode());
+            Assert.assertEquals("stuff " + i, EntityUtils.toString(response1.getEntity()));
+            final HttpResponse response2 = queue.remove().get();
+            Assert.assertEquals(200, response2.getStatusLine().getStatusCode());
+            Assert.assertEquals(100 + i, EntityUtils.toByteArray(response2.getEntity()).length);
+            i++;
+        }
+        // posts lease connections of their own; gets are pipelined
+        Assert.assertTrue(this.countingConnMgr.getLeaseCount() < 20);
+    }
+
+    @Test
+    public void testRedirectsReExecuted() throws Exception {
+        final HttpHost target = start();
+        final Queue<Future<HttpResponse>> queue = new LinkedList<Future<HttpResponse>>();
+        for (int i = 0; i < 10; i++) {
+            queue.add(this.httpclient.execute(target, new HttpGet("/redirect/" + (256 + i)), null));
+        }
+        int i = 0;
+        while (!queue.isEmpty()) {
+            final HttpResponse response = queue.remove().get();
+            Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+            Assert.assertEquals(256 + i, EntityUtils.toByteArray(response.getEntity()).length);
+            i++;
+        }
+    }
+
+    @Test
+    public void testConnectionCloseFallback() throws Exception {
+        final HttpHost target = start();
+        final Queue<Future<HttpResponse>> queue = new LinkedList<Future<HttpResponse>>();
+        for (int i = 0; i < 10; i++) {
+            queue.add(this.httpclient.execute(target, new HttpGet("/close/" + i), null));
+            queue.add(this.httpclient.execute(target, new HttpGet("/random/" + (128 + i)), null));
+        }
+        int i = 0;
+        while (!queue.isEmpty()) {
+            final HttpResponse response1 = queue.remove().get();
+            Assert.assertEquals(200, response1.getStatusLine().getStatusCode());
+            Assert.assertEquals("closing", EntityUtils.toString(response1.getEntity()));
+            final HttpResponse response2 = queue.remove().get();
+            Assert.assertEquals(200, response2.getStatusLine().getStatusCode());
+            Assert.assertEquals(128 + i, EntityUtils.toByteArray(response2.getEntity()).length);
+            i++;
+        }
+    }
+
+    @Test
+    public void testIdleConnectionsPreferredToPipelining() throws Exception {
+        final HttpHost target = start();
+        // Requests with an entity are never pipelined and lease connections of their own
+        final HttpPost httppost1 = new HttpPost("/delay/200");
+        httppost1.setEntity(new StringEntity("stuff"));
+        final HttpPost httppost2 = new HttpPost("/delay/200");
+        httppost2.setEntity(new StringEntity("stuff"));
+        final Future<HttpResponse> future1 = this.httpclient.execute(target, httppost1, null);
+        final Future<HttpResponse> future2 = this.httpclient.execute(target, httppost2, null);
+        Assert.assertEquals(200, future1.get().getStatusLine().getStatusCode());
+        Assert.assertEquals(200, future2.get().getStatusLine().getStatusCode());
+        for (int i = 0; i < 100 && this.connMgr.getTotalStats().getAvailable() < 2; i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(2, this.connMgr.getTotalStats().getAvailable());
+
+        final Future<HttpResponse> slowFuture = this.httpclient.execute(target, new HttpGet("/delay/3000"), null);
+        final Future<HttpResponse> fastFuture = this.httpclient.execute(target, new HttpGet("/random/64"), null);
+        final HttpResponse response = fastFuture.get(2, TimeUnit.SECONDS);
+        Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+        Assert.assertEquals(64, EntityUtils.toByteArray(response.getEntity()).length);
+        // not blocked behind the slow response
+        Assert.assertFalse(slowFuture.isDone());
+        Assert.assertEquals("delayed", EntityUtils.toString(slowFuture.get().getEntity()));
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.integration;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ssl.DefaultHostnameVerifier;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.localserver.HttpAsyncTestBase;
+import org.apache.http.localserver.RandomHandler;
+import org.apache.http.nio.client.util.PooledByteBufferAllocator;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.PooledSSLBufferManagementStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class TestIdleConnectionBuffers extends HttpAsyncTestBase {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> protocols() {
+        return Arrays.asList(new Object[][]{
+                {ProtocolScheme.http},
+                {ProtocolScheme.https},
+        });
+    }
+
+    public TestIdleConnectionBuffers(final ProtocolScheme scheme) {
+        super(scheme);
+    }
+
+    private PooledByteBufferAllocator bufferPool;
+
+    @Before @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        this.serverBootstrap.registerHandler("/random/*", new BasicAsyncRequestHandler(new RandomHandler()));
+
+        this.bufferPool = new PooledByteBufferAllocator(false, 1024, 64 * 1024, 64, true);
+        final RegistryBuilder<SchemeIOSessionStrategy> builder = RegistryBuilder.create();
+        builder.register("http", NoopIOSessionStrategy.INSTANCE);
+        builder.register("https", new SSLIOSessionStrategy(
+                createClientSSLContext(), null, null,
+                new DefaultHostnameVerifier(),
+                new PooledSSLBufferManagementStrategy(this.bufferPool)));
+        this.connMgr = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(),
+                new ManagedNHttpClientConnectionFactory(null, null, this.bufferPool),
+                builder.build());
+        this.connMgr.setDefaultMaxPerRoute(10);
+        this.clientBuilder.setConnectionManager(this.connMgr);
+        this.clientBuilder.setByteBufferPool(this.bufferPool);
+    }
+
+    private void executeConcurrently(final HttpHost target, final int n) throws Exception {
+        final Queue<Future<HttpResponse>> queue = new LinkedList<Future<HttpResponse>>();
+        for (int i = 0; i < n; i++) {
+            queue.add(this.httpclient.execute(target, new HttpGet("/random/20000"), null));
+        }
+        while (!queue.isEmpty()) {
+            final HttpResponse response = queue.remove().get();
+            Assert.assertNotNull(response);
+            Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+            Assert.assertEquals(20000, EntityUtils.toByteArray(response.getEntity()).length);
+        }
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        for (int i = 0; i < 50 && this.bufferPool.getLeased() > 0; i++) {
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void testIdleConnectionsReleaseBuffers() throws Exception {
+        final HttpHost target = start();
+
+        executeConcurrently(target, 10);
+        awaitIdle();
+        Assert.assertEquals(10, this.connMgr.getTotalStats().getAvailable());
+        Assert.assertEquals(0, this.bufferPool.getLeased());
+        final int available = this.bufferPool.getAvailable();
+        Assert.assertTrue(available > 0);
+
+        // Idle connections get re-used and reclaim their buffers from the pool
+        executeConcurrently(target, 10);
+        awaitIdle();
+        Assert.assertEquals(10, this.connMgr.getTotalStats().getAvailable());
+        Assert.assertEquals(0, this.bufferPool.getLeased());
+        Assert.assertTrue(this.bufferPool.getAvailable() >= available);
+
+        this.httpclient.close();
+        Assert.assertEquals(0, this.bufferPool.getLeased());
+        Assert.assertEquals(0, this.bufferPool.getLeaked());
+    }
+
+}
@@ -29,6 +29,8 @@ package org.apache.http.nio.client.methods;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
@@ -38,10 +40,16 @@ import org.apache.http.localserver.HttpAsyncTestBase;
 import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.MessageConstraintException;
 import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
 import org.apache.http.localserver.EchoHandler;
 import org.apache.http.localserver.RandomHandler;
 import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.util.ByteBufferPool;
+import org.apache.http.nio.client.util.PooledByteBufferAllocator;
 import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
 import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.protocol.HttpContext;
@@ -70,6 +78,10 @@ public class TestAsyncConsumers extends HttpAsyncTestBase {
             super(bufSize);
         }
 
+        public ByteCountingConsumer(final int bufSize, final ByteBufferPool bufferPool) {
+            super(bufSize, bufferPool);
+        }
+
         private final AtomicLong count = new AtomicLong(0);
 
         @Override
@@ -122,6 +134,10 @@ public class TestAsyncConsumers extends HttpAsyncTestBase {
             super(bufSize);
         }
 
+        public BufferingCharConsumer(final int bufSize, final ByteBufferPool bufferPool) {
+            super(bufSize, bufferPool);
+        }
+
         private final StringBuilder sb = new StringBuilder();
 
         @Override
@@ -190,6 +206,152 @@ public class TestAsyncConsumers extends HttpAsyncTestBase {
         }
     }
 
+    static class BufferingUtf8Consumer extends AsyncUtf8Consumer<String> {
+
+        private final StringBuilder sb = new StringBuilder();
+
+        public BufferingUtf8Consumer(final int bufSize) {
+            super(bufSize);
+        }
+
+        @Override
+        public void onResponseReceived(final HttpResponse response) {
+        }
+
+        @Override
+        protected void onCharReceived(final CharBuffer buf, final IOControl ioControl) throws IOException {
+            this.sb.append(buf);
+        }
+
+        @Override
+        protected String buildResult(final HttpContext context) throws Exception {
+            return this.sb.toString();
+        }
+
+    }
+
+    @Test
+    public void testUtf8Consumer() throws Exception {
+        final HttpHost target = start();
+        final StringBuilder sb = new StringBuilder();
+        for (int i= 0; i < 25; i++) {
+            sb.append("blah blah blah blah\r\n");
+            sb.append("gr\u00fc\u00dfe \u20ac \ud83d\ude00 yada yada\r\n");
+        }
+        final String s = sb.toString();
+
+        for (final int bufSize: new int[] { 4, 5, 7, 8 * 1024 }) {
+            final HttpAsyncRequestProducer httppost = HttpAsyncMethods.createPost(
+                    target.toURI() + "/echo/stuff", s,
+                    ContentType.create("text/plain", Consts.UTF_8));
+            final Future<String> future = this.httpclient.execute(
+                    httppost, new BufferingUtf8Consumer(bufSize), null);
+            final String result = future.get();
+            Assert.assertEquals(s, result);
+        }
+    }
+
+    static class LineCollectingConsumer extends AsyncLineConsumer<List<String>> {
+
+        private final List<String> lines = new ArrayList<String>();
+
+        public LineCollectingConsumer(final int bufSize, final int maxLineLength) {
+            super(bufSize, maxLineLength);
+        }
+
+        @Override
+        public void onResponseReceived(final HttpResponse response) {
+        }
+
+        @Override
+        protected void onLineReceived(final ByteBuffer line, final IOControl ioControl) throws IOException {
+            this.lines.add(decodeLine(line));
+        }
+
+        @Override
+        protected List<String> buildResult(final HttpContext context) throws Exception {
+            return this.lines;
+        }
+
+    }
+
+    @Test
+    public void testLineConsumer() throws Exception {
+        final HttpHost target = start();
+        final StringBuilder sb = new StringBuilder();
+        final List<String> expected = new ArrayList<String>();
+        for (int i= 0; i < 50; i++) {
+            final StringBuilder line = new StringBuilder();
+            for (int j = 0; j < i; j++) {
+                line.append(j % 2 == 0 ? "yada " : "gr\u00fc\u00dfe ");
+            }
+            expected.add(line.toString());
+            sb.append(line).append(i % 2 == 0 ? "\r\n" : "\n");
+        }
+        sb.append("no line terminator");
+        expected.add("no line terminator");
+        final String s = sb.toString();
+
+        for (final int bufSize: new int[] { 1, 16, 8 * 1024 }) {
+            final HttpAsyncRequestProducer httppost = HttpAsyncMethods.createPost(
+                    target.toURI() + "/echo/stuff", s,
+                    ContentType.create("text/plain", Consts.UTF_8));
+            final Future<List<String>> future = this.httpclient.execute(
+                    httppost, new LineCollectingConsumer(bufSize, -1), null);
+            Assert.assertEquals(expected, future.get());
+        }
+
+        final HttpAsyncRequestProducer httppost = HttpAsyncMethods.createPost(
+                target.toURI() + "/echo/stuff", s,
+                ContentType.create("text/plain", Consts.UTF_8));
+        final Future<List<String>> future = this.httpclient.execute(
+                httppost, new LineCollectingConsumer(16, 64), null);
+        try {
+            future.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof MessageConstraintException);
+        }
+    }
+
+    @Test
+    public void testPooledBuffers() throws Exception {
+        final PooledByteBufferAllocator bufferPool = new PooledByteBufferAllocator(true, 512, 64 * 1024, 16, true);
+        this.clientBuilder.setConnectionManager(new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(),
+                new ManagedNHttpClientConnectionFactory(null, null, bufferPool)));
+        this.clientBuilder.setByteBufferPool(bufferPool);
+        final HttpHost target = start();
+
+        for (int i = 0; i < 5; i++) {
+            final HttpAsyncRequestProducer httpget = HttpAsyncMethods.createGet(target.toURI() + "/random/20480");
+            final AsyncByteConsumer<Long> consumer = new ByteCountingConsumer(512, bufferPool);
+            final Future<Long> future = this.httpclient.execute(httpget, consumer, null);
+            final Long count = future.get();
+            Assert.assertEquals(20480, count.longValue());
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i= 0; i < 100; i++) {
+            sb.append("\u0431\u043b\u0430 \u0431\u043b\u0430 \u20ac\r\n");
+        }
+        final String s = sb.toString();
+        for (int i = 0; i < 5; i++) {
+            final HttpAsyncRequestProducer httppost = HttpAsyncMethods.createPost(
+                    target.toURI() + "/echo/stuff", s,
+                    ContentType.create("text/plain", Consts.UTF_8));
+            final AsyncCharConsumer<String> consumer = new BufferingCharConsumer(511, bufferPool);
+            final Future<String> future = this.httpclient.execute(httppost, consumer, null);
+            final String result = future.get();
+            Assert.assertEquals(s, result);
+        }
+
+        this.httpclient.close();
+        Assert.assertEquals(0, bufferPool.getLeased());
+        Assert.assertEquals(0, bufferPool.getLeaked());
+        Assert.assertTrue(bufferPool.getAvailable() > 0);
+    }
+
     @Test
     public void testResourceReleaseOnSuccess() throws Exception {
         final HttpHost target = start();
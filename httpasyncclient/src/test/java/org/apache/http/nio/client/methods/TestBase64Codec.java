@@ -0,0 +1,63 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestBase64Codec {
+
+    @Test
+    public void testRoundTrip() {
+        final Random random = new Random(42);
+        for (int len = 0; len < 70; len++) {
+            final byte[] data = new byte[len];
+            random.nextBytes(data);
+            final String encoded = Base64Codec.encode(data);
+            Assert.assertEquals(Base64.encodeBase64String(data), encoded);
+            Assert.assertArrayEquals(data, Base64Codec.decode(encoded));
+        }
+    }
+
+    @Test
+    public void testDecodeLenient() {
+        Assert.assertArrayEquals(new byte[] {'f', 'o'}, Base64Codec.decode(" Zm8 "));
+        Assert.assertArrayEquals(new byte[] {'f', 'o', 'o'}, Base64Codec.decode("Zm9v\r\n"));
+    }
+
+    @Test
+    public void testDecodeMalformed() {
+        Assert.assertNull(Base64Codec.decode("Zm9v!"));
+        Assert.assertNull(Base64Codec.decode("Z"));
+        Assert.assertNull(Base64Codec.decode("Zm=9"));
+        Assert.assertNull(Base64Codec.decode("Zé"));
+    }
+
+}
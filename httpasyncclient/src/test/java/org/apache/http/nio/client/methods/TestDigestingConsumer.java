@@ -0,0 +1,200 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+import org.apache.http.localserver.HttpAsyncTestBase;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestDigestingConsumer extends HttpAsyncTestBase {
+
+    private static final byte[] CONTENT = TestSpillingConsumer.content(200000);
+
+    private File tmpfile;
+
+    @Before
+    public void registerHandler() throws Exception {
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(new DigestHandler()));
+    }
+
+    @After
+    public void cleanUp() throws Exception {
+        if (this.tmpfile != null && this.tmpfile.exists()) {
+            this.tmpfile.delete();
+        }
+    }
+
+    static byte[] digest(final String algorithm, final byte[] content) throws Exception {
+        return MessageDigest.getInstance(algorithm).digest(content);
+    }
+
+    static class DigestHandler implements HttpRequestHandler {
+
+        @Override
+        public void handle(
+                final HttpRequest request,
+                final HttpResponse response,
+                final HttpContext context) throws HttpException, IOException {
+            final String uri = request.getRequestLine().getUri();
+            final NByteArrayEntity entity = new NByteArrayEntity(CONTENT);
+            entity.setChunked(uri.startsWith("/chunked"));
+            try {
+                if (uri.endsWith("/digest")) {
+                    response.addHeader("Digest", "MD5=" + Base64.encodeBase64String(digest("MD5", CONTENT))
+                            + ",SHA-256=" + Base64.encodeBase64String(digest("SHA-256", CONTENT)));
+                } else if (uri.endsWith("/bad-md5")) {
+                    response.addHeader("Content-MD5", Base64.encodeBase64String(digest("MD5", new byte[0])));
+                }
+            } catch (final Exception ex) {
+                throw new HttpException(ex.getMessage(), ex);
+            }
+            response.setEntity(entity);
+        }
+
+    }
+
+    static class FileConsumer extends ZeroCopyConsumer<File> {
+
+        public FileConsumer(final File file) throws IOException {
+            super(file);
+        }
+
+        @Override
+        protected File process(
+                final HttpResponse response,
+                final File file,
+                final ContentType contentType) {
+            return file;
+        }
+
+    }
+
+    private File newFile() {
+        this.tmpfile = new File(FileUtils.getTempDirectory(), "dst.test");
+        return this.tmpfile;
+    }
+
+    @Test
+    public void testZeroCopyContentDigest() throws Exception {
+        final HttpHost target = start();
+
+        final byte[] expected = digest("SHA-256", CONTENT);
+        final DigestingConsumer<File> consumer = new DigestingConsumer<File>(
+                new FileConsumer(newFile()), MessageDigest.getInstance("SHA-256"), expected);
+        final Future<File> future = this.httpclient.execute(
+                HttpAsyncMethods.create(target, new HttpGet("/fixed")), consumer, null);
+        final File file = future.get();
+        Assert.assertNotNull(file);
+        Assert.assertArrayEquals(CONTENT, FileUtils.readFileToByteArray(file));
+        Assert.assertArrayEquals(expected, consumer.getDigest());
+    }
+
+    @Test
+    public void testDigestHeader() throws Exception {
+        final HttpHost target = start();
+
+        final DigestingConsumer<HttpResponse> consumer = new DigestingConsumer<HttpResponse>(
+                new BasicAsyncResponseConsumer(), MessageDigest.getInstance("SHA-256"));
+        final Future<HttpResponse> future = this.httpclient.execute(
+                HttpAsyncMethods.create(target, new HttpGet("/chunked/digest")), consumer, null);
+        final HttpResponse response = future.get();
+        Assert.assertNotNull(response);
+        Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        Assert.assertArrayEquals(CONTENT, EntityUtils.toByteArray(response.getEntity()));
+        Assert.assertArrayEquals(digest("SHA-256", CONTENT), consumer.getDigest());
+    }
+
+    @Test
+    public void testDigestMismatch() throws Exception {
+        final HttpHost target = start();
+
+        final DigestingConsumer<File> consumer = new DigestingConsumer<File>(
+                new FileConsumer(newFile()), MessageDigest.getInstance("MD5"));
+        final Future<File> future = this.httpclient.execute(
+                HttpAsyncMethods.create(target, new HttpGet("/fixed/bad-md5")), consumer, null);
+        try {
+            future.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            Assert.assertTrue(cause instanceof IOException);
+            Assert.assertTrue(cause.getMessage().startsWith("MD5 digest mismatch"));
+        }
+        Assert.assertArrayEquals(digest("MD5", CONTENT), consumer.getDigest());
+    }
+
+    @Test
+    public void testChecksum() throws Exception {
+        final HttpHost target = start();
+
+        final CRC32 crc32 = new CRC32();
+        crc32.update(CONTENT);
+        final ChecksumConsumer<File> consumer = new ChecksumConsumer<File>(
+                new FileConsumer(newFile()), new CRC32(), crc32.getValue());
+        final Future<File> future = this.httpclient.execute(
+                HttpAsyncMethods.create(target, new HttpGet("/chunked")), consumer, null);
+        final File file = future.get();
+        Assert.assertNotNull(file);
+        Assert.assertEquals(crc32.getValue(), consumer.getValue());
+
+        final ChecksumConsumer<File> consumer2 = new ChecksumConsumer<File>(
+                new FileConsumer(newFile()), new CRC32(), crc32.getValue() + 1);
+        final Future<File> future2 = this.httpclient.execute(
+                HttpAsyncMethods.create(target, new HttpGet("/fixed")), consumer2, null);
+        try {
+            future2.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof IOException);
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.localserver.HttpAsyncTestBase;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestEventSource extends HttpAsyncTestBase {
+
+    private static final ContentType EVENT_STREAM = ContentType.create("text/event-stream", Consts.UTF_8);
+
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUpScheduler() throws Exception {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void shutDownScheduler() throws Exception {
+        this.scheduler.shutdownNow();
+    }
+
+    static class EventCollector implements ServerSentEventListener {
+
+        final List<ServerSentEvent> events = Collections.synchronizedList(new ArrayList<ServerSentEvent>());
+
+        @Override
+        public void onEvent(final ServerSentEvent event) {
+            this.events.add(event);
+        }
+
+    }
+
+    static class FeedHandler implements HttpRequestHandler {
+
+        final AtomicInteger count = new AtomicInteger();
+        final List<String> lastEventIds = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void handle(
+                final HttpRequest request,
+                final HttpResponse response,
+                final HttpContext context) throws HttpException, IOException {
+            final Header lastEventId = request.getFirstHeader("Last-Event-ID");
+            this.lastEventIds.add(lastEventId != null ? lastEventId.getValue() : null);
+            final String content;
+            switch (this.count.getAndIncrement()) {
+                case 0:
+                    content = "retry: 100\n: keep-alive\n\nid: 1\ndata: first\n\nid: 2\nevent: update\ndata: second\ndata:  line\n\ndata: incomplete";
+                    break;
+                case 1:
+                    content = "id: 3\r\ndata: third\r\n\r\n";
+                    break;
+                default:
+                    response.setStatusCode(HttpStatus.SC_NO_CONTENT);
+                    return;
+            }
+            final NStringEntity entity = new NStringEntity(content, EVENT_STREAM);
+            entity.setChunked(true);
+            response.setEntity(entity);
+        }
+
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        final FeedHandler handler = new FeedHandler();
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(handler));
+        final HttpHost target = start();
+
+        final EventCollector collector = new EventCollector();
+        final EventSource eventSource = new EventSource(
+                this.httpclient, new URI(target.toURI() + "/feed"), collector, this.scheduler);
+        final Future<String> future = eventSource.open(null, null);
+        Assert.assertEquals("3", future.get(10, TimeUnit.SECONDS));
+
+        Assert.assertEquals(3, collector.events.size());
+        Assert.assertEquals("1", collector.events.get(0).getId());
+        Assert.assertEquals("message", collector.events.get(0).getType());
+        Assert.assertEquals("first", collector.events.get(0).getData());
+        Assert.assertEquals("2", collector.events.get(1).getId());
+        Assert.assertEquals("update", collector.events.get(1).getType());
+        Assert.assertEquals("second\n line", collector.events.get(1).getData());
+        Assert.assertEquals("3", collector.events.get(2).getId());
+        Assert.assertEquals("third", collector.events.get(2).getData());
+        Assert.assertEquals(3, handler.count.get());
+        Assert.assertEquals(Arrays.asList(null, "2", "3"), handler.lastEventIds);
+    }
+
+    @Test
+    public void testUnexpectedStatus() throws Exception {
+        final HttpHost target = start();
+
+        final EventSource eventSource = new EventSource(
+                this.httpclient, new URI(target.toURI() + "/nowhere"), new EventCollector(), this.scheduler);
+        final Future<String> future = eventSource.open("1", null);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof HttpResponseException);
+            Assert.assertEquals(HttpStatus.SC_NOT_IMPLEMENTED,
+                    ((HttpResponseException) ex.getCause()).getStatusCode());
+        }
+    }
+
+    @Test
+    public void testParseByteByByte() throws Exception {
+        final byte[] content = ("\ufeffdata:a\r\ndata\r\n: comment\r\nid\r\nevent:e\r\n\r\n"
+                + "id: x\0y\nretry: 1x\ndata: \u00fc\n\n").getBytes(Consts.UTF_8.name());
+        final ContentDecoder decoder = Mockito.mock(ContentDecoder.class);
+        final AtomicInteger pos = new AtomicInteger();
+        Mockito.when(decoder.read(Mockito.any(ByteBuffer.class))).thenAnswer(new Answer<Integer>() {
+
+            @Override
+            public Integer answer(final InvocationOnMock invocation) throws Throwable {
+                final ByteBuffer dst = (ByteBuffer) invocation.getArguments()[0];
+                if (pos.get() >= content.length) {
+                    return -1;
+                }
+                dst.put(content[pos.getAndIncrement()]);
+                return 1;
+            }
+
+        });
+        Mockito.when(decoder.isCompleted()).thenAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+                return pos.get() >= content.length;
+            }
+
+        });
+
+        final EventCollector collector = new EventCollector();
+        final ServerSentEventConsumer consumer = new ServerSentEventConsumer(collector, "0", 1024);
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        response.setEntity(new NStringEntity("", EVENT_STREAM));
+        consumer.responseReceived(response);
+        consumer.consumeContent(decoder, Mockito.mock(IOControl.class));
+        consumer.responseCompleted(new BasicHttpContext());
+
+        Assert.assertEquals(2, collector.events.size());
+        Assert.assertEquals("", collector.events.get(0).getId());
+        Assert.assertEquals("e", collector.events.get(0).getType());
+        Assert.assertEquals("a\n", collector.events.get(0).getData());
+        Assert.assertEquals("", collector.events.get(1).getId());
+        Assert.assertEquals("\u00fc", collector.events.get(1).getData());
+        Assert.assertEquals(-1, consumer.getRetry());
+        Assert.assertEquals("", consumer.getResult());
+    }
+
+    @Test
+    public void testParseCrLineEndings() throws Exception {
+        // CRLF split across chunks, lone CR at the end of a chunk and blank CR lines
+        final String[] chunks = {
+                "id: 1\rdata: a\r", "\ndata: b\r\r", "\r", "data: c\r\nevent: e\r", "\r", "\n", "data: d\n\r" };
+        final ContentDecoder decoder = Mockito.mock(ContentDecoder.class);
+        final AtomicInteger index = new AtomicInteger();
+        Mockito.when(decoder.read(Mockito.any(ByteBuffer.class))).thenAnswer(new Answer<Integer>() {
+
+            @Override
+            public Integer answer(final InvocationOnMock invocation) throws Throwable {
+                final ByteBuffer dst = (ByteBuffer) invocation.getArguments()[0];
+                if (index.get() >= chunks.length) {
+                    return -1;
+                }
+                final byte[] chunk = chunks[index.getAndIncrement()].getBytes(Consts.ASCII.name());
+                dst.put(chunk);
+                return chunk.length;
+            }
+
+        });
+        Mockito.when(decoder.isCompleted()).thenAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+                return index.get() >= chunks.length;
+            }
+
+        });
+
+        final EventCollector collector = new EventCollector();
+        final ServerSentEventConsumer consumer = new ServerSentEventConsumer(collector);
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        response.setEntity(new NStringEntity("", EVENT_STREAM));
+        consumer.responseReceived(response);
+        consumer.consumeContent(decoder, Mockito.mock(IOControl.class));
+        consumer.responseCompleted(new BasicHttpContext());
+
+        Assert.assertEquals(3, collector.events.size());
+        Assert.assertEquals("1", collector.events.get(0).getId());
+        Assert.assertEquals("a\nb", collector.events.get(0).getData());
+        Assert.assertEquals("e", collector.events.get(1).getType());
+        Assert.assertEquals("c", collector.events.get(1).getData());
+        Assert.assertEquals("message", collector.events.get(2).getType());
+        Assert.assertEquals("d", collector.events.get(2).getData());
+        Assert.assertEquals("1", consumer.getResult());
+    }
+
+}
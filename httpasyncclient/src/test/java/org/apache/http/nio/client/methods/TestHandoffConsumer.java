@@ -0,0 +1,211 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.localserver.HttpAsyncTestBase;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.util.ByteBufferPool;
+import org.apache.http.nio.client.util.PooledByteBufferAllocator;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestHandoffConsumer extends HttpAsyncTestBase {
+
+    private ExecutorService executorService;
+
+    @Before
+    public void setUpExecutor() throws Exception {
+        this.executorService = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void shutDownExecutor() throws Exception {
+        this.executorService.shutdownNow();
+    }
+
+    static class BufferConsumer extends HandoffConsumer<byte[]> {
+
+        private final ByteArrayOutputStream buffer;
+        private final long delay;
+
+        BufferConsumer(
+                final Executor executor,
+                final int bufSize,
+                final int maxBuffers,
+                final ByteBufferPool bufferPool,
+                final long delay) {
+            super(executor, bufSize, maxBuffers, bufferPool, null);
+            this.buffer = new ByteArrayOutputStream();
+            this.delay = delay;
+        }
+
+        @Override
+        protected void onResponseReceived(final HttpResponse response) throws HttpException, IOException {
+        }
+
+        @Override
+        protected void onByteReceived(final ByteBuffer buf) throws IOException {
+            if (this.delay > 0) {
+                try {
+                    Thread.sleep(this.delay);
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+            }
+            while (buf.hasRemaining()) {
+                this.buffer.write(buf.get());
+            }
+        }
+
+        @Override
+        protected byte[] process() throws Exception {
+            return this.buffer.toByteArray();
+        }
+
+    }
+
+    static class QueueExecutor implements Executor {
+
+        private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+
+        @Override
+        public void execute(final Runnable command) {
+            this.tasks.add(command);
+        }
+
+        boolean runNext() {
+            final Runnable task = this.tasks.poll();
+            if (task != null) {
+                task.run();
+                return true;
+            }
+            return false;
+        }
+
+    }
+
+    private static ContentDecoder createDecoder(final int chunkSize) throws IOException {
+        final ContentDecoder decoder = Mockito.mock(ContentDecoder.class);
+        Mockito.when(decoder.read(Mockito.any(ByteBuffer.class))).thenAnswer(new Answer<Integer>() {
+
+            @Override
+            public Integer answer(final InvocationOnMock invocation) throws Throwable {
+                final ByteBuffer dst = (ByteBuffer) invocation.getArguments()[0];
+                final int n = Math.min(chunkSize, dst.remaining());
+                dst.position(dst.position() + n);
+                return n;
+            }
+
+        });
+        return decoder;
+    }
+
+    @Test
+    public void testSlowWorker() throws Exception {
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(
+                new TestSpillingConsumer.ContentHandler()));
+        final HttpHost target = start();
+
+        final PooledByteBufferAllocator pool = new PooledByteBufferAllocator(true);
+        final BufferConsumer consumer = new BufferConsumer(
+                this.executorService, 4 * 1024, 4, pool, 1);
+        final Future<Future<byte[]>> future = this.httpclient.execute(
+                HttpAsyncMethods.create(target, new HttpGet("/200000")), consumer, null);
+        final byte[] result = future.get().get();
+        Assert.assertArrayEquals(TestSpillingConsumer.content(200000), result);
+        Assert.assertEquals(0, pool.getLeased());
+    }
+
+    @Test
+    public void testSuspendAndResumeInput() throws Exception {
+        final QueueExecutor executor = new QueueExecutor();
+        final BufferConsumer consumer = new BufferConsumer(executor, 16, 2, null, 0);
+        final ContentDecoder decoder = createDecoder(16);
+        final IOControl ioControl = Mockito.mock(IOControl.class);
+
+        consumer.consumeContent(decoder, ioControl);
+        Mockito.verify(decoder, Mockito.times(2)).read(Mockito.any(ByteBuffer.class));
+        Mockito.verify(ioControl).suspendInput();
+
+        Assert.assertTrue(executor.runNext());
+        Mockito.verify(ioControl).requestInput();
+        Assert.assertFalse(executor.runNext());
+
+        consumer.consumeContent(decoder, ioControl);
+        Mockito.verify(decoder, Mockito.times(4)).read(Mockito.any(ByteBuffer.class));
+        Mockito.verify(ioControl, Mockito.times(2)).suspendInput();
+    }
+
+    @Test
+    public void testWorkerFailure() throws Exception {
+        final QueueExecutor executor = new QueueExecutor();
+        final HandoffConsumer<byte[]> consumer = new BufferConsumer(executor, 16, 2, null, 0) {
+
+            @Override
+            protected void onByteReceived(final ByteBuffer buf) throws IOException {
+                throw new IOException("Oppsie");
+            }
+
+        };
+        final ContentDecoder decoder = createDecoder(16);
+        final IOControl ioControl = Mockito.mock(IOControl.class);
+
+        consumer.consumeContent(decoder, ioControl);
+        Mockito.verify(ioControl).suspendInput();
+        Assert.assertTrue(executor.runNext());
+        Mockito.verify(ioControl).requestInput();
+
+        try {
+            consumer.consumeContent(decoder, ioControl);
+            Assert.fail("IOException expected");
+        } catch (final IOException ex) {
+            Assert.assertEquals("Oppsie", ex.getCause().getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+import org.apache.http.localserver.HttpAsyncTestBase;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMemoryMappedConsumer extends HttpAsyncTestBase {
+
+    private File tmpfile;
+
+    @After
+    public void cleanUp() throws Exception {
+        if (this.tmpfile != null && this.tmpfile.exists()) {
+            this.tmpfile.delete();
+        }
+    }
+
+    static class BufferConsumer extends MemoryMappedConsumer<MappedByteBuffer> {
+
+        public BufferConsumer(final File file) throws FileNotFoundException {
+            super(file);
+        }
+
+        @Override
+        protected MappedByteBuffer process(
+                final HttpResponse response,
+                final File file,
+                final MappedByteBuffer buffer,
+                final ContentType contentType) {
+            return buffer;
+        }
+
+    }
+
+    private MappedByteBuffer execute(final HttpHost target, final String path) throws Exception {
+        this.tmpfile = new File(FileUtils.getTempDirectory(), "dst.test");
+        final Future<MappedByteBuffer> future = this.httpclient.execute(
+                HttpAsyncMethods.create(target, new HttpGet(path)),
+                new BufferConsumer(this.tmpfile), null);
+        return future.get();
+    }
+
+    private static void assertContent(final int len, final MappedByteBuffer buffer) {
+        Assert.assertNotNull(buffer);
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(len, buffer.remaining());
+        final byte[] b = new byte[len];
+        buffer.get(b);
+        Assert.assertArrayEquals(TestSpillingConsumer.content(len), b);
+    }
+
+    @Test
+    public void testFixedLengthContent() throws Exception {
+        this.serverBootstrap.registerHandler("*",
+                new BasicAsyncRequestHandler(new TestSpillingConsumer.ContentHandler()));
+        final HttpHost target = start();
+
+        final MappedByteBuffer buffer = execute(target, "/fixed/100000");
+        Assert.assertFalse(buffer.isReadOnly());
+        assertContent(100000, buffer);
+        Assert.assertEquals(100000, this.tmpfile.length());
+    }
+
+    @Test
+    public void testChunkedContent() throws Exception {
+        this.serverBootstrap.registerHandler("*",
+                new BasicAsyncRequestHandler(new TestSpillingConsumer.ContentHandler()));
+        final HttpHost target = start();
+
+        final MappedByteBuffer buffer = execute(target, "/chunked/100000");
+        Assert.assertTrue(buffer.isReadOnly());
+        assertContent(100000, buffer);
+        Assert.assertEquals(100000, this.tmpfile.length());
+    }
+
+    @Test
+    public void testReleaseMapping() throws Exception {
+        this.serverBootstrap.registerHandler("*",
+                new BasicAsyncRequestHandler(new TestSpillingConsumer.ContentHandler()));
+        final HttpHost target = start();
+
+        this.tmpfile = new File(FileUtils.getTempDirectory(), "dst.test");
+        final BufferConsumer consumer = new BufferConsumer(this.tmpfile);
+        Assert.assertFalse(consumer.releaseMapping());
+        final Future<MappedByteBuffer> future = this.httpclient.execute(
+                HttpAsyncMethods.create(target, new HttpGet("/fixed/100000")), consumer, null);
+        assertContent(100000, future.get());
+        Assert.assertTrue(consumer.releaseMapping());
+        Assert.assertFalse(consumer.releaseMapping());
+        Assert.assertTrue(this.tmpfile.delete());
+    }
+
+    @Test
+    public void testEmptyContent() throws Exception {
+        this.serverBootstrap.registerHandler("*",
+                new BasicAsyncRequestHandler(new TestSpillingConsumer.ContentHandler()));
+        final HttpHost target = start();
+
+        final MappedByteBuffer buffer = execute(target, "/fixed/0");
+        assertContent(0, buffer);
+        Assert.assertEquals(0, this.tmpfile.length());
+    }
+
+}
@@ -0,0 +1,367 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpConnection;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+import org.apache.http.localserver.HttpAsyncTestBase;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestResumableDownload extends HttpAsyncTestBase {
+
+    private static final int LENGTH = 1000000;
+
+    private File tmpfile;
+
+    @Before
+    public void createTmpFile() throws Exception {
+        this.tmpfile = new File(FileUtils.getTempDirectory(), "resumable-" + System.nanoTime());
+    }
+
+    @After
+    public void deleteTmpFile() throws Exception {
+        if (this.tmpfile != null) {
+            this.tmpfile.delete();
+        }
+    }
+
+    static byte[] content(final int len, final int seed) {
+        final byte[] b = new byte[len];
+        for (int i = 0; i < len; i++) {
+            b[i] = (byte) ((i + seed) % 251);
+        }
+        return b;
+    }
+
+    /**
+     * Entity that shuts down the connection after the given number of bytes.
+     */
+    static class TruncatedEntity extends NByteArrayEntity {
+
+        private final ByteBuffer buf;
+
+        TruncatedEntity(final byte[] b, final int off, final int len, final int cutoff) {
+            super(b, off, len);
+            this.buf = ByteBuffer.wrap(b, off, Math.min(len, cutoff));
+        }
+
+        @Override
+        public void produceContent(final ContentEncoder encoder, final IOControl ioControl) throws IOException {
+            encoder.write(this.buf);
+            if (!this.buf.hasRemaining()) {
+                ioControl.shutdown();
+            }
+        }
+
+    }
+
+    static class TruncatingHandler implements HttpRequestHandler {
+
+        private final AtomicInteger truncations;
+        private final List<String> ranges;
+
+        private volatile byte[] content;
+        private volatile String etag;
+
+        TruncatingHandler(final byte[] content, final int truncations) {
+            super();
+            this.content = content;
+            this.etag = "\"v1\"";
+            this.truncations = new AtomicInteger(truncations);
+            this.ranges = Collections.synchronizedList(new ArrayList<String>());
+        }
+
+        @Override
+        public void handle(
+                final HttpRequest request,
+                final HttpResponse response,
+                final HttpContext context) throws HttpException, IOException {
+            final byte[] b = this.content;
+            response.setHeader(HttpHeaders.ETAG, this.etag);
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            final Header range = request.getFirstHeader(HttpHeaders.RANGE);
+            final Header ifRange = request.getFirstHeader(HttpHeaders.IF_RANGE);
+            int start = 0;
+            if (range != null) {
+                this.ranges.add(range.getValue());
+                if (ifRange == null || ifRange.getValue().equals(this.etag)) {
+                    start = Integer.parseInt(range.getValue().substring("bytes=".length(), range.getValue().length() - 1));
+                    response.setStatusCode(HttpStatus.SC_PARTIAL_CONTENT);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (b.length - 1) + "/" + b.length);
+                }
+            }
+            if (this.truncations.getAndDecrement() > 0) {
+                response.setEntity(new TruncatedEntity(b, start, b.length - start, 300000));
+            } else {
+                response.setEntity(new NByteArrayEntity(b, start, b.length - start));
+            }
+        }
+
+        List<String> getRanges() {
+            return new ArrayList<String>(this.ranges);
+        }
+
+        void update(final byte[] content, final String etag) {
+            this.content = content;
+            this.etag = etag;
+        }
+
+    }
+
+    @Test
+    public void testResumeAfterConnectionFailure() throws Exception {
+        final byte[] content = content(LENGTH, 0);
+        final TruncatingHandler handler = new TruncatingHandler(content, 2);
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(handler));
+        final HttpHost target = start();
+
+        final ResumableDownload download = new ResumableDownload(
+                this.httpclient, URI.create(target.toURI() + "/file"), this.tmpfile, 3);
+        final Future<File> future = download.execute(null);
+        Assert.assertEquals(this.tmpfile, future.get());
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(this.tmpfile));
+        Assert.assertEquals(Arrays.asList("bytes=300000-", "bytes=600000-"), handler.getRanges());
+    }
+
+    static class OffsetConsumer extends ZeroCopyConsumer<Integer> {
+
+        private final long offset;
+
+        OffsetConsumer(final File file, final long offset) throws IOException {
+            super(file);
+            this.offset = offset;
+        }
+
+        @Override
+        protected long getOffset(final HttpResponse response) {
+            return this.offset;
+        }
+
+        @Override
+        protected Integer process(final HttpResponse response, final File file, final ContentType contentType) {
+            return Integer.valueOf(response.getStatusLine().getStatusCode());
+        }
+
+    }
+
+    @Test
+    public void testZeroCopyResumeFromPosition() throws Exception {
+        final byte[] content = content(LENGTH, 0);
+        final TruncatingHandler handler = new TruncatingHandler(content, 1);
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(handler));
+        final HttpHost target = start();
+
+        final OffsetConsumer consumer1 = new OffsetConsumer(this.tmpfile, 0);
+        Assert.assertEquals(-1, consumer1.getPosition());
+        final Future<Integer> future1 = this.httpclient.execute(
+                HttpAsyncMethods.createGet(target.toURI() + "/file"), consumer1, null);
+        try {
+            future1.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+        }
+        final long position = consumer1.getPosition();
+        Assert.assertEquals(300000, position);
+
+        final OffsetConsumer consumer2 = new OffsetConsumer(this.tmpfile, position);
+        final HttpGet httpget = new HttpGet(target.toURI() + "/file");
+        httpget.setHeader(HttpHeaders.RANGE, "bytes=" + position + "-");
+        final Future<Integer> future2 = this.httpclient.execute(
+                HttpAsyncMethods.create(httpget), consumer2, null);
+        Assert.assertEquals(HttpStatus.SC_PARTIAL_CONTENT, future2.get().intValue());
+        Assert.assertEquals(LENGTH, consumer2.getPosition());
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(this.tmpfile));
+    }
+
+    @Test
+    public void testMaxResumesExceeded() throws Exception {
+        final byte[] content = content(LENGTH, 0);
+        final TruncatingHandler handler = new TruncatingHandler(content, Integer.MAX_VALUE);
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(handler));
+        final HttpHost target = start();
+
+        final ResumableDownload download = new ResumableDownload(
+                this.httpclient, URI.create(target.toURI() + "/file"), this.tmpfile, 2);
+        final Future<File> future = download.execute(null);
+        try {
+            future.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof IOException);
+        }
+        Assert.assertEquals(2, handler.getRanges().size());
+    }
+
+    @Test
+    public void testRestartOnChangedResource() throws Exception {
+        final byte[] content1 = content(LENGTH, 0);
+        final byte[] content2 = content(LENGTH + 1000, 7);
+        final TruncatingHandler handler = new TruncatingHandler(content1, 1) {
+
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public void handle(
+                    final HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context) throws HttpException, IOException {
+                if (this.count.incrementAndGet() == 2) {
+                    update(content2, "\"v2\"");
+                }
+                super.handle(request, response, context);
+            }
+
+        };
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(handler));
+        final HttpHost target = start();
+
+        final ResumableDownload download = new ResumableDownload(
+                this.httpclient, URI.create(target.toURI() + "/file"), this.tmpfile, 3);
+        final Future<File> future = download.execute(null);
+        Assert.assertEquals(this.tmpfile, future.get());
+        Assert.assertArrayEquals(content2, FileUtils.readFileToByteArray(this.tmpfile));
+        Assert.assertEquals(Collections.singletonList("bytes=300000-"), handler.getRanges());
+    }
+
+    @Test
+    public void testResumeAfterFailureBeforeContent() throws Exception {
+        final byte[] content = content(LENGTH, 0);
+        final TruncatingHandler handler = new TruncatingHandler(content, 1) {
+
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public void handle(
+                    final HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context) throws HttpException, IOException {
+                super.handle(request, response, context);
+                if (this.count.incrementAndGet() == 2) {
+                    // drop the connection before the response head gets sent
+                    final HttpConnection conn = (HttpConnection) context.getAttribute(
+                            HttpCoreContext.HTTP_CONNECTION);
+                    conn.shutdown();
+                }
+            }
+
+        };
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(handler));
+        final HttpHost target = start();
+
+        final ResumableDownload download = new ResumableDownload(
+                this.httpclient, URI.create(target.toURI() + "/file"), this.tmpfile, 3);
+        final Future<File> future = download.execute(null);
+        Assert.assertEquals(this.tmpfile, future.get());
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(this.tmpfile));
+        Assert.assertEquals(Arrays.asList("bytes=300000-", "bytes=300000-"), handler.getRanges());
+    }
+
+    /**
+     * Entity that stops producing content after the given number of bytes.
+     */
+    static class StallingEntity extends NByteArrayEntity {
+
+        private final ByteBuffer buf;
+
+        StallingEntity(final byte[] b, final int cutoff) {
+            super(b);
+            this.buf = ByteBuffer.wrap(b, 0, cutoff);
+        }
+
+        @Override
+        public void produceContent(final ContentEncoder encoder, final IOControl ioControl) throws IOException {
+            encoder.write(this.buf);
+            if (!this.buf.hasRemaining()) {
+                ioControl.suspendOutput();
+            }
+        }
+
+    }
+
+    @Test
+    public void testCancelAbortsRequest() throws Exception {
+        final byte[] content = content(LENGTH, 0);
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(new HttpRequestHandler() {
+
+            @Override
+            public void handle(
+                    final HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context) throws HttpException, IOException {
+                response.setHeader(HttpHeaders.ETAG, "\"v1\"");
+                response.setEntity(new StallingEntity(content, 1000));
+            }
+
+        }));
+        final HttpHost target = start();
+
+        final ResumableDownload download = new ResumableDownload(
+                this.httpclient, URI.create(target.toURI() + "/file"), this.tmpfile, 3);
+        final Future<File> future = download.execute(null);
+        for (int i = 0; i < 500 && this.tmpfile.length() == 0; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, this.connMgr.getTotalStats().getLeased());
+        Assert.assertTrue(future.cancel(true));
+        for (int i = 0; i < 500 && this.connMgr.getTotalStats().getLeased() > 0; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, this.connMgr.getTotalStats().getLeased());
+    }
+
+}
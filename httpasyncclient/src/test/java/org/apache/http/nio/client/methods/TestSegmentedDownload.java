@@ -0,0 +1,303 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.localserver.HttpAsyncTestBase;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSegmentedDownload extends HttpAsyncTestBase {
+
+    private static final int LENGTH = 1000000;
+
+    private File tmpfile;
+
+    @Before
+    public void createTmpFile() throws Exception {
+        this.tmpfile = new File(FileUtils.getTempDirectory(), "segmented-" + System.nanoTime());
+        this.connMgr.setDefaultMaxPerRoute(4);
+    }
+
+    @After
+    public void deleteTmpFile() throws Exception {
+        if (this.tmpfile != null) {
+            this.tmpfile.delete();
+            new File(this.tmpfile.getPath() + ".segments").delete();
+        }
+    }
+
+    static byte[] content(final int len) {
+        final byte[] b = new byte[len];
+        for (int i = 0; i < len; i++) {
+            b[i] = (byte) (i % 251);
+        }
+        return b;
+    }
+
+    static class RangeHandler implements HttpRequestHandler {
+
+        private final byte[] content;
+        private final boolean acceptRanges;
+        private final List<String> ranges;
+
+        private volatile String etag;
+        private volatile String nextEtag;
+
+        RangeHandler(final byte[] content, final boolean acceptRanges) {
+            super();
+            this.content = content;
+            this.acceptRanges = acceptRanges;
+            this.ranges = Collections.synchronizedList(new ArrayList<String>());
+            this.etag = "\"v1\"";
+        }
+
+        @Override
+        public void handle(
+                final HttpRequest request,
+                final HttpResponse response,
+                final HttpContext context) throws HttpException, IOException {
+            response.setHeader(HttpHeaders.ETAG, this.etag);
+            if (request.getRequestLine().getMethod().equals("HEAD") && this.nextEtag != null) {
+                this.etag = this.nextEtag;
+            }
+            final Header range = request.getFirstHeader(HttpHeaders.RANGE);
+            final Header ifRange = request.getFirstHeader(HttpHeaders.IF_RANGE);
+            if (!this.acceptRanges || range == null
+                    || (ifRange != null && !ifRange.getValue().equals(this.etag))) {
+                if (this.acceptRanges) {
+                    response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+                }
+                response.setEntity(new NByteArrayEntity(this.content));
+                return;
+            }
+            this.ranges.add(range.getValue());
+            final String[] bounds = range.getValue().substring("bytes=".length()).split("-");
+            final int start = Integer.parseInt(bounds[0]);
+            final int end = Integer.parseInt(bounds[1]);
+            response.setStatusCode(HttpStatus.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + this.content.length);
+            response.setEntity(new NByteArrayEntity(this.content, start, end - start + 1));
+        }
+
+        List<String> getRanges() {
+            return new ArrayList<String>(this.ranges);
+        }
+
+        void setNextEtag(final String nextEtag) {
+            this.nextEtag = nextEtag;
+        }
+
+    }
+
+    @Test
+    public void testSegmentedDownload() throws Exception {
+        final byte[] content = content(LENGTH);
+        final RangeHandler handler = new RangeHandler(content, true);
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(handler));
+        final HttpHost target = start();
+
+        final SegmentedDownload download = new SegmentedDownload(
+                this.httpclient, URI.create(target.toURI() + "/file"), this.tmpfile, 4, 64 * 1024);
+        final Future<File> future = download.execute(null);
+        Assert.assertEquals(this.tmpfile, future.get());
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(this.tmpfile));
+        Assert.assertEquals(4, handler.getRanges().size());
+        Assert.assertTrue(handler.getRanges().contains("bytes=0-249999"));
+        Assert.assertTrue(handler.getRanges().contains("bytes=750000-999999"));
+        Assert.assertFalse(download.getSegmentMapFile().exists());
+    }
+
+    @Test
+    public void testResumeDownload() throws Exception {
+        final byte[] content = content(LENGTH);
+        final RangeHandler handler = new RangeHandler(content, true);
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(handler));
+        final HttpHost target = start();
+
+        final SegmentedDownload download = new SegmentedDownload(
+                this.httpclient, URI.create(target.toURI() + "/file"), this.tmpfile, 2, 64 * 1024);
+
+        // Simulate an interrupted download with the first segment partially
+        // and the second one fully complete
+        final RandomAccessFile accessfile = new RandomAccessFile(this.tmpfile, "rw");
+        try {
+            accessfile.setLength(LENGTH);
+            accessfile.write(content, 0, 100000);
+            accessfile.seek(500000);
+            accessfile.write(content, 500000, 500000);
+        } finally {
+            accessfile.close();
+        }
+        final SegmentMap segmentMap = SegmentMap.create(LENGTH, "\"v1\"", 2, 64 * 1024);
+        segmentMap.advance(0, 100000);
+        segmentMap.advance(1, 500000);
+        segmentMap.store(download.getSegmentMapFile());
+
+        final Future<File> future = download.execute(null);
+        Assert.assertEquals(this.tmpfile, future.get());
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(this.tmpfile));
+        Assert.assertEquals(Collections.singletonList("bytes=100000-499999"), handler.getRanges());
+        Assert.assertFalse(download.getSegmentMapFile().exists());
+    }
+
+    @Test
+    public void testStaleSegmentMapIgnored() throws Exception {
+        final byte[] content = content(LENGTH);
+        final RangeHandler handler = new RangeHandler(content, true);
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(handler));
+        final HttpHost target = start();
+
+        final SegmentedDownload download = new SegmentedDownload(
+                this.httpclient, URI.create(target.toURI() + "/file"), this.tmpfile, 2, 64 * 1024);
+        final SegmentMap segmentMap = SegmentMap.create(LENGTH, "\"v0\"", 2, 64 * 1024);
+        segmentMap.advance(0, 100000);
+        segmentMap.store(download.getSegmentMapFile());
+
+        final Future<File> future = download.execute(null);
+        Assert.assertEquals(this.tmpfile, future.get());
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(this.tmpfile));
+        Assert.assertTrue(handler.getRanges().contains("bytes=0-499999"));
+    }
+
+    @Test
+    public void testResourceChanged() throws Exception {
+        final byte[] content = content(LENGTH);
+        final RangeHandler handler = new RangeHandler(content, true);
+        // Have the resource change between the HEAD and the range requests
+        handler.setNextEtag("\"v2\"");
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(handler));
+        final HttpHost target = start();
+
+        final SegmentedDownload download = new SegmentedDownload(
+                this.httpclient, URI.create(target.toURI() + "/file"), this.tmpfile, 2, 64 * 1024);
+        final Future<File> future = download.execute(null);
+        try {
+            future.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof ProtocolException);
+        }
+        Assert.assertTrue(handler.getRanges().isEmpty());
+        Assert.assertFalse(download.getSegmentMapFile().exists());
+    }
+
+    @Test
+    public void testRangesNotSupported() throws Exception {
+        final byte[] content = content(LENGTH);
+        final RangeHandler handler = new RangeHandler(content, false);
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(handler));
+        final HttpHost target = start();
+
+        final SegmentedDownload download = new SegmentedDownload(
+                this.httpclient, URI.create(target.toURI() + "/file"), this.tmpfile, 4, 64 * 1024);
+        final Future<File> future = download.execute(null);
+        Assert.assertEquals(this.tmpfile, future.get());
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(this.tmpfile));
+        Assert.assertTrue(handler.getRanges().isEmpty());
+    }
+
+    @Test
+    public void testValidator() throws Exception {
+        final Date now = new Date();
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        response.setHeader(HttpHeaders.DATE, DateUtils.formatDate(now));
+        response.setHeader(HttpHeaders.ETAG, "\"v1\"");
+        Assert.assertEquals("\"v1\"", SegmentedDownload.getValidator(response));
+
+        response.setHeader(HttpHeaders.ETAG, "W/\"v1\"");
+        Assert.assertNull(SegmentedDownload.getValidator(response));
+
+        response.setHeader(HttpHeaders.LAST_MODIFIED, DateUtils.formatDate(now));
+        Assert.assertNull(SegmentedDownload.getValidator(response));
+
+        final String lastModified = DateUtils.formatDate(new Date(now.getTime() - 10000L));
+        response.setHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        Assert.assertEquals(lastModified, SegmentedDownload.getValidator(response));
+
+        response.removeHeaders(HttpHeaders.DATE);
+        Assert.assertNull(SegmentedDownload.getValidator(response));
+    }
+
+    @Test
+    public void testWeakLastModifiedDownloadedInSingleSegment() throws Exception {
+        final byte[] content = content(LENGTH);
+        final RangeHandler handler = new RangeHandler(content, true) {
+
+            @Override
+            public void handle(
+                    final HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context) throws HttpException, IOException {
+                super.handle(request, response, context);
+                final String now = DateUtils.formatDate(new Date());
+                response.removeHeaders(HttpHeaders.ETAG);
+                response.setHeader(HttpHeaders.DATE, now);
+                response.setHeader(HttpHeaders.LAST_MODIFIED, now);
+            }
+
+        };
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(handler));
+        final HttpHost target = start();
+
+        final SegmentedDownload download = new SegmentedDownload(
+                this.httpclient, URI.create(target.toURI() + "/file"), this.tmpfile, 4, 64 * 1024);
+        final Future<File> future = download.execute(null);
+        Assert.assertEquals(this.tmpfile, future.get());
+        Assert.assertArrayEquals(content, FileUtils.readFileToByteArray(this.tmpfile));
+        Assert.assertTrue(handler.getRanges().isEmpty());
+    }
+
+}
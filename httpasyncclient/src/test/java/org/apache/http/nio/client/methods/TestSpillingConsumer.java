@@ -0,0 +1,199 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.localserver.HttpAsyncTestBase;
+import org.apache.http.nio.client.util.PooledByteBufferAllocator;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSpillingConsumer extends HttpAsyncTestBase {
+
+    private File tmpdir;
+
+    @Before
+    public void createTmpDir() throws Exception {
+        this.tmpdir = new File(FileUtils.getTempDirectory(), "spill-" + System.nanoTime());
+        Assert.assertTrue(this.tmpdir.mkdir());
+    }
+
+    @After
+    public void deleteTmpDir() throws Exception {
+        if (this.tmpdir != null) {
+            FileUtils.deleteDirectory(this.tmpdir);
+        }
+    }
+
+    static byte[] content(final int len) {
+        final byte[] b = new byte[len];
+        for (int i = 0; i < len; i++) {
+            b[i] = (byte) (i % 251);
+        }
+        return b;
+    }
+
+    static class ContentHandler implements HttpRequestHandler {
+
+        @Override
+        public void handle(
+                final HttpRequest request,
+                final HttpResponse response,
+                final HttpContext context) throws HttpException, IOException {
+            final String uri = request.getRequestLine().getUri();
+            final int len = Integer.parseInt(uri.substring(uri.lastIndexOf('/') + 1));
+            final NByteArrayEntity entity = new NByteArrayEntity(content(len));
+            entity.setChunked(uri.startsWith("/chunked"));
+            response.setEntity(entity);
+        }
+
+    }
+
+    private SpillableEntity execute(
+            final HttpHost target,
+            final String path,
+            final SpillingConsumer consumer) throws Exception {
+        final Future<HttpResponse> future = this.httpclient.execute(
+                HttpAsyncMethods.create(target, new HttpGet(path)), consumer, null);
+        final HttpResponse response = future.get();
+        Assert.assertNotNull(response);
+        Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        Assert.assertTrue(response.getEntity() instanceof SpillableEntity);
+        return (SpillableEntity) response.getEntity();
+    }
+
+    @Test
+    public void testContentBelowThreshold() throws Exception {
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(new ContentHandler()));
+        final HttpHost target = start();
+
+        final SpillableEntity entity = execute(target, "/chunked/10000",
+                new SpillingConsumer(20000, this.tmpdir, 1024, null));
+        Assert.assertTrue(entity.isInMemory());
+        Assert.assertEquals(10000, entity.getContentLength());
+        Assert.assertEquals(0, this.tmpdir.list().length);
+        final InputStream inStream = entity.getContent();
+        try {
+            Assert.assertArrayEquals(content(10000), IOUtils.toByteArray(inStream));
+        } finally {
+            inStream.close();
+        }
+    }
+
+    @Test
+    public void testChunkedContentSpilled() throws Exception {
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(new ContentHandler()));
+        final HttpHost target = start();
+
+        final SpillableEntity entity = execute(target, "/chunked/100000",
+                new SpillingConsumer(20000, this.tmpdir, 1024, null));
+        Assert.assertFalse(entity.isInMemory());
+        Assert.assertEquals(100000, entity.getContentLength());
+        Assert.assertEquals(1, this.tmpdir.list().length);
+        final ReadableByteChannel channel = entity.getChannel();
+        final ByteBuffer dst = ByteBuffer.allocate(100000);
+        try {
+            while (dst.hasRemaining()) {
+                if (channel.read(dst) == -1) {
+                    break;
+                }
+            }
+            Assert.assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        } finally {
+            channel.close();
+        }
+        Assert.assertArrayEquals(content(100000), dst.array());
+        Assert.assertEquals(0, this.tmpdir.list().length);
+    }
+
+    @Test
+    public void testContentLengthAboveThreshold() throws Exception {
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(new ContentHandler()));
+        final HttpHost target = start();
+
+        final SpillableEntity entity = execute(target, "/fixed/50000",
+                new SpillingConsumer(20000, this.tmpdir, 1024, null));
+        Assert.assertFalse(entity.isInMemory());
+        Assert.assertEquals(50000, entity.getContentLength());
+        final InputStream inStream = entity.getContent();
+        try {
+            Assert.assertArrayEquals(content(50000), IOUtils.toByteArray(inStream));
+        } finally {
+            inStream.close();
+        }
+        Assert.assertEquals(0, this.tmpdir.list().length);
+    }
+
+    @Test
+    public void testPooledBuffersReleased() throws Exception {
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(new ContentHandler()));
+        final HttpHost target = start();
+
+        final PooledByteBufferAllocator bufferPool = new PooledByteBufferAllocator(
+                false, 1024, 64 * 1024, 64, true);
+        final SpillableEntity entity1 = execute(target, "/chunked/10000",
+                new SpillingConsumer(20000, this.tmpdir, 4096, bufferPool));
+        Assert.assertTrue(entity1.isInMemory());
+        Assert.assertTrue(bufferPool.getLeased() > 0);
+        final InputStream inStream = entity1.getContent();
+        try {
+            Assert.assertArrayEquals(content(10000), IOUtils.toByteArray(inStream));
+        } finally {
+            inStream.close();
+        }
+        Assert.assertEquals(0, bufferPool.getLeased());
+
+        final SpillableEntity entity2 = execute(target, "/chunked/100000",
+                new SpillingConsumer(20000, this.tmpdir, 4096, bufferPool));
+        Assert.assertFalse(entity2.isInMemory());
+        Assert.assertEquals(0, bufferPool.getLeased());
+        entity2.release();
+        Assert.assertEquals(0, this.tmpdir.list().length);
+        Assert.assertEquals(0, bufferPool.getLeaked());
+    }
+
+}
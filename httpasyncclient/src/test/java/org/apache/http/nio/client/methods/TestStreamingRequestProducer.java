@@ -0,0 +1,197 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.localserver.HttpAsyncTestBase;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestStreamingRequestProducer extends HttpAsyncTestBase {
+
+    static class EchoHandler implements HttpRequestHandler {
+
+        @Override
+        public void handle(
+                final HttpRequest request,
+                final HttpResponse response,
+                final HttpContext context) throws HttpException, IOException {
+            final HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            response.setEntity(new NByteArrayEntity(EntityUtils.toByteArray(entity)));
+        }
+
+    }
+
+    private static ContentEncoder createEncoder() throws IOException {
+        final ContentEncoder encoder = Mockito.mock(ContentEncoder.class);
+        Mockito.when(encoder.write(Mockito.any(ByteBuffer.class))).thenAnswer(new Answer<Integer>() {
+
+            @Override
+            public Integer answer(final InvocationOnMock invocation) throws Throwable {
+                final ByteBuffer src = (ByteBuffer) invocation.getArguments()[0];
+                final int n = src.remaining();
+                src.position(src.limit());
+                return n;
+            }
+
+        });
+        return encoder;
+    }
+
+    @Test
+    public void testStreamingUpload() throws Exception {
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(new EchoHandler()));
+        final HttpHost target = start();
+
+        final StreamingRequestProducer producer = new StreamingRequestProducer(
+                target, new HttpPost("/echo"), 32 * 1024);
+        final Future<HttpResponse> future = this.httpclient.execute(
+                producer, HttpAsyncMethods.createConsumer(), null);
+
+        final byte[] content = TestSpillingConsumer.content(8 * 1024);
+        final AtomicLong maxQueued = new AtomicLong();
+        final AtomicReference<Exception> exRef = new AtomicReference<Exception>();
+        final Thread writer = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        producer.put(ByteBuffer.wrap(content));
+                        final long queued = producer.getQueued();
+                        if (queued > maxQueued.get()) {
+                            maxQueued.set(queued);
+                        }
+                    }
+                    producer.writeCompleted();
+                } catch (final Exception ex) {
+                    exRef.set(ex);
+                }
+            }
+
+        };
+        writer.start();
+
+        final HttpResponse response = future.get();
+        writer.join();
+        Assert.assertNull(exRef.get());
+        Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        final byte[] echo = EntityUtils.toByteArray(response.getEntity());
+        Assert.assertEquals(200 * content.length, echo.length);
+        for (int i = 0; i < echo.length; i++) {
+            Assert.assertEquals(content[i % content.length], echo[i]);
+        }
+        Assert.assertTrue(maxQueued.get() < 32 * 1024 + content.length);
+    }
+
+    @Test
+    public void testSuspendAndResumeOutput() throws Exception {
+        final StreamingRequestProducer producer = new StreamingRequestProducer(
+                new HttpHost("localhost"), new HttpPost("/"), 1024);
+        final ContentEncoder encoder = createEncoder();
+        final IOControl ioControl = Mockito.mock(IOControl.class);
+
+        producer.produceContent(encoder, ioControl);
+        Mockito.verify(ioControl).suspendOutput();
+
+        final Future<ByteBuffer> future = producer.write(ByteBuffer.allocate(100), null);
+        Mockito.verify(ioControl).requestOutput();
+        Assert.assertEquals(100, producer.getQueued());
+        Assert.assertFalse(future.isDone());
+
+        producer.produceContent(encoder, ioControl);
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(0, producer.getQueued());
+        Mockito.verify(ioControl, Mockito.times(2)).suspendOutput();
+        Mockito.verify(encoder, Mockito.never()).complete();
+
+        producer.writeCompleted();
+        Mockito.verify(ioControl, Mockito.times(2)).requestOutput();
+        producer.produceContent(encoder, ioControl);
+        Mockito.verify(encoder).complete();
+    }
+
+    @Test
+    public void testFailureUnblocksWriter() throws Exception {
+        final StreamingRequestProducer producer = new StreamingRequestProducer(
+                new HttpHost("localhost"), new HttpPost("/"), 100);
+        final Future<ByteBuffer> future = producer.write(ByteBuffer.allocate(100), null);
+
+        final AtomicReference<Exception> exRef = new AtomicReference<Exception>();
+        final Thread writer = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    producer.put(ByteBuffer.allocate(100));
+                } catch (final Exception ex) {
+                    exRef.set(ex);
+                }
+            }
+
+        };
+        writer.start();
+        writer.join(200);
+        Assert.assertTrue(writer.isAlive());
+
+        producer.failed(new IOException("Oppsie"));
+        writer.join(5000);
+        Assert.assertFalse(writer.isAlive());
+        Assert.assertTrue(exRef.get() instanceof IOException);
+        try {
+            future.get();
+            Assert.fail("ExecutionException expected");
+        } catch (final ExecutionException ex) {
+            Assert.assertEquals("Oppsie", ex.getCause().getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.MalformedInputException;
+import java.util.Random;
+
+import org.apache.http.Consts;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestUtf8Decoder {
+
+    private static String randomText(final Random random, final int len) {
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < len) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    sb.append((char) (0x80 + random.nextInt(0x780)));
+                    break;
+                case 1:
+                    sb.append((char) (0x800 + random.nextInt(0xd000)));
+                    break;
+                case 2:
+                    sb.appendCodePoint(0x10000 + random.nextInt(0x100000));
+                    break;
+                default:
+                    sb.append((char) random.nextInt(0x80));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testDecodeInChunks() throws Exception {
+        final Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            final String s = randomText(random, random.nextInt(1000));
+            final byte[] content = s.getBytes(Consts.UTF_8.name());
+            final int chunkSize = 4 + random.nextInt(16);
+            final ByteBuffer src = ByteBuffer.allocate(chunkSize);
+            final CharBuffer dst = CharBuffer.allocate(chunkSize);
+            final StringBuilder sb = new StringBuilder();
+            int off = 0;
+            while (off < content.length || src.position() > 0) {
+                final int len = Math.min(src.remaining(), content.length - off);
+                src.put(content, off, len);
+                off += len;
+                src.flip();
+                Utf8Decoder.decode(src, dst);
+                dst.flip();
+                sb.append(dst);
+                dst.clear();
+                src.compact();
+            }
+            Assert.assertEquals(s, sb.toString());
+        }
+    }
+
+    @Test
+    public void testDecodeString() throws Exception {
+        final String s = "stuff \u00fc\u00df \u20ac \ud83d\ude00";
+        final byte[] content = s.getBytes(Consts.UTF_8.name());
+        Assert.assertEquals(s, Utf8Decoder.decode(ByteBuffer.wrap(content)));
+        final ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+        direct.put(content);
+        direct.flip();
+        Assert.assertEquals(s, Utf8Decoder.decode(direct));
+        Assert.assertEquals("", Utf8Decoder.decode(ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    public void testIncompleteSequence() throws Exception {
+        final ByteBuffer src = ByteBuffer.wrap(new byte[] { 'a', (byte) 0xe2, (byte) 0x82 });
+        final CharBuffer dst = CharBuffer.allocate(16);
+        Utf8Decoder.decode(src, dst);
+        Assert.assertEquals(1, dst.position());
+        Assert.assertEquals(2, src.remaining());
+        src.rewind();
+        try {
+            Utf8Decoder.decode(src);
+            Assert.fail("MalformedInputException expected");
+        } catch (final MalformedInputException expected) {
+        }
+    }
+
+    @Test
+    public void testMalformedInput() throws Exception {
+        final byte[][] malformed = {
+                { (byte) 0x80 },
+                { (byte) 0xc0, (byte) 0x80 },
+                { (byte) 0xc3, 'a' },
+                { (byte) 0xe0, (byte) 0x80, (byte) 0x80 },
+                { (byte) 0xed, (byte) 0xa0, (byte) 0x80 },
+                { (byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80 },
+                { (byte) 0xff }
+        };
+        for (final byte[] b: malformed) {
+            try {
+                Utf8Decoder.decode(ByteBuffer.wrap(b));
+                Assert.fail("MalformedInputException expected");
+            } catch (final MalformedInputException expected) {
+            }
+        }
+    }
+
+}
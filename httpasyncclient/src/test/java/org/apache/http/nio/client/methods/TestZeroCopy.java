@@ -33,6 +33,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
@@ -51,6 +53,8 @@ import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.BasicHttpEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.nio.client.util.ByteBufferPool;
+import org.apache.http.nio.client.util.PooledByteBufferAllocator;
 import org.apache.http.nio.entity.NFileEntity;
 import org.apache.http.nio.entity.NStringEntity;
 import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
@@ -61,9 +65,24 @@ import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
+@RunWith(Parameterized.class)
 public class TestZeroCopy extends HttpAsyncTestBase {
 
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> protocols() {
+        return Arrays.asList(new Object[][]{
+                {ProtocolScheme.http},
+                {ProtocolScheme.https},
+        });
+    }
+
+    public TestZeroCopy(final ProtocolScheme scheme) {
+        super(scheme);
+    }
+
     private static final String[] TEXT = {
         "blah blah blah blah blah blah blah blah blah blah blah blah blah blah",
         "yada yada yada yada yada yada yada yada yada yada yada yada yada yada",
@@ -113,11 +132,18 @@ public class TestZeroCopy extends HttpAsyncTestBase {
 
         protected TestZeroCopyPost(
                 final String requestURI,
-                final boolean forceChunking) throws FileNotFoundException {
-            super(URI.create(requestURI), TEST_FILE, ContentType.create("text/plain"));
+                final boolean forceChunking,
+                final ByteBufferPool bufferPool) throws FileNotFoundException {
+            super(URI.create(requestURI), TEST_FILE, ContentType.create("text/plain"), bufferPool);
             this.forceChunking = forceChunking;
         }
 
+        protected TestZeroCopyPost(
+                final String requestURI,
+                final boolean forceChunking) throws FileNotFoundException {
+            this(requestURI, forceChunking, null);
+        }
+
         @Override
         protected HttpEntityEnclosingRequest createRequest(final URI requestURI, final HttpEntity entity) {
             final HttpPost httppost = new HttpPost(requestURI);
@@ -135,6 +161,10 @@ public class TestZeroCopy extends HttpAsyncTestBase {
 
     static class TestZeroCopyConsumer extends ZeroCopyConsumer<Integer> {
 
+        public TestZeroCopyConsumer(final File file, final ByteBufferPool bufferPool) throws FileNotFoundException {
+            super(file, bufferPool);
+        }
+
         public TestZeroCopyConsumer(final File file) throws FileNotFoundException {
             super(file);
         }
@@ -238,6 +268,38 @@ public class TestZeroCopy extends HttpAsyncTestBase {
         }
     }
 
+    @Test
+    public void testTwoWayZeroCopyPooled() throws Exception {
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(new TestHandler(false)));
+        final HttpHost target = start();
+
+        final PooledByteBufferAllocator bufferPool = new PooledByteBufferAllocator(true);
+        final File tmpdir = FileUtils.getTempDirectory();
+        this.tmpfile = new File(tmpdir, "dst.test");
+        final TestZeroCopyPost httppost = new TestZeroCopyPost(target.toURI() + "/bounce", false, bufferPool);
+        final TestZeroCopyConsumer consumer = new TestZeroCopyConsumer(this.tmpfile, bufferPool);
+        final Future<Integer> future = this.httpclient.execute(httppost, consumer, null);
+        final Integer status = future.get();
+        Assert.assertNotNull(status);
+        Assert.assertEquals(HttpStatus.SC_OK, status.intValue());
+        Assert.assertEquals(TEST_FILE.length(), this.tmpfile.length());
+        Assert.assertEquals(0, bufferPool.getLeased());
+        final InputStream inStream = new FileInputStream(this.tmpfile);
+        try {
+            final LineIterator it = IOUtils.lineIterator(inStream, ASCII.name());
+            int count = 0;
+            while (it.hasNext()) {
+                final String line = it.next();
+                final int i = count % TEXT.length;
+                final String expected = TEXT[i];
+                Assert.assertEquals(expected, line);
+                count++;
+            }
+        } finally {
+            inStream.close();
+        }
+    }
+
     @Test
     public void testZeroCopyFallback() throws Exception {
         this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(new TestHandler(true)));
@@ -0,0 +1,222 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.methods;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.Consts;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.apache.http.localserver.HttpAsyncTestBase;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.client.util.PooledByteBufferAllocator;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestZeroCopyMultipartPost extends HttpAsyncTestBase {
+
+    private File tmpfile;
+    private byte[] fileContent;
+
+    @Before
+    public void createTmpFile() throws Exception {
+        this.tmpfile = new File(FileUtils.getTempDirectory(), "multipart-" + System.nanoTime());
+        this.fileContent = new byte[200000];
+        for (int i = 0; i < this.fileContent.length; i++) {
+            this.fileContent[i] = (byte) (i % 251);
+        }
+        FileUtils.writeByteArrayToFile(this.tmpfile, this.fileContent);
+    }
+
+    @After
+    public void deleteTmpFile() throws Exception {
+        if (this.tmpfile != null) {
+            this.tmpfile.delete();
+        }
+    }
+
+    private List<MultipartPart> createParts() {
+        return Arrays.asList(
+                MultipartPart.text("field1", "some text", null),
+                MultipartPart.file("file1", this.tmpfile, ContentType.APPLICATION_OCTET_STREAM),
+                MultipartPart.text("field2", "more \u00e9 text", ContentType.create("text/plain", Consts.UTF_8)),
+                MultipartPart.file("file2", this.tmpfile, 1000, 5000, null, "region \"1\".bin"));
+    }
+
+    private byte[] expectedBody(final String boundary) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"field1\"\r\n"
+                + "Content-Type: text/plain; charset=UTF-8\r\n"
+                + "\r\n"
+                + "some text\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file1\"; filename=\"" + this.tmpfile.getName() + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "\r\n").getBytes(Consts.ASCII));
+        out.write(this.fileContent);
+        out.write(("\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"field2\"\r\n"
+                + "Content-Type: text/plain; charset=UTF-8\r\n"
+                + "\r\n"
+                + "more \u00e9 text\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file2\"; filename=\"region %221%22.bin\"\r\n"
+                + "\r\n").getBytes(Consts.UTF_8));
+        out.write(this.fileContent, 1000, 5000);
+        out.write(("\r\n--" + boundary + "--\r\n").getBytes(Consts.ASCII));
+        return out.toByteArray();
+    }
+
+    static class EchoHandler implements HttpRequestHandler {
+
+        @Override
+        public void handle(
+                final HttpRequest request,
+                final HttpResponse response,
+                final HttpContext context) throws HttpException, IOException {
+            final HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            response.setHeader("X-Content-Length", Long.toString(entity.getContentLength()));
+            response.setHeader("X-Content-Type", entity.getContentType().getValue());
+            response.setEntity(new NByteArrayEntity(EntityUtils.toByteArray(entity)));
+        }
+
+    }
+
+    static class BufferingEncoder implements ContentEncoder {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private boolean completed;
+
+        @Override
+        public int write(final ByteBuffer src) {
+            final int len = Math.min(src.remaining(), 1000);
+            for (int i = 0; i < len; i++) {
+                this.out.write(src.get());
+            }
+            return len;
+        }
+
+        @Override
+        public void complete() {
+            this.completed = true;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return this.completed;
+        }
+
+        byte[] toByteArray() {
+            return this.out.toByteArray();
+        }
+
+    }
+
+    @Test
+    public void testMultipartUpload() throws Exception {
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(new EchoHandler()));
+        final HttpHost target = start();
+
+        final ZeroCopyMultipartPost producer = new ZeroCopyMultipartPost(target.toURI() + "/echo", createParts());
+        final byte[] expected = expectedBody(producer.getBoundary());
+        Assert.assertEquals(expected.length, producer.getContentLength());
+
+        final Future<HttpResponse> future = this.httpclient.execute(
+                producer, HttpAsyncMethods.createConsumer(), null);
+        final HttpResponse response = future.get();
+        Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        Assert.assertEquals(Integer.toString(expected.length), response.getFirstHeader("X-Content-Length").getValue());
+        Assert.assertEquals("multipart/form-data; boundary=" + producer.getBoundary(),
+                response.getFirstHeader("X-Content-Type").getValue());
+        Assert.assertArrayEquals(expected, EntityUtils.toByteArray(response.getEntity()));
+    }
+
+    @Test
+    public void testTextPartDefaultContentType() throws Exception {
+        final MultipartPart part = MultipartPart.text("field", "some text", null);
+        Assert.assertNotNull(part.getContentType());
+        Assert.assertEquals("text/plain; charset=UTF-8", part.getContentType().toString());
+    }
+
+    @Test
+    public void testMultipartUploadPooledBuffer() throws Exception {
+        this.serverBootstrap.registerHandler("*", new BasicAsyncRequestHandler(new EchoHandler()));
+        final HttpHost target = start();
+
+        final PooledByteBufferAllocator bufferPool = new PooledByteBufferAllocator(true);
+        final ZeroCopyMultipartPost producer = new ZeroCopyMultipartPost(
+                URI.create(target.toURI() + "/echo"), createParts(), null, bufferPool);
+        final byte[] expected = expectedBody(producer.getBoundary());
+
+        final Future<HttpResponse> future = this.httpclient.execute(
+                producer, HttpAsyncMethods.createConsumer(), null);
+        final HttpResponse response = future.get();
+        Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        Assert.assertArrayEquals(expected, EntityUtils.toByteArray(response.getEntity()));
+    }
+
+    @Test
+    public void testRepeatable() throws Exception {
+        final ZeroCopyMultipartPost producer = new ZeroCopyMultipartPost(
+                "http://localhost/", createParts());
+        Assert.assertTrue(producer.isRepeatable());
+        final byte[] expected = expectedBody(producer.getBoundary());
+        for (int i = 0; i < 2; i++) {
+            final BufferingEncoder encoder = new BufferingEncoder();
+            while (!encoder.isCompleted()) {
+                producer.produceContent(encoder, null);
+            }
+            Assert.assertArrayEquals(expected, encoder.toByteArray());
+            producer.resetRequest();
+        }
+        producer.close();
+    }
+
+}
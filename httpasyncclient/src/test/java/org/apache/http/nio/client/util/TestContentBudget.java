@@ -0,0 +1,191 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.util;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.nio.IOControl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestContentBudget {
+
+    private static final HttpRoute ROUTE1 = new HttpRoute(new HttpHost("somehost", 80));
+    private static final HttpRoute ROUTE2 = new HttpRoute(new HttpHost("otherhost", 80));
+
+    @Test
+    public void testReservationsPerRoute() throws Exception {
+        final ContentBudget budget = new ContentBudget(1000);
+        final IOControl ioControl = Mockito.mock(IOControl.class);
+        final ContentBudget.Reservation r1 = budget.open(ROUTE1);
+        final ContentBudget.Reservation r2 = budget.open(ROUTE1);
+        final ContentBudget.Reservation r3 = budget.open(ROUTE2);
+        Assert.assertFalse(r1.reserve(100, ioControl));
+        Assert.assertFalse(r2.reserve(200, ioControl));
+        Assert.assertFalse(r3.reserve(300, ioControl));
+        Assert.assertEquals(600, budget.getReserved());
+        Assert.assertEquals(300, budget.getReserved(ROUTE1));
+        Assert.assertEquals(300, budget.getReserved(ROUTE2));
+        Assert.assertEquals(2, budget.getRoutes().size());
+
+        r1.release();
+        r2.release();
+        Assert.assertEquals(300, budget.getReserved());
+        Assert.assertEquals(0, budget.getReserved(ROUTE1));
+        Assert.assertEquals(1, budget.getRoutes().size());
+        r3.release();
+        Assert.assertEquals(0, budget.getReserved());
+        Assert.assertTrue(budget.getRoutes().isEmpty());
+        Mockito.verify(ioControl, Mockito.never()).suspendInput();
+    }
+
+    @Test
+    public void testSuspendAndResume() throws Exception {
+        final ContentBudget budget = new ContentBudget(1000);
+        final IOControl ioControl1 = Mockito.mock(IOControl.class);
+        final IOControl ioControl2 = Mockito.mock(IOControl.class);
+        final IOControl ioControl3 = Mockito.mock(IOControl.class);
+        final ContentBudget.Reservation r1 = budget.open(ROUTE1);
+        final ContentBudget.Reservation r2 = budget.open(ROUTE1);
+        final ContentBudget.Reservation r3 = budget.open(ROUTE2);
+
+        Assert.assertFalse(r1.reserve(800, ioControl1));
+        Assert.assertTrue(r2.reserve(300, ioControl2));
+        Mockito.verify(ioControl2).suspendInput();
+        Assert.assertTrue(r3.reserve(100, ioControl3));
+        Mockito.verify(ioControl3).suspendInput();
+        Assert.assertEquals(2, budget.getSuspended());
+
+        r1.release();
+        Assert.assertEquals(0, budget.getSuspended());
+        Mockito.verify(ioControl2).requestInput();
+        Mockito.verify(ioControl3).requestInput();
+        Mockito.verify(ioControl1, Mockito.never()).suspendInput();
+    }
+
+    @Test
+    public void testLastActiveExchangeNotSuspended() throws Exception {
+        final ContentBudget budget = new ContentBudget(1000);
+        final IOControl ioControl1 = Mockito.mock(IOControl.class);
+        final IOControl ioControl2 = Mockito.mock(IOControl.class);
+        final ContentBudget.Reservation r1 = budget.open(ROUTE1);
+        final ContentBudget.Reservation r2 = budget.open(ROUTE2);
+
+        Assert.assertFalse(r1.reserve(1500, ioControl1));
+        Assert.assertTrue(r2.reserve(600, ioControl2));
+        // r1 is the only exchange still reading and must be allowed to proceed
+        Assert.assertFalse(r1.reserve(500, ioControl1));
+        Mockito.verify(ioControl1, Mockito.never()).suspendInput();
+
+        r1.release();
+        Assert.assertEquals(600, budget.getReserved());
+        Mockito.verify(ioControl2).requestInput();
+        Assert.assertFalse(r2.reserve(600, ioControl2));
+        r2.release();
+        Assert.assertEquals(0, budget.getReserved());
+    }
+
+    @Test
+    public void testSuspendedExchangeResumedWhenNoActiveLeft() throws Exception {
+        final ContentBudget budget = new ContentBudget(1000);
+        final IOControl ioControl1 = Mockito.mock(IOControl.class);
+        final IOControl ioControl2 = Mockito.mock(IOControl.class);
+        final IOControl ioControl3 = Mockito.mock(IOControl.class);
+        final ContentBudget.Reservation r1 = budget.open(ROUTE1);
+        final ContentBudget.Reservation r2 = budget.open(ROUTE1);
+        final ContentBudget.Reservation r3 = budget.open(ROUTE1);
+
+        Assert.assertFalse(r1.reserve(100, ioControl1));
+        Assert.assertTrue(r2.reserve(1200, ioControl2));
+        Assert.assertTrue(r3.reserve(1200, ioControl3));
+
+        // Budget still exhausted but no exchange left that could return bytes
+        r1.release();
+        Assert.assertEquals(1, budget.getSuspended());
+        Mockito.verify(ioControl2).requestInput();
+        Mockito.verify(ioControl3, Mockito.never()).requestInput();
+
+        r2.release();
+        Assert.assertEquals(0, budget.getSuspended());
+        Mockito.verify(ioControl3).requestInput();
+    }
+
+    @Test
+    public void testSuspendEmptyReservation() throws Exception {
+        final ContentBudget budget = new ContentBudget(1000);
+        final IOControl ioControl1 = Mockito.mock(IOControl.class);
+        final IOControl ioControl2 = Mockito.mock(IOControl.class);
+        final IOControl ioControl3 = Mockito.mock(IOControl.class);
+        final IOControl ioControl4 = Mockito.mock(IOControl.class);
+        final IOControl ioControl5 = Mockito.mock(IOControl.class);
+        final ContentBudget.Reservation r1 = budget.open(ROUTE1);
+        final ContentBudget.Reservation r2 = budget.open(ROUTE1);
+        final ContentBudget.Reservation r3 = budget.open(ROUTE1);
+        final ContentBudget.Reservation r4 = budget.open(ROUTE1);
+        final ContentBudget.Reservation r5 = budget.open(ROUTE1);
+
+        Assert.assertFalse(r1.reserve(900, ioControl1));
+        Assert.assertTrue(r2.reserve(200, ioControl2));
+        Assert.assertTrue(r3.reserve(200, ioControl3));
+        r1.release();
+        Assert.assertEquals(0, budget.getSuspended());
+
+        // r2 and r3 keep reading
+        Assert.assertTrue(r4.reserve(900, ioControl4));
+        // r5 has not consumed any content yet
+        Assert.assertTrue(r5.reserve(0, ioControl5));
+        Assert.assertEquals(2, budget.getSuspended());
+
+        r2.release();
+        Assert.assertEquals(2, budget.getSuspended());
+        Mockito.verify(ioControl4, Mockito.never()).requestInput();
+        r3.release();
+        Assert.assertEquals(0, budget.getSuspended());
+        Mockito.verify(ioControl4).requestInput();
+        Mockito.verify(ioControl5).requestInput();
+    }
+
+    @Test
+    public void testReleaseSuspended() throws Exception {
+        final ContentBudget budget = new ContentBudget(1000);
+        final IOControl ioControl1 = Mockito.mock(IOControl.class);
+        final IOControl ioControl2 = Mockito.mock(IOControl.class);
+        final ContentBudget.Reservation r1 = budget.open(ROUTE1);
+        final ContentBudget.Reservation r2 = budget.open(ROUTE1);
+
+        Assert.assertFalse(r1.reserve(900, ioControl1));
+        Assert.assertTrue(r2.reserve(200, ioControl2));
+        r2.release();
+        Assert.assertEquals(0, budget.getSuspended());
+        Assert.assertEquals(900, budget.getReserved());
+        Mockito.verify(ioControl2, Mockito.never()).requestInput();
+        r1.release();
+        Assert.assertEquals(0, budget.getReserved());
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+package org.apache.http.nio.client.util;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestPooledByteBufferAllocator {
+
+    @Test
+    public void testSizeClasses() throws Exception {
+        final PooledByteBufferAllocator pool = new PooledByteBufferAllocator(false, 1000, 8000, 4, false);
+        Assert.assertEquals(1024, pool.allocate(0).capacity());
+        Assert.assertEquals(1024, pool.allocate(1).capacity());
+        Assert.assertEquals(1024, pool.allocate(1024).capacity());
+        Assert.assertEquals(2048, pool.allocate(1025).capacity());
+        Assert.assertEquals(8192, pool.allocate(8192).capacity());
+        Assert.assertEquals(8193, pool.allocate(8193).capacity());
+        Assert.assertEquals(5, pool.getLeased());
+    }
+
+    @Test
+    public void testBufferReuse() throws Exception {
+        final PooledByteBufferAllocator pool = new PooledByteBufferAllocator(true);
+        final ByteBuffer buf1 = pool.allocate(4000);
+        Assert.assertTrue(buf1.isDirect());
+        buf1.put((byte) 1);
+        pool.release(buf1);
+        Assert.assertEquals(0, pool.getLeased());
+        Assert.assertEquals(1, pool.getAvailable());
+
+        final ByteBuffer buf2 = pool.allocate(3000);
+        Assert.assertSame(buf1, buf2);
+        Assert.assertEquals(0, buf2.position());
+        Assert.assertEquals(buf2.capacity(), buf2.limit());
+        Assert.assertEquals(1, pool.getLeased());
+        Assert.assertEquals(0, pool.getAvailable());
+
+        final ByteBuffer buf3 = pool.allocate(3000);
+        Assert.assertNotSame(buf1, buf3);
+    }
+
+    @Test
+    public void testMaxPerClass() throws Exception {
+        final PooledByteBufferAllocator pool = new PooledByteBufferAllocator(false, 1024, 4096, 2, false);
+        final ByteBuffer buf1 = pool.allocate(1024);
+        final ByteBuffer buf2 = pool.allocate(1024);
+        final ByteBuffer buf3 = pool.allocate(1024);
+        pool.release(buf1);
+        pool.release(buf2);
+        pool.release(buf3);
+        Assert.assertEquals(2, pool.getAvailable());
+        pool.clear();
+        Assert.assertEquals(0, pool.getAvailable());
+    }
+
+    @Test
+    public void testForeignBuffersDiscarded() throws Exception {
+        final PooledByteBufferAllocator pool = new PooledByteBufferAllocator(false, 1024, 4096, 2, false);
+        pool.release(ByteBuffer.allocateDirect(1024));
+        pool.release(ByteBuffer.allocate(1000));
+        pool.release(ByteBuffer.allocate(512));
+        pool.release(ByteBuffer.allocate(8192));
+        pool.release(pool.allocate(10000));
+        Assert.assertEquals(0, pool.getAvailable());
+    }
+
+    @Test
+    public void testDuplicateReleaseDetected() throws Exception {
+        final PooledByteBufferAllocator pool = new PooledByteBufferAllocator(false, 1024, 4096, 2, true);
+        final ByteBuffer buf = pool.allocate(1024);
+        pool.release(buf);
+        pool.release(buf);
+        Assert.assertEquals(1, pool.getAvailable());
+        Assert.assertEquals(0, pool.getLeased());
+    }
+
+    @Test
+    public void testDuplicateReleaseIgnoredWithoutLeakDetection() throws Exception {
+        final PooledByteBufferAllocator pool = new PooledByteBufferAllocator(false, 1024, 4096, 2, false);
+        final ByteBuffer buf = pool.allocate(1024);
+        final ByteBuffer other = pool.allocate(1024);
+        pool.release(buf);
+        pool.release(buf);
+        Assert.assertEquals(1, pool.getAvailable());
+        Assert.assertEquals(1, pool.getLeased());
+        Assert.assertSame(buf, pool.allocate(1024));
+        Assert.assertNotSame(buf, pool.allocate(1024));
+        pool.release(other);
+        Assert.assertEquals(2, pool.getLeased());
+    }
+
+    @Test
+    public void testForeignBufferIgnoredWithoutLeakDetection() throws Exception {
+        final PooledByteBufferAllocator pool = new PooledByteBufferAllocator(false, 1024, 4096, 2, false);
+        final ByteBuffer buf = pool.allocate(1024);
+        pool.release(ByteBuffer.allocate(1024));
+        Assert.assertEquals(0, pool.getAvailable());
+        Assert.assertEquals(1, pool.getLeased());
+        pool.release(buf);
+        Assert.assertEquals(1, pool.getAvailable());
+        Assert.assertEquals(0, pool.getLeased());
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        final PooledByteBufferAllocator pool = new PooledByteBufferAllocator(false, 1024, 4096, 2, true);
+        pool.release(pool.allocate(1024));
+        pool.allocate(2048);
+        for (int i = 0; i < 10 && pool.getLeaked() == 0; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(1, pool.getLeaked());
+        Assert.assertEquals(0, pool.getLeased());
+        Assert.assertEquals(1, pool.getAvailable());
+    }
+
+}